@@ -0,0 +1,48 @@
+package com.chatroom.bench;
+
+import com.chatroom.server.AbstractSession;
+import com.chatroom.server.OutboundQueue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 基准测试用的会话：不持有网络连接
+ * <p>
+ * sendFrame 与 ServerThread 一样把帧的 duplicate() 放入出站队列，随即由调用者线程取出丢弃，
+ * 代替写线程的工作，使测得的开销包含入队但不包含网络写出，队列也不会因为没有写线程而溢出。
+ * </p>
+ */
+class BenchSession extends AbstractSession {
+    private final String address;
+    private volatile boolean closed;
+
+    BenchSession(String address) {
+        super(new OutboundQueue(16, OutboundQueue.OverflowPolicy.DROP_OLDEST));
+        this.address = address;
+    }
+
+    @Override
+    public void sendFrame(ByteBuffer frame) throws IOException {
+        if (closed) {
+            throw new IOException("连接已关闭: " + address);
+        }
+        outbound.offer(frame.duplicate());
+        outbound.poll();
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return address;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,34 @@
+package com.chatroom.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 基准测试入口
+ * <p>
+ * 参数原样交给 JMH (org.openjdk.jmh.Main)，未指定 -rf 时默认以 JSON 格式把结果写入 jmh-result.json，
+ * 便于在版本之间比较、发现性能回退。
+ * </p>
+ * <p>
+ * 用法：java -jar benchmarks/target/benchmarks.jar [JMH 参数] [基准测试名正则]
+ * 例如：java -jar benchmarks/target/benchmarks.jar Broadcast -p recipients=10000 -rff broadcast.json
+ * </p>
+ */
+public class BenchmarkMain {
+    /** 默认的结果文件 */
+    private static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+        if (!jmhArgs.contains("-rf")) {
+            jmhArgs.add("-rf");
+            jmhArgs.add("json");
+        }
+        if (!jmhArgs.contains("-rff")) {
+            jmhArgs.add("-rff");
+            jmhArgs.add(DEFAULT_RESULT_FILE);
+        }
+        org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,140 @@
+package com.chatroom.bench;
+
+import com.chatroom.common.Message;
+import com.chatroom.server.MessageHandler;
+import com.chatroom.server.store.ChatLogRecord;
+import com.chatroom.server.store.ChatLogStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * 群聊转发基准：MessageHandler.handle 处理一条 CHAT 消息的完整开销
+ * <p>
+ * 包括编码一次、遍历在线列表向每个接收者的出站队列放入同一个帧、广播统计、
+ * 放入最近记录缓存以及交给聊天记录存储 (此处为只回填 ID 的空实现)。
+ * 私聊基准作为对照，其开销应与在线人数无关。
+ * </p>
+ * <p>
+ * 转发时的控制台输出会被丢弃，否则测得的主要是 System.out 的开销。
+ * 限额调到远高于基准吞吐量，测得的开销包含限流检查，但消息不会被拒绝。
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {
+        "-Dchatroom.limit.messages=1000000000", "-Dchatroom.limit.messagesBurst=1000000000",
+        "-Dchatroom.limit.bytes=1000000000", "-Dchatroom.limit.bytesBurst=1000000000",
+        "-Dchatroom.limit.ip.messages=1000000000", "-Dchatroom.limit.ip.messagesBurst=1000000000",
+        "-Dchatroom.limit.ip.bytes=1000000000", "-Dchatroom.limit.ip.bytesBurst=1000000000"})
+public class BroadcastBenchmark {
+
+    @Param({"10", "100", "10000"})
+    public int recipients;
+
+    private MessageHandler handler;
+    private BenchSession sender;
+    private Message broadcast;
+    private Message direct;
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        handler = new MessageHandler(new DiscardStore());
+        sender = new BenchSession("sender");
+        handler.getOnlineUsers().register("sender", sender);
+        for (int i = 0; i < recipients; i++) {
+            handler.getOnlineUsers().register("user" + i, new BenchSession("user" + i));
+        }
+        broadcast = new Message(Message.CHAT, "sender", "大家好，这是一条用于基准测试的群聊消息", null);
+        direct = new Message(Message.CHAT, "sender", "你好，这是一条用于基准测试的私聊消息", "user0");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public void broadcast() throws Exception {
+        handler.handle(sender, broadcast);
+    }
+
+    @Benchmark
+    public void privateChat() throws Exception {
+        handler.handle(sender, direct);
+    }
+
+    /**
+     * 不做持久化的聊天记录存储，立即回填递增的 ID
+     */
+    static class DiscardStore implements ChatLogStore {
+        private long nextId;
+
+        @Override
+        public synchronized void save(Message msg, LongConsumer onSaved) {
+            nextId++;
+            if (onSaved != null) {
+                onSaved.accept(nextId);
+            }
+        }
+
+        @Override
+        public List<ChatLogRecord> loadBefore(String receiver, long beforeId, int limit) {
+            return List.of();
+        }
+
+        @Override
+        public List<ChatLogRecord> loadPrivateBefore(String user, String peer, long beforeId, int limit) {
+            return List.of();
+        }
+
+        @Override
+        public List<ChatLogRecord> loadAfter(Collection<String> receivers, long afterId, long beforeId, int limit) {
+            return List.of();
+        }
+
+        @Override
+        public List<ChatLogRecord> loadByIds(long[] ids) {
+            return List.of();
+        }
+
+        @Override
+        public void scan(long afterId, long toId, Consumer<ChatLogRecord> consumer) {
+        }
+
+        @Override
+        public long getLastId() {
+            return 0;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.chatroom.bench;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message 编解码基准
+ * <p>
+ * 分别测量 MessageCodec.encode、从 ByteBuffer 解码 (NIO 模式的读路径)
+ * 以及从 InputStream 解码 (阻塞模式的读路径)。
+ * 消息内容分为纯 ASCII 与中文两种，长度以字符计。
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"16", "256", "4096"})
+    public int contentLength;
+
+    @Param({"ascii", "cjk"})
+    public String charset;
+
+    private Message message;
+    private ByteBuffer frame;
+    private byte[] frameBytes;
+
+    @Setup
+    public void setup() {
+        char base = "cjk".equals(charset) ? '一' : 'a';
+        StringBuilder content = new StringBuilder(contentLength);
+        for (int i = 0; i < contentLength; i++) {
+            content.append((char) (base + i % 26));
+        }
+        message = new Message(Message.CHAT, "sender-0001", content.toString(), null);
+        frameBytes = MessageCodec.encode(message);
+        frame = ByteBuffer.wrap(frameBytes).asReadOnlyBuffer();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return MessageCodec.encode(message);
+    }
+
+    @Benchmark
+    public Message decodeBuffer() throws IOException {
+        return MessageCodec.decode(frame.duplicate());
+    }
+
+    @Benchmark
+    public Message decodeStream() throws IOException {
+        return MessageCodec.read(new ByteArrayInputStream(frameBytes));
+    }
+}
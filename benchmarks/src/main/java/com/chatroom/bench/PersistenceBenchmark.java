@@ -0,0 +1,90 @@
+package com.chatroom.bench;
+
+import com.chatroom.bench.stub.StubDriver;
+import com.chatroom.common.Message;
+import com.chatroom.server.ServerConfig;
+import com.chatroom.server.store.JdbcChatLogStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 聊天记录持久化基准：JdbcChatLogStore 从 save 到回填 ID 的端到端吞吐量
+ * <p>
+ * 每次调用保存 {@link #MESSAGES} 条消息并等待全部回调完成，经过写入队列、批量 INSERT、
+ * 连接池借还与 getGeneratedKeys，结果单位为条/秒。
+ * 数据库由 {@link StubDriver} 代替，latencyMicros 模拟每条语句的数据库往返时间，
+ * 用于比较不同批次大小下的吞吐量。
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {
+        "-Dchatroom.jdbc.driver=com.chatroom.bench.stub.StubDriver",
+        "-Dchatroom.jdbc.url=jdbc:stub:chatroom"})
+public class PersistenceBenchmark {
+    /** 每次调用保存的消息数 */
+    private static final int MESSAGES = 1000;
+
+    @Param({"1", "200"})
+    public int batchSize;
+
+    @Param({"0", "500"})
+    public long latencyMicros;
+
+    private JdbcChatLogStore store;
+    private Path spillFile;
+    private Message message;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        StubDriver.setLatencyMicros(latencyMicros);
+        spillFile = Files.createTempFile("chatlog-spill", ".log");
+        Files.delete(spillFile);
+        store = new JdbcChatLogStore(ServerConfig.CHATLOG_QUEUE_CAPACITY, batchSize,
+                ServerConfig.CHATLOG_FLUSH_INTERVAL, ServerConfig.CHATLOG_MAX_RETRIES,
+                ServerConfig.CHATLOG_RETRY_BACKOFF, spillFile);
+        message = new Message(Message.CHAT, "sender", "这是一条用于基准测试的聊天记录", null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.shutdown();
+        if (Files.exists(spillFile)) {
+            throw new IllegalStateException("基准测试期间有记录写入了溢出文件，结果无效: " + spillFile);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void saveAndAwaitId() throws Exception {
+        CountDownLatch saved = new CountDownLatch(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            store.save(message, id -> saved.countDown());
+        }
+        if (!saved.await(30, TimeUnit.SECONDS)) {
+            throw new TimeoutException("聊天记录在 30 秒内未全部写入");
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.chatroom.bench;
+
+import com.chatroom.server.ClientSession;
+import com.chatroom.server.SessionRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在线用户表 (SessionRegistry) 并发查找基准
+ * <p>
+ * lookup：8 个线程同时按昵称查找 (私聊、重复登录检查的路径)。
+ * churn 组：7 个线程查找的同时，1 个线程不断上线、下线，模拟登录风暴下的读写竞争。
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+
+    @Param({"10000"})
+    public int online;
+
+    /** 上线、下线所用的会话数量 */
+    private static final int CHURN_SESSIONS = 1024;
+
+    private SessionRegistry registry;
+    private String[] nicknames;
+    private String[] churnNames;
+    private BenchSession[] churnSessions;
+
+    @Setup
+    public void setup() {
+        registry = new SessionRegistry();
+        nicknames = new String[online];
+        for (int i = 0; i < online; i++) {
+            nicknames[i] = "user" + i;
+            registry.register(nicknames[i], new BenchSession(nicknames[i]));
+        }
+        churnNames = new String[CHURN_SESSIONS];
+        churnSessions = new BenchSession[CHURN_SESSIONS];
+        for (int i = 0; i < CHURN_SESSIONS; i++) {
+            churnNames[i] = "churn" + i;
+            churnSessions[i] = new BenchSession(churnNames[i]);
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    public ClientSession lookup() {
+        return registry.get(nicknames[ThreadLocalRandom.current().nextInt(nicknames.length)]);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(7)
+    public ClientSession churnLookup() {
+        return registry.get(nicknames[ThreadLocalRandom.current().nextInt(nicknames.length)]);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public boolean churnLoginLogout() {
+        int i = ThreadLocalRandom.current().nextInt(CHURN_SESSIONS);
+        BenchSession session = churnSessions[i];
+        registry.register(churnNames[i], session);
+        return registry.unregister(session);
+    }
+}
@@ -0,0 +1,215 @@
+package com.chatroom.bench.stub;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * 基准测试用的 JDBC 驱动桩，接受 jdbc:stub: 开头的 URL
+ * <p>
+ * 不连接任何数据库：INSERT 语句只计数并分配递增的自增主键 (可通过 getGeneratedKeys 取回)，
+ * 查询返回空结果集。每次执行语句可以附加一段固定的延迟，模拟数据库往返时间，
+ * 从而单独衡量连接池、批量写入与回调这些 Java 侧的开销。
+ * </p>
+ * <p>
+ * Connection、PreparedStatement 与 ResultSet 都由动态代理实现，与 ConnectionPool 的做法一致，
+ * 未涉及的方法返回 null / 0 / false。
+ * </p>
+ */
+public class StubDriver implements Driver {
+    /** 驱动接受的 URL 前缀 */
+    public static final String URL_PREFIX = "jdbc:stub:";
+
+    /** 自增主键 */
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+    /** 已执行的语句数 (一次 executeBatch 计为一次) */
+    private static final AtomicLong STATEMENTS = new AtomicLong();
+    /** 已插入的行数 */
+    private static final AtomicLong ROWS = new AtomicLong();
+    /** 每次执行语句附加的延迟 (微秒) */
+    private static volatile long latencyMicros;
+
+    static {
+        try {
+            DriverManager.registerDriver(new StubDriver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * @param micros 每次执行语句附加的延迟 (微秒)，0 表示不延迟
+     */
+    public static void setLatencyMicros(long micros) {
+        latencyMicros = micros;
+    }
+
+    /**
+     * @return 已执行的语句数
+     */
+    public static long getStatements() {
+        return STATEMENTS.get();
+    }
+
+    /**
+     * @return 已插入的行数
+     */
+    public static long getRows() {
+        return ROWS.get();
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        boolean[] state = {false, true}; // closed, autoCommit
+        return (Connection) Proxy.newProxyInstance(StubDriver.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "prepareStatement":
+                            return statement();
+                        case "close":
+                            state[0] = true;
+                            return null;
+                        case "isClosed":
+                            return state[0];
+                        case "isValid":
+                            return !state[0];
+                        case "getAutoCommit":
+                            return state[1];
+                        case "setAutoCommit":
+                            state[1] = (Boolean) args[0];
+                            return null;
+                        default:
+                            return defaultValue(proxy, method.getName(), method.getReturnType(), args);
+                    }
+                });
+    }
+
+    private static PreparedStatement statement() {
+        int[] batched = {0};
+        long[] keys = {0, 0}; // 本次执行分配的第一个主键、行数
+        return (PreparedStatement) Proxy.newProxyInstance(StubDriver.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "addBatch":
+                            batched[0]++;
+                            return null;
+                        case "clearBatch":
+                            batched[0] = 0;
+                            return null;
+                        case "executeBatch": {
+                            int n = batched[0];
+                            batched[0] = 0;
+                            execute(n, keys);
+                            int[] counts = new int[n];
+                            Arrays.fill(counts, 1);
+                            return counts;
+                        }
+                        case "executeUpdate":
+                            execute(1, keys);
+                            return 1;
+                        case "executeQuery":
+                            execute(0, keys);
+                            return resultSet(0, 0);
+                        case "getGeneratedKeys":
+                            return resultSet(keys[0], keys[1]);
+                        default:
+                            return defaultValue(proxy, method.getName(), method.getReturnType(), args);
+                    }
+                });
+    }
+
+    private static void execute(int rows, long[] keys) {
+        STATEMENTS.incrementAndGet();
+        long micros = latencyMicros;
+        if (micros > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+        keys[0] = rows == 0 ? 0 : NEXT_ID.getAndAdd(rows);
+        keys[1] = rows;
+        ROWS.addAndGet(rows);
+    }
+
+    /**
+     * 单列 long 的结果集，依次返回 first, first+1, ...，共 count 行
+     */
+    private static ResultSet resultSet(long first, long count) {
+        long[] row = {-1};
+        return (ResultSet) Proxy.newProxyInstance(StubDriver.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "next":
+                            return ++row[0] < count;
+                        case "getLong":
+                            return first + row[0];
+                        default:
+                            return defaultValue(proxy, method.getName(), method.getReturnType(), args);
+                    }
+                });
+    }
+
+    private static Object defaultValue(Object proxy, String name, Class<?> type, Object[] args) {
+        switch (name) {
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "StubDriver@" + Integer.toHexString(System.identityHashCode(proxy));
+            default:
+                break;
+        }
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+}
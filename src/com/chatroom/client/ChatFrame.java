@@ -1,13 +1,24 @@
 package com.chatroom.client;
 
 import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
 import javax.swing.*;
+import javax.swing.border.TitledBorder;
+import javax.swing.text.BadLocationException;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 聊天室主界面类
@@ -15,8 +26,21 @@ import java.net.Socket;
  * 提供聊天消息的展示和发送功能。
  * 包含一个后台线程 (ClientThread) 用于实时接收服务器转发的消息。
  * </p>
+ * <p>
+ * 收到的消息不直接操作界面，而是先放入待显示队列，由事件分发线程 (EDT) 上的定时器
+ * 每隔 {@link #FRAME_INTERVAL_MS} 毫秒取出全部待显示消息，合并为一次追加与一次滚动。
+ * 无论每秒收到多少条消息，界面每秒最多刷新约 30 次，网络线程也不会因为等待界面而阻塞。
+ * 聊天区最多保留 {@link #MAX_LINES} 行 (可通过 -Dchatroom.client.scrollback 修改)，
+ * 超出时删除最旧的行；一帧之内积压超过该行数时，更早的消息直接丢弃并显示省略提示。
+ * 右侧的在线用户列表同样只在有变化的帧上重新填充一次。
+ * </p>
  */
 public class ChatFrame extends JFrame {
+    /** 界面刷新间隔 (毫秒)，约 30 帧/秒 */
+    private static final int FRAME_INTERVAL_MS = 33;
+    /** 聊天区保留的最大行数 */
+    private static final int MAX_LINES = Integer.getInteger("chatroom.client.scrollback", 5000);
+
     /** 消息显示区域 (只读) */
     private JTextArea chatArea;
     /** 消息输入框 */
@@ -26,21 +50,53 @@ public class ChatFrame extends JFrame {
     private Socket socket;
     /** 当前用户昵称 */
     private String myNickname;
-    /** 对象输出流，用于发送消息 */
-    private ObjectOutputStream oos;
+    /** 输出流，用于发送消息帧；断线重连后替换为新连接的输出流 */
+    private volatile OutputStream out;
+    /** 写入输出流的互斥锁 (输出流会被替换，不能以它本身加锁) */
+    private final Object sendLock = new Object();
+
+    /** 加载更早消息的按钮 */
+    private JButton historyBtn;
+    /** 历史记录翻页游标，由服务器在 HISTORY_END 中下发，0 表示没有更早的记录 */
+    private volatile long historyCursor;
+    /** 正在接收的一页历史记录，收到 HISTORY_END 后一次性插入到聊天区顶部，仅由接收线程访问 */
+    private final StringBuilder historyPage = new StringBuilder();
+
+    /** 最近一次搜索的查询文本 */
+    private volatile String searchQuery;
+    /** 搜索翻页游标，由服务器在 SEARCH_END 中下发，0 表示没有更多结果 */
+    private volatile long searchCursor;
+
+    /** 在线用户列表 */
+    private final DefaultListModel<String> onlineModel = new DefaultListModel<>();
+    private JScrollPane onlinePane;
+    private TitledBorder onlineBorder;
+    /** 在线用户，由接收线程更新，修改时以自身加锁 */
+    private final Set<String> onlineUsers = new TreeSet<>();
+    /** 在线用户有变化、尚未显示 */
+    private volatile boolean onlineDirty;
+
+    /** 待显示的消息，任意线程放入，只由 EDT 取出 */
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    /** 待显示消息的数量 (ConcurrentLinkedQueue.size() 需要遍历) */
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    /** 因积压过多而未显示的消息数 */
+    private final AtomicInteger skipped = new AtomicInteger();
 
     /**
      * 构造方法：初始化聊天界面
      *
      * @param nickname 当前登录用户的昵称
      * @param socket   已建立的连接
-     * @param oos      已初始化的输出流
-     * @param ois      已初始化的输入流
+     * @param out      已初始化的输出流
+     * @param in       已初始化的输入流
+     * @param login    登录请求的内容 (账号|密码)，恢复令牌过期时用于自动重新登录
+     * @param welcome  服务器的 LOGIN_SUCCESS 响应，带有恢复令牌与当前最新序号
      */
-    public ChatFrame(String nickname, Socket socket, ObjectOutputStream oos, ObjectInputStream ois) {
+    public ChatFrame(String nickname, Socket socket, OutputStream out, InputStream in, String login, Message welcome) {
         this.myNickname = nickname;
         this.socket = socket;
-        this.oos = oos;
+        this.out = out;
 
         // --- 窗口基本设置 ---
         setTitle("聊天室 - 当前用户：" + nickname);
@@ -49,6 +105,11 @@ public class ChatFrame extends JFrame {
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLayout(new BorderLayout());
 
+        // --- 顶部：加载更早的消息 ---
+        historyBtn = new JButton("加载更早的消息");
+        historyBtn.setEnabled(false);
+        add(historyBtn, BorderLayout.NORTH);
+
         // --- 中部：聊天记录显示区 ---
         chatArea = new JTextArea();
         chatArea.setEditable(false); // 禁止直接编辑聊天记录
@@ -56,6 +117,14 @@ public class ChatFrame extends JFrame {
         // 添加滚动条
         add(new JScrollPane(chatArea), BorderLayout.CENTER);
 
+        // --- 右侧：在线用户列表 ---
+        JList<String> onlineList = new JList<>(onlineModel);
+        onlinePane = new JScrollPane(onlineList);
+        onlinePane.setPreferredSize(new Dimension(140, 0));
+        onlineBorder = BorderFactory.createTitledBorder("在线");
+        onlinePane.setBorder(onlineBorder);
+        add(onlinePane, BorderLayout.EAST);
+
         // --- 底部：消息发送区 ---
         JPanel bottomPanel = new JPanel(new BorderLayout());
         inputField = new JTextField();
@@ -71,10 +140,17 @@ public class ChatFrame extends JFrame {
         sendBtn.addActionListener(e -> sendMessage());
         // 输入框回车事件
         inputField.addActionListener(e -> sendMessage());
+        // 请求上一页历史记录
+        historyBtn.addActionListener(e -> requestHistory());
+
+        // --- 定时在 EDT 上合并显示待显示的消息 ---
+        Timer renderTimer = new Timer(FRAME_INTERVAL_MS, e -> flushPending());
+        renderTimer.setCoalesce(true);
+        renderTimer.start();
 
         // --- 启动消息接收线程 ---
         // 传入当前界面引用，以便线程更新 UI
-        new ClientThread(socket, this, ois).start();
+        new ClientThread(socket, this, in, nickname, login, welcome).start();
 
         // 显示窗口
         setVisible(true);
@@ -83,6 +159,8 @@ public class ChatFrame extends JFrame {
     /**
      * 发送消息逻辑
      * 获取输入框内容，封装成 Message 对象并发送至服务器。
+     * 以 "@昵称 内容" 开头时作为私聊发送给该用户，以 "#房间 内容" 开头时发送到房间，
+     * "/join #房间" 与 "/leave #房间" 用于加入与退出房间，"/search 查询" 搜索聊天记录 (不带查询时继续上一次搜索的下一页)。
      */
     private void sendMessage() {
         String content = inputField.getText().trim();
@@ -95,12 +173,38 @@ public class ChatFrame extends JFrame {
             msg.setSender(myNickname);
             msg.setContent(content);
 
+            // 以 "@昵称 内容" 开头的消息为私聊，"#房间 内容" 为房间消息，"/join #房间"、"/leave #房间" 加入或退出房间
+            int space = content.indexOf(' ');
+            if (content.startsWith("@") && space > 1) {
+                msg.setReceiver(content.substring(1, space));
+                msg.setContent(content.substring(space + 1).trim());
+            } else if (content.startsWith("#") && space > 1) {
+                msg.setType(Message.ROOM_CHAT);
+                msg.setReceiver(content.substring(0, space));
+                msg.setContent(content.substring(space + 1).trim());
+            } else if ("/search".equals(content) || content.startsWith("/search ")) {
+                search(content.substring("/search".length()).trim());
+                inputField.setText("");
+                return;
+            } else if (content.startsWith("/join ") || content.startsWith("/leave ")) {
+                msg.setType(content.startsWith("/join ") ? Message.ROOM_JOIN : Message.ROOM_LEAVE);
+                msg.setReceiver(content.substring(space + 1).trim());
+                msg.setContent(null);
+            }
+
             // 发送给服务器
-            oos.writeObject(msg);
-            oos.flush();
+            send(msg);
 
             // 将自己发送的消息立即显示在本地界面
-            appendMessage("我: " + content + "\n");
+            if (Message.ROOM_JOIN.equals(msg.getType()) || Message.ROOM_LEAVE.equals(msg.getType())) {
+                // 等待服务器确认后再显示
+            } else if (Message.ROOM_CHAT.equals(msg.getType())) {
+                appendMessage("[" + msg.getReceiver() + "] 我: " + msg.getContent() + "\n");
+            } else if (msg.getReceiver() != null) {
+                appendMessage("我 -> " + msg.getReceiver() + " (私聊): " + msg.getContent() + "\n");
+            } else {
+                appendMessage("我: " + content + "\n");
+            }
 
             // 清空输入框
             inputField.setText("");
@@ -110,15 +214,192 @@ public class ChatFrame extends JFrame {
         }
     }
 
+    /**
+     * 向服务器发送一条消息
+     * 界面线程与接收线程 (回复心跳、确认序号) 都会发送，写入输出流时需要互斥。
+     *
+     * @param msg 消息
+     * @throws IOException 网络异常
+     */
+    public void send(Message msg) throws IOException {
+        synchronized (sendLock) {
+            MessageCodec.write(out, msg);
+        }
+    }
+
+    /**
+     * 断线重连成功后改用新连接发送 (由接收线程调用)
+     *
+     * @param socket 新连接
+     * @param out    新连接的输出流
+     */
+    public void reconnected(Socket socket, OutputStream out) {
+        synchronized (sendLock) {
+            this.socket = socket;
+            this.out = out;
+        }
+    }
+
+    /**
+     * 向服务器请求游标之前的一页历史记录
+     */
+    private void requestHistory() {
+        historyBtn.setEnabled(false);
+        try {
+            send(new Message(Message.HISTORY, myNickname, String.valueOf(historyCursor), null));
+        } catch (Exception e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "历史记录请求失败，请检查网络连接！");
+        }
+    }
+
+    /**
+     * 发送搜索请求
+     *
+     * @param query 查询文本，为空时继续上一次搜索的下一页
+     * @throws IOException 网络异常
+     */
+    private void search(String query) throws IOException {
+        String cursor = null;
+        if (query.isEmpty()) {
+            if (searchQuery == null || searchCursor == 0) {
+                appendMessage("[搜索] 用法：/search 关键字 [from:昵称] [in:#房间|昵称|ALL] [after:2024-05-01] [before:2024-06-01]\n");
+                return;
+            }
+            query = searchQuery;
+            cursor = String.valueOf(searchCursor);
+        } else {
+            searchQuery = query;
+            appendMessage("[搜索] " + query + "\n");
+        }
+        send(new Message(Message.SEARCH, myNickname, query, cursor));
+    }
+
+    /**
+     * 一页搜索结果接收完毕 (由接收线程调用)
+     *
+     * @param cursor 下一页的游标，0 表示没有更多结果
+     */
+    public void endSearch(long cursor) {
+        searchCursor = cursor;
+        appendMessage(cursor != 0 ? "[搜索] 输入 /search 查看更早的结果\n" : "[搜索] 没有更多结果\n");
+    }
+
+    /**
+     * 收到一条历史记录，暂存到当前页
+     *
+     * @param text 需要显示的文本内容
+     */
+    public void appendHistory(String text) {
+        historyPage.append(text);
+    }
+
+    /**
+     * 一页历史记录接收完毕：在 EDT 上插入到聊天区顶部并更新游标
+     *
+     * @param cursor 下一页的游标
+     */
+    public void endHistoryPage(long cursor) {
+        String page = historyPage.toString();
+        historyPage.setLength(0);
+        SwingUtilities.invokeLater(() -> {
+            // 翻页是用户主动请求的，插入的历史记录不受行数上限约束，之后有新消息时才会从顶部裁剪
+            if (!page.isEmpty()) {
+                chatArea.insert(page, 0);
+            }
+            historyCursor = cursor;
+            historyBtn.setEnabled(cursor != 0);
+        });
+    }
+
+    /**
+     * 以快照替换在线用户列表 (由接收线程调用)
+     *
+     * @param names 在线用户的昵称
+     */
+    public void setOnlineUsers(Collection<String> names) {
+        synchronized (onlineUsers) {
+            onlineUsers.clear();
+            onlineUsers.addAll(names);
+        }
+        onlineDirty = true;
+    }
+
+    /**
+     * 应用在线用户列表的增量 (由接收线程调用)
+     *
+     * @param joined 上线的昵称
+     * @param left   下线的昵称
+     */
+    public void updateOnlineUsers(Collection<String> joined, Collection<String> left) {
+        synchronized (onlineUsers) {
+            onlineUsers.addAll(joined);
+            onlineUsers.removeAll(left);
+        }
+        onlineDirty = true;
+    }
+
     /**
      * 向聊天区域追加消息
-     * 该方法通常由 ClientThread 线程调用以更新 UI。
+     * 可以在任意线程调用：消息只放入待显示队列，在下一帧统一显示。
      *
      * @param text 需要显示的文本内容
      */
     public void appendMessage(String text) {
-        chatArea.append(text);
+        pending.add(text);
+        // 积压超过可显示的行数时，最旧的消息反正会被裁掉，提前丢弃以限制内存
+        if (pendingCount.incrementAndGet() > MAX_LINES && pending.poll() != null) {
+            pendingCount.decrementAndGet();
+            skipped.incrementAndGet();
+        }
+    }
+
+    /**
+     * 取出全部待显示的消息，合并为一次追加 (在 EDT 上由定时器调用)
+     */
+    private void flushPending() {
+        if (onlineDirty) {
+            onlineDirty = false;
+            String[] names;
+            synchronized (onlineUsers) {
+                names = onlineUsers.toArray(new String[0]);
+            }
+            onlineModel.clear();
+            onlineModel.addAll(Arrays.asList(names));
+            onlineBorder.setTitle("在线 (" + names.length + ")");
+            onlinePane.repaint();
+        }
+        if (pendingCount.get() == 0) {
+            return;
+        }
+        StringBuilder batch = new StringBuilder();
+        int omitted = skipped.getAndSet(0);
+        if (omitted > 0) {
+            batch.append("…… 消息过多，已省略 ").append(omitted).append(" 条 ……\n");
+        }
+        String text;
+        while ((text = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            batch.append(text);
+        }
+        chatArea.append(batch.toString());
+        trimScrollback();
         // 自动滚动至文本末尾，保证最新消息可见
         chatArea.setCaretPosition(chatArea.getDocument().getLength());
     }
+
+    /**
+     * 聊天区超过最大行数时删除最旧的行
+     */
+    private void trimScrollback() {
+        int excess = chatArea.getLineCount() - MAX_LINES;
+        if (excess <= 0) {
+            return;
+        }
+        try {
+            chatArea.replaceRange(null, 0, chatArea.getLineEndOffset(excess - 1));
+        } catch (BadLocationException e) {
+            // 行号来自当前文档，不会越界
+        }
+    }
 }
\ No newline at end of file
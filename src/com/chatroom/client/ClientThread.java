@@ -1,9 +1,20 @@
 package com.chatroom.client;
 
 import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
 import javax.swing.*;
-import java.io.ObjectInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * 客户端消息接收线程
@@ -11,48 +22,316 @@ import java.net.Socket;
  * 负责在后台持续监听服务器转发过来的消息，并将其更新到聊天界面上。
  * 解决了 Swing 界面在进行网络 IO 时可能出现的卡顿问题。
  * </p>
+ * <p>
+ * 服务器为每条聊天消息分配递增的序号。接收线程记录收到的最大序号，读空输入缓冲区时以 ACK 确认；
+ * 连接断开后按指数退避 (带随机抖动，避免大量客户端在网络恢复的同一时刻重连) 重新连接，
+ * 以 RESUME 带上恢复令牌与最大序号，服务器只补发错过的消息。令牌已过期 (例如服务器重启) 时
+ * 自动重新登录。补发与实时转发可能重复，按序号去重。
+ * </p>
+ * <p>
+ * 在线用户列表登录时收到一次快照，之后按版本号应用增量；发现增量不连续 (出站队列溢出丢帧、断线恢复) 时
+ * 发送 PRESENCE_SYNC 请求服务器补发。
+ * </p>
  */
 public class ClientThread extends Thread {
+    /** 重连的初始等待时间 (毫秒)，之后每次翻倍 */
+    private static final long RECONNECT_BACKOFF_MS = 500;
+    /** 重连的最长等待时间 (毫秒) */
+    private static final long RECONNECT_MAX_BACKOFF_MS = 30_000;
+    /** 两次 ACK 之间的最短间隔 (毫秒) */
+    private static final long ACK_INTERVAL_MS = 500;
+    /** 去重时记住的最近序号个数 (2 的幂) */
+    private static final int SEEN_SIZE = 4096;
+
     private Socket socket;
     private ChatFrame chatFrame;
-    private ObjectInputStream ois;
+    private InputStream in;
+
+    /** 服务器地址，重连时使用 */
+    private final SocketAddress server;
+    private final String nickname;
+    /** 登录请求的内容 (账号|密码) */
+    private final String login;
+    /** 恢复令牌 */
+    private String token;
+
+    /** 收到的最大序号 */
+    private long lastSeq;
+    /** 最近一次确认的序号 */
+    private long lastAcked;
+    private long lastAckAt;
+    /** 最近收到的序号，按序号取模存放 */
+    private final long[] seen = new long[SEEN_SIZE];
+
+    /** 在线列表的已知版本，0 表示还没有收齐快照 */
+    private long presenceVersion;
+    /** 正在接收的快照版本与已收到的昵称 */
+    private long snapshotVersion;
+    private final List<String> snapshotNames = new ArrayList<>();
+    /** 已请求重新同步、尚未收到回复 */
+    private boolean syncRequested;
 
     /**
      * 构造方法
      *
      * @param socket    通信套接字
      * @param chatFrame 聊天界面引用，用于回调显示消息
-     * @param ois       对象输入流，复用 LoginFrame 中创建的流
+     * @param in        输入流，复用 LoginFrame 中创建的流
+     * @param nickname  当前登录用户的昵称
+     * @param login     登录请求的内容 (账号|密码)
+     * @param welcome   服务器的 LOGIN_SUCCESS 响应
      */
-    public ClientThread(Socket socket, ChatFrame chatFrame, ObjectInputStream ois) {
+    public ClientThread(Socket socket, ChatFrame chatFrame, InputStream in, String nickname, String login,
+                        Message welcome) {
         this.socket = socket;
         this.chatFrame = chatFrame;
-        this.ois = ois;
+        this.in = in;
+        this.server = new InetSocketAddress(socket.getInetAddress(), socket.getPort());
+        this.nickname = nickname;
+        this.login = login;
+        this.token = welcome.getReceiver();
+        this.lastSeq = welcome.getSeq();
+        this.lastAcked = lastSeq;
     }
 
     /**
      * 线程执行体
-     * 循环读取服务器发送的 Message 对象。
+     * 循环读取服务器发送的消息帧，连接断开后重连并继续。
      */
     @Override
     public void run() {
-        try {
-            while (true) {
-                // 阻塞读取服务器转发的消息
-                Message msg = (Message) ois.readObject();
+        while (true) {
+            try {
+                receive();
+            } catch (Exception e) {
+                // 发生异常通常意味着服务器停止或网络断开
+                System.out.println("与服务器断开连接...");
+            }
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            if (!reconnect()) {
+                JOptionPane.showMessageDialog(chatFrame, "无法恢复登录状态，请重新登录！");
+                chatFrame.dispose();
+                return;
+            }
+        }
+    }
+
+    private void receive() throws Exception {
+        while (true) {
+            // 阻塞读取服务器转发的消息
+            Message msg = MessageCodec.read(in);
+            if (Message.PING.equals(msg.getType())) {
+                // 回复服务器的心跳探测，否则连接会被当作失联而断开
+                chatFrame.send(new Message(Message.PONG, null, null, null));
+                continue;
+            }
+            if (msg.getSeq() > 0 && isDuplicate(msg.getSeq())) {
+                continue;
+            }
+            if (Message.PRESENCE.equals(msg.getType())) {
+                onPresenceSnapshot(msg);
+                continue;
+            } else if (Message.PRESENCE_DELTA.equals(msg.getType())) {
+                onPresenceDelta(msg);
+                continue;
+            }
 
-                // 格式化消息内容
-                String text = msg.getSender() + ": " + msg.getContent() + "\n";
+            // 格式化消息内容，私聊消息带上标记
+            String text = msg.getSender() + ": " + msg.getContent() + "\n";
+            if (Message.CHAT.equals(msg.getType()) && msg.getReceiver() != null
+                    && !"ALL".equals(msg.getReceiver())) {
+                text = msg.getSender() + " (私聊): " + msg.getContent() + "\n";
+            } else if (Message.ROOM_CHAT.equals(msg.getType())) {
+                text = "[" + msg.getReceiver() + "] " + msg.getSender() + ": " + msg.getContent() + "\n";
+            } else if (Message.ROOM_JOIN.equals(msg.getType())) {
+                text = "已加入房间 " + msg.getReceiver() + " (" + msg.getContent() + " 人)\n";
+            } else if (Message.ROOM_LEAVE.equals(msg.getType())) {
+                text = "已退出房间 " + msg.getReceiver() + "\n";
+            } else if (Message.SEARCH_RESULT.equals(msg.getType())) {
+                String where = "ALL".equals(msg.getReceiver()) ? "群聊"
+                        : msg.getReceiver().startsWith("#") ? msg.getReceiver() : "私聊 -> " + msg.getReceiver();
+                text = "[搜索] (" + where + ") " + msg.getSender() + ": " + msg.getContent() + "\n";
+            } else if (Message.THROTTLED.equals(msg.getType())) {
+                // 服务器已丢弃发送过快的消息，content 为建议等待的毫秒数
+                text = "[系统] 发送过于频繁，消息未送出，请 " + msg.getContent() + " 毫秒后再试\n";
+            }
 
-                // 回调 ChatFrame 的方法更新 UI
+            // 回调 ChatFrame 的方法更新 UI
+            if (Message.HISTORY.equals(msg.getType())) {
+                chatFrame.appendHistory(text);
+            } else if (Message.HISTORY_END.equals(msg.getType())) {
+                // 目前界面只对群聊提供翻页，房间回放结束的标记忽略即可
+                if (msg.getReceiver() == null || "ALL".equals(msg.getReceiver())) {
+                    chatFrame.endHistoryPage(Long.parseLong(msg.getContent()));
+                }
+            } else if (Message.SEARCH_END.equals(msg.getType())) {
+                chatFrame.endSearch(Long.parseLong(msg.getContent()));
+            } else {
                 chatFrame.appendMessage(text);
             }
-        } catch (Exception e) {
-            // 发生异常通常意味着服务器停止或网络断开
-            System.out.println("与服务器断开连接...");
-            JOptionPane.showMessageDialog(chatFrame, "服务器已断开连接，请重新登录！");
-            // 退出程序
-            System.exit(0);
+            ack();
+        }
+    }
+
+    /**
+     * 收到一片快照，收齐最后一片后替换整个在线列表
+     */
+    private void onPresenceSnapshot(Message msg) {
+        String[] header = msg.getReceiver().split(" ");
+        long version = Long.parseLong(header[0]);
+        int part = Integer.parseInt(header[1]);
+        int parts = Integer.parseInt(header[2]);
+        if (part == 1 || version != snapshotVersion) {
+            snapshotVersion = version;
+            snapshotNames.clear();
+        }
+        for (String name : msg.getContent().split("\n")) {
+            if (!name.isEmpty()) {
+                snapshotNames.add(name);
+            }
+        }
+        if (part == parts) {
+            chatFrame.setOnlineUsers(snapshotNames);
+            snapshotNames.clear();
+            presenceVersion = version;
+            syncRequested = false;
+        }
+    }
+
+    /**
+     * 应用一个增量：起始版本不晚于已知版本时直接应用 (合并后的增量对中间版本同样成立)，
+     * 已经过时的增量忽略，出现缺口时请求重新同步
+     */
+    private void onPresenceDelta(Message msg) throws IOException {
+        String[] range = msg.getReceiver().split(" ");
+        long from = Long.parseLong(range[0]);
+        long to = Long.parseLong(range[1]);
+        if (presenceVersion == 0) {
+            // 快照还没收齐，收齐后再以版本缺口的方式补齐
+            return;
+        }
+        if (from > presenceVersion) {
+            if (!syncRequested) {
+                syncRequested = true;
+                chatFrame.send(new Message(Message.PRESENCE_SYNC, null, String.valueOf(presenceVersion), null));
+            }
+            return;
+        }
+        syncRequested = false;
+        if (to <= presenceVersion) {
+            // 快照或之前的增量中已包含该变化 (已是最新时服务器以起止版本相同的空增量回复同步请求)
+            return;
+        }
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        for (String change : msg.getContent().split("\n")) {
+            if (change.length() > 1) {
+                (change.charAt(0) == '+' ? joined : left).add(change.substring(1));
+            }
+        }
+        chatFrame.updateOnlineUsers(joined, left);
+        presenceVersion = to;
+    }
+
+    /**
+     * 记录序号
+     *
+     * @return 最近已经收到过该序号时返回 true
+     */
+    private boolean isDuplicate(long seq) {
+        int slot = (int) (seq & (SEEN_SIZE - 1));
+        if (seen[slot] == seq) {
+            return true;
+        }
+        seen[slot] = seq;
+        lastSeq = Math.max(lastSeq, seq);
+        return false;
+    }
+
+    /**
+     * 输入缓冲区已读空时确认收到的最大序号，消息密集时按间隔合并确认
+     */
+    private void ack() throws IOException {
+        if (lastSeq <= lastAcked || in.available() > 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastAckAt < ACK_INTERVAL_MS) {
+            return;
+        }
+        chatFrame.send(new Message(Message.ACK, null, String.valueOf(lastSeq), null));
+        lastAcked = lastSeq;
+        lastAckAt = now;
+    }
+
+    /**
+     * 重新连接并恢复登录状态，直到成功或账号无法登录
+     *
+     * @return 成功时返回 true
+     */
+    private boolean reconnect() {
+        chatFrame.appendMessage("[系统] 与服务器的连接已断开，正在重连...\n");
+        long backoff = RECONNECT_BACKOFF_MS;
+        while (true) {
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1));
+            } catch (InterruptedException e) {
+                return false;
+            }
+            backoff = Math.min(backoff * 2, RECONNECT_MAX_BACKOFF_MS);
+            Socket s = new Socket();
+            try {
+                s.connect(server, 5000);
+                OutputStream o = new BufferedOutputStream(s.getOutputStream());
+                InputStream i = new BufferedInputStream(s.getInputStream());
+                MessageCodec.write(o, new Message(Message.RESUME, nickname, String.valueOf(lastSeq), token));
+                Message response = MessageCodec.read(i);
+                if (Message.RESUME_FAIL.equals(response.getType())) {
+                    Message loginMsg = new Message();
+                    loginMsg.setType(Message.LOGIN);
+                    loginMsg.setContent(login);
+                    MessageCodec.write(o, loginMsg);
+                    response = MessageCodec.read(i);
+                    if (Message.LOGIN_FAIL.equals(response.getType())) {
+                        s.close();
+                        return false;
+                    }
+                }
+                boolean resumed = Message.RESUME_OK.equals(response.getType());
+                if (resumed) {
+                    chatFrame.appendMessage("[系统] 已重新连接\n");
+                } else if (Message.LOGIN_SUCCESS.equals(response.getType())) {
+                    // 重新登录后序号可能从头开始 (服务器已重启)，清空去重记录，房间需要重新加入
+                    token = response.getReceiver();
+                    lastSeq = response.getSeq();
+                    lastAcked = lastSeq;
+                    Arrays.fill(seen, 0);
+                    // 服务器会重新发送在线列表快照
+                    presenceVersion = 0;
+                    chatFrame.appendMessage("[系统] 已重新登录，如需继续接收房间消息请重新加入房间\n");
+                } else {
+                    // THROTTLED 等：稍后重试
+                    s.close();
+                    continue;
+                }
+                socket = s;
+                in = i;
+                chatFrame.reconnected(s, o);
+                if (resumed) {
+                    // 断线期间在线列表的变化：服务器按已知版本补发增量或快照
+                    syncRequested = true;
+                    chatFrame.send(new Message(Message.PRESENCE_SYNC, null, String.valueOf(presenceVersion), null));
+                }
+                return true;
+            } catch (IOException e) {
+                try {
+                    s.close();
+                } catch (IOException ignored) {
+                }
+            }
         }
     }
-}
\ No newline at end of file
+}
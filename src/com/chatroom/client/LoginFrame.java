@@ -1,10 +1,13 @@
 package com.chatroom.client;
 
 import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
 import javax.swing.*;
 import java.awt.*;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
 
 /**
@@ -84,20 +87,19 @@ public class LoginFrame extends JFrame {
             // 1. 建立与服务器的 Socket 连接 (本地地址，端口8888)
             Socket socket = new Socket("127.0.0.1", 8888);
 
-            // 2. 初始化对象传输流 (注意：必须先创建 Output 后创建 Input，防止死锁)
-            ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
-            ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+            // 2. 初始化消息帧传输流
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            InputStream in = new BufferedInputStream(socket.getInputStream());
 
             // 3. 封装并发送登录请求消息
             Message loginMsg = new Message();
             loginMsg.setType(Message.LOGIN);
             // 协议格式：账号|密码
             loginMsg.setContent(username + "|" + password);
-            oos.writeObject(loginMsg);
-            oos.flush();
+            MessageCodec.write(out, loginMsg);
 
             // 4. 阻塞等待服务器响应
-            Message response = (Message) ois.readObject();
+            Message response = MessageCodec.read(in);
 
             // 5. 处理响应结果
             if (Message.LOGIN_SUCCESS.equals(response.getType())) {
@@ -111,7 +113,11 @@ public class LoginFrame extends JFrame {
                 this.dispose();
 
                 // 打开主聊天窗口，并将建立好的连接传递过去以复用
-                new ChatFrame(nickname, socket, oos, ois);
+                new ChatFrame(nickname, socket, out, in, loginMsg.getContent(), response);
+            } else if (Message.THROTTLED.equals(response.getType())) {
+                // 尝试过于频繁，服务器未校验本次登录
+                JOptionPane.showMessageDialog(this, "登录尝试过于频繁，请 " + waitSeconds(response) + " 秒后再试");
+                socket.close();
             } else {
                 // 登录失败：提示错误信息并关闭连接
                 JOptionPane.showMessageDialog(this, "登录失败：" + response.getContent());
@@ -143,8 +149,8 @@ public class LoginFrame extends JFrame {
         try {
             // 注册过程建立临时连接
             Socket socket = new Socket("127.0.0.1", 8888);
-            ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
-            ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            InputStream in = new BufferedInputStream(socket.getInputStream());
 
             // 封装注册请求消息
             Message regMsg = new Message();
@@ -152,17 +158,18 @@ public class LoginFrame extends JFrame {
             // 协议格式：账号|密码|昵称
             regMsg.setContent(username + "|" + password + "|" + nickname);
 
-            oos.writeObject(regMsg);
-            oos.flush();
+            MessageCodec.write(out, regMsg);
 
             // 等待服务器注册结果
-            Message response = (Message) ois.readObject();
+            Message response = MessageCodec.read(in);
 
             if (Message.REGISTER_SUCCESS.equals(response.getType())) {
                 JOptionPane.showMessageDialog(this, "注册成功！请使用新账号登录。");
                 // 自动回填注册好的账号密码，提升体验
                 userField.setText(username);
                 passField.setText(password);
+            } else if (Message.THROTTLED.equals(response.getType())) {
+                JOptionPane.showMessageDialog(this, "注册尝试过于频繁，请 " + waitSeconds(response) + " 秒后再试");
             } else {
                 JOptionPane.showMessageDialog(this, "注册失败：" + response.getContent());
             }
@@ -175,6 +182,18 @@ public class LoginFrame extends JFrame {
         }
     }
 
+    /**
+     * @param throttled THROTTLED 响应，content 为建议等待的毫秒数
+     * @return 向上取整的等待秒数
+     */
+    private static long waitSeconds(Message throttled) {
+        try {
+            return Math.max(1, (Long.parseLong(throttled.getContent()) + 999) / 1000);
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
     /**
      * 程序主入口
      */
@@ -27,6 +27,56 @@ public class Message implements Serializable {
     public static final String REGISTER_SUCCESS = "REG_OK";
     /** 消息类型：注册失败响应 */
     public static final String REGISTER_FAIL = "REG_FAIL";
+    /** 消息类型：历史消息 (请求时 content 为分页游标，响应时为一条较早的聊天记录) */
+    public static final String HISTORY = "HISTORY";
+    /** 消息类型：一页历史消息结束，content 为下一页的游标，"0" 表示没有更早的记录 */
+    public static final String HISTORY_END = "HISTORY_END";
+    /** 消息类型：私聊的接收者不在线，receiver 为该接收者 */
+    public static final String USER_OFFLINE = "OFFLINE";
+    /** 消息类型：加入房间，receiver 为房间名 (以 # 开头)；服务器以同类型消息确认，content 为房间人数 */
+    public static final String ROOM_JOIN = "JOIN";
+    /** 消息类型：退出房间，receiver 为房间名；服务器以同类型消息确认 */
+    public static final String ROOM_LEAVE = "LEAVE";
+    /** 消息类型：房间内的聊天消息，receiver 为房间名 */
+    public static final String ROOM_CHAT = "ROOM_CHAT";
+    /** 节点间消息：链路握手，sender 为节点 ID，content 为集群口令 */
+    public static final String NODE_HELLO = "NODE_HELLO";
+    /** 节点间消息：sender 对应的用户在发送方节点上线 */
+    public static final String NODE_ONLINE = "NODE_ONLINE";
+    /** 节点间消息：sender 对应的用户在发送方节点下线 */
+    public static final String NODE_OFFLINE = "NODE_OFFLINE";
+    /** 消息类型：请求因发送过于频繁被拒绝，receiver 为被拒绝的消息类型，content 为建议等待的毫秒数 */
+    public static final String THROTTLED = "THROTTLED";
+    /** 消息类型：心跳探测，收到的一方应回复 PONG */
+    public static final String PING = "PING";
+    /** 消息类型：心跳回复 */
+    public static final String PONG = "PONG";
+    /** 消息类型：客户端确认已收到的最大序号，content 为该序号 */
+    public static final String ACK = "ACK";
+    /** 消息类型：断线重连后恢复会话，sender 为昵称，receiver 为登录时获得的恢复令牌，content 为收到的最大序号 */
+    public static final String RESUME = "RESUME";
+    /** 消息类型：会话已恢复，随后补发断线期间错过的消息；receiver 为恢复令牌，seq 为当前最新序号 */
+    public static final String RESUME_OK = "RESUME_OK";
+    /** 消息类型：令牌无效或已过期，客户端需要重新登录 */
+    public static final String RESUME_FAIL = "RESUME_FAIL";
+    /**
+     * 消息类型：搜索聊天记录，content 为查询文本 (关键字与 from:、in:、after:、before: 条件)，
+     * receiver 为翻页游标 (上一页 SEARCH_END 中的值)，为空时从最新的记录开始
+     */
+    public static final String SEARCH = "SEARCH";
+    /** 消息类型：一条搜索结果，sender、content 与 receiver 同原消息 (receiver 为 ALL、房间名或私聊接收者) */
+    public static final String SEARCH_RESULT = "SEARCH_RESULT";
+    /** 消息类型：一页搜索结果结束，content 为下一页的游标，"0" 表示没有更多结果 */
+    public static final String SEARCH_END = "SEARCH_END";
+    /**
+     * 消息类型：在线用户列表的完整快照 (登录后发送)，receiver 为 "版本 分片序号 分片数"，content 为以换行分隔的昵称；
+     * 列表较长时拆成多帧，收齐最后一片后生效
+     */
+    public static final String PRESENCE = "PRESENCE";
+    /** 消息类型：在线用户列表的增量，receiver 为 "起始版本 目标版本"，content 为以换行分隔的 "+昵称" (上线) 与 "-昵称" (下线) */
+    public static final String PRESENCE_DELTA = "PRESENCE_DELTA";
+    /** 消息类型：客户端发现增量不连续，请求重新同步在线用户列表，content 为已知的版本 (0 表示没有) */
+    public static final String PRESENCE_SYNC = "PRESENCE_SYNC";
 
     /** 消息类型 */
     private String type;
@@ -34,8 +84,10 @@ public class Message implements Serializable {
     private String sender;
     /** 消息内容 (登录/注册时为组合字符串) */
     private String content;
-    /** 接收者昵称 (群聊时默认为 ALL) */
+    /** 接收者昵称 (为空或 ALL 时为群聊，否则为私聊) */
     private String receiver;
+    /** 服务器分配的消息序号，单调递增，0 表示没有序号 (只有服务器转发的聊天消息带有序号) */
+    private long seq;
 
     /**
      * 无参构造方法
@@ -85,4 +137,11 @@ public class Message implements Serializable {
     public void setReceiver(String receiver) {
         this.receiver = receiver;
     }
-}
\ No newline at end of file
+
+    public long getSeq() {
+        return seq;
+    }
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+}
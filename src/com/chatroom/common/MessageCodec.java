@@ -0,0 +1,410 @@
+package com.chatroom.common;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 消息编解码工具类
+ * <p>
+ * 定义客户端与服务器之间的二进制帧格式：
+ * <pre>
+ * [版本号 1 字节][帧体长度 varint][类型码 1 字节][sender][content][receiver][seq varint，可选]
+ * </pre>
+ * 其中每个字符串字段编码为 [varint (UTF-8 字节数 + 1)][UTF-8 字节]，长度值 0 表示 null。
+ * 类型码为 0 时，紧跟一个字符串字段表示未登记的类型名称。
+ * seq 为服务器分配的消息序号，只有不为 0 时才写出，解码时帧体在 receiver 之后还有剩余字节即为 seq。
+ * </p>
+ * <p>
+ * 每一帧都是自包含的，既可以在阻塞流上逐帧读取，也可以在 NIO 的 ByteBuffer 中按帧切分。
+ * 帧首的版本号用于区分新旧客户端：不匹配的连接会在第一帧即被识别并拒绝，
+ * 而不是把旧格式的数据当作消息内容解析。
+ * </p>
+ */
+public class MessageCodec {
+    /** 当前协议版本号 */
+    public static final byte VERSION = 2;
+    /** 单帧帧体的最大长度，防止对端声明超大帧耗尽内存 */
+    public static final int MAX_FRAME_LENGTH = 1024 * 1024;
+
+    /**
+     * 类型码表，下标即类型码
+     * 新增消息类型时只能追加到末尾，已有类型码不可变更。
+     */
+    private static final String[] TYPE_NAMES = {
+            null,
+            Message.LOGIN,
+            Message.LOGIN_SUCCESS,
+            Message.LOGIN_FAIL,
+            Message.CHAT,
+            Message.REGISTER,
+            Message.REGISTER_SUCCESS,
+            Message.REGISTER_FAIL,
+            Message.HISTORY,
+            Message.HISTORY_END,
+            Message.USER_OFFLINE,
+            Message.ROOM_JOIN,
+            Message.ROOM_LEAVE,
+            Message.ROOM_CHAT,
+            Message.NODE_HELLO,
+            Message.NODE_ONLINE,
+            Message.NODE_OFFLINE,
+            Message.THROTTLED,
+            Message.PING,
+            Message.PONG,
+            Message.ACK,
+            Message.RESUME,
+            Message.RESUME_OK,
+            Message.RESUME_FAIL,
+            Message.SEARCH,
+            Message.SEARCH_RESULT,
+            Message.SEARCH_END,
+            Message.PRESENCE,
+            Message.PRESENCE_DELTA,
+            Message.PRESENCE_SYNC,
+    };
+    private static final Map<String, Byte> TYPE_CODES = new HashMap<>();
+
+    static {
+        for (int i = 1; i < TYPE_NAMES.length; i++) {
+            TYPE_CODES.put(TYPE_NAMES[i], (byte) i);
+        }
+    }
+
+    private MessageCodec() {}
+
+    /**
+     * 将消息编码为一个完整的帧 (包含版本号与帧长度)
+     *
+     * @param msg 需要编码的消息
+     * @return 帧字节数组
+     */
+    public static byte[] encode(Message msg) {
+        Byte code = msg.getType() == null ? null : TYPE_CODES.get(msg.getType());
+        byte[] customType = code == null ? utf8(msg.getType()) : null;
+        byte[] sender = utf8(msg.getSender());
+        byte[] content = utf8(msg.getContent());
+        byte[] receiver = utf8(msg.getReceiver());
+
+        int bodyLength = 1 + (code == null ? fieldLength(customType) : 0)
+                + fieldLength(sender) + fieldLength(content) + fieldLength(receiver) + seqLength(msg.getSeq());
+        byte[] frame = new byte[1 + varintLength(bodyLength) + bodyLength];
+        ByteBuffer buf = ByteBuffer.wrap(frame);
+        buf.put(VERSION);
+        putVarint(buf, bodyLength);
+        if (code != null) {
+            buf.put(code);
+        } else {
+            buf.put((byte) 0);
+            putField(buf, customType);
+        }
+        putField(buf, sender);
+        putField(buf, content);
+        putField(buf, receiver);
+        if (msg.getSeq() != 0) {
+            putVarlong(buf, msg.getSeq());
+        }
+        return frame;
+    }
+
+    /**
+     * 计算消息编码后的帧长度，不分配内存 (用于按字节限流等只需要长度的场合)
+     *
+     * @param msg 消息
+     * @return 与 encode(msg).length 相同
+     */
+    public static int encodedLength(Message msg) {
+        boolean known = msg.getType() != null && TYPE_CODES.containsKey(msg.getType());
+        int bodyLength = 1 + (known ? 0 : fieldLength(msg.getType()))
+                + fieldLength(msg.getSender()) + fieldLength(msg.getContent()) + fieldLength(msg.getReceiver())
+                + seqLength(msg.getSeq());
+        return 1 + varintLength(bodyLength) + bodyLength;
+    }
+
+    /**
+     * 从缓冲区中尝试解码一帧
+     * <p>
+     * 若缓冲区中的数据不足一帧，则不移动 position 并返回 null；
+     * 否则消费该帧并返回解码后的消息。
+     * </p>
+     *
+     * @param buf 处于读模式的缓冲区
+     * @return 解码出的消息，数据不完整时为 null
+     * @throws IOException 版本不匹配、帧长度非法或帧内容损坏
+     */
+    public static Message decode(ByteBuffer buf) throws IOException {
+        int start = buf.position();
+        int limit = buf.limit();
+        if (start >= limit) {
+            return null;
+        }
+        checkVersion(buf.get(start));
+
+        // 读取 varint 帧长度，字节不足时等待更多数据
+        int length = 0;
+        int shift = 0;
+        int pos = start + 1;
+        while (true) {
+            if (pos >= limit) {
+                return null;
+            }
+            byte b = buf.get(pos++);
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            shift += 7;
+            if (shift > 28) {
+                throw new StreamCorruptedException("帧长度字段过长");
+            }
+        }
+        checkLength(length);
+        if (limit - pos < length) {
+            return null;
+        }
+
+        buf.position(pos);
+        int oldLimit = buf.limit();
+        buf.limit(pos + length);
+        try {
+            Message msg = readBody(buf);
+            if (buf.hasRemaining()) {
+                throw new StreamCorruptedException("帧内容与长度不符");
+            }
+            return msg;
+        } catch (BufferUnderflowException e) {
+            throw new StreamCorruptedException("帧内容与长度不符");
+        } finally {
+            buf.limit(oldLimit);
+            buf.position(pos + length);
+        }
+    }
+
+    /**
+     * 向输出流写入一帧并立即刷新
+     *
+     * @param out 输出流
+     * @param msg 需要发送的消息
+     * @throws IOException 网络异常
+     */
+    public static void write(OutputStream out, Message msg) throws IOException {
+        out.write(encode(msg));
+        out.flush();
+    }
+
+    /**
+     * 从输入流中阻塞读取一帧
+     *
+     * @param in 输入流
+     * @return 解码后的消息
+     * @throws EOFException 对端已关闭连接
+     * @throws IOException  网络异常、版本不匹配或帧格式非法
+     */
+    public static Message read(InputStream in) throws IOException {
+        int version = in.read();
+        if (version < 0) {
+            throw new EOFException();
+        }
+        checkVersion((byte) version);
+
+        int length = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            shift += 7;
+            if (shift > 28) {
+                throw new StreamCorruptedException("帧长度字段过长");
+            }
+        }
+        checkLength(length);
+        byte[] body = new byte[length];
+        new DataInputStream(in).readFully(body);
+
+        ByteBuffer buf = ByteBuffer.wrap(body);
+        try {
+            Message msg = readBody(buf);
+            if (buf.hasRemaining()) {
+                throw new StreamCorruptedException("帧内容与长度不符");
+            }
+            return msg;
+        } catch (BufferUnderflowException e) {
+            throw new StreamCorruptedException("帧内容与长度不符");
+        }
+    }
+
+    private static void checkVersion(byte version) throws IOException {
+        if (version == VERSION) {
+            return;
+        }
+        if (version == (byte) 0xAC) {
+            // 0xACED 为 Java 对象序列化流的魔数，说明对端是使用 ObjectOutputStream 的旧版客户端
+            throw new StreamCorruptedException("旧版客户端 (Java 序列化协议)，请升级客户端");
+        }
+        throw new StreamCorruptedException("不支持的协议版本: " + (version & 0xFF));
+    }
+
+    private static void checkLength(int length) throws IOException {
+        if (length <= 0 || length > MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("非法的帧长度: " + length);
+        }
+    }
+
+    private static Message readBody(ByteBuffer buf) throws IOException {
+        int code = buf.get() & 0xFF;
+        String type;
+        if (code == 0) {
+            type = getField(buf);
+        } else if (code < TYPE_NAMES.length) {
+            type = TYPE_NAMES[code];
+        } else {
+            throw new StreamCorruptedException("未知的消息类型码: " + code);
+        }
+        String sender = getField(buf);
+        String content = getField(buf);
+        String receiver = getField(buf);
+        Message msg = new Message(type, sender, content, receiver);
+        if (buf.hasRemaining()) {
+            msg.setSeq(getVarlong(buf));
+        }
+        return msg;
+    }
+
+    private static byte[] utf8(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int fieldLength(byte[] field) {
+        int n = field == null ? 0 : field.length;
+        return varintLength(n + 1) + n;
+    }
+
+    private static int fieldLength(String field) {
+        if (field == null) {
+            return 1;
+        }
+        // 按 UTF-8 规则统计字节数，与 String.getBytes 的结果一致 (孤立的代理字符编码为 1 字节的 '?')
+        int n = 0;
+        int len = field.length();
+        for (int i = 0; i < len; i++) {
+            char c = field.charAt(i);
+            if (c < 0x80) {
+                n++;
+            } else if (c < 0x800) {
+                n += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(field.charAt(i + 1))) {
+                n += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                n++;
+            } else {
+                n += 3;
+            }
+        }
+        return varintLength(n + 1) + n;
+    }
+
+    private static void putField(ByteBuffer buf, byte[] field) {
+        if (field == null) {
+            putVarint(buf, 0);
+        } else {
+            putVarint(buf, field.length + 1);
+            buf.put(field);
+        }
+    }
+
+    private static String getField(ByteBuffer buf) throws IOException {
+        int n = getVarint(buf) - 1;
+        if (n < 0) {
+            return null;
+        }
+        if (n > buf.remaining()) {
+            throw new StreamCorruptedException("字段长度超出帧范围");
+        }
+        String s;
+        if (buf.hasArray()) {
+            s = new String(buf.array(), buf.arrayOffset() + buf.position(), n, StandardCharsets.UTF_8);
+            buf.position(buf.position() + n);
+        } else {
+            byte[] bytes = new byte[n];
+            buf.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+
+    private static int seqLength(long seq) {
+        if (seq == 0) {
+            return 0;
+        }
+        int n = 1;
+        while ((seq & ~0x7FL) != 0) {
+            seq >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    private static void putVarlong(ByteBuffer buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    private static long getVarlong(ByteBuffer buf) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift <= 63; shift += 7) {
+            byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("varint 字段过长");
+    }
+
+    private static int varintLength(int value) {
+        int n = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    private static void putVarint(ByteBuffer buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    private static int getVarint(ByteBuffer buf) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift <= 28; shift += 7) {
+            byte b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("varint 字段过长");
+    }
+}
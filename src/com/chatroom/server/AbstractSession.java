@@ -0,0 +1,61 @@
+package com.chatroom.server;
+
+/**
+ * 客户端会话的公共实现
+ * <p>
+ * 保存与连接实现方式无关的会话状态 (登录昵称、出站队列、限流与心跳状态)，
+ * 由 ServerThread 与 NioSession 继承。
+ * </p>
+ */
+public abstract class AbstractSession implements ClientSession {
+    /** 出站队列 */
+    protected final OutboundQueue outbound;
+
+    /** 登录成功后的昵称，未登录时为 null */
+    private volatile String nickname;
+
+    /** 限流状态 */
+    private final RateLimitState rateLimitState = new RateLimitState();
+
+    /** 心跳状态 */
+    private final HeartbeatState heartbeatState = new HeartbeatState();
+
+    /**
+     * 使用 ServerConfig 中的默认出站队列参数
+     */
+    protected AbstractSession() {
+        this(new OutboundQueue());
+    }
+
+    /**
+     * @param outbound 出站队列
+     */
+    protected AbstractSession(OutboundQueue outbound) {
+        this.outbound = outbound;
+    }
+
+    @Override
+    public String getNickname() {
+        return nickname;
+    }
+
+    @Override
+    public void setNickname(String nickname) {
+        this.nickname = nickname;
+    }
+
+    @Override
+    public RateLimitState getRateLimitState() {
+        return rateLimitState;
+    }
+
+    @Override
+    public HeartbeatState getHeartbeatState() {
+        return heartbeatState;
+    }
+
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return outbound;
+    }
+}
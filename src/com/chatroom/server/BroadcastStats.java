@@ -0,0 +1,95 @@
+package com.chatroom.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 广播统计
+ * <p>
+ * 记录广播次数、私聊次数、编码字节数与实际写出字节数。
+ * 每条广播只编码一次，写出字节数约等于编码字节数乘以接收者数量，
+ * 两者之比即为"编码一次、多次写出"节省的序列化工作量。
+ * </p>
+ */
+public class BroadcastStats {
+    private final LongAdder broadcasts = new LongAdder();
+    private final LongAdder recipients = new LongAdder();
+    private final LongAdder bytesEncoded = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder direct = new LongAdder();
+
+    /**
+     * 记录一次广播
+     *
+     * @param frameBytes   编码后的帧长度
+     * @param recipientCnt 成功写出的接收者数量
+     */
+    public void record(int frameBytes, int recipientCnt) {
+        recordBroadcast(frameBytes);
+        recordRecipients(frameBytes, recipientCnt);
+    }
+
+    /**
+     * 记录一次广播，接收者稍后由各扇出线程分别记录
+     *
+     * @param frameBytes 编码后的帧长度
+     */
+    public void recordBroadcast(int frameBytes) {
+        broadcasts.increment();
+        bytesEncoded.add(frameBytes);
+    }
+
+    /**
+     * 记录一次广播中某一部分接收者
+     *
+     * @param frameBytes   编码后的帧长度
+     * @param recipientCnt 成功写出的接收者数量
+     */
+    public void recordRecipients(int frameBytes, int recipientCnt) {
+        recipients.add(recipientCnt);
+        bytesWritten.add((long) frameBytes * recipientCnt);
+    }
+
+    /**
+     * 记录一条已送达的私聊消息 (只写出一次)
+     *
+     * @param frameBytes 编码后的帧长度
+     */
+    public void recordDirect(int frameBytes) {
+        direct.increment();
+        bytesEncoded.add(frameBytes);
+        bytesWritten.add(frameBytes);
+    }
+
+    public long getDirect() {
+        return direct.sum();
+    }
+
+    public long getBroadcasts() {
+        return broadcasts.sum();
+    }
+
+    public long getRecipients() {
+        return recipients.sum();
+    }
+
+    public long getBytesEncoded() {
+        return bytesEncoded.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public String toString() {
+        long n = getBroadcasts();
+        long encoded = getBytesEncoded();
+        long written = getBytesWritten();
+        return "广播统计 -> 次数: " + n
+                + " 接收者: " + getRecipients()
+                + " 私聊: " + getDirect()
+                + " 编码字节: " + encoded
+                + " 写出字节: " + written
+                + " 写出/编码: " + (encoded == 0 ? "0" : String.format("%.1f", (double) written / encoded));
+    }
+}
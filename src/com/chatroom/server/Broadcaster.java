@@ -0,0 +1,20 @@
+package com.chatroom.server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 群聊扇出
+ * <p>
+ * 默认由处理消息的线程遍历在线列表逐个写入 (见 MessageHandler)；NIO 模式下改为把帧交给每个事件循环各一次，
+ * 由事件循环在自己的线程上写给名下的已登录连接，扇出不再跨线程争用每个连接的出站队列与刷新任务。
+ * </p>
+ */
+public interface Broadcaster {
+    /**
+     * 把帧异步写给所有已登录的本地会话
+     *
+     * @param frame   已编码的只读帧
+     * @param exclude 需要排除的会话 (发送者自身)，可为 null
+     */
+    void broadcast(ByteBuffer frame, ClientSession exclude);
+}
@@ -1,37 +1,207 @@
 package com.chatroom.server;
 
+import com.chatroom.server.metrics.Metrics;
+import com.chatroom.server.metrics.MetricsHttpServer;
+import com.chatroom.server.metrics.MetricsJmx;
+import com.chatroom.server.metrics.WriteRate;
+import com.chatroom.server.store.ChatLogStore;
+import com.chatroom.server.store.JdbcChatLogStore;
+import com.chatroom.server.store.JournalChatLogStore;
+import com.chatroom.utils.JDBCUtils;
+
+import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 聊天室服务器端主程序
  * <p>
- * 负责启动 ServerSocket 监听指定端口，并循环接收客户端的连接请求。
- * 每当有新的客户端连接时，创建一个独立的线程 (ServerThread) 进行处理。
+ * 支持三种运行模式 (通过启动参数或 -Dchatroom.server.mode 指定)：
+ * <ul>
+ *     <li>thread (默认)：启动 ServerSocket 监听指定端口，每当有新的客户端连接时，创建一个独立的平台线程运行 ServerThread。</li>
+ *     <li>virtual：与 thread 模式相同，但 ServerThread 运行在虚拟线程上，阻塞的 Socket 读取与数据库访问不再独占平台线程。</li>
+ *     <li>nio：使用 NioChatServer，由固定数量的事件循环线程管理所有连接，适合大量空闲长连接的场景。</li>
+ * </ul>
  * </p>
  */
 public class ChatServer {
     /** 服务器监听端口 */
-    private static final int PORT = 8888;
+    private static final int PORT = ServerConfig.PORT;
 
     public static void main(String[] args) {
+        String mode = args.length > 0 ? args[0] : ServerConfig.MODE;
+        ChatLogStore chatLogStore;
+        try {
+            chatLogStore = createChatLogStore();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("聊天记录存储初始化失败！");
+            return;
+        }
+        // 进程退出前写出尚未持久化的聊天记录
+        Runtime.getRuntime().addShutdownHook(new Thread(chatLogStore::shutdown, "chatlog-shutdown"));
+
+        MessageHandler handler = new MessageHandler(chatLogStore);
+        // 在接受连接之前确定重建范围，之后保存的消息由实时写入加入索引
+        if (handler.getSearchIndex() != null && ServerConfig.SEARCH_REBUILD_THREADS > 0) {
+            handler.getSearchIndex().rebuild(ServerConfig.SEARCH_REBUILD_THREADS);
+        }
+        startStatsReporter(handler);
         try {
+            registerMetrics(handler);
+
+            // 启用集群时，先建立与其他节点的链路
+            if (ServerConfig.CLUSTER_PORT > 0) {
+                ClusterNode cluster = new ClusterNode(ServerConfig.CLUSTER_NODE_ID, ServerConfig.CLUSTER_PORT,
+                        ClusterNode.parsePeers(ServerConfig.CLUSTER_PEERS), ServerConfig.CLUSTER_SECRET, handler);
+                handler.setCluster(cluster);
+                cluster.start();
+            }
+
+            if ("nio".equalsIgnoreCase(mode)) {
+                new NioChatServer(PORT, handler).start();
+                return;
+            }
+
+            // 每个连接使用平台线程还是虚拟线程
+            boolean virtual = "virtual".equalsIgnoreCase(mode);
+            Thread.Builder threadBuilder = virtual
+                    ? Thread.ofVirtual().name("server-vthread-", 0)
+                    : Thread.ofPlatform().name("server-thread-", 0);
+            // 写线程只在连接有待发送数据时存在，平台线程模式下空闲 60 秒后回收
+            ExecutorService writers = virtual
+                    ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("server-vwriter-", 0).factory())
+                    : Executors.newCachedThreadPool(Thread.ofPlatform().name("server-writer-", 0).daemon().factory());
+
             // 1. 启动服务器，绑定端口
             ServerSocket serverSocket = new ServerSocket(PORT);
-            System.out.println("服务器已启动，正在监听端口 " + PORT + "...");
+            System.out.println("服务器已启动" + (virtual ? " (虚拟线程模式)" : "") + "，正在监听端口 " + PORT + "...");
 
             // 2. 循环监听客户端连接
             while (true) {
                 // accept() 方法会阻塞，直到有客户端连接
                 Socket socket = serverSocket.accept();
+                Metrics.CONNECTIONS_OPENED.increment();
                 System.out.println("客户端连接成功，IP地址: " + socket.getInetAddress());
 
                 // 3. 为该客户端启动一个独立的线程进行服务
-                new ServerThread(socket).start();
+                threadBuilder.start(new ServerThread(socket, handler, writers));
             }
         } catch (Exception e) {
             e.printStackTrace();
             System.err.println("服务器启动失败！");
         }
     }
+
+    /**
+     * 按 chatroom.chatlog.store 创建聊天记录存储
+     */
+    private static ChatLogStore createChatLogStore() throws IOException {
+        if ("journal".equalsIgnoreCase(ServerConfig.CHATLOG_STORE)) {
+            return new JournalChatLogStore(Paths.get(ServerConfig.JOURNAL_DIR),
+                    ServerConfig.JOURNAL_SEGMENT_MB * 1024 * 1024, ServerConfig.JOURNAL_FLUSH_INTERVAL);
+        }
+        return new JdbcChatLogStore(ServerConfig.CHATLOG_QUEUE_CAPACITY,
+                ServerConfig.CHATLOG_BATCH_SIZE, ServerConfig.CHATLOG_FLUSH_INTERVAL,
+                ServerConfig.CHATLOG_MAX_RETRIES, ServerConfig.CHATLOG_RETRY_BACKOFF,
+                Paths.get(ServerConfig.CHATLOG_SPILL_FILE), ServerConfig.CHATLOG_TIME_COLUMN);
+    }
+
+    /**
+     * 登记由各组件维护的指标，注册 JMX 并按配置启动抓取端点
+     *
+     * @param handler 业务处理器
+     * @throws IOException 抓取端点的端口绑定失败
+     */
+    private static void registerMetrics(MessageHandler handler) throws IOException {
+        Metrics.gauge("chatroom_online_users", "在线用户数", () -> handler.getOnlineUsers().size());
+        Metrics.gauge("chatroom_rooms", "房间数", () -> handler.getRooms().size());
+        Metrics.gauge("chatroom_ratelimit_tracked_ips", "保存了限流状态的客户端 IP 数",
+                () -> handler.getRateLimiter().getTrackedIps());
+        Metrics.gauge("chatroom_resume_tickets", "保留的断线恢复令牌数", () -> handler.getResume().size());
+        Metrics.gauge("chatroom_last_seq", "最近分配的消息序号", () -> handler.getReplayWindow().getLastSeq());
+        if (handler.getSearchIndex() != null) {
+            Metrics.gauge("chatroom_search_documents", "搜索索引中的消息数", () -> handler.getSearchIndex().getDocuments());
+            Metrics.gauge("chatroom_search_segments", "搜索索引的段数", () -> handler.getSearchIndex().getSegments());
+        }
+        if (handler.getPresence() != null) {
+            Metrics.gauge("chatroom_presence_version", "在线列表的当前版本", () -> handler.getPresence().getVersion());
+        }
+        Metrics.gauge("chatroom_auth_cache_entries", "用户记录缓存的账号数", () -> handler.getAuth().getCache().size());
+        Metrics.gauge("chatroom_auth_pending", "等待校验密码哈希的登录请求数", () -> handler.getAuth().getPendingVerifications());
+        Metrics.gauge("chatroom_outbound_queued_frames", "所有在线用户出站队列中积压的帧数", () -> {
+            long depth = 0;
+            for (ClientSession session : handler.getOnlineUsers().sessions()) {
+                depth += session.getOutboundQueue().size();
+            }
+            return depth;
+        });
+        Metrics.gauge("chatroom_outbound_queue_max", "单个出站队列的最大积压帧数", () -> {
+            long max = 0;
+            for (ClientSession session : handler.getOnlineUsers().sessions()) {
+                max = Math.max(max, session.getOutboundQueue().size());
+            }
+            return max;
+        });
+        Metrics.gauge("chatroom_chatlog_pending", "尚未持久化的聊天记录数",
+                () -> handler.getChatLogStore().getPendingCount());
+        BroadcastStats stats = handler.getBroadcastStats();
+        Metrics.counter("chatroom_broadcasts_total", "群聊与房间消息数", stats::getBroadcasts);
+        Metrics.counter("chatroom_broadcast_recipients_total", "群聊与房间消息的接收者总数", stats::getRecipients);
+        Metrics.counter("chatroom_direct_messages_total", "已送达的私聊消息数", stats::getDirect);
+        if (WriteRate.tcpOutSegments() >= 0) {
+            Metrics.counter("chatroom_tcp_out_segments_total", "本机发出的 TCP 报文数 (/proc/net/snmp，整机)",
+                    WriteRate::tcpOutSegments);
+        }
+        Metrics.gauge("chatroom_db_pool_active", "连接池中借出的连接数", () -> JDBCUtils.getPool().getActive());
+        Metrics.gauge("chatroom_db_pool_idle", "连接池中空闲的连接数", () -> JDBCUtils.getPool().getIdle());
+        Metrics.counter("chatroom_db_pool_timeouts_total", "借出连接超时次数", () -> JDBCUtils.getPool().getTimeouts());
+
+        MetricsJmx.register();
+        if (ServerConfig.METRICS_PORT > 0) {
+            MetricsHttpServer.start(ServerConfig.METRICS_PORT);
+        }
+    }
+
+    /**
+     * 定期在控制台输出广播统计、写出速率、出站队列、房间、断线重连、搜索索引、集群、聊天记录存储与连接池指标
+     *
+     * @param handler 业务处理器
+     */
+    private static void startStatsReporter(MessageHandler handler) {
+        int interval = ServerConfig.STATS_INTERVAL_SECONDS;
+        if (interval <= 0) {
+            return;
+        }
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "stats-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        WriteRate writeRate = new WriteRate();
+        reporter.scheduleAtFixedRate(() -> {
+            System.out.println(handler.getBroadcastStats());
+            System.out.println(writeRate.sample());
+            System.out.println(handler.getOutboundSummary());
+            System.out.println(handler.getRooms());
+            System.out.println(handler.getResume());
+            System.out.println(handler.getAuth());
+            if (handler.getSearchIndex() != null) {
+                System.out.println(handler.getSearchIndex());
+            }
+            if (handler.getPresence() != null) {
+                System.out.println(handler.getPresence());
+            }
+            if (handler.getCluster() != null) {
+                System.out.println(handler.getCluster());
+            }
+            System.out.println(handler.getChatLogStore());
+            System.out.println(JDBCUtils.getPool());
+        }, interval, interval, TimeUnit.SECONDS);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,104 @@
+package com.chatroom.server;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * 客户端会话接口
+ * <p>
+ * 屏蔽底层连接的实现方式 (每连接一线程的阻塞 Socket，或 NIO 事件循环中的 SocketChannel)，
+ * 使 MessageHandler 中的登录、聊天、注册逻辑在两种运行模式下保持一致。
+ * </p>
+ */
+public interface ClientSession {
+
+    /**
+     * 向该客户端发送一条消息
+     * <p>
+     * 实现类必须保证该方法可以被多个线程同时调用 (例如多个发送者同时广播)。
+     * </p>
+     *
+     * @param msg 需要发送的消息
+     * @throws IOException 连接已关闭或网络异常
+     */
+    default void send(Message msg) throws IOException {
+        sendFrame(ByteBuffer.wrap(MessageCodec.encode(msg)));
+    }
+
+    /**
+     * 向该客户端发送一个已编码的完整帧
+     * <p>
+     * 该方法只把帧放入连接自己的出站队列，不会在调用者线程上阻塞等待网络写出。
+     * 广播时同一个帧会被传给所有接收者，因此实现类不得修改帧的内容与 position/limit，
+     * 需要时应使用 duplicate() 获得独立的读写位置。
+     * </p>
+     *
+     * @param frame 由 MessageCodec 编码的帧 (可能是只读缓冲区)
+     * @throws IOException 连接已关闭，或出站队列已满且溢出策略为断开连接
+     */
+    void sendFrame(ByteBuffer frame) throws IOException;
+
+    /**
+     * 执行该连接的异步后续任务 (例如登录、注册校验完成后的回复与回放)，认证线程池只做哈希计算与数据库访问
+     * 默认在完成校验的线程上直接执行，供不持有网络连接的会话 (测试与基准) 使用。
+     *
+     * @return 执行器
+     */
+    default Executor getExecutor() {
+        return Runnable::run;
+    }
+
+    /**
+     * @return 该连接的出站队列，用于查看队列深度等指标
+     */
+    OutboundQueue getOutboundQueue();
+
+    /**
+     * @return 登录成功后的昵称，未登录时为 null
+     */
+    String getNickname();
+
+    /**
+     * 设置登录昵称 (由 SessionRegistry 在登记时调用)
+     *
+     * @param nickname 昵称
+     */
+    void setNickname(String nickname);
+
+    /**
+     * @return 客户端地址，用于日志输出
+     */
+    String getRemoteAddress();
+
+    /**
+     * @return 客户端 IP，用于按 IP 限流；默认与 getRemoteAddress() 相同
+     */
+    default String getRemoteHost() {
+        return getRemoteAddress();
+    }
+
+    /**
+     * @return 该会话的限流状态，只由处理该会话入站消息的线程访问
+     */
+    RateLimitState getRateLimitState();
+
+    /**
+     * @return 该会话的心跳状态
+     */
+    HeartbeatState getHeartbeatState();
+
+    /**
+     * @return 连接是否已关闭
+     */
+    boolean isClosed();
+
+    /**
+     * 关闭该会话对应的连接
+     * 实现类必须保证该方法可重复调用，并在首次关闭时通知 MessageHandler 进行下线处理。
+     */
+    void close();
+}
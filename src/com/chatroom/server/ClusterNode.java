@@ -0,0 +1,376 @@
+package com.chatroom.server;
+
+import com.chatroom.common.Message;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 集群节点：负责与其他服务器节点之间的转发链路与在线用户目录
+ * <p>
+ * 各节点两两之间建立一条 TCP 链路 (全连接拓扑)，链路上传输的仍是 MessageCodec 帧：
+ * <ul>
+ *     <li>NODE_HELLO：握手，sender 为节点 ID，content 为集群口令。</li>
+ *     <li>NODE_ONLINE / NODE_OFFLINE：sender 为昵称，用户在本节点上线或下线。链路建立时发送本节点全部在线用户。</li>
+ *     <li>CHAT / ROOM_CHAT：原样转发客户端消息，帧与发给本地用户的是同一个，无需重新编码。</li>
+ * </ul>
+ * </p>
+ * <p>
+ * 群聊与房间消息由产生它的节点向每条链路各发送一次，收到的节点只投递给本地用户而不再转发，
+ * 因此每条消息在每条节点间链路上至多传输一次；私聊根据在线用户目录只发往接收者所在的节点。
+ * 聊天记录只由产生消息的节点保存，避免共享数据库中出现重复记录。
+ * </p>
+ * <p>
+ * 两个节点互相拨号时会产生两条链路，约定只保留由节点 ID 较小的一方发起的那条。
+ * 拒绝对端发起的链路时先回复本节点的 HELLO，由对端关闭；拨号方由此得知该地址上的节点 ID，
+ * 此后与该节点之间已有链路时不再拨号，不会每隔 REDIAL_MILLIS 就建立一条注定被拒绝的连接。
+ * 链路由 ServerThread 承载，与客户端连接共用同一个 MessageHandler，通过 {@link #isLink} 区分。
+ * </p>
+ */
+public class ClusterNode {
+    /** 断线或被拒绝后重新拨号的间隔 */
+    private static final long REDIAL_MILLIS = 2000;
+
+    private final String nodeId;
+    private final int port;
+    private final List<InetSocketAddress> peers;
+    private final String secret;
+    private final MessageHandler handler;
+    private final ExecutorService writers;
+
+    /** 集群端口上的所有连接 (含尚未完成握手的) -> 对端节点 ID，握手前为空字符串 */
+    private final ConcurrentHashMap<ClientSession, String> linkNodes = new ConcurrentHashMap<>();
+    /** 已完成握手的链路：节点 ID -> 链路 */
+    private final ConcurrentHashMap<String, ClientSession> links = new ConcurrentHashMap<>();
+    /** 本节点拨出的链路 -> 拨号地址 */
+    private final ConcurrentHashMap<ClientSession, InetSocketAddress> dialed = new ConcurrentHashMap<>();
+    /** 握手中得知的拨号地址 -> 该地址上的节点 ID */
+    private final ConcurrentHashMap<InetSocketAddress, String> peerIds = new ConcurrentHashMap<>();
+    /** 在线用户目录：其他节点上的用户昵称 -> 所在节点 ID */
+    private final ConcurrentHashMap<String, String> directory = new ConcurrentHashMap<>();
+
+    private final LongAdder relayedOut = new LongAdder();
+    private final LongAdder relayedIn = new LongAdder();
+
+    /**
+     * 构造方法
+     *
+     * @param nodeId  本节点 ID，集群内唯一
+     * @param port    节点间链路的监听端口
+     * @param peers   其他节点的链路地址
+     * @param secret  集群口令，握手时校验
+     * @param handler 业务处理器
+     */
+    public ClusterNode(String nodeId, int port, List<InetSocketAddress> peers, String secret, MessageHandler handler) {
+        this.nodeId = nodeId;
+        this.port = port;
+        this.peers = peers;
+        this.secret = secret;
+        this.handler = handler;
+        this.writers = Executors.newCachedThreadPool(Thread.ofPlatform().name("cluster-writer-", 0).daemon().factory());
+    }
+
+    /**
+     * 解析 host:port 形式、以逗号分隔的地址列表
+     *
+     * @param spec 地址列表
+     * @return 地址
+     */
+    public static List<InetSocketAddress> parsePeers(String spec) {
+        List<InetSocketAddress> result = new ArrayList<>();
+        for (String s : spec.split(",")) {
+            s = s.trim();
+            if (s.isEmpty()) {
+                continue;
+            }
+            int colon = s.lastIndexOf(':');
+            result.add(new InetSocketAddress(s.substring(0, colon), Integer.parseInt(s.substring(colon + 1))));
+        }
+        return result;
+    }
+
+    /**
+     * 启动链路监听线程与各节点的拨号线程
+     *
+     * @throws IOException 端口绑定失败
+     */
+    public void start() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port);
+        Thread.ofPlatform().name("cluster-acceptor").daemon().start(() -> {
+            while (true) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    socket.setTcpNoDelay(true);
+                    startLink(socket);
+                } catch (IOException e) {
+                    System.err.println("集群链路接受失败: " + e.getMessage());
+                }
+            }
+        });
+        for (InetSocketAddress peer : peers) {
+            Thread.ofPlatform().name("cluster-dialer-" + peer.getPort()).daemon().start(() -> dial(peer));
+        }
+        System.out.println("集群节点 " + nodeId + " 已启动，链路端口 " + port + "，对端: " + peers);
+    }
+
+    /**
+     * 拨号线程：与对端保持一条链路，断开后重新拨号
+     * 与该节点之间已有链路 (例如对端节点 ID 较小，链路由对端发起) 时只等待，不再拨号
+     */
+    private void dial(InetSocketAddress peer) {
+        while (true) {
+            try {
+                if (isLinked(peer)) {
+                    Thread.sleep(REDIAL_MILLIS);
+                    continue;
+                }
+                Socket socket = new Socket();
+                socket.connect(peer, 3000);
+                socket.setTcpNoDelay(true);
+                ServerThread link = startLink(socket);
+                dialed.put(link, peer);
+                try {
+                    link.send(new Message(Message.NODE_HELLO, nodeId, secret, null));
+                    // 等待链路关闭后重拨
+                    while (!link.isClosed()) {
+                        Thread.sleep(REDIAL_MILLIS);
+                    }
+                } finally {
+                    dialed.remove(link);
+                }
+            } catch (IOException e) {
+                // 对端尚未启动，稍后重试
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                Thread.sleep(REDIAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return 已知该地址上的节点 ID，且与它之间已有可用的链路时返回 true
+     */
+    private boolean isLinked(InetSocketAddress peer) {
+        String remote = peerIds.get(peer);
+        ClientSession link = remote == null ? null : links.get(remote);
+        return link != null && !link.isClosed();
+    }
+
+    private ServerThread startLink(Socket socket) {
+        ServerThread link = new ServerThread(socket, handler, writers,
+                new OutboundQueue(ServerConfig.CLUSTER_LINK_CAPACITY, OutboundQueue.OverflowPolicy.DISCONNECT));
+        linkNodes.put(link, "");
+        Thread.ofPlatform().name("cluster-link-", 0).daemon().start(link);
+        return link;
+    }
+
+    /**
+     * @param session 会话
+     * @return 该会话是否为节点间链路
+     */
+    public boolean isLink(ClientSession session) {
+        return linkNodes.containsKey(session);
+    }
+
+    /**
+     * 处理链路上收到的消息
+     *
+     * @param link 链路
+     * @param msg  消息
+     * @throws IOException 发送失败
+     */
+    public void handleLinkMessage(ClientSession link, Message msg) throws IOException {
+        String remote = linkNodes.get(link);
+        if (Message.NODE_HELLO.equals(msg.getType())) {
+            onHello(link, msg);
+            return;
+        }
+        if (remote == null || remote.isEmpty()) {
+            // 握手完成前不接受其他消息
+            link.close();
+            return;
+        }
+        switch (msg.getType()) {
+            case Message.NODE_ONLINE:
+                directory.put(msg.getSender(), remote);
+                handler.presenceChanged(msg.getSender());
+                // 同一账号在其他节点登录，断开本节点上的旧连接
+                ClientSession local = handler.getOnlineUsers().get(msg.getSender());
+                if (local != null) {
+                    System.out.println("用户在节点 " + remote + " 重复登录，断开本节点连接：" + msg.getSender());
+                    local.close();
+                }
+                break;
+            case Message.NODE_OFFLINE:
+                if (directory.remove(msg.getSender(), remote)) {
+                    handler.presenceChanged(msg.getSender());
+                }
+                break;
+            default:
+                relayedIn.increment();
+                handler.deliverRelayed(msg);
+        }
+    }
+
+    private void onHello(ClientSession link, Message msg) throws IOException {
+        String remote = msg.getSender();
+        if (!secret.equals(msg.getContent() == null ? "" : msg.getContent()) || remote == null
+                || remote.isEmpty() || remote.equals(nodeId)) {
+            System.err.println("集群握手失败，断开链路: " + link.getRemoteAddress());
+            link.close();
+            return;
+        }
+        boolean dialedByUs = msg.getReceiver() != null;
+        if (!dialedByUs) {
+            // 对端发起：回复本节点 ID。只接受节点 ID 比本节点小的一方发起的链路，否则由本节点拨号；
+            // 拒绝时不在这里关闭 (关闭会清空尚未写出的回复)，由对端收到回复后关闭
+            link.send(new Message(Message.NODE_HELLO, nodeId, secret, remote));
+            if (remote.compareTo(nodeId) > 0) {
+                return;
+            }
+        } else {
+            InetSocketAddress peer = dialed.get(link);
+            if (peer != null) {
+                peerIds.put(peer, remote);
+            }
+            if (nodeId.compareTo(remote) > 0) {
+                link.close();
+                return;
+            }
+        }
+        ClientSession old = links.put(remote, link);
+        linkNodes.put(link, remote);
+        if (old != null && old != link) {
+            old.close();
+        }
+        System.out.println("集群链路已建立: " + nodeId + " <-> " + remote);
+        // 同步本节点的在线用户
+        for (ClientSession session : handler.getOnlineUsers().sessions()) {
+            String nickname = session.getNickname();
+            if (nickname != null) {
+                link.send(new Message(Message.NODE_ONLINE, nickname, null, null));
+            }
+        }
+    }
+
+    /**
+     * 链路关闭：移除该节点的在线用户
+     *
+     * @param link 链路
+     */
+    public void linkClosed(ClientSession link) {
+        String remote = linkNodes.remove(link);
+        if (remote == null || remote.isEmpty() || !links.remove(remote, link)) {
+            return;
+        }
+        directory.entrySet().removeIf(e -> {
+            if (!remote.equals(e.getValue())) {
+                return false;
+            }
+            handler.presenceChanged(e.getKey());
+            return true;
+        });
+        System.out.println("集群链路已断开: " + nodeId + " <-> " + remote);
+    }
+
+    /**
+     * 本节点用户上线，通知其他节点
+     *
+     * @param nickname 昵称
+     */
+    public void userOnline(String nickname) {
+        directory.remove(nickname);
+        broadcast(new Message(Message.NODE_ONLINE, nickname, null, null));
+    }
+
+    /**
+     * 本节点用户下线，通知其他节点
+     *
+     * @param nickname 昵称
+     */
+    public void userOffline(String nickname) {
+        broadcast(new Message(Message.NODE_OFFLINE, nickname, null, null));
+    }
+
+    private void broadcast(Message msg) {
+        for (ClientSession link : links.values()) {
+            try {
+                link.send(msg);
+            } catch (IOException e) {
+                // 链路已断开，重连后会重新同步
+            }
+        }
+    }
+
+    /**
+     * @param nickname 昵称
+     * @return 该用户在其他节点上在线时返回 true
+     */
+    public boolean isRemoteOnline(String nickname) {
+        return directory.containsKey(nickname);
+    }
+
+    /**
+     * 把本节点产生的群聊或房间消息帧转发给其他所有节点，每条链路一次
+     *
+     * @param frame 已编码的帧
+     */
+    public void relay(ByteBuffer frame) {
+        for (ClientSession link : links.values()) {
+            try {
+                link.sendFrame(frame);
+                relayedOut.increment();
+            } catch (IOException e) {
+                // 链路已断开
+            }
+        }
+    }
+
+    /**
+     * 把私聊消息帧转发给接收者所在的节点
+     *
+     * @param nickname 接收者昵称
+     * @param frame    已编码的帧
+     * @return 接收者在其他节点上在线且已转发时返回 true
+     */
+    public boolean relayTo(String nickname, ByteBuffer frame) {
+        String node = directory.get(nickname);
+        ClientSession link = node == null ? null : links.get(node);
+        if (link == null) {
+            return false;
+        }
+        try {
+            link.sendFrame(frame);
+            relayedOut.increment();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("集群 -> 节点: ").append(nodeId).append(" 链路: ");
+        for (Map.Entry<String, ClientSession> e : links.entrySet()) {
+            sb.append(e.getKey()).append("(积压 ").append(e.getValue().getOutboundQueue().size()).append(") ");
+        }
+        return sb.append("远程用户: ").append(directory.size())
+                .append(" 转出: ").append(relayedOut.sum())
+                .append(" 转入: ").append(relayedIn.sum())
+                .toString();
+    }
+}
@@ -0,0 +1,129 @@
+package com.chatroom.server;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+import com.chatroom.server.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 心跳与空闲连接回收
+ * <p>
+ * 每个会话在时间轮上只有一个检测任务。收到任何消息只记录时刻，不重新调度；
+ * 检测任务到期时根据最近收到消息的时刻决定下一步：
+ * <ul>
+ *     <li>空闲未超过心跳间隔：按剩余时间重新调度。</li>
+ *     <li>空闲超过心跳间隔：发送 PING，等待确认超时时间后再检测。</li>
+ *     <li>发送 PING 后在确认超时时间内没有收到任何消息 (PONG 或其他)：视为对端已失联，关闭连接。</li>
+ * </ul>
+ * 因此正常收发消息的连接没有额外开销，空闲连接每个心跳间隔只有一次调度与一个 PING 帧。
+ * 关闭连接会触发 MessageHandler.sessionClosed，把会话从在线列表与房间中移除。
+ * </p>
+ */
+public class HeartbeatMonitor {
+    /** 所有会话共享的 PING 帧 */
+    private static final ByteBuffer PING_FRAME =
+            ByteBuffer.wrap(MessageCodec.encode(new Message(Message.PING, null, null, null))).asReadOnlyBuffer();
+
+    private final TimerWheel wheel;
+    private final long intervalNanos;
+    private final long timeoutNanos;
+
+    /**
+     * @param wheel    时间轮，其刻度即超时检测的精度
+     * @param interval 空闲多久后发送 PING
+     * @param timeout  发送 PING 后等待任意消息的时间
+     */
+    public HeartbeatMonitor(TimerWheel wheel, long interval, long timeout, TimeUnit unit) {
+        this.wheel = wheel;
+        this.intervalNanos = unit.toNanos(interval);
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * @param wheel 时间轮
+     * @return 按 ServerConfig 中的参数创建的心跳检测，心跳间隔为 0 时返回 null
+     */
+    public static HeartbeatMonitor fromConfig(TimerWheel wheel) {
+        if (ServerConfig.HEARTBEAT_INTERVAL <= 0) {
+            return null;
+        }
+        return new HeartbeatMonitor(wheel, ServerConfig.HEARTBEAT_INTERVAL, ServerConfig.HEARTBEAT_TIMEOUT,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * 开始检测一个新连接
+     *
+     * @param session 会话
+     */
+    public void watch(ClientSession session) {
+        HeartbeatState state = session.getHeartbeatState();
+        state.lastRead = System.nanoTime();
+        schedule(session, state, intervalNanos);
+    }
+
+    /**
+     * 停止检测 (会话关闭时调用)
+     *
+     * @param session 会话
+     */
+    public void unwatch(ClientSession session) {
+        TimerWheel.Timeout check = session.getHeartbeatState().check;
+        if (check != null) {
+            check.cancel();
+        }
+    }
+
+    /**
+     * 记录收到了一条消息
+     *
+     * @param session 会话
+     */
+    public static void touch(ClientSession session) {
+        session.getHeartbeatState().lastRead = System.nanoTime();
+    }
+
+    private void schedule(ClientSession session, HeartbeatState state, long delayNanos) {
+        state.check = wheel.schedule(() -> check(session, state), delayNanos, TimeUnit.NANOSECONDS);
+        if (session.isClosed()) {
+            // 与 unwatch 并发时，保证关闭后不留下检测任务
+            state.check.cancel();
+        }
+    }
+
+    /**
+     * 检测任务，在时间轮线程上执行
+     */
+    private void check(ClientSession session, HeartbeatState state) {
+        if (session.isClosed()) {
+            return;
+        }
+        long now = System.nanoTime();
+        long lastRead = state.lastRead;
+        if (state.awaitingPong && lastRead - state.pingSentAt < 0) {
+            Metrics.IDLE_REAPED.increment();
+            System.out.println("心跳超时，断开连接: " + session.getRemoteAddress() + " " + session.getNickname());
+            session.close();
+            return;
+        }
+        state.awaitingPong = false;
+        long idle = now - lastRead;
+        if (idle < intervalNanos) {
+            schedule(session, state, intervalNanos - idle);
+            return;
+        }
+        state.awaitingPong = true;
+        state.pingSentAt = now;
+        try {
+            session.sendFrame(PING_FRAME);
+            Metrics.HEARTBEATS_SENT.increment();
+        } catch (IOException e) {
+            // 出站队列溢出或连接已关闭，sendFrame 已负责关闭
+            return;
+        }
+        schedule(session, state, timeoutNanos);
+    }
+}
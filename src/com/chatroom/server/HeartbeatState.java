@@ -0,0 +1,18 @@
+package com.chatroom.server;
+
+/**
+ * 会话的心跳状态，由 HeartbeatMonitor 维护
+ */
+public final class HeartbeatState {
+    /** 最近一次收到消息的时刻 (System.nanoTime())，由处理入站消息的线程写入 */
+    volatile long lastRead = System.nanoTime();
+
+    /** 最近一次发送 PING 的时刻，仅由时间轮线程访问 */
+    long pingSentAt;
+
+    /** 是否已发送 PING 且尚未确认对端存活，仅由时间轮线程访问 */
+    boolean awaitingPong;
+
+    /** 当前的空闲检测任务，会话关闭时取消 */
+    volatile TimerWheel.Timeout check;
+}
@@ -0,0 +1,986 @@
+package com.chatroom.server;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.User;
+import com.chatroom.server.auth.Authenticator;
+import com.chatroom.server.auth.PasswordHasher;
+import com.chatroom.server.auth.UserStore;
+import com.chatroom.server.metrics.Metrics;
+import com.chatroom.server.search.SearchIndex;
+import com.chatroom.server.search.SearchQuery;
+import com.chatroom.server.store.ChatLogRecord;
+import com.chatroom.server.store.ChatLogStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * 服务器端业务处理类
+ * <p>
+ * 根据消息类型（登录、聊天、注册）执行相应的业务逻辑。
+ * 该类与连接的实现方式无关，每连接一线程模式 (ServerThread) 与 NIO 模式 (NioChatServer) 共用同一个实例。
+ * </p>
+ */
+public class MessageHandler {
+    /** 认证线程池排满时建议客户端等待的毫秒数 */
+    private static final long AUTH_BUSY_RETRY_MILLIS = 1000;
+
+    /**
+     * 在线用户列表 (昵称 -> 会话)
+     */
+    private final SessionRegistry onlineUsers = new SessionRegistry();
+
+    /** 房间订阅索引 */
+    private final RoomRegistry rooms = new RoomRegistry();
+
+    /** 集群节点，未启用集群时为 null */
+    private volatile ClusterNode cluster;
+
+    /** 群聊扇出，NIO 模式下由各事件循环分别完成；为 null 时在处理消息的线程上遍历在线列表 */
+    private volatile Broadcaster broadcaster;
+
+    /** 广播统计 */
+    private final BroadcastStats broadcastStats = new BroadcastStats();
+
+    /** 聊天记录存储 */
+    private final ChatLogStore chatLogStore;
+
+    /** 最近聊天记录缓存，登录后回放 */
+    private final RecentHistory recentHistory;
+
+    /** 按会话与按 IP 的限流 */
+    private final RateLimiter rateLimiter = RateLimiter.fromConfig();
+
+    /** 心跳检测与恢复令牌过期共用的时间轮，首次调度时才启动线程 */
+    private final TimerWheel timer = new TimerWheel("server-timer", ServerConfig.TIMER_TICK_MILLIS,
+            TimeUnit.MILLISECONDS, 512);
+
+    /** 心跳与空闲连接回收，未启用时为 null */
+    private final HeartbeatMonitor heartbeats = HeartbeatMonitor.fromConfig(timer);
+
+    /** 消息序号与重放窗口 */
+    private final ReplayWindow replayWindow = new ReplayWindow(ServerConfig.RESUME_WINDOW, ServerConfig.RESUME_INDEX);
+
+    /** 断线重连 */
+    private final ResumeManager resume;
+
+    /** 聊天记录全文搜索，未启用时为 null */
+    private final SearchIndex searchIndex;
+
+    /** 在线用户列表的增量推送，未启用时为 null */
+    private final PresenceTracker presence;
+
+    /** 登录校验与注册 (用户记录缓存与密码哈希) */
+    private final Authenticator auth = new Authenticator(new UserStore(),
+            new PasswordHasher(ServerConfig.AUTH_ITERATIONS), ServerConfig.AUTH_THREADS, ServerConfig.AUTH_DB_THREADS,
+            ServerConfig.AUTH_QUEUE, ServerConfig.AUTH_CACHE_SIZE, ServerConfig.AUTH_CACHE_TTL,
+            ServerConfig.AUTH_NEGATIVE_TTL, TimeUnit.SECONDS);
+
+    /**
+     * 构造方法
+     *
+     * @param chatLogStore 聊天记录存储
+     */
+    public MessageHandler(ChatLogStore chatLogStore) {
+        this.chatLogStore = chatLogStore;
+        this.recentHistory = new RecentHistory(ServerConfig.HISTORY_CAPACITY, chatLogStore);
+        this.resume = new ResumeManager(replayWindow, chatLogStore, timer, ServerConfig.RESUME_TTL, TimeUnit.SECONDS,
+                ServerConfig.RESUME_MAX_REPLAY);
+        this.searchIndex = ServerConfig.SEARCH_ENABLED
+                ? new SearchIndex(chatLogStore, ServerConfig.SEARCH_SEGMENT_DOCS) : null;
+        this.presence = ServerConfig.PRESENCE_ENABLED
+                ? new PresenceTracker(this::isOnline, frame -> broadcastLocal(frame, null), timer,
+                ServerConfig.PRESENCE_WINDOW_MILLIS, ServerConfig.PRESENCE_LOG) : null;
+    }
+
+    /**
+     * 消息分发入口
+     *
+     * @param session 发送该消息的客户端会话
+     * @param msg     客户端发送的消息对象
+     * @throws Exception 数据库连接或IO异常
+     */
+    public void handle(ClientSession session, Message msg) throws Exception {
+        Metrics.MESSAGES_IN.increment();
+        // 任何消息都说明对端存活
+        HeartbeatMonitor.touch(session);
+        ClusterNode cluster = this.cluster;
+        boolean link = cluster != null && cluster.isLink(session);
+        boolean control = Message.PING.equals(msg.getType()) || Message.PONG.equals(msg.getType())
+                || Message.ACK.equals(msg.getType());
+        if (!link) {
+            // 超过限额的消息在扇出与持久化之前丢弃；心跳与确认同样计入消息限额，否则可以用 PING 刷屏，
+            // 只是被拒绝时不回复 THROTTLED
+            long wait = rateLimiter.acquire(session, msg);
+            if (wait > 0) {
+                if (control) {
+                    Metrics.THROTTLED.increment();
+                } else {
+                    handleThrottled(msg, session, wait);
+                }
+                return;
+            }
+        }
+        // 心跳与确认消息本身不再继续分发
+        if (Message.PING.equals(msg.getType())) {
+            session.send(new Message(Message.PONG, null, null, null));
+            return;
+        } else if (Message.PONG.equals(msg.getType())) {
+            return;
+        } else if (Message.ACK.equals(msg.getType())) {
+            handleAck(msg, session);
+            return;
+        }
+        if (link) {
+            cluster.handleLinkMessage(session, msg);
+            return;
+        }
+        // 根据协议中的消息类型进行分发处理
+        if (Message.LOGIN.equals(msg.getType())) {
+            handleLogin(msg, session);
+        } else if (Message.CHAT.equals(msg.getType())) {
+            handleChat(msg, session);
+        } else if (Message.REGISTER.equals(msg.getType())) {
+            handleRegister(msg, session);
+        } else if (Message.HISTORY.equals(msg.getType())) {
+            handleHistory(msg, session);
+        } else if (Message.ROOM_CHAT.equals(msg.getType())) {
+            handleRoomChat(msg, session);
+        } else if (Message.ROOM_JOIN.equals(msg.getType())) {
+            handleJoin(msg, session);
+        } else if (Message.ROOM_LEAVE.equals(msg.getType())) {
+            handleLeave(msg, session);
+        } else if (Message.RESUME.equals(msg.getType())) {
+            handleResume(msg, session);
+        } else if (Message.SEARCH.equals(msg.getType())) {
+            handleSearch(msg, session);
+        } else if (Message.PRESENCE_SYNC.equals(msg.getType())) {
+            handlePresenceSync(msg, session);
+        }
+    }
+
+    /**
+     * 新连接建立时调用 (客户端连接与节点间链路)，开始心跳检测
+     *
+     * @param session 新建立的会话
+     */
+    public void sessionOpened(ClientSession session) {
+        if (heartbeats != null) {
+            heartbeats.watch(session);
+        }
+    }
+
+    /**
+     * 会话关闭时的下线处理 (由 ClientSession.close() 调用)
+     *
+     * @param session 已关闭的会话
+     */
+    public void sessionClosed(ClientSession session) {
+        if (heartbeats != null) {
+            heartbeats.unwatch(session);
+        }
+        if (cluster != null && cluster.isLink(session)) {
+            cluster.linkClosed(session);
+            return;
+        }
+        Metrics.CONNECTIONS_CLOSED.increment();
+        if (session.getNickname() != null) {
+            // 保留恢复令牌与断开时的房间，客户端可在有效期内凭令牌恢复
+            resume.closed(session, rooms.roomsOf(session));
+        }
+        rooms.leaveAll(session);
+        if (onlineUsers.unregister(session)) {
+            System.out.println("用户下线：" + session.getNickname());
+            if (cluster != null) {
+                cluster.userOffline(session.getNickname());
+            }
+            presenceChanged(session.getNickname());
+        }
+    }
+
+    /**
+     * 拒绝超过限额的消息，并以 THROTTLED 告知客户端建议等待的时间
+     * 登录与注册的客户端在等待响应，每次都回复；其余消息在提示的等待时间内只提示一次。
+     *
+     * @param msg     被拒绝的消息
+     * @param session 发送者的会话
+     * @param wait    建议等待的纳秒数
+     * @throws IOException 发送失败
+     */
+    private void handleThrottled(Message msg, ClientSession session, long wait) throws IOException {
+        Metrics.THROTTLED.increment();
+        boolean login = Message.LOGIN.equals(msg.getType()) || Message.REGISTER.equals(msg.getType())
+                || Message.RESUME.equals(msg.getType());
+        if (login || rateLimiter.shouldNotify(session, wait)) {
+            long millis = (wait + 999_999) / 1_000_000;
+            session.send(new Message(Message.THROTTLED, "系统", String.valueOf(millis), msg.getType()));
+        }
+        if (ServerLog.DEBUG) {
+            System.out.println("限流 -> " + session.getRemoteAddress() + " " + session.getNickname() + " " + msg.getType());
+        }
+    }
+
+    /**
+     * 加入集群 (启动时调用一次)
+     *
+     * @param cluster 集群节点
+     */
+    public void setCluster(ClusterNode cluster) {
+        this.cluster = cluster;
+    }
+
+    /**
+     * 设置群聊扇出方式 (启动时调用一次)
+     *
+     * @param broadcaster 扇出方式，null 表示在处理消息的线程上遍历在线列表
+     */
+    public void setBroadcaster(Broadcaster broadcaster) {
+        this.broadcaster = broadcaster;
+    }
+
+    /**
+     * @return 集群节点，未启用集群时为 null
+     */
+    public ClusterNode getCluster() {
+        return cluster;
+    }
+
+    /**
+     * @return 在线用户注册表
+     */
+    public SessionRegistry getOnlineUsers() {
+        return onlineUsers;
+    }
+
+    /**
+     * @return 限流器
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @return 重放窗口
+     */
+    public ReplayWindow getReplayWindow() {
+        return replayWindow;
+    }
+
+    /**
+     * @return 断线重连
+     */
+    public ResumeManager getResume() {
+        return resume;
+    }
+
+    /**
+     * @return 全文搜索索引，未启用时为 null
+     */
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * @return 在线用户列表的增量推送，未启用时为 null
+     */
+    public PresenceTracker getPresence() {
+        return presence;
+    }
+
+    /**
+     * @return 登录校验与注册
+     */
+    public Authenticator getAuth() {
+        return auth;
+    }
+
+    /**
+     * @return 房间订阅索引
+     */
+    public RoomRegistry getRooms() {
+        return rooms;
+    }
+
+    /**
+     * 处理用户登录请求
+     * 校验完成前不阻塞当前线程，结果由 onLoginResult 在会话的执行器上回复 (见 ClientSession.getExecutor)，
+     * 回放最近记录与登记在线不占用认证线程。
+     *
+     * @param msg     包含登录凭证的消息对象
+     * @param session 当前客户端的会话，用于回传响应
+     */
+    private void handleLogin(Message msg, ClientSession session) {
+        // 解析消息内容，格式约定为：账号|密码
+        String[] parts = msg.getContent().split("\\|");
+        String username = parts[0];
+        String password = parts[1];
+
+        // 查询与哈希校验在认证线程池中进行，当前线程立即返回，继续处理其他连接的消息
+        auth.login(username, password).whenCompleteAsync((user, error) -> {
+            try {
+                onLoginResult(session, user, error);
+            } catch (Exception e) {
+                // 与同步处理时一致：处理异常时断开该连接
+                System.out.println("客户端连接已断开...");
+                session.close();
+            }
+        }, session.getExecutor());
+    }
+
+    /**
+     * 登录校验完成后的处理 (在会话的执行器上执行)：回复结果，成功时回放最近记录并登记在线
+     *
+     * @param session 客户端会话
+     * @param user    校验通过的用户，账号或密码错误时为 null
+     * @param error   校验失败的原因 (数据库异常或服务器繁忙)，成功时为 null
+     * @throws IOException 发送失败
+     */
+    private void onLoginResult(ClientSession session, User user, Throwable error) throws IOException {
+        if (error != null && isBusy(error)) {
+            replyBusy(session, Message.LOGIN);
+            return;
+        }
+        if (error != null || user == null) {
+            Metrics.LOGIN_FAILURES.increment();
+            session.send(new Message(Message.LOGIN_FAIL, null, error != null ? authError(error) : "账号或密码错误！", null));
+            return;
+        }
+        // 验证通过，构建成功响应
+        String nickname = user.getNickname();
+        Message response = new Message();
+        response.setType(Message.LOGIN_SUCCESS);
+        response.setContent("欢迎回来，" + nickname);
+        // 恢复令牌与当前最新序号，客户端断线后据此恢复；令牌在登记在线之后才生效
+        ResumeManager.Ticket ticket = resume.prepare(nickname, session);
+        response.setReceiver(ticket.getToken());
+        response.setSeq(replayWindow.getLastSeq());
+        session.send(response);
+
+        Metrics.LOGINS.increment();
+        // 先回放最近的群聊记录，再加入在线列表接收实时消息，保证客户端先收到 LOGIN_SUCCESS 与历史记录
+        recentHistory.replay(session, RecentHistory.GLOBAL);
+
+        // 将当前用户加入在线列表，以便后续进行消息转发
+        ClientSession replaced = onlineUsers.register(nickname, session);
+        if (!session.isClosed()) {
+            resume.issue(ticket);
+        }
+        if (session.isClosed()) {
+            // 登录过程中连接已断开：撤销登记，同名的旧连接保持在线，不通告上线。
+            // 令牌若已生效，断开处理可能早于生效而没有为它计时，这里补上过期
+            onlineUsers.revert(nickname, session, replaced);
+            resume.closed(session, Set.of());
+            return;
+        }
+        System.out.println("用户上线：" + nickname);
+        if (cluster != null) {
+            cluster.userOnline(nickname);
+        }
+        // 先登记在线再发送快照：之后发布的增量一定排在快照之后送达
+        if (presence != null) {
+            presence.changed(nickname);
+            presence.sendSnapshot(session);
+        }
+
+        // 同一账号在其他连接上重复登录时，断开旧连接
+        if (replaced != null) {
+            System.out.println("重复登录，断开旧连接：" + nickname + " " + replaced.getRemoteAddress());
+            replaced.close();
+        }
+    }
+
+    /**
+     * 处理断线恢复：sender 为昵称，receiver 为恢复令牌，content 为收到的最大序号
+     * 校验通过后恢复登录状态与断开时加入的房间，只补发错过的消息；错过太多时回放最近记录，与登录相同。
+     *
+     * @param msg     恢复请求
+     * @param session 新连接
+     * @throws Exception 存储访问失败或发送失败
+     */
+    private void handleResume(Message msg, ClientSession session) throws Exception {
+        String nickname = msg.getSender();
+        ResumeManager.Ticket ticket = resume.claim(nickname, msg.getReceiver(), session);
+        if (ticket == null) {
+            Metrics.RESUME_FAILURES.increment();
+            session.send(new Message(Message.RESUME_FAIL, null, "会话已过期，请重新登录", null));
+            return;
+        }
+        long lastSeq;
+        try {
+            lastSeq = Long.parseLong(msg.getContent());
+        } catch (NumberFormatException e) {
+            lastSeq = ticket.getAcked();
+        }
+        // 旧连接可能还没被发现断开，此时房间以它为准
+        ClientSession previous = ticket.session;
+        Set<String> joined = previous != null ? rooms.roomsOf(previous) : ticket.rooms;
+        ResumeManager.Replay replay = resume.replay(session, nickname, joined, lastSeq);
+
+        Message ok = new Message(Message.RESUME_OK, nickname, null, ticket.getToken());
+        ok.setSeq(replayWindow.getLastSeq());
+        session.send(ok);
+        boolean delta = replay.loadStored();
+
+        // 先登记在线、加入房间，再扫描窗口：之后的消息要么在窗口中，要么由扇出直接送达
+        resume.attach(ticket, session);
+        ClientSession replaced = onlineUsers.register(nickname, session);
+        if (session.isClosed()) {
+            // 令牌已转交给新连接，断开处理可能因为还没有昵称而没有为它计时，这里补上过期
+            onlineUsers.revert(nickname, session, replaced);
+            resume.closed(session, joined);
+            return;
+        }
+        if (cluster != null) {
+            cluster.userOnline(nickname);
+        }
+        // 在线列表由客户端以 PRESENCE_SYNC 带上已知版本请求补发
+        presenceChanged(nickname);
+        if (replaced != null && replaced != session) {
+            replaced.close();
+        }
+        for (String room : joined) {
+            rooms.join(room, session);
+        }
+        delta = delta && replay.send();
+        Metrics.RESUMES.increment();
+        if (!delta) {
+            Metrics.RESUME_RELOADS.increment();
+            recentHistory.replay(session, RecentHistory.GLOBAL);
+            for (String room : joined) {
+                recentHistory.replay(session, room);
+            }
+        }
+        System.out.println("用户恢复连接：" + nickname + " 起始序号 " + lastSeq
+                + (delta ? " 补发 " + replay.getSent() + " 条" : " 改为回放最近记录"));
+    }
+
+    /**
+     * 处理在线列表的重新同步请求，content 为客户端已知的版本
+     *
+     * @param msg     同步请求
+     * @param session 请求者的会话
+     * @throws IOException 发送失败
+     */
+    private void handlePresenceSync(Message msg, ClientSession session) throws IOException {
+        if (presence == null || session.getNickname() == null) {
+            return;
+        }
+        long known;
+        try {
+            known = Long.parseLong(msg.getContent());
+        } catch (NumberFormatException e) {
+            known = 0;
+        }
+        presence.resync(session, known);
+    }
+
+    /**
+     * 记录昵称的在线状态可能发生了变化 (本节点的上下线，以及由 ClusterNode 通知的其他节点的上下线)
+     *
+     * @param nickname 昵称
+     */
+    public void presenceChanged(String nickname) {
+        if (presence != null) {
+            presence.changed(nickname);
+        }
+    }
+
+    /**
+     * @return 昵称在本节点或集群中其他节点在线时返回 true
+     */
+    private boolean isOnline(String nickname) {
+        ClusterNode cluster = this.cluster;
+        return onlineUsers.get(nickname) != null || cluster != null && cluster.isRemoteOnline(nickname);
+    }
+
+    /**
+     * 记录客户端确认收到的序号，恢复请求没有带序号时以此为准
+     *
+     * @param msg     content 为序号
+     * @param session 会话
+     */
+    private void handleAck(Message msg, ClientSession session) {
+        try {
+            resume.ack(session, Long.parseLong(msg.getContent()));
+        } catch (NumberFormatException e) {
+            // 格式错误的确认直接忽略
+        }
+    }
+
+    /**
+     * 处理历史消息翻页请求
+     * content 为游标 (上一页 HISTORY_END 中的值)，receiver 为空或 ALL 时翻群聊记录，
+     * 为房间名时翻该房间的记录 (仅限成员)，否则翻与该用户的私聊记录。
+     *
+     * @param msg     翻页请求
+     * @param session 请求者的会话
+     * @throws Exception 存储访问失败或发送失败
+     */
+    private void handleHistory(Message msg, ClientSession session) throws Exception {
+        if (session.getNickname() == null) {
+            return;
+        }
+        long cursor;
+        try {
+            cursor = Long.parseLong(msg.getContent());
+        } catch (NumberFormatException e) {
+            cursor = Long.MAX_VALUE;
+        }
+        int limit = ServerConfig.HISTORY_PAGE_SIZE;
+        String conversation = msg.getReceiver() == null ? RecentHistory.GLOBAL : msg.getReceiver();
+        List<ChatLogRecord> page;
+        if (cursor <= 0) {
+            page = List.of();
+        } else if (RecentHistory.GLOBAL.equals(conversation)) {
+            page = chatLogStore.loadBefore(conversation, cursor, limit);
+        } else if (RoomRegistry.isValidName(conversation)) {
+            if (!rooms.isMember(conversation, session)) {
+                return;
+            }
+            page = chatLogStore.loadBefore(conversation, cursor, limit);
+        } else {
+            page = chatLogStore.loadPrivateBefore(session.getNickname(), conversation, cursor, limit);
+        }
+        RecentHistory.sendPage(session, conversation, page, limit);
+    }
+
+    /**
+     * 处理搜索请求：content 为查询文本，receiver 为翻页游标
+     * 结果限于请求者可见的消息 (群聊、所在房间、自己发出或收到的私聊)，逐条以 SEARCH_RESULT 返回，最后是 SEARCH_END。
+     *
+     * @param msg     搜索请求
+     * @param session 请求者的会话
+     * @throws Exception 存储访问失败或发送失败
+     */
+    private void handleSearch(Message msg, ClientSession session) throws Exception {
+        if (session.getNickname() == null) {
+            return;
+        }
+        SearchQuery query = null;
+        String error = null;
+        if (searchIndex == null) {
+            error = "服务器未启用搜索";
+        } else {
+            try {
+                query = SearchQuery.parse(msg.getContent());
+            } catch (IllegalArgumentException e) {
+                error = e.getMessage();
+            }
+        }
+        if (query == null) {
+            session.send(new Message(Message.CHAT, "系统", error, null));
+            session.send(new Message(Message.SEARCH_END, null, "0", null));
+            return;
+        }
+        long cursor;
+        try {
+            cursor = msg.getReceiver() == null ? Long.MAX_VALUE : Long.parseLong(msg.getReceiver());
+        } catch (NumberFormatException e) {
+            cursor = Long.MAX_VALUE;
+        }
+        Metrics.SEARCHES.increment();
+        if (searchIndex.isBuilding()) {
+            session.send(new Message(Message.CHAT, "系统", "搜索索引正在重建，较早的记录可能搜不到", null));
+        }
+        SearchIndex.Result result = searchIndex.search(query, session.getNickname(), rooms.roomsOf(session),
+                cursor <= 0 ? Long.MAX_VALUE : cursor, ServerConfig.SEARCH_PAGE_SIZE);
+        for (ChatLogRecord record : result.hits()) {
+            Message m = record.getMessage();
+            session.send(new Message(Message.SEARCH_RESULT, m.getSender(), m.getContent(),
+                    m.getReceiver() == null ? RecentHistory.GLOBAL : m.getReceiver()));
+        }
+        session.send(new Message(Message.SEARCH_END, null, String.valueOf(result.next()), null));
+    }
+
+    /**
+     * 处理聊天消息：receiver 为空或 ALL 时群发，否则私聊
+     *
+     * @param msg     包含聊天内容的完整消息对象
+     * @param session 发送者的会话
+     */
+    private void handleChat(Message msg, ClientSession session) {
+        String receiver = msg.getReceiver();
+        if (receiver == null || RecentHistory.GLOBAL.equals(receiver)) {
+            handleBroadcast(msg, session);
+        } else {
+            handlePrivateChat(msg, session);
+        }
+    }
+
+    /**
+     * 处理私聊消息：在在线列表中按昵称查找接收者，只写给这一个连接
+     * 接收者不在线时向发送者返回 USER_OFFLINE；无论是否送达，消息都会保存，双方之后可以通过 HISTORY 翻阅。
+     *
+     * @param msg     私聊消息
+     * @param session 发送者的会话
+     */
+    private void handlePrivateChat(Message msg, ClientSession session) {
+        if (session.getNickname() == null) {
+            return;
+        }
+        // 发送者以登录身份为准，防止冒充他人发送私聊
+        msg.setSender(session.getNickname());
+        // 先放入重放窗口再查找接收者，与恢复时先登记在线再扫描窗口的顺序相对
+        ReplayWindow.Entry entry = replayWindow.stamp(msg, msg.getReceiver());
+        ByteBuffer frame = entry.frame();
+        ClientSession target = onlineUsers.get(msg.getReceiver());
+        boolean delivered = false;
+        if (target != null) {
+            try {
+                target.sendFrame(frame);
+                delivered = true;
+            } catch (IOException e) {
+                Metrics.SEND_FAILURES.increment();
+                if (ServerLog.DEBUG) {
+                    System.out.println("私聊转发失败 -> 接收者: " + msg.getReceiver() + " 原因: " + e.getMessage());
+                }
+            }
+        } else if (cluster != null) {
+            // 本节点不在线时，按在线用户目录转发到接收者所在的节点
+            delivered = cluster.relayTo(msg.getReceiver(), frame);
+        }
+        if (delivered) {
+            broadcastStats.recordDirect(frame.remaining());
+        } else {
+            try {
+                session.send(new Message(Message.USER_OFFLINE, "系统",
+                        "用户 " + msg.getReceiver() + " 不在线，消息已保存", msg.getReceiver()));
+            } catch (IOException e) {
+                // 发送者连接已断开，忽略
+            }
+        }
+        chatLogStore.save(msg, onSaved(msg, entry.seq()));
+    }
+
+    /**
+     * 处理加入房间：确认后回放该房间最近的消息
+     *
+     * @param msg     receiver 为房间名
+     * @param session 请求者的会话
+     * @throws IOException 发送失败
+     */
+    private void handleJoin(Message msg, ClientSession session) throws IOException {
+        String room = msg.getReceiver();
+        if (session.getNickname() == null) {
+            return;
+        }
+        if (!RoomRegistry.isValidName(room)) {
+            session.send(new Message(Message.CHAT, "系统", "房间名须以 # 开头且不超过 "
+                    + RoomRegistry.MAX_NAME_LENGTH + " 个字符", null));
+            return;
+        }
+        int count = rooms.join(room, session);
+        if (count < 0) {
+            return;
+        }
+        session.send(new Message(Message.ROOM_JOIN, session.getNickname(), String.valueOf(count), room));
+        recentHistory.replay(session, room);
+    }
+
+    /**
+     * 处理退出房间
+     *
+     * @param msg     receiver 为房间名
+     * @param session 请求者的会话
+     * @throws IOException 发送失败
+     */
+    private void handleLeave(Message msg, ClientSession session) throws IOException {
+        String room = msg.getReceiver();
+        if (room != null && rooms.leave(room, session)) {
+            session.send(new Message(Message.ROOM_LEAVE, session.getNickname(), null, room));
+        }
+    }
+
+    /**
+     * 处理房间消息：只遍历该房间的成员
+     * 与群聊一样只编码一次，并放入该房间的最近记录缓存。
+     *
+     * @param msg     receiver 为房间名
+     * @param session 发送者的会话
+     */
+    private void handleRoomChat(Message msg, ClientSession session) {
+        String room = msg.getReceiver();
+        if (room == null || !rooms.isMember(room, session)) {
+            try {
+                session.send(new Message(Message.CHAT, "系统", "你不在房间 " + room + " 中", null));
+            } catch (IOException e) {
+                // 发送者连接已断开，忽略
+            }
+            return;
+        }
+        msg.setSender(session.getNickname());
+        ReplayWindow.Entry entry = replayWindow.stamp(msg, room);
+        ByteBuffer frame = entry.frame();
+        int delivered = fanOut(rooms.members(room), frame, session);
+        broadcastStats.record(frame.remaining(), delivered);
+        if (cluster != null) {
+            cluster.relay(frame);
+        }
+        // receiver_name 保存房间名，按房间翻页与群聊共用 (receiver_name, id) 索引
+        chatLogStore.save(msg, recentHistory.append(room, frame).andThen(onSaved(msg, entry.seq())));
+    }
+
+    /**
+     * 处理群聊消息转发
+     * 消息只编码一次 (分配序号时)，所有接收者与重放窗口共享同一个只读帧缓冲区。
+     *
+     * @param msg     包含聊天内容的完整消息对象
+     * @param session 发送者的会话
+     */
+    private void handleBroadcast(Message msg, ClientSession session) {
+        if (session.getNickname() == null) {
+            return;
+        }
+        // 发送者以登录身份为准，防止冒充他人发言
+        msg.setSender(session.getNickname());
+        ReplayWindow.Entry entry = replayWindow.stamp(msg, RecentHistory.GLOBAL);
+        ByteBuffer frame = entry.frame();
+
+        // 写给在线用户列表中的所有用户，实现消息广播
+        broadcastLocal(frame, session);
+        if (ServerLog.sampleChat()) {
+            System.out.println("转发消息 -> 发送者: " + msg.getSender() + " 内容: " + msg.getContent());
+        }
+
+        // 其他节点上的用户由各节点自行投递，每个节点只转发一次
+        if (cluster != null) {
+            cluster.relay(frame);
+        }
+
+        // 放入最近记录缓存，并持久化到数据库 (写入后回填记录 ID，作为翻页游标)
+        chatLogStore.save(msg, recentHistory.append(RecentHistory.GLOBAL, frame)
+                .andThen(onSaved(msg, entry.seq())));
+    }
+
+    /**
+     * 记录持久化后的回调：回填重放窗口中的存储 ID，并把消息加入搜索索引
+     *
+     * @param msg 已分配序号的消息
+     * @param seq 序号
+     * @return 回调
+     */
+    private LongConsumer onSaved(Message msg, long seq) {
+        LongConsumer callback = replayWindow.onSaved(seq);
+        return searchIndex == null ? callback : callback.andThen(searchIndex.onSaved(msg));
+    }
+
+    /**
+     * 把帧写给本节点所有已登录的用户
+     *
+     * @param frame   已编码的只读帧
+     * @param exclude 需要排除的会话 (发送者自身)，可为 null
+     */
+    private void broadcastLocal(ByteBuffer frame, ClientSession exclude) {
+        Broadcaster broadcaster = this.broadcaster;
+        if (broadcaster != null) {
+            // 接收者数量由各事件循环扇出后记录
+            broadcastStats.recordBroadcast(frame.remaining());
+            broadcaster.broadcast(frame, exclude);
+        } else {
+            broadcastStats.record(frame.remaining(), fanOut(onlineUsers.sessions(), frame, exclude));
+        }
+    }
+
+    /**
+     * 把同一个帧写给一组会话
+     *
+     * @param receivers 接收者
+     * @param frame     已编码的只读帧
+     * @param exclude   需要排除的会话 (发送者自身)，可为 null
+     * @return 成功放入出站队列的接收者数量
+     */
+    private int fanOut(Iterable<ClientSession> receivers, ByteBuffer frame, ClientSession exclude) {
+        long start = System.nanoTime();
+        int delivered = 0;
+        for (ClientSession receiver : receivers) {
+            // 排除发送者自身，只转发给其他用户
+            if (receiver != exclude) {
+                try {
+                    receiver.sendFrame(frame);
+                    delivered++;
+                } catch (IOException e) {
+                    // 单个接收者写失败不影响其他接收者
+                    Metrics.SEND_FAILURES.increment();
+                    if (ServerLog.DEBUG) {
+                        System.out.println("消息转发失败 -> 接收者: " + receiver.getNickname() + " 原因: " + e.getMessage());
+                    }
+                }
+            }
+        }
+        Metrics.FANOUT.recordSince(start);
+        return delivered;
+    }
+
+    /**
+     * 投递其他集群节点转发来的消息 (由 ClusterNode 调用)
+     * 只投递给本节点的用户并放入最近记录缓存，不再转发，也不保存 (由产生消息的节点保存)。
+     * 序号由各节点独立分配，转发来的消息按本节点的序号重新编号。
+     *
+     * @param msg 群聊、私聊或房间消息
+     */
+    public void deliverRelayed(Message msg) {
+        String receiver = msg.getReceiver();
+        boolean room = Message.ROOM_CHAT.equals(msg.getType());
+        if (!room && !Message.CHAT.equals(msg.getType()) || room && receiver == null) {
+            return;
+        }
+        String conversation = receiver == null ? RecentHistory.GLOBAL : receiver;
+        ByteBuffer frame = replayWindow.stamp(msg, conversation).frame();
+        if (room) {
+            broadcastStats.record(frame.remaining(), fanOut(rooms.members(receiver), frame, null));
+            recentHistory.append(receiver, frame);
+        } else if (RecentHistory.GLOBAL.equals(conversation)) {
+            broadcastLocal(frame, null);
+            recentHistory.append(RecentHistory.GLOBAL, frame);
+        } else {
+            ClientSession target = onlineUsers.get(receiver);
+            if (target != null) {
+                try {
+                    target.sendFrame(frame);
+                    broadcastStats.recordDirect(frame.remaining());
+                } catch (IOException e) {
+                    Metrics.SEND_FAILURES.increment();
+                    if (ServerLog.DEBUG) {
+                        System.out.println("私聊转发失败 -> 接收者: " + receiver + " 原因: " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 广播统计
+     */
+    public BroadcastStats getBroadcastStats() {
+        return broadcastStats;
+    }
+
+    /**
+     * 汇总所有在线用户出站队列的指标
+     *
+     * @return 便于输出到日志的统计文本
+     */
+    public String getOutboundSummary() {
+        int sessions = 0;
+        long depth = 0;
+        long dropped = 0;
+        long coalesced = 0;
+        int maxDepth = 0;
+        String deepest = "-";
+        for (ClientSession session : onlineUsers.sessions()) {
+            OutboundQueue queue = session.getOutboundQueue();
+            int size = queue.size();
+            sessions++;
+            depth += size;
+            dropped += queue.getDropped();
+            coalesced += queue.getCoalesced();
+            if (size > maxDepth) {
+                maxDepth = size;
+                deepest = session.getNickname();
+            }
+        }
+        return "出站队列 -> 连接: " + sessions
+                + " 积压帧: " + depth
+                + " 最大积压: " + maxDepth + " (" + deepest + ")"
+                + " 丢弃: " + dropped
+                + " 合并: " + coalesced;
+    }
+
+    /**
+     * 处理用户注册请求
+     *
+     * @param msg     包含注册信息的消息对象
+     * @param session 当前客户端的会话
+     * @throws IOException 昵称不合法时回复失败
+     */
+    private void handleRegister(Message msg, ClientSession session) throws IOException {
+        // 解析注册信息，格式约定为：账号|密码|昵称
+        String[] parts = msg.getContent().split("\\|");
+        String username = parts[0];
+        String password = parts[1];
+        String nickname = parts[2];
+        if (nickname.startsWith("#") || RecentHistory.GLOBAL.equals(nickname)) {
+            // # 开头的名字保留给房间，ALL 表示群聊，均不能作为昵称
+            session.send(new Message(Message.REGISTER_FAIL, null, "昵称不能以 # 开头或为 ALL", null));
+            return;
+        }
+        // 随机分配默认头像ID (1-3)
+        int avatar = 1;
+
+        // 哈希计算与插入在认证线程池中进行；账号是否已存在由 users.username 的唯一约束判断，只访问一次数据库
+        auth.register(username, password, nickname, avatar).whenCompleteAsync((created, error) -> {
+            if (error != null && isBusy(error)) {
+                replyBusy(session, Message.REGISTER);
+                return;
+            }
+            Message response;
+            if (error != null) {
+                response = new Message(Message.REGISTER_FAIL, null, authError(error), null);
+            } else if (created) {
+                response = new Message(Message.REGISTER_SUCCESS, null, "注册成功！请使用新账号登录。", null);
+                Metrics.REGISTRATIONS.increment();
+                System.out.println("新用户注册成功：" + username);
+            } else {
+                response = new Message(Message.REGISTER_FAIL, null, "账号已存在，请更换账号！", null);
+            }
+            // 返回注册结果
+            try {
+                session.send(response);
+            } catch (IOException e) {
+                session.close();
+            }
+        }, session.getExecutor());
+    }
+
+    /**
+     * @param error 认证线程池返回的异常
+     * @return 认证线程池已排满时返回 true
+     */
+    private static boolean isBusy(Throwable error) {
+        return unwrap(error) instanceof RejectedExecutionException;
+    }
+
+    /**
+     * 认证线程池已排满：与限流相同，以 THROTTLED 告知客户端稍后重试 (客户端重连时据此退避，而不是放弃登录)
+     *
+     * @param session 客户端会话
+     * @param type    被拒绝的消息类型
+     */
+    private static void replyBusy(ClientSession session, String type) {
+        Metrics.AUTH_REJECTED.increment();
+        try {
+            session.send(new Message(Message.THROTTLED, "系统", String.valueOf(AUTH_BUSY_RETRY_MILLIS), type));
+        } catch (IOException e) {
+            session.close();
+        }
+    }
+
+    /**
+     * 认证失败时提示给客户端的信息
+     *
+     * @param error 认证线程池返回的异常
+     * @return 提示信息
+     */
+    private static String authError(Throwable error) {
+        Throwable cause = unwrap(error);
+        System.err.println("账号校验失败: " + cause);
+        return "服务器内部错误：" + cause.getMessage();
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * @return 聊天记录存储
+     */
+    public ChatLogStore getChatLogStore() {
+        return chatLogStore;
+    }
+}
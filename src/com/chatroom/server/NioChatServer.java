@@ -0,0 +1,115 @@
+package com.chatroom.server;
+
+import com.chatroom.server.metrics.Metrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于 NIO Selector 的聊天室服务器
+ * <p>
+ * 与每连接一线程模式不同，该模式只使用固定数量的事件循环线程 (NioEventLoop) 管理所有连接，
+ * 空闲连接不再占用线程栈，单机可以承载数万个在线连接。
+ * 接收线程负责 accept 新连接，按当前连接数最少 (或按客户端 IP 散列) 分配给各个事件循环，连接此后固定在该事件循环上；
+ * 登录、注册等可能阻塞的数据库操作在独立的工作线程池中执行，不会阻塞事件循环。
+ * </p>
+ * <p>
+ * 群聊扇出按事件循环分片：业务线程把帧交给每个事件循环各一次，由各事件循环并行写给名下的连接，
+ * 而不是由业务线程逐个写入所有连接，扇出的开销随核数分摊。
+ * </p>
+ */
+public class NioChatServer implements Broadcaster {
+    /** 监听端口 */
+    private final int port;
+    /** 事件循环线程组 */
+    private final NioEventLoop[] loops;
+    /** 业务处理线程池 */
+    private final ExecutorService workers;
+    /** 业务处理器 */
+    private final MessageHandler handler;
+
+    /**
+     * 构造方法
+     *
+     * @param port    监听端口
+     * @param handler 业务处理器
+     */
+    public NioChatServer(int port, MessageHandler handler) {
+        this.port = port;
+        this.handler = handler;
+        this.loops = new NioEventLoop[ServerConfig.NIO_EVENT_LOOPS];
+
+        AtomicInteger workerId = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(ServerConfig.NIO_WORKERS, r -> {
+            Thread t = new Thread(r, "nio-worker-" + workerId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 启动服务器
+     * 该方法在调用线程上循环接收连接，正常情况下不会返回。
+     *
+     * @throws IOException 端口绑定或 Selector 创建失败
+     */
+    public void start() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new NioEventLoop("nio-loop-" + i, handler, workers);
+            loops[i].start();
+        }
+        handler.setBroadcaster(this);
+
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), ServerConfig.NIO_BACKLOG);
+        System.out.println("服务器已启动 (NIO 模式, " + loops.length + " 个事件循环)，正在监听端口 " + port + "...");
+
+        boolean byHash = "hash".equalsIgnoreCase(ServerConfig.NIO_ASSIGN);
+        int next = 0;
+        while (true) {
+            // 接收线程使用阻塞 accept，新连接交给事件循环注册
+            SocketChannel channel = serverChannel.accept();
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                NioEventLoop loop = byHash
+                        ? loops[Math.floorMod(channel.socket().getInetAddress().hashCode(), loops.length)]
+                        : leastLoaded(next);
+                loop.register(channel);
+                Metrics.CONNECTIONS_OPENED.increment();
+                next = (next + 1) % loops.length;
+            } catch (IOException e) {
+                System.err.println("连接初始化失败: " + e.getMessage());
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * @param start 开始比较的下标，连接数相同时轮流分配
+     * @return 当前连接数最少的事件循环
+     */
+    private NioEventLoop leastLoaded(int start) {
+        NioEventLoop best = loops[start];
+        for (int i = 1; i < loops.length; i++) {
+            NioEventLoop loop = loops[(start + i) % loops.length];
+            if (loop.getConnectionCount() < best.getConnectionCount()) {
+                best = loop;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public void broadcast(ByteBuffer frame, ClientSession exclude) {
+        for (NioEventLoop loop : loops) {
+            loop.broadcast(frame, exclude);
+        }
+    }
+}
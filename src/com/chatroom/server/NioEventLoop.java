@@ -0,0 +1,273 @@
+package com.chatroom.server;
+
+import com.chatroom.server.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NIO 事件循环线程 (一个分片)
+ * <p>
+ * 每个事件循环持有一个 Selector，负责其名下所有连接的读写就绪事件。
+ * 其他线程对连接的操作 (注册新连接、刷新待发送数据、群聊扇出) 通过任务队列 (多生产者、单消费者) 提交到本线程执行，
+ * 因此 SelectionKey 与 SocketChannel 只会被本线程访问。
+ * </p>
+ * <p>
+ * 名下的连接列表同样只由本线程访问，不加锁。群聊消息由业务线程向每个事件循环各提交一次，
+ * 事件循环在自己的线程上把帧放入名下已登录连接的出站队列，本轮任务执行完后再统一刷新，
+ * 同一轮内的多条广播只触发每个连接一次写入。
+ * </p>
+ */
+public class NioEventLoop extends Thread {
+    /** 单次读取使用的缓冲区大小 */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /** 一次聚集写入的最大帧数 (远小于系统的 IOV_MAX) */
+    static final int GATHER_LIMIT = 64;
+
+    private final Selector selector;
+    private final MessageHandler handler;
+    private final ExecutorService workers;
+
+    /** 其他线程提交给本事件循环执行的任务 */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    /** 是否已经唤醒过 Selector，避免重复调用 wakeup() */
+    private final AtomicBoolean wakenUp = new AtomicBoolean();
+
+    /** 名下的全部连接，仅由本线程访问 */
+    private final ArrayList<NioSession> sessions = new ArrayList<>();
+    /** 名下的连接数 (含已分配、尚未注册的)，供接收线程选择事件循环 */
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    /** 放入了待发送数据、等待统一刷新的连接，仅由本线程访问 */
+    private final ArrayList<NioSession> dirty = new ArrayList<>();
+    /** dirty 中最早一个连接加入的时刻 */
+    private long dirtySince;
+    /** 刷新前最多等待的时间 (纳秒)，0 表示每轮事件处理结束即刷新 */
+    private final long flushDelayNanos = TimeUnit.MICROSECONDS.toNanos(ServerConfig.OUTBOUND_FLUSH_DELAY_MICROS);
+    /** 聚集写入时使用的帧数组，本线程的所有连接共用 */
+    private final ByteBuffer[] gather = new ByteBuffer[GATHER_LIMIT];
+
+    /**
+     * 本线程所有连接共用的读缓冲区
+     * 不完整的帧才会被复制到连接自己的缓冲区中，空闲连接不占用读缓冲内存。
+     */
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    /**
+     * 构造方法
+     *
+     * @param name    线程名称
+     * @param handler 业务处理器
+     * @param workers 业务处理线程池
+     * @throws IOException Selector 创建失败
+     */
+    public NioEventLoop(String name, MessageHandler handler, ExecutorService workers) throws IOException {
+        super(name);
+        this.selector = Selector.open();
+        this.handler = handler;
+        this.workers = workers;
+    }
+
+    /**
+     * 注册一个新连接 (可在任意线程调用)
+     *
+     * @param channel 已设置为非阻塞模式的连接
+     */
+    public void register(SocketChannel channel) {
+        connectionCount.incrementAndGet();
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioSession session = new NioSession(channel, key, this, handler, workers);
+                key.attach(session);
+                session.index = sessions.size();
+                sessions.add(session);
+                handler.sessionOpened(session);
+            } catch (IOException e) {
+                System.err.println("连接注册失败: " + e.getMessage());
+                connectionCount.decrementAndGet();
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    /**
+     * 从名下的连接中移除 (本线程调用)
+     *
+     * @param session 已关闭的连接
+     */
+    void remove(NioSession session) {
+        int index = session.index;
+        if (index < 0) {
+            return;
+        }
+        // 与最后一个交换后删除，O(1)
+        NioSession last = sessions.remove(sessions.size() - 1);
+        if (last != session) {
+            sessions.set(index, last);
+            last.index = index;
+        }
+        session.index = -1;
+        connectionCount.decrementAndGet();
+    }
+
+    /**
+     * @return 名下的连接数
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * 把群聊帧写给名下所有已登录的连接 (可在任意线程调用，异步执行)
+     *
+     * @param frame   已编码的只读帧
+     * @param exclude 需要排除的会话，可为 null
+     */
+    public void broadcast(ByteBuffer frame, ClientSession exclude) {
+        execute(() -> fanOut(frame, exclude));
+    }
+
+    private void fanOut(ByteBuffer frame, ClientSession exclude) {
+        long start = System.nanoTime();
+        int delivered = 0;
+        for (int i = 0; i < sessions.size(); i++) {
+            NioSession session = sessions.get(i);
+            // 昵称在登记到在线列表之前设置，有昵称即已登录
+            if (session != exclude && session.getNickname() != null && session.offer(frame)) {
+                delivered++;
+            }
+        }
+        handler.getBroadcastStats().recordRecipients(frame.remaining(), delivered);
+        Metrics.FANOUT.recordSince(start);
+    }
+
+    /**
+     * 安排刷新一个连接：推迟到本轮事件处理结束 (或配置的等待时间之后) 统一刷新，
+     * 期间放入该连接的其他帧在同一次聚集写入中写出
+     *
+     * @param session 放入了待发送数据的连接
+     */
+    void scheduleFlush(NioSession session) {
+        if (Thread.currentThread() == this) {
+            markDirty(session);
+        } else {
+            execute(() -> markDirty(session));
+        }
+    }
+
+    private void markDirty(NioSession session) {
+        if (dirty.isEmpty()) {
+            dirtySince = System.nanoTime();
+        }
+        dirty.add(session);
+    }
+
+    /**
+     * @return 聚集写入使用的帧数组 (本线程调用)，用完后须清空
+     */
+    ByteBuffer[] gatherBuffer() {
+        return gather;
+    }
+
+    /**
+     * 提交一个任务到本事件循环执行 (可在任意线程调用)
+     *
+     * @param task 任务
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != this && wakenUp.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * 事件循环主体
+     */
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                if (dirty.isEmpty()) {
+                    selector.select();
+                } else {
+                    // 有连接在等待刷新，最多阻塞到等待时间结束 (Selector 的精度为毫秒)
+                    long wait = dirtySince + flushDelayNanos - System.nanoTime();
+                    if (wait <= 0) {
+                        selector.selectNow();
+                    } else {
+                        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+                    }
+                }
+                wakenUp.set(false);
+                processSelectedKeys();
+                runTasks();
+                if (!dirty.isEmpty() && System.nanoTime() - dirtySince >= flushDelayNanos) {
+                    flushDirty();
+                }
+            } catch (Exception e) {
+                // 单个连接的异常已在 NioSession 内部处理，这里只兜底记录，保证事件循环不退出
+                System.err.println(getName() + " 事件循环异常: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            NioSession session = (NioSession) key.attachment();
+            try {
+                if (key.isReadable()) {
+                    session.onReadable(readBuffer);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    session.flush();
+                }
+            } catch (CancelledKeyException e) {
+                session.close();
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                System.err.println(getName() + " 任务执行失败: " + e.getMessage());
+            }
+        }
+    }
+
+    private void flushDirty() {
+        for (int i = 0; i < dirty.size(); i++) {
+            dirty.get(i).flush();
+        }
+        dirty.clear();
+    }
+
+    static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 连接已关闭，忽略
+        }
+    }
+}
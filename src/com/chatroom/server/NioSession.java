@@ -0,0 +1,292 @@
+package com.chatroom.server;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+import com.chatroom.server.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * NIO 模式下的客户端会话
+ * <p>
+ * 读操作在所属的事件循环线程中完成：读取到的字节按帧切分，解码后的消息放入入站队列，
+ * 再由业务线程池按到达顺序逐条交给 MessageHandler 处理 (同一连接的消息不会被并发处理)。
+ * 写操作可由任意线程发起：消息被编码后放入出站队列，由事件循环线程负责真正写入 SocketChannel。
+ * </p>
+ */
+public class NioSession extends AbstractSession {
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final NioEventLoop loop;
+    private final MessageHandler handler;
+    private final ExecutorService workers;
+
+    /** 尚未凑齐一帧的剩余字节，仅在出现半包时分配 */
+    private ByteBuffer partial;
+
+    /** 待处理的入站消息 */
+    private final Queue<Message> inbound = new ConcurrentLinkedQueue<>();
+    /** 是否已有业务线程在处理本连接的入站队列 */
+    private final AtomicBoolean processing = new AtomicBoolean();
+
+    /** 上次聚集写入没有写完的帧 (套接字发送缓冲区已满)，仅由事件循环线程访问，首次出现时分配 */
+    private ByteBuffer[] unwritten;
+    private int unwrittenCount;
+    /** 是否正在关注 OP_WRITE */
+    private boolean writeInterest;
+    /** 是否已向事件循环提交刷新任务 */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /** 连接是否已关闭 */
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /** 在所属事件循环连接列表中的下标，未注册或已移除时为 -1，仅由事件循环线程访问 */
+    int index = -1;
+
+    NioSession(SocketChannel channel, SelectionKey key, NioEventLoop loop,
+               MessageHandler handler, ExecutorService workers) {
+        this.channel = channel;
+        this.key = key;
+        this.loop = loop;
+        this.handler = handler;
+        this.workers = workers;
+    }
+
+    /**
+     * 处理读就绪事件 (事件循环线程调用)
+     *
+     * @param readBuffer 事件循环共享的读缓冲区
+     */
+    void onReadable(ByteBuffer readBuffer) {
+        try {
+            readBuffer.clear();
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                close();
+                return;
+            }
+            Metrics.BYTES_IN.add(n);
+            readBuffer.flip();
+
+            ByteBuffer buf = readBuffer;
+            if (partial != null) {
+                partial = append(partial, readBuffer);
+                partial.flip();
+                buf = partial;
+            }
+
+            Message msg;
+            while ((msg = MessageCodec.decode(buf)) != null) {
+                inbound.add(msg);
+            }
+
+            // 保存不完整的帧，等待下一次读取
+            if (buf.hasRemaining()) {
+                if (buf == partial) {
+                    partial.compact();
+                } else {
+                    partial = ByteBuffer.allocate(Math.max(buf.remaining() * 2, 256));
+                    partial.put(buf);
+                }
+            } else {
+                partial = null;
+            }
+
+            scheduleProcessing();
+        } catch (StreamCorruptedException e) {
+            // 协议版本不匹配或帧格式非法
+            System.out.println("客户端协议错误，连接已断开: " + getRemoteAddress() + " " + e.getMessage());
+            close();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private static ByteBuffer append(ByteBuffer dst, ByteBuffer src) {
+        if (dst.remaining() < src.remaining()) {
+            ByteBuffer bigger = ByteBuffer.allocate((dst.position() + src.remaining()) * 2);
+            dst.flip();
+            bigger.put(dst);
+            dst = bigger;
+        }
+        dst.put(src);
+        return dst;
+    }
+
+    private void scheduleProcessing() {
+        if (!inbound.isEmpty() && processing.compareAndSet(false, true)) {
+            workers.execute(this::processInbound);
+        }
+    }
+
+    /**
+     * 在业务线程中依次处理入站消息
+     */
+    private void processInbound() {
+        Message msg;
+        while ((msg = inbound.poll()) != null) {
+            try {
+                handler.handle(this, msg);
+            } catch (Exception e) {
+                // 与阻塞模式保持一致：处理异常时断开该连接
+                System.out.println("客户端连接已断开...");
+                close();
+                inbound.clear();
+            }
+        }
+        processing.set(false);
+        // 处理期间可能有新消息到达
+        scheduleProcessing();
+    }
+
+    @Override
+    public void sendFrame(ByteBuffer frame) throws IOException {
+        if (closed.get()) {
+            throw new IOException("连接已关闭: " + getRemoteAddress());
+        }
+        try {
+            // 共享帧只复制读写位置，不复制内容
+            outbound.offer(frame.duplicate());
+        } catch (IOException e) {
+            System.out.println("客户端接收过慢，连接已断开: " + getRemoteAddress());
+            close();
+            throw e;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.scheduleFlush(this);
+        }
+    }
+
+    /**
+     * 事件循环扇出群聊时放入一帧 (事件循环线程调用)
+     *
+     * @param frame 已编码的只读帧
+     * @return 放入成功时返回 true
+     */
+    boolean offer(ByteBuffer frame) {
+        try {
+            sendFrame(frame);
+            return true;
+        } catch (IOException e) {
+            Metrics.SEND_FAILURES.increment();
+            return false;
+        }
+    }
+
+    /**
+     * 将出站队列中的数据写入连接 (事件循环线程调用)
+     * 每次取出至多 {@link NioEventLoop#GATHER_LIMIT} 帧，以一次聚集写入 (writev) 写出，
+     * 积压的帧越多，每次系统调用写出的帧越多，报文也随之合并。
+     * 若套接字发送缓冲区已满，则保留没写完的帧并关注 OP_WRITE 事件，待可写时继续。
+     */
+    void flush() {
+        flushScheduled.set(false);
+        if (closed.get()) {
+            return;
+        }
+        ByteBuffer[] batch = loop.gatherBuffer();
+        int count = 0;
+        if (unwrittenCount > 0) {
+            System.arraycopy(unwritten, 0, batch, 0, unwrittenCount);
+            count = unwrittenCount;
+            Arrays.fill(unwritten, 0, unwrittenCount, null);
+            unwrittenCount = 0;
+        }
+        long frames = 0;
+        long bytes = 0;
+        long syscalls = 0;
+        try {
+            while (true) {
+                ByteBuffer buf;
+                while (count < batch.length && (buf = outbound.poll()) != null) {
+                    batch[count++] = buf;
+                }
+                if (count == 0) {
+                    break;
+                }
+                bytes += channel.write(batch, 0, count);
+                syscalls++;
+                int done = 0;
+                while (done < count && !batch[done].hasRemaining()) {
+                    done++;
+                }
+                frames += done;
+                if (done < count) {
+                    if (unwritten == null) {
+                        unwritten = new ByteBuffer[batch.length];
+                    }
+                    unwrittenCount = count - done;
+                    System.arraycopy(batch, done, unwritten, 0, unwrittenCount);
+                    Arrays.fill(batch, 0, count, null);
+                    setWriteInterest(true);
+                    return;
+                }
+                Arrays.fill(batch, 0, count, null);
+                count = 0;
+            }
+            setWriteInterest(false);
+        } catch (IOException e) {
+            Arrays.fill(batch, null);
+            close();
+        } finally {
+            Metrics.MESSAGES_OUT.add(frames);
+            Metrics.BYTES_OUT.add(bytes);
+            Metrics.WRITE_SYSCALLS.add(syscalls);
+        }
+    }
+
+    private void setWriteInterest(boolean interested) {
+        if (writeInterest != interested) {
+            writeInterest = interested;
+            key.interestOps(interested ? key.interestOps() | SelectionKey.OP_WRITE
+                    : key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return String.valueOf(channel.socket().getRemoteSocketAddress());
+    }
+
+    @Override
+    public String getRemoteHost() {
+        InetAddress address = channel.socket().getInetAddress();
+        return address == null ? getRemoteAddress() : address.getHostAddress();
+    }
+
+    /**
+     * @return 业务线程池
+     */
+    @Override
+    public Executor getExecutor() {
+        return workers;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        key.cancel();
+        NioEventLoop.closeQuietly(channel);
+        outbound.clear();
+        loop.execute(() -> loop.remove(this));
+        handler.sessionClosed(this);
+    }
+}
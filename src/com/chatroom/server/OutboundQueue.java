@@ -0,0 +1,185 @@
+package com.chatroom.server;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 单个连接的有界出站队列
+ * <p>
+ * 发送者线程只负责把帧放入队列，真正的写操作由该连接的写线程 (或事件循环) 完成，
+ * 因此某个接收很慢的客户端只会让自己的队列变长，不会阻塞发送者以及其他接收者。
+ * 队列满时按 {@link OverflowPolicy} 处理。
+ * </p>
+ */
+public class OutboundQueue {
+
+    /**
+     * 队列满时的处理策略
+     */
+    public enum OverflowPolicy {
+        /** 丢弃最旧的一帧，为新帧腾出位置 */
+        DROP_OLDEST,
+        /** 断开该连接 */
+        DISCONNECT,
+        /** 丢弃积压的全部帧，改为发送一条"已省略 N 条消息"的提示 */
+        COALESCE
+    }
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ArrayDeque<ByteBuffer> frames;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** COALESCE 策略下已被合并 (省略) 但尚未通知客户端的消息数 */
+    private int skipped;
+
+    /** 统计：历史最大深度、丢弃帧数、合并帧数 */
+    private int highWaterMark;
+    private long dropped;
+    private long coalesced;
+
+    /**
+     * 使用 ServerConfig 中的默认容量与溢出策略创建队列
+     */
+    public OutboundQueue() {
+        this(ServerConfig.OUTBOUND_CAPACITY, ServerConfig.OUTBOUND_OVERFLOW);
+    }
+
+    /**
+     * 构造方法
+     *
+     * @param capacity 最多容纳的帧数
+     * @param policy   队列满时的处理策略
+     */
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.frames = new ArrayDeque<>(Math.min(capacity, 16));
+    }
+
+    /**
+     * 放入一帧 (可在任意线程调用)
+     *
+     * @param frame 需要发送的帧，调用者不得再修改其读写位置
+     * @throws IOException 队列已满且策略为 DISCONNECT，调用者应关闭连接
+     */
+    public void offer(ByteBuffer frame) throws IOException {
+        lock.lock();
+        try {
+            if (frames.size() >= capacity) {
+                switch (policy) {
+                    case DROP_OLDEST:
+                        frames.poll();
+                        dropped++;
+                        break;
+                    case COALESCE:
+                        skipped += frames.size();
+                        coalesced += frames.size();
+                        frames.clear();
+                        break;
+                    default:
+                        throw new IOException("发送队列已满 (" + capacity + ")，客户端接收过慢");
+                }
+            }
+            frames.add(frame);
+            highWaterMark = Math.max(highWaterMark, depth());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取出下一帧 (仅由写线程调用)
+     *
+     * @return 下一帧，队列为空时返回 null
+     */
+    public ByteBuffer poll() {
+        lock.lock();
+        try {
+            if (skipped > 0) {
+                // 先告知客户端中间有消息被省略，再继续发送后续消息
+                int n = skipped;
+                skipped = 0;
+                return ByteBuffer.wrap(MessageCodec.encode(
+                        new Message(Message.CHAT, "系统", "网络拥塞，已省略 " + n + " 条消息", null)));
+            }
+            return frames.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 清空队列 (连接关闭时调用)
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            frames.clear();
+            skipped = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return depth() == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 当前待发送的帧数
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return depth();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int depth() {
+        return frames.size() + (skipped > 0 ? 1 : 0);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getHighWaterMark() {
+        lock.lock();
+        try {
+            return highWaterMark;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getCoalesced() {
+        lock.lock();
+        try {
+            return coalesced;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.chatroom.server;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+import com.chatroom.server.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * 在线用户列表 (presence) 的版本化增量推送
+ * <p>
+ * 登录时发送一次完整快照 (PRESENCE)，之后只推送上线/下线的增量 (PRESENCE_DELTA)。
+ * 每次推送的增量使版本号加一，增量带有起止版本，客户端据此判断是否漏收。
+ * </p>
+ * <p>
+ * 上下线只把昵称记为"有变化"，第一次变化后等待一个合并窗口，窗口结束时按注册表的当前状态
+ * 与已发布的列表比较，只发布真正发生的变化：窗口内先下线又重连 (断线恢复、重复登录) 的用户不会产生任何增量，
+ * 一批集中上线的用户合并为一帧。这样每个客户端每个窗口最多收到一帧，流量只取决于变化的速率，与在线人数无关。
+ * 单帧内容超过 {@link #CHUNK_BYTES} 时拆成版本号连续的多帧。
+ * </p>
+ * <p>
+ * 出站队列溢出丢帧、断线重连后，客户端发现版本不连续时发送 PRESENCE_SYNC (带上已知版本)：
+ * 最近的增量仍在日志中时合并为一帧补发，已是最新时回复一个空增量，否则重新发送快照。
+ * 快照按版本缓存，同一窗口内的大量登录共用同一组帧。
+ * </p>
+ * <p>
+ * 消息格式：PRESENCE 的 receiver 为 "版本 分片序号 分片数"，content 为以换行分隔的昵称；
+ * PRESENCE_DELTA 的 receiver 为 "起始版本 目标版本"，content 为以换行分隔的 "+昵称" (上线) 与 "-昵称" (下线)。
+ * </p>
+ */
+public class PresenceTracker {
+    /** 单帧内容的最大字节数，远小于帧长度上限 */
+    static final int CHUNK_BYTES = 60 * 1024;
+
+    private final Predicate<String> isOnline;
+    private final Consumer<ByteBuffer> broadcast;
+    private final TimerWheel timer;
+    private final long windowMillis;
+    private final int logCapacity;
+
+    private final Object lock = new Object();
+    /** 已发布的在线列表，对应 version */
+    private final Set<String> online = new HashSet<>(1024);
+    /** 从 1 开始：协议中 0 表示客户端还没有快照 */
+    private long version = 1;
+    /** 上次发布之后状态可能变化的昵称 */
+    private Set<String> dirty = new HashSet<>();
+    private boolean scheduled;
+    /** 最近的增量，按版本升序 */
+    private final ArrayDeque<Delta> log = new ArrayDeque<>();
+    /** 日志中的昵称总数 */
+    private int logged;
+    /** 当前版本的快照帧，版本变化后重新生成 */
+    private List<ByteBuffer> snapshot;
+
+    /**
+     * 一次发布的增量：版本 from 变为 to 时上线与下线的昵称
+     */
+    private record Delta(long from, long to, List<String> joined, List<String> left) {}
+
+    /**
+     * 构造方法
+     *
+     * @param isOnline     判断昵称当前是否在线 (本节点或集群中其他节点)
+     * @param broadcast    把帧发送给本节点所有已登录的用户
+     * @param timer        合并窗口使用的时间轮
+     * @param windowMillis 合并窗口 (毫秒)
+     * @param logCapacity  增量日志最多保留的昵称数，漏收的增量超出日志时改为发送快照
+     */
+    public PresenceTracker(Predicate<String> isOnline, Consumer<ByteBuffer> broadcast, TimerWheel timer,
+                           long windowMillis, int logCapacity) {
+        this.isOnline = isOnline;
+        this.broadcast = broadcast;
+        this.timer = timer;
+        this.windowMillis = Math.max(1, windowMillis);
+        this.logCapacity = logCapacity;
+    }
+
+    /**
+     * 记录一个昵称的在线状态可能发生了变化 (登录、恢复、下线以及其他节点的上下线)
+     * 实际状态在合并窗口结束时从注册表读取，调用顺序无关紧要。
+     *
+     * @param nickname 昵称
+     */
+    public void changed(String nickname) {
+        synchronized (lock) {
+            dirty.add(nickname);
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        timer.schedule(this::publish, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 合并窗口结束：发布窗口内的实际变化 (在时间轮线程上执行)
+     */
+    void publish() {
+        synchronized (lock) {
+            List<ByteBuffer> frames = new ArrayList<>();
+            scheduled = false;
+            Set<String> names = dirty;
+            dirty = new HashSet<>();
+            List<String> joined = new ArrayList<>();
+            List<String> left = new ArrayList<>();
+            int bytes = 0;
+            for (String name : names) {
+                boolean now = isOnline.test(name);
+                if (now ? !online.add(name) : !online.remove(name)) {
+                    continue;
+                }
+                (now ? joined : left).add(name);
+                bytes += name.getBytes(StandardCharsets.UTF_8).length + 2;
+                if (bytes >= CHUNK_BYTES) {
+                    frames.add(append(joined, left));
+                    joined = new ArrayList<>();
+                    left = new ArrayList<>();
+                    bytes = 0;
+                }
+            }
+            if (!joined.isEmpty() || !left.isEmpty()) {
+                frames.add(append(joined, left));
+            }
+            // 快照与增量都在锁内放入出站队列 (扇出只是入队，不等待网络写出)：起始版本不早于某份快照的增量
+            // 一定排在该快照之后。刚登记的会话可能先收到起始版本更早的增量，客户端在收齐第一份快照之前丢弃增量
+            for (ByteBuffer frame : frames) {
+                broadcast.accept(frame);
+            }
+        }
+    }
+
+    /**
+     * 生成下一个版本，记入日志
+     *
+     * @return 增量帧
+     */
+    private ByteBuffer append(List<String> joined, List<String> left) {
+        Delta delta = new Delta(version, ++version, joined, left);
+        snapshot = null;
+        log.addLast(delta);
+        logged += joined.size() + left.size();
+        while (logged > logCapacity && log.size() > 1) {
+            Delta old = log.removeFirst();
+            logged -= old.joined.size() + old.left.size();
+        }
+        Metrics.PRESENCE_DELTAS.increment();
+        return deltaFrame(delta.from, delta.to, joined, left);
+    }
+
+    /**
+     * 向刚登录的会话发送完整快照
+     *
+     * @param session 会话
+     * @throws IOException 发送失败
+     */
+    public void sendSnapshot(ClientSession session) throws IOException {
+        synchronized (lock) {
+            for (ByteBuffer frame : snapshot()) {
+                session.sendFrame(frame);
+            }
+        }
+        Metrics.PRESENCE_SNAPSHOTS.increment();
+    }
+
+    /**
+     * 客户端发现漏收增量，请求重新同步
+     * 已知版本之后的增量仍在日志中且合并后不超过一帧时补发合并的增量 (已是最新时为空增量)，否则发送快照。
+     *
+     * @param session 会话
+     * @param known   客户端已知的版本，0 表示没有
+     * @throws IOException 发送失败
+     */
+    public void resync(ClientSession session, long known) throws IOException {
+        Metrics.PRESENCE_RESYNCS.increment();
+        synchronized (lock) {
+            // 已是最新时回复起止版本相同的空增量，客户端据此结束等待
+            ByteBuffer merged = known == version ? deltaFrame(known, version, List.of(), List.of())
+                    : known > 0 && known < version ? mergeSince(known) : null;
+            if (merged != null) {
+                session.sendFrame(merged);
+                return;
+            }
+            for (ByteBuffer frame : snapshot()) {
+                session.sendFrame(frame);
+            }
+        }
+        Metrics.PRESENCE_SNAPSHOTS.increment();
+    }
+
+    /**
+     * 合并 known 之后的增量，每个昵称只保留最后一次变化
+     *
+     * @return 合并后的增量帧，日志已不完整或合并结果超过一帧时返回 null
+     */
+    private ByteBuffer mergeSince(long known) {
+        if (log.isEmpty() || log.peekFirst().from > known) {
+            return null;
+        }
+        Map<String, Boolean> last = new LinkedHashMap<>();
+        for (Delta delta : log) {
+            if (delta.to <= known) {
+                continue;
+            }
+            for (String name : delta.joined) {
+                last.put(name, Boolean.TRUE);
+            }
+            for (String name : delta.left) {
+                last.put(name, Boolean.FALSE);
+            }
+        }
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        int bytes = 0;
+        for (Map.Entry<String, Boolean> e : last.entrySet()) {
+            (e.getValue() ? joined : left).add(e.getKey());
+            bytes += e.getKey().getBytes(StandardCharsets.UTF_8).length + 2;
+            if (bytes >= CHUNK_BYTES) {
+                return null;
+            }
+        }
+        return deltaFrame(known, version, joined, left);
+    }
+
+    private List<ByteBuffer> snapshot() {
+        if (snapshot != null) {
+            return snapshot;
+        }
+        List<StringBuilder> chunks = new ArrayList<>();
+        StringBuilder chunk = new StringBuilder();
+        int bytes = 0;
+        for (String name : online) {
+            int length = name.getBytes(StandardCharsets.UTF_8).length + 1;
+            if (bytes + length > CHUNK_BYTES && bytes > 0) {
+                chunks.add(chunk);
+                chunk = new StringBuilder();
+                bytes = 0;
+            }
+            if (bytes > 0) {
+                chunk.append('\n');
+            }
+            chunk.append(name);
+            bytes += length;
+        }
+        chunks.add(chunk);
+        List<ByteBuffer> frames = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            String header = version + " " + (i + 1) + " " + chunks.size();
+            frames.add(frame(new Message(Message.PRESENCE, null, chunks.get(i).toString(), header)));
+        }
+        snapshot = frames;
+        return frames;
+    }
+
+    private static ByteBuffer deltaFrame(long from, long to, List<String> joined, List<String> left) {
+        StringBuilder content = new StringBuilder();
+        for (String name : joined) {
+            content.append(content.length() == 0 ? "" : "\n").append('+').append(name);
+        }
+        for (String name : left) {
+            content.append(content.length() == 0 ? "" : "\n").append('-').append(name);
+        }
+        return frame(new Message(Message.PRESENCE_DELTA, null, content.toString(), from + " " + to));
+    }
+
+    private static ByteBuffer frame(Message msg) {
+        return ByteBuffer.wrap(MessageCodec.encode(msg)).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return 当前版本
+     */
+    public long getVersion() {
+        synchronized (lock) {
+            return version;
+        }
+    }
+
+    /**
+     * @return 已发布的在线人数 (含集群中其他节点的用户)
+     */
+    public int size() {
+        synchronized (lock) {
+            return online.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return "在线列表 -> 版本: " + version + " 人数: " + online.size()
+                    + " 增量日志: " + log.size() + " 个版本 / " + logged + " 人次"
+                    + " 增量: " + Metrics.PRESENCE_DELTAS.sum()
+                    + " 快照: " + Metrics.PRESENCE_SNAPSHOTS.sum()
+                    + " 重新同步: " + Metrics.PRESENCE_RESYNCS.sum();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.chatroom.server;
+
+/**
+ * 一组令牌桶的状态 (消息数、字节数、登录尝试各一个)
+ * <p>
+ * 每个会话持有一个，同一客户端 IP 的所有连接另外共享一个 (由 RateLimiter 管理)。
+ * 每个桶只有一个 long，即 GCRA 中的理论到达时间 (TAT，相对于 RateLimiter 的时间原点)，
+ * 初始值 0 表示令牌已满，因此十万个会话的限流状态也只占几 MB。
+ * </p>
+ * <p>
+ * 会话自身的状态只由处理该会话入站消息的线程访问 (ServerThread 的读线程，或 NIO 模式下串行处理入站队列的业务线程)，
+ * 使用普通读写即可；IP 级状态由多个连接并发更新，RateLimiter 通过 VarHandle CAS 访问 tat 数组。
+ * </p>
+ */
+public final class RateLimitState {
+    /** 各桶的理论到达时间 (纳秒)，下标见 RateLimiter.MESSAGES / BYTES / LOGINS */
+    final long[] tat = new long[RateLimiter.BUCKETS];
+
+    /** 在此时刻之前不再重复发送 THROTTLED 提示 (仅会话状态使用) */
+    long noticeUntil;
+
+    /** 客户端 IP，首次检查 IP 级限额时取得 (仅会话状态使用) */
+    String host;
+}
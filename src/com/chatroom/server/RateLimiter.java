@@ -0,0 +1,229 @@
+package com.chatroom.server;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按会话与按客户端 IP 的令牌桶限流
+ * <p>
+ * MessageHandler 在分发每条客户端消息之前 (即扇出与持久化之前) 调用 {@link #acquire}：
+ * 登录、注册与断线恢复 (RESUME) 消耗一个"登录尝试"令牌，其余消息 (包括心跳与确认) 消耗一个"消息"令牌
+ * 以及与帧长度相同数量的"字节"令牌。集群节点之间的连接不限流。
+ * 先检查本会话的限额，再检查该 IP 所有连接共享的限额；IP 级状态不随连接关闭而清除，断线重连不能绕过限额。
+ * </p>
+ * <p>
+ * 令牌桶采用 GCRA 表示：速率为 r、容量为 b 的桶只保存一个理论到达时间 TAT，
+ * 每消耗一个令牌 TAT 推后 1/r 秒，推后后的 TAT 超前当前时刻不超过 b/r 秒即允许通过。
+ * 不需要后台线程补充令牌，也不需要记录上次补充的时间。
+ * TAT 不晚于当前时刻的 IP 级状态与新建的状态等价，每分钟清理一次，IP 表的大小只与最近活跃的 IP 数有关。
+ * </p>
+ */
+public class RateLimiter {
+    /** 桶下标：消息数 */
+    static final int MESSAGES = 0;
+    /** 桶下标：字节数 */
+    static final int BYTES = 1;
+    /** 桶下标：登录与注册尝试 */
+    static final int LOGINS = 2;
+    static final int BUCKETS = 3;
+
+    private static final VarHandle TAT = MethodHandles.arrayElementVarHandle(long[].class);
+    /** 时间原点，使 TAT 始终为非负数，初始值 0 即表示令牌已满 */
+    private static final long ORIGIN = System.nanoTime();
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private final Limit[] sessionLimits;
+    private final Limit[] ipLimits;
+    private final boolean ipEnabled;
+
+    /** 客户端 IP -> 该 IP 所有连接共享的令牌桶 */
+    private final ConcurrentHashMap<String, RateLimitState> ips = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweep = new AtomicLong(SWEEP_INTERVAL_NANOS);
+
+    /**
+     * 单个令牌桶的限额
+     */
+    public static final class Limit {
+        /** 每个令牌的间隔 (纳秒)，0 表示不限制 */
+        final long interval;
+        /** 令牌桶容量对应的时间 (纳秒) */
+        final long tolerance;
+
+        /**
+         * @param perSecond 每秒补充的令牌数，不大于 0 表示不限制
+         * @param burst     令牌桶容量，即允许的突发数量
+         */
+        public Limit(long perSecond, long burst) {
+            this.interval = perSecond > 0 ? Math.max(1, TimeUnit.SECONDS.toNanos(1) / perSecond) : 0;
+            this.tolerance = interval * Math.max(1, burst);
+        }
+
+        boolean enabled() {
+            return interval > 0;
+        }
+    }
+
+    /**
+     * @param sessionLimits 每个会话的限额，依次为消息数、字节数、登录尝试
+     * @param ipLimits      每个 IP 的限额，顺序同上
+     */
+    public RateLimiter(Limit[] sessionLimits, Limit[] ipLimits) {
+        this.sessionLimits = sessionLimits.clone();
+        this.ipLimits = ipLimits.clone();
+        boolean any = false;
+        for (Limit limit : ipLimits) {
+            any |= limit.enabled();
+        }
+        this.ipEnabled = any;
+    }
+
+    /**
+     * @return 按 ServerConfig 中的限额创建的限流器
+     */
+    public static RateLimiter fromConfig() {
+        return new RateLimiter(
+                new Limit[] {
+                        new Limit(ServerConfig.LIMIT_MESSAGES, ServerConfig.LIMIT_MESSAGES_BURST),
+                        new Limit(ServerConfig.LIMIT_BYTES, ServerConfig.LIMIT_BYTES_BURST),
+                        new Limit(ServerConfig.LIMIT_LOGINS, ServerConfig.LIMIT_LOGINS_BURST),
+                },
+                new Limit[] {
+                        new Limit(ServerConfig.LIMIT_IP_MESSAGES, ServerConfig.LIMIT_IP_MESSAGES_BURST),
+                        new Limit(ServerConfig.LIMIT_IP_BYTES, ServerConfig.LIMIT_IP_BYTES_BURST),
+                        new Limit(ServerConfig.LIMIT_IP_LOGINS, ServerConfig.LIMIT_IP_LOGINS_BURST),
+                });
+    }
+
+    /**
+     * 为一条客户端消息申请令牌
+     * 必须由处理该会话入站消息的线程调用。被拒绝时已在前面的桶中扣除的令牌不退还。
+     *
+     * @param session 发送者的会话
+     * @param msg     消息
+     * @return 允许处理时为 0，否则为建议等待的纳秒数
+     */
+    public long acquire(ClientSession session, Message msg) {
+        long now = System.nanoTime() - ORIGIN;
+        RateLimitState own = session.getRateLimitState();
+        if (Message.LOGIN.equals(msg.getType()) || Message.REGISTER.equals(msg.getType())
+                || Message.RESUME.equals(msg.getType())) {
+            return acquire(session, own, now, LOGINS, 1);
+        }
+        long wait = acquire(session, own, now, MESSAGES, 1);
+        if (wait == 0) {
+            wait = acquire(session, own, now, BYTES, MessageCodec.encodedLength(msg));
+        }
+        return wait;
+    }
+
+    private long acquire(ClientSession session, RateLimitState own, long now, int bucket, long cost) {
+        long wait = take(own.tat, bucket, sessionLimits[bucket], now, cost);
+        if (wait == 0 && ipLimits[bucket].enabled()) {
+            wait = takeShared(ipState(session, own, now).tat, bucket, ipLimits[bucket], now, cost);
+        }
+        return wait;
+    }
+
+    /**
+     * 判断是否需要向被限流的会话发送 THROTTLED 提示
+     * 在上一次提示的等待时间结束前不再重复提示，避免持续刷屏的客户端又被提示消息刷屏。
+     *
+     * @param session 被限流的会话
+     * @param wait    acquire 返回的等待纳秒数
+     * @return 需要提示时返回 true
+     */
+    public boolean shouldNotify(ClientSession session, long wait) {
+        RateLimitState own = session.getRateLimitState();
+        long now = System.nanoTime() - ORIGIN;
+        if (now - own.noticeUntil < 0) {
+            return false;
+        }
+        own.noticeUntil = now + wait;
+        return true;
+    }
+
+    /**
+     * @return 当前保存了限流状态的 IP 数
+     */
+    public int getTrackedIps() {
+        return ips.size();
+    }
+
+    private RateLimitState ipState(ClientSession session, RateLimitState own, long now) {
+        String host = own.host;
+        if (host == null) {
+            host = session.getRemoteHost();
+            own.host = host;
+        }
+        long sweepAt = nextSweep.get();
+        if (now - sweepAt >= 0 && nextSweep.compareAndSet(sweepAt, now + SWEEP_INTERVAL_NANOS)) {
+            // 令牌已补满的状态与新建的等价，可以安全移除
+            ips.values().removeIf(state -> isFull(state, now));
+        }
+        RateLimitState state = ips.get(host);
+        if (state == null) {
+            RateLimitState created = new RateLimitState();
+            state = ips.putIfAbsent(host, created);
+            if (state == null) {
+                state = created;
+            }
+        }
+        return state;
+    }
+
+    private static boolean isFull(RateLimitState state, long now) {
+        for (int i = 0; i < BUCKETS; i++) {
+            if ((long) TAT.getVolatile(state.tat, i) - now > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 单线程访问的桶
+     *
+     * @return 允许时为 0，否则为需要等待的纳秒数
+     */
+    private static long take(long[] tat, int bucket, Limit limit, long now, long cost) {
+        if (!limit.enabled()) {
+            return 0;
+        }
+        long next = next(tat[bucket], limit, now, cost);
+        long wait = next - now - limit.tolerance;
+        if (wait > 0) {
+            return wait;
+        }
+        tat[bucket] = next;
+        return 0;
+    }
+
+    /**
+     * 多个连接共享的桶，CAS 更新
+     */
+    private static long takeShared(long[] tat, int bucket, Limit limit, long now, long cost) {
+        while (true) {
+            long current = (long) TAT.getVolatile(tat, bucket);
+            long next = next(current, limit, now, cost);
+            long wait = next - now - limit.tolerance;
+            if (wait > 0) {
+                return wait;
+            }
+            if (TAT.compareAndSet(tat, bucket, current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    private static long next(long tat, Limit limit, long now, long cost) {
+        // 超过桶容量的单个请求 (例如很长的一条消息) 按整桶计算，令牌补满时仍可通过
+        long increment = cost >= limit.tolerance / limit.interval ? limit.tolerance : cost * limit.interval;
+        return Math.max(tat, now) + increment;
+    }
+}
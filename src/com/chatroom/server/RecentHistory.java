@@ -0,0 +1,273 @@
+package com.chatroom.server;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+import com.chatroom.server.store.ChatLogRecord;
+import com.chatroom.server.store.ChatLogStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+
+/**
+ * 最近聊天记录缓存
+ * <p>
+ * 每个会话 (群聊为 ALL) 保留最近 capacity 条消息的环形缓冲区，元素是转发时已经编码好的只读帧，
+ * 用户登录后直接把这些帧发给客户端，无需查询数据库或重新编码。
+ * 更早的记录由客户端发送 HISTORY 请求，按记录 ID 做键集分页从 ChatLogStore 读取 (见 {@link #sendPage})。
+ * </p>
+ * <p>
+ * 服务器重启后缓冲区为空，第一次回放时从存储加载一次最近的记录；
+ * 同一会话的加载只有一个线程执行，其余登录线程等待其结果，登录风暴不会变成查询风暴。
+ * 加载失败时在 {@link #LOAD_RETRY_MILLIS} 内不再重试，期间登录只回放内存中已有的消息。
+ * </p>
+ */
+public class RecentHistory {
+    /** 群聊会话名，与 chat_logs 中 receiver_name 的取值一致 */
+    public static final String GLOBAL = "ALL";
+
+    /** 加载失败后的重试间隔 */
+    private static final long LOAD_RETRY_MILLIS = 5000;
+
+    private final int capacity;
+    private final ChatLogStore store;
+    private final ConcurrentHashMap<String, Ring> rings = new ConcurrentHashMap<>();
+
+    /**
+     * 构造方法
+     *
+     * @param capacity 每个会话缓存的消息条数
+     * @param store    聊天记录存储，用于冷启动加载
+     */
+    public RecentHistory(int capacity, ChatLogStore store) {
+        this.capacity = capacity;
+        this.store = store;
+    }
+
+    /**
+     * 记录一条已转发的消息
+     *
+     * @param conversation 会话名
+     * @param frame        已编码的只读帧，与转发时共享
+     * @return 记录持久化后用于回填 ID 的回调，传给 ChatLogStore.save
+     */
+    public LongConsumer append(String conversation, ByteBuffer frame) {
+        return ring(conversation).append(frame);
+    }
+
+    /**
+     * 向会话回放最近的消息，随后发送一条 HISTORY_END，其内容为继续向前翻页的游标
+     *
+     * @param session      接收回放的会话
+     * @param conversation 会话名
+     * @throws IOException 发送失败
+     */
+    public void replay(ClientSession session, String conversation) throws IOException {
+        Ring ring = ring(conversation);
+        ring.ensureLoaded();
+        Entry[] entries = ring.snapshot();
+        for (Entry entry : entries) {
+            session.sendFrame(entry.frame);
+        }
+        long cursor = ring.cursor(entries);
+        session.send(new Message(Message.HISTORY_END, null, String.valueOf(cursor), conversation));
+    }
+
+    /**
+     * 发送一页较早的记录：若干条 HISTORY 消息 (按时间先后) 加一条 HISTORY_END
+     *
+     * @param session      请求者
+     * @param conversation 会话名，原样放在 HISTORY_END 的 receiver 中
+     * @param page         从存储读出的一页记录，按 ID 升序
+     * @param limit        每页条数，不足一页说明已经到头
+     * @throws IOException 发送失败
+     */
+    public static void sendPage(ClientSession session, String conversation, List<ChatLogRecord> page, int limit)
+            throws IOException {
+        for (ChatLogRecord record : page) {
+            Message m = record.getMessage();
+            session.send(new Message(Message.HISTORY, m.getSender(), m.getContent(), m.getReceiver()));
+        }
+        long next = page.size() < limit ? 0 : page.get(0).getId();
+        session.send(new Message(Message.HISTORY_END, null, String.valueOf(next), conversation));
+    }
+
+    private Ring ring(String conversation) {
+        return rings.computeIfAbsent(conversation, Ring::new);
+    }
+
+    /**
+     * 缓冲区中的一条消息，持久化完成后由存储回填 ID
+     */
+    private static class Entry implements LongConsumer {
+        final ByteBuffer frame;
+        volatile long id;
+
+        Entry(ByteBuffer frame, long id) {
+            this.frame = frame;
+            this.id = id;
+        }
+
+        @Override
+        public void accept(long value) {
+            id = value;
+        }
+    }
+
+    /**
+     * 把存储中的记录还原为实时转发时的消息 (不带序号)：群聊为 CHAT，房间为带房间名的 ROOM_CHAT，其余为私聊
+     * 从存储加载的最近记录与断线补发都经由这里，客户端收到的帧与实时转发时相同
+     *
+     * @param m 存储中的消息，receiver 为 "ALL"、"#房间" 或昵称
+     * @return 可直接编码发送的消息
+     */
+    static Message toLive(Message m) {
+        String receiver = m.getReceiver();
+        if (receiver == null || GLOBAL.equals(receiver)) {
+            return new Message(Message.CHAT, m.getSender(), m.getContent(), null);
+        } else if (receiver.startsWith("#")) {
+            return new Message(Message.ROOM_CHAT, m.getSender(), m.getContent(), receiver);
+        }
+        return new Message(Message.CHAT, m.getSender(), m.getContent(), receiver);
+    }
+
+    /**
+     * 单个会话的环形缓冲区
+     */
+    private class Ring {
+        private final String conversation;
+        private final Entry[] entries = new Entry[capacity];
+        /** 最旧一条消息的下标 */
+        private int head;
+        private int size;
+        /** 最近一条被挤出缓冲区的消息，用于在缓冲区内的消息都还没有 ID 时确定游标 */
+        private Entry lastEvicted;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /** 加载与追加分开加锁，加载期间的数据库查询不阻塞消息转发 */
+        private final ReentrantLock loadLock = new ReentrantLock();
+        private volatile boolean loaded;
+        private long loadRetryAt;
+
+        Ring(String conversation) {
+            this.conversation = conversation;
+        }
+
+        LongConsumer append(ByteBuffer frame) {
+            Entry entry = new Entry(frame, 0);
+            lock.lock();
+            try {
+                if (size == capacity) {
+                    lastEvicted = entries[head];
+                    entries[head] = entry;
+                    head = (head + 1) % capacity;
+                } else {
+                    entries[(head + size) % capacity] = entry;
+                    size++;
+                }
+            } finally {
+                lock.unlock();
+            }
+            return entry;
+        }
+
+        Entry[] snapshot() {
+            lock.lock();
+            try {
+                Entry[] copy = new Entry[size];
+                for (int i = 0; i < size; i++) {
+                    copy[i] = entries[(head + i) % capacity];
+                }
+                return copy;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 计算快照之前的翻页游标：快照中已持久化记录的最小 ID；
+         * 快照中的消息都还在存储的写入队列里时，退回到最近被挤出的那条消息
+         */
+        long cursor(Entry[] snapshot) {
+            long min = Long.MAX_VALUE;
+            for (Entry entry : snapshot) {
+                long id = entry.id;
+                if (id > 0 && id < min) {
+                    min = id;
+                }
+            }
+            if (min == Long.MAX_VALUE) {
+                Entry evicted;
+                lock.lock();
+                try {
+                    evicted = lastEvicted;
+                } finally {
+                    lock.unlock();
+                }
+                if (evicted != null && evicted.id > 0) {
+                    min = evicted.id + 1;
+                }
+            }
+            return min;
+        }
+
+        /**
+         * 首次回放前从存储加载最近的记录，放在内存中已有消息之前
+         */
+        void ensureLoaded() {
+            if (loaded) {
+                return;
+            }
+            loadLock.lock();
+            try {
+                if (loaded || System.currentTimeMillis() < loadRetryAt) {
+                    return;
+                }
+                List<ChatLogRecord> records;
+                try {
+                    records = store.loadBefore(conversation, Long.MAX_VALUE, capacity);
+                } catch (Exception e) {
+                    loadRetryAt = System.currentTimeMillis() + LOAD_RETRY_MILLIS;
+                    System.err.println("最近聊天记录加载失败 (" + conversation + "): " + e.getMessage());
+                    return;
+                }
+                prepend(records);
+                loaded = true;
+                System.out.println("最近聊天记录已加载 (" + conversation + "): " + records.size() + " 条");
+            } finally {
+                loadLock.unlock();
+            }
+        }
+
+        private void prepend(List<ChatLogRecord> records) {
+            lock.lock();
+            try {
+                // 加载期间已写入存储的新消息既在缓冲区中也可能在查询结果中，按 ID 去重
+                long minLiveId = Long.MAX_VALUE;
+                for (int i = 0; i < size; i++) {
+                    long id = entries[(head + i) % capacity].id;
+                    if (id > 0 && id < minLiveId) {
+                        minLiveId = id;
+                    }
+                }
+                int room = capacity - size;
+                for (int i = records.size() - 1; i >= 0 && room > 0; i--) {
+                    ChatLogRecord record = records.get(i);
+                    if (record.getId() >= minLiveId) {
+                        continue;
+                    }
+                    head = (head - 1 + capacity) % capacity;
+                    entries[head] = new Entry(ByteBuffer.wrap(MessageCodec.encode(
+                            toLive(record.getMessage()))).asReadOnlyBuffer(), record.getId());
+                    size++;
+                    room--;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
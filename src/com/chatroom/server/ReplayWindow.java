@@ -0,0 +1,140 @@
+package com.chatroom.server;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongConsumer;
+
+/**
+ * 消息序号与断线重连的重放窗口
+ * <p>
+ * 本节点转发的每条聊天消息 (群聊、房间、私聊，含其他节点转发来的) 在扇出之前由 {@link #stamp} 分配一个单调递增的序号，
+ * 连同编码好的帧放入按序号取模的环形数组。与 RecentHistory 按会话分别缓存不同，这里是全节点一个窗口，
+ * 断线重连的客户端给出收到的最大序号后，按其可见范围 (群聊、所在房间、发给自己的私聊) 从窗口中挑出错过的帧。
+ * </p>
+ * <p>
+ * 分配序号与写入槽位都不加锁：槽位写入在扇出之前完成，恢复会话时先登记在线再扫描窗口，
+ * 因此扫描时还没有写入槽位的消息，其扇出一定能看到已经登记的新会话，不会遗漏；
+ * 反过来同一条消息可能既被补发又被实时转发，客户端按序号去重。
+ * </p>
+ * <p>
+ * 另外用一个更长的数组记录序号对应的存储 ID (由 ChatLogStore 回填)，
+ * 错过的消息已经滑出窗口时，据此确定从存储中补读的起点。
+ * </p>
+ */
+public class ReplayWindow {
+    private final AtomicLong lastSeq = new AtomicLong();
+    private final AtomicReferenceArray<Entry> entries;
+    private final int mask;
+    private final AtomicLongArray storageIds;
+    private final int idMask;
+
+    /**
+     * 窗口中的一条消息
+     *
+     * @param seq          序号
+     * @param conversation 会话：ALL、房间名或私聊接收者的昵称
+     * @param sender       发送者昵称
+     * @param frame        已编码的只读帧，与扇出时共享
+     */
+    public record Entry(long seq, String conversation, String sender, ByteBuffer frame) {}
+
+    /**
+     * @param capacity      窗口保留的消息条数，向上取整为 2 的幂
+     * @param indexCapacity 保留存储 ID 的消息条数，向上取整为 2 的幂，应不小于 capacity
+     */
+    public ReplayWindow(int capacity, int indexCapacity) {
+        int size = powerOfTwo(capacity);
+        this.entries = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        int idSize = Math.max(size, powerOfTwo(indexCapacity));
+        this.storageIds = new AtomicLongArray(idSize);
+        this.idMask = idSize - 1;
+    }
+
+    private static int powerOfTwo(int n) {
+        return Integer.highestOneBit(Math.max(1, n - 1)) << 1;
+    }
+
+    /**
+     * 为消息分配序号、编码并放入窗口 (在扇出之前调用)
+     *
+     * @param msg          消息，序号写入其 seq 字段
+     * @param conversation 会话：ALL、房间名或私聊接收者的昵称
+     * @return 窗口中的条目，其帧用于扇出
+     */
+    public Entry stamp(Message msg, String conversation) {
+        long seq = lastSeq.incrementAndGet();
+        msg.setSeq(seq);
+        storageIds.set((int) (seq & idMask), 0);
+        Entry entry = new Entry(seq, conversation, msg.getSender(),
+                ByteBuffer.wrap(MessageCodec.encode(msg)).asReadOnlyBuffer());
+        entries.set((int) (seq & mask), entry);
+        return entry;
+    }
+
+    /**
+     * @param seq 序号
+     * @return 记录持久化后回填存储 ID 的回调
+     */
+    public LongConsumer onSaved(long seq) {
+        return id -> {
+            // 回填晚于槽位被更新的序号复用时丢弃
+            if (lastSeq.get() - seq < storageIds.length()) {
+                storageIds.set((int) (seq & idMask), id);
+            }
+        };
+    }
+
+    /**
+     * @return 最近分配的序号，还没有消息时为 0
+     */
+    public long getLastSeq() {
+        return lastSeq.get();
+    }
+
+    /**
+     * @return 窗口中仍可能保留的最小序号
+     */
+    public long getFirstSeq() {
+        return Math.max(1, lastSeq.get() - entries.length() + 1);
+    }
+
+    /**
+     * @param seq 序号
+     * @return 该序号的条目；已被更新的消息覆盖或尚未写入时为 null
+     */
+    public Entry get(long seq) {
+        Entry entry = entries.get((int) (seq & mask));
+        return entry != null && entry.seq() == seq ? entry : null;
+    }
+
+    /**
+     * @param seq 序号
+     * @return 该序号的条目已被更新的消息覆盖 (滑出窗口) 时返回 true
+     */
+    public boolean isEvicted(long seq) {
+        Entry entry = entries.get((int) (seq & mask));
+        return entry != null && entry.seq() > seq;
+    }
+
+    /**
+     * @param seq 序号
+     * @return 该序号对应的存储 ID，尚未持久化、不在本节点保存或已超出索引范围时为 0
+     */
+    public long getStorageId(long seq) {
+        if (seq <= 0 || lastSeq.get() - seq >= storageIds.length()) {
+            return 0;
+        }
+        return storageIds.get((int) (seq & idMask));
+    }
+
+    @Override
+    public String toString() {
+        return "重放窗口 -> 最新序号: " + lastSeq.get() + " 窗口: " + entries.length() + " 条";
+    }
+}
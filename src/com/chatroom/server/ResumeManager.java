@@ -0,0 +1,347 @@
+package com.chatroom.server;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+import com.chatroom.server.metrics.Metrics;
+import com.chatroom.server.store.ChatLogRecord;
+import com.chatroom.server.store.ChatLogStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 断线重连：恢复令牌与错过消息的补发
+ * <p>
+ * 登录成功时为用户签发一个随机的恢复令牌 (放在 LOGIN_SUCCESS 的 receiver 中)。连接断开后令牌在有效期内保留，
+ * 并记下断开时加入的房间；客户端重连后发送 RESUME (昵称、令牌与收到的最大序号)，
+ * 校验通过即恢复登录状态与房间，并只补发错过的消息，而不是像重新登录那样回放整段最近记录。
+ * </p>
+ * <p>
+ * 补发分两部分：
+ * <ul>
+ *     <li>错过的消息仍在 ReplayWindow 中：直接发送窗口中的帧 (带原序号，客户端据此去重)。</li>
+ *     <li>较早的一段已滑出窗口：按序号与存储 ID 的对应关系从 ChatLogStore 补读，只发送窗口之前的那一段。</li>
+ * </ul>
+ * 需要补发的消息超过上限，或者无法确定补读的起点时，退回与登录相同的最近记录回放。
+ * </p>
+ */
+public class ResumeManager {
+    /** 确定存储补读起点时参考的序号个数；并发写入可能使存储 ID 与序号的先后略有出入，在这个范围内都能容忍 */
+    private static final int SEQ_SLACK = 64;
+
+    private final ReplayWindow window;
+    private final ChatLogStore store;
+    private final TimerWheel timer;
+    private final long ttlNanos;
+    private final int maxReplay;
+    private final SecureRandom random = new SecureRandom();
+
+    /** 昵称 -> 恢复令牌 */
+    private final ConcurrentHashMap<String, Ticket> tickets = new ConcurrentHashMap<>();
+
+    /**
+     * 一个用户的恢复令牌
+     */
+    public static final class Ticket {
+        final String nickname;
+        final String token;
+        /** 当前持有该令牌的连接，断开后为 null */
+        volatile ClientSession session;
+        /** 断开时加入的房间 */
+        volatile Set<String> rooms = Set.of();
+        /** 客户端确认收到的最大序号 */
+        volatile long acked;
+        /** 断开后的过期任务 */
+        volatile TimerWheel.Timeout expiry;
+
+        Ticket(String nickname, String token, ClientSession session) {
+            this.nickname = nickname;
+            this.token = token;
+            this.session = session;
+        }
+
+        public String getToken() {
+            return token;
+        }
+
+        public long getAcked() {
+            return acked;
+        }
+    }
+
+    /**
+     * @param window    重放窗口
+     * @param store     聊天记录存储
+     * @param timer     令牌过期使用的时间轮
+     * @param ttl       断开后令牌的有效期
+     * @param maxReplay 一次恢复最多补发的消息条数
+     */
+    public ResumeManager(ReplayWindow window, ChatLogStore store, TimerWheel timer, long ttl, TimeUnit unit,
+                         int maxReplay) {
+        this.window = window;
+        this.store = store;
+        this.timer = timer;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.maxReplay = maxReplay;
+    }
+
+    /**
+     * 登录成功时生成新令牌，此时尚未生效，登记在线之后调用 {@link #issue} 生效
+     * 登录过程中连接断开时不调用 issue，该用户原有的令牌 (可能仍由在线的旧连接持有) 保持不变。
+     *
+     * @param nickname 昵称
+     * @param session  登录的会话
+     * @return 令牌
+     */
+    public Ticket prepare(String nickname, ClientSession session) {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        return new Ticket(nickname, HexFormat.of().formatHex(bytes), session);
+    }
+
+    /**
+     * 令牌生效，之前签发给该用户的令牌作废
+     *
+     * @param ticket {@link #prepare} 生成的令牌
+     */
+    public void issue(Ticket ticket) {
+        cancelExpiry(tickets.put(ticket.nickname, ticket));
+    }
+
+    /**
+     * 校验令牌并把它转交给新连接
+     *
+     * @param nickname 昵称
+     * @param token    令牌
+     * @param session  新连接
+     * @return 令牌有效时返回它，其 session 仍是旧连接 (可能为 null)，由调用者在恢复完成后调用 {@link #attach}
+     */
+    public Ticket claim(String nickname, String token, ClientSession session) {
+        Ticket ticket = nickname == null || token == null ? null : tickets.get(nickname);
+        if (ticket == null || !MessageDigest.isEqual(ticket.token.getBytes(StandardCharsets.US_ASCII),
+                token.getBytes(StandardCharsets.US_ASCII))) {
+            return null;
+        }
+        cancelExpiry(ticket);
+        return ticket;
+    }
+
+    /**
+     * 令牌改由新连接持有
+     *
+     * @param ticket  令牌
+     * @param session 新连接
+     */
+    public void attach(Ticket ticket, ClientSession session) {
+        ticket.session = session;
+    }
+
+    /**
+     * 客户端确认收到的序号
+     *
+     * @param session 会话
+     * @param seq     序号
+     */
+    public void ack(ClientSession session, long seq) {
+        String nickname = session.getNickname();
+        Ticket ticket = nickname == null ? null : tickets.get(nickname);
+        if (ticket != null && ticket.session == session && seq > ticket.acked) {
+            ticket.acked = seq;
+        }
+    }
+
+    /**
+     * 持有令牌的连接断开：记下房间，开始计算有效期
+     *
+     * @param session 已断开的会话
+     * @param rooms   断开时加入的房间
+     */
+    public void closed(ClientSession session, Set<String> rooms) {
+        String nickname = session.getNickname();
+        Ticket ticket = nickname == null ? null : tickets.get(nickname);
+        if (ticket == null || ticket.session != session) {
+            return;
+        }
+        ticket.rooms = rooms;
+        ticket.session = null;
+        ticket.expiry = timer.schedule(() -> {
+            if (ticket.session == null) {
+                tickets.remove(nickname, ticket);
+            }
+        }, ttlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static void cancelExpiry(Ticket ticket) {
+        TimerWheel.Timeout expiry = ticket == null ? null : ticket.expiry;
+        if (expiry != null) {
+            expiry.cancel();
+        }
+    }
+
+    /**
+     * @return 当前保留的令牌数 (含在线用户)
+     */
+    public int size() {
+        return tickets.size();
+    }
+
+    /**
+     * 开始一次补发
+     *
+     * @param session  新连接
+     * @param nickname 昵称
+     * @param rooms    恢复的房间
+     * @param lastSeq  客户端收到的最大序号
+     * @return 补发过程
+     */
+    public Replay replay(ClientSession session, String nickname, Set<String> rooms, long lastSeq) {
+        return new Replay(session, nickname, rooms, lastSeq);
+    }
+
+    /**
+     * 一次恢复的补发过程，任一步骤返回 false 时调用者改为回放最近记录
+     * 两段都确定之后才开始发送，回退时客户端没有收到过补发的消息，最近记录 (不带序号) 不会与之重复。
+     */
+    public final class Replay {
+        private final ClientSession session;
+        private final String nickname;
+        private final Set<String> rooms;
+        private final long lastSeq;
+        /** 第一步从存储读出、尚未发送的帧 */
+        private List<ByteBuffer> stored = List.of();
+        private int sent;
+
+        private Replay(ClientSession session, String nickname, Set<String> rooms, long lastSeq) {
+            this.session = session;
+            this.nickname = nickname;
+            this.rooms = rooms;
+            this.lastSeq = lastSeq;
+        }
+
+        /**
+         * 第一步 (登记在线之前)：从存储读取已滑出窗口的那一段，暂不发送
+         *
+         * @return 无需补读或读取完成时返回 true；起点无法确定或条数超过上限时返回 false
+         * @throws Exception 存储访问失败
+         */
+        public boolean loadStored() throws Exception {
+            long first = window.getFirstSeq();
+            if (lastSeq + 1 >= first) {
+                return true;
+            }
+            // 起点：客户端已收到的最后几条消息中最小的存储 ID，这几条本身按 ID 排除
+            Set<Long> skip = new HashSet<>();
+            long afterId = Long.MAX_VALUE;
+            for (long s = lastSeq; s > 0 && lastSeq - s < SEQ_SLACK; s--) {
+                long id = window.getStorageId(s);
+                if (id > 0) {
+                    skip.add(id);
+                    afterId = Math.min(afterId, id);
+                }
+            }
+            if (afterId == Long.MAX_VALUE) {
+                return false;
+            }
+            // 终点：窗口最前面几条消息中最大的存储 ID，窗口中的消息稍后从窗口补发，同样按 ID 排除
+            long last = window.getLastSeq();
+            long beforeId = 0;
+            for (long s = first; s <= last; s++) {
+                long id = window.getStorageId(s);
+                if (id > 0) {
+                    skip.add(id);
+                    if (s - first < SEQ_SLACK) {
+                        beforeId = Math.max(beforeId, id + 1);
+                    }
+                }
+            }
+            if (beforeId == 0) {
+                return false;
+            }
+            List<String> receivers = new ArrayList<>(rooms.size() + 2);
+            receivers.add(RecentHistory.GLOBAL);
+            receivers.addAll(rooms);
+            receivers.add(nickname);
+            int limit = maxReplay + 2 * SEQ_SLACK + 1;
+            List<ChatLogRecord> records = store.loadAfter(receivers, afterId, beforeId, limit);
+            if (records.size() >= limit) {
+                return false;
+            }
+            List<ByteBuffer> frames = new ArrayList<>();
+            for (ChatLogRecord record : records) {
+                Message m = record.getMessage();
+                if (skip.contains(record.getId()) || nickname.equals(m.getSender())) {
+                    continue;
+                }
+                frames.add(ByteBuffer.wrap(MessageCodec.encode(RecentHistory.toLive(m))).asReadOnlyBuffer());
+            }
+            if (frames.size() > maxReplay) {
+                return false;
+            }
+            stored = frames;
+            return true;
+        }
+
+        /**
+         * 第二步 (登记在线并重新加入房间之后)：扫描窗口，再依次发送第一步读出的那一段与窗口中错过的消息
+         *
+         * @return 补发完成时返回 true；错过的消息已滑出窗口或条数超过上限时返回 false，且没有发送任何消息
+         * @throws IOException 发送失败
+         */
+        public boolean send() throws IOException {
+            long last = window.getLastSeq();
+            List<ReplayWindow.Entry> missed = new ArrayList<>();
+            for (long s = Math.max(lastSeq + 1, window.getFirstSeq()); s <= last; s++) {
+                ReplayWindow.Entry entry = window.get(s);
+                if (entry == null) {
+                    if (window.isEvicted(s)) {
+                        return false;
+                    }
+                    // 已分配序号、还没写入槽位：其扇出能看到已登记的新会话
+                    continue;
+                }
+                if (isVisible(entry) && stored.size() + missed.size() >= maxReplay) {
+                    return false;
+                } else if (isVisible(entry)) {
+                    missed.add(entry);
+                }
+            }
+            for (ByteBuffer frame : stored) {
+                session.sendFrame(frame);
+            }
+            for (ReplayWindow.Entry entry : missed) {
+                session.sendFrame(entry.frame());
+            }
+            sent = stored.size() + missed.size();
+            Metrics.RESUME_REPLAYED.add(sent);
+            return true;
+        }
+
+        private boolean isVisible(ReplayWindow.Entry entry) {
+            String conversation = entry.conversation();
+            return !nickname.equals(entry.sender()) && (RecentHistory.GLOBAL.equals(conversation)
+                    || nickname.equals(conversation) || rooms.contains(conversation));
+        }
+
+        /**
+         * @return 已补发的消息条数
+         */
+        public int getSent() {
+            return sent;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return window + " 恢复令牌: " + tickets.size();
+    }
+}
@@ -0,0 +1,146 @@
+package com.chatroom.server;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 房间订阅索引 (房间名 -> 成员会话)
+ * <p>
+ * 加入与退出只修改对应房间的成员集合，房间内发送消息只遍历该房间的成员，
+ * 代价与房间人数成正比，而与在线总人数无关。
+ * </p>
+ * <p>
+ * 房间在第一个成员加入时创建、最后一个成员退出时删除，两者都在 ConcurrentHashMap.compute 中完成，
+ * 只锁住该房间所在的哈希桶，不同房间之间互不阻塞。
+ * 另外维护会话 -> 已加入房间的反向索引，连接关闭时据此退出所有房间。
+ * </p>
+ */
+public class RoomRegistry {
+    /** 房间名的最大长度 */
+    public static final int MAX_NAME_LENGTH = 64;
+
+    private final ConcurrentHashMap<String, Set<ClientSession>> rooms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ClientSession, Set<String>> memberships = new ConcurrentHashMap<>();
+
+    /**
+     * 检查房间名是否合法：以 # 开头，且不超过 {@link #MAX_NAME_LENGTH} 个字符
+     * # 前缀使房间与用户昵称处于不同的命名空间，chat_logs 中的 receiver_name 不会混淆。
+     *
+     * @param room 房间名
+     * @return 是否合法
+     */
+    public static boolean isValidName(String room) {
+        return room != null && room.length() > 1 && room.length() <= MAX_NAME_LENGTH
+                && room.charAt(0) == '#' && room.indexOf('|') < 0;
+    }
+
+    /**
+     * 加入房间
+     *
+     * @param room    房间名
+     * @param session 会话
+     * @return 加入后房间的人数，已在房间中时返回 -1
+     */
+    public int join(String room, ClientSession session) {
+        boolean[] added = new boolean[1];
+        Set<ClientSession> members = rooms.compute(room, (k, set) -> {
+            if (set == null) {
+                set = ConcurrentHashMap.newKeySet();
+            }
+            added[0] = set.add(session);
+            return set;
+        });
+        if (!added[0]) {
+            return -1;
+        }
+        memberships.computeIfAbsent(session, k -> ConcurrentHashMap.newKeySet()).add(room);
+        // 与连接关闭并发时，leaveAll 可能已经执行完毕，这里补做一次清理
+        if (session.isClosed()) {
+            leaveAll(session);
+        }
+        return members.size();
+    }
+
+    /**
+     * 退出房间，房间没有成员后随即删除
+     *
+     * @param room    房间名
+     * @param session 会话
+     * @return 是否确实在房间中
+     */
+    public boolean leave(String room, ClientSession session) {
+        boolean[] removed = new boolean[1];
+        rooms.computeIfPresent(room, (k, set) -> {
+            removed[0] = set.remove(session);
+            return set.isEmpty() ? null : set;
+        });
+        Set<String> joined = memberships.get(session);
+        if (joined != null) {
+            joined.remove(room);
+        }
+        return removed[0];
+    }
+
+    /**
+     * 退出会话加入的所有房间 (连接关闭时调用)
+     *
+     * @param session 会话
+     */
+    public void leaveAll(ClientSession session) {
+        Set<String> joined = memberships.remove(session);
+        if (joined == null) {
+            return;
+        }
+        for (String room : joined) {
+            rooms.computeIfPresent(room, (k, set) -> {
+                set.remove(session);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    /**
+     * @param session 会话
+     * @return 会话当前加入的房间 (副本)
+     */
+    public Set<String> roomsOf(ClientSession session) {
+        Set<String> joined = memberships.get(session);
+        return joined == null ? Set.of() : Set.copyOf(joined);
+    }
+
+    /**
+     * @param room 房间名
+     * @return 房间成员的弱一致视图，房间不存在时为空集合
+     */
+    public Set<ClientSession> members(String room) {
+        Set<ClientSession> set = rooms.get(room);
+        return set == null ? Collections.emptySet() : set;
+    }
+
+    /**
+     * @param room    房间名
+     * @param session 会话
+     * @return 会话是否在房间中
+     */
+    public boolean isMember(String room, ClientSession session) {
+        return members(room).contains(session);
+    }
+
+    /**
+     * @return 当前房间数
+     */
+    public int size() {
+        return rooms.size();
+    }
+
+    @Override
+    public String toString() {
+        int largest = 0;
+        for (Set<ClientSession> set : rooms.values()) {
+            largest = Math.max(largest, set.size());
+        }
+        return "房间 -> 数量: " + rooms.size() + " 最大房间人数: " + largest
+                + " 加入了房间的连接: " + memberships.size();
+    }
+}
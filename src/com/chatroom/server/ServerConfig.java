@@ -0,0 +1,212 @@
+package com.chatroom.server;
+
+/**
+ * 服务器运行参数
+ * <p>
+ * 所有参数均可通过 JVM 系统属性覆盖，例如：-Dchatroom.server.mode=nio。
+ * 未指定时使用下列默认值。
+ * </p>
+ */
+public class ServerConfig {
+    /** 服务器监听端口 */
+    public static final int PORT = Integer.getInteger("chatroom.server.port", 8888);
+
+    /**
+     * 运行模式：thread 为每连接一个平台线程，virtual 为每连接一个虚拟线程，nio 为基于 Selector 的事件循环
+     */
+    public static final String MODE = System.getProperty("chatroom.server.mode", "thread");
+
+    /** NIO 模式下的事件循环线程数，默认与 CPU 核数一致 */
+    public static final int NIO_EVENT_LOOPS = Integer.getInteger("chatroom.nio.loops",
+            Runtime.getRuntime().availableProcessors());
+
+    /** NIO 模式下新连接分配到事件循环的方式：least 为当前连接数最少者，hash 为按客户端 IP 散列 (同一 IP 固定在同一事件循环) */
+    public static final String NIO_ASSIGN = System.getProperty("chatroom.nio.assign", "least");
+
+    /** NIO 模式下执行业务处理 (含数据库访问) 的工作线程数 */
+    public static final int NIO_WORKERS = Integer.getInteger("chatroom.nio.workers", 16);
+
+    /** NIO 模式下 ServerSocketChannel 的连接等待队列长度 */
+    public static final int NIO_BACKLOG = Integer.getInteger("chatroom.nio.backlog", 1024);
+
+    /** 每个连接出站队列的容量 (帧数) */
+    public static final int OUTBOUND_CAPACITY = Integer.getInteger("chatroom.outbound.capacity", 1024);
+
+    /**
+     * 有数据待发送时，最多再等待多少微秒以便与随后的帧合并为一次写入，0 表示不等待
+     * (NIO 模式下每轮事件处理结束即合并刷新；等待时间的精度在 NIO 模式下为 1 毫秒)
+     */
+    public static final long OUTBOUND_FLUSH_DELAY_MICROS = Long.getLong("chatroom.outbound.flushDelayMicros", 0L);
+
+    /** 出站队列满时的处理策略：drop_oldest、disconnect 或 coalesce */
+    public static final OutboundQueue.OverflowPolicy OUTBOUND_OVERFLOW = OutboundQueue.OverflowPolicy.valueOf(
+            System.getProperty("chatroom.outbound.overflow", "drop_oldest").toUpperCase());
+
+    /** 聊天记录存储方式：jdbc 为异步批量写入 MySQL，journal 为本地内存映射日志文件 */
+    public static final String CHATLOG_STORE = System.getProperty("chatroom.chatlog.store", "jdbc");
+
+    /** 聊天记录日志 (journal) 的段文件目录 */
+    public static final String JOURNAL_DIR = System.getProperty("chatroom.journal.dir", "journal");
+
+    /** 聊天记录日志单个段文件的大小 (MB) */
+    public static final int JOURNAL_SEGMENT_MB = Integer.getInteger("chatroom.journal.segmentMb", 64);
+
+    /** 聊天记录日志的刷盘间隔 (毫秒) */
+    public static final long JOURNAL_FLUSH_INTERVAL = Long.getLong("chatroom.journal.flushInterval", 1000L);
+
+    /** 聊天记录写入队列容量，队列满时记录写入溢出文件 */
+    public static final int CHATLOG_QUEUE_CAPACITY = Integer.getInteger("chatroom.chatlog.queueCapacity", 10000);
+
+    /** 聊天记录每批写入的最大条数 */
+    public static final int CHATLOG_BATCH_SIZE = Integer.getInteger("chatroom.chatlog.batchSize", 200);
+
+    /** 聊天记录批次的最长等待时间 (毫秒) */
+    public static final long CHATLOG_FLUSH_INTERVAL = Long.getLong("chatroom.chatlog.flushInterval", 50L);
+
+    /** 聊天记录批量写入失败后的最大重试次数 */
+    public static final int CHATLOG_MAX_RETRIES = Integer.getInteger("chatroom.chatlog.maxRetries", 3);
+
+    /** 聊天记录首次重试的等待时间 (毫秒)，之后每次翻倍 */
+    public static final long CHATLOG_RETRY_BACKOFF = Long.getLong("chatroom.chatlog.retryBackoff", 200L);
+
+    /** chat_logs 中保存时间的列 (例如 send_time)，重建搜索索引时读取，为空时启动前的记录不参与按时间筛选 */
+    public static final String CHATLOG_TIME_COLUMN = System.getProperty("chatroom.chatlog.timeColumn", "");
+
+    /** 数据库不可用时的聊天记录溢出文件 */
+    public static final String CHATLOG_SPILL_FILE = System.getProperty("chatroom.chatlog.spillFile", "chatlog-spill.log");
+
+    /** 公共聊天与每个房间各自在内存中缓存的最近消息条数 (按对话计，不随在线连接数增长)，登录或加入房间后回放 */
+    public static final int HISTORY_CAPACITY = Integer.getInteger("chatroom.history.capacity", 50);
+
+    /** 历史消息翻页时每页的条数 */
+    public static final int HISTORY_PAGE_SIZE = Integer.getInteger("chatroom.history.pageSize", 50);
+
+    /** 集群节点间链路的监听端口，0 表示不启用集群 */
+    public static final int CLUSTER_PORT = Integer.getInteger("chatroom.cluster.port", 0);
+
+    /** 本节点 ID，集群内唯一 */
+    public static final String CLUSTER_NODE_ID = System.getProperty("chatroom.cluster.nodeId", "node-" + PORT);
+
+    /** 其他节点的链路地址，格式为 host:port，以逗号分隔 */
+    public static final String CLUSTER_PEERS = System.getProperty("chatroom.cluster.peers", "");
+
+    /** 集群口令，节点握手时校验 */
+    public static final String CLUSTER_SECRET = System.getProperty("chatroom.cluster.secret", "");
+
+    /** 节点间链路出站队列的容量 (帧数)，溢出时断开链路并在重连后重新同步在线用户 */
+    public static final int CLUSTER_LINK_CAPACITY = Integer.getInteger("chatroom.cluster.linkCapacity", 65536);
+
+    /** 日志级别：info 或 debug，debug 会额外输出每个接收者的转发失败等逐条日志 */
+    public static final String LOG_LEVEL = System.getProperty("chatroom.log.level", "info");
+
+    /** 每 N 条群聊消息在控制台输出一条，0 表示不输出，1 表示全部输出 (debug 级别下全部输出) */
+    public static final int LOG_CHAT_SAMPLE = Integer.getInteger("chatroom.log.chatSample", 0);
+
+    /** 纯文本指标抓取端点 (/metrics) 的端口，0 表示不启动；JMX 指标始终注册 */
+    public static final int METRICS_PORT = Integer.getInteger("chatroom.metrics.port", 0);
+
+    /** 每个会话每秒允许的消息数 (登录与注册除外)，0 表示不限制 */
+    public static final int LIMIT_MESSAGES = Integer.getInteger("chatroom.limit.messages", 20);
+
+    /** 每个会话允许突发的消息数 */
+    public static final int LIMIT_MESSAGES_BURST = Integer.getInteger("chatroom.limit.messagesBurst", 40);
+
+    /** 每个会话每秒允许的消息字节数 (按帧长度计算)，0 表示不限制 */
+    public static final int LIMIT_BYTES = Integer.getInteger("chatroom.limit.bytes", 64 * 1024);
+
+    /** 每个会话允许突发的消息字节数，超过该长度的单条消息需要令牌全满时才能发送 */
+    public static final int LIMIT_BYTES_BURST = Integer.getInteger("chatroom.limit.bytesBurst", 256 * 1024);
+
+    /** 每个会话每秒允许的登录与注册尝试次数，0 表示不限制 */
+    public static final int LIMIT_LOGINS = Integer.getInteger("chatroom.limit.logins", 1);
+
+    /** 每个会话允许突发的登录与注册尝试次数 */
+    public static final int LIMIT_LOGINS_BURST = Integer.getInteger("chatroom.limit.loginsBurst", 5);
+
+    /** 同一 IP 的所有连接每秒合计允许的消息数，0 表示不限制；NAT 后的多个用户共享该限额，应明显高于单个会话的限额 */
+    public static final int LIMIT_IP_MESSAGES = Integer.getInteger("chatroom.limit.ip.messages", 1000);
+
+    /** 同一 IP 允许突发的消息数 */
+    public static final int LIMIT_IP_MESSAGES_BURST = Integer.getInteger("chatroom.limit.ip.messagesBurst", 2000);
+
+    /** 同一 IP 每秒合计允许的消息字节数，0 表示不限制 */
+    public static final int LIMIT_IP_BYTES = Integer.getInteger("chatroom.limit.ip.bytes", 4 * 1024 * 1024);
+
+    /** 同一 IP 允许突发的消息字节数 */
+    public static final int LIMIT_IP_BYTES_BURST = Integer.getInteger("chatroom.limit.ip.bytesBurst", 16 * 1024 * 1024);
+
+    /** 同一 IP 每秒合计允许的登录与注册尝试次数 (断线重连不会重置)，0 表示不限制 */
+    public static final int LIMIT_IP_LOGINS = Integer.getInteger("chatroom.limit.ip.logins", 10);
+
+    /** 同一 IP 允许突发的登录与注册尝试次数 */
+    public static final int LIMIT_IP_LOGINS_BURST = Integer.getInteger("chatroom.limit.ip.loginsBurst", 50);
+
+    /** 连接空闲多少秒后服务器发送 PING，0 表示不做心跳检测 */
+    public static final int HEARTBEAT_INTERVAL = Integer.getInteger("chatroom.heartbeat.interval", 30);
+
+    /** 发送 PING 后等待客户端回复的秒数，期间没有收到任何消息则断开连接 */
+    public static final int HEARTBEAT_TIMEOUT = Integer.getInteger("chatroom.heartbeat.timeout", 10);
+
+    /** 定时器时间轮的刻度 (毫秒)，即空闲检测与恢复令牌过期的精度 */
+    public static final int TIMER_TICK_MILLIS = Integer.getInteger("chatroom.timer.tickMillis", 100);
+
+    /** 断线重连的重放窗口保留的消息条数 (全节点共享，含群聊、房间与私聊) */
+    public static final int RESUME_WINDOW = Integer.getInteger("chatroom.resume.window", 8192);
+
+    /** 保留序号与存储 ID 对应关系的消息条数，错过的消息滑出窗口但仍在该范围内时从存储补读 */
+    public static final int RESUME_INDEX = Integer.getInteger("chatroom.resume.index", 1 << 18);
+
+    /** 断线后恢复令牌的有效期 (秒)，过期后客户端需要重新登录 */
+    public static final int RESUME_TTL = Integer.getInteger("chatroom.resume.ttl", 300);
+
+    /** 一次恢复最多补发的消息条数，超过时改为回放最近记录 (与登录相同) */
+    public static final int RESUME_MAX_REPLAY = Integer.getInteger("chatroom.resume.maxReplay", 500);
+
+    /** 是否启用聊天记录全文搜索 (内存倒排索引) */
+    public static final boolean SEARCH_ENABLED = Boolean.parseBoolean(System.getProperty("chatroom.search.enabled", "true"));
+
+    /** 搜索索引每段的最大消息数 */
+    public static final int SEARCH_SEGMENT_DOCS = Integer.getInteger("chatroom.search.segmentDocs", 65536);
+
+    /** 启动时从聊天记录存储重建搜索索引的并行线程数，0 表示不重建 (只索引启动后的新消息) */
+    public static final int SEARCH_REBUILD_THREADS = Integer.getInteger("chatroom.search.rebuildThreads", 4);
+
+    /** 每页搜索结果的条数 */
+    public static final int SEARCH_PAGE_SIZE = Integer.getInteger("chatroom.search.pageSize", 20);
+
+    /** 是否向客户端推送在线用户列表 (登录时快照，之后推送增量) */
+    public static final boolean PRESENCE_ENABLED = Boolean.parseBoolean(System.getProperty("chatroom.presence.enabled", "true"));
+
+    /** 在线列表变化的合并窗口 (毫秒)，窗口内的上下线合并为一次增量推送 */
+    public static final int PRESENCE_WINDOW_MILLIS = Integer.getInteger("chatroom.presence.windowMillis", 250);
+
+    /** 在线列表增量日志保留的上下线人次，客户端漏收的增量超出日志时改为发送快照 */
+    public static final int PRESENCE_LOG = Integer.getInteger("chatroom.presence.log", 8192);
+
+    /** 新密码哈希 (PBKDF2-HMAC-SHA256) 的迭代次数；调高后已有账号在下次登录成功时按新次数重新计算 */
+    public static final int AUTH_ITERATIONS = Integer.getInteger("chatroom.auth.iterations", 210_000);
+
+    /** 计算密码哈希的线程数，默认为 CPU 核数的一半，登录风暴最多占用这些核 */
+    public static final int AUTH_THREADS = Integer.getInteger("chatroom.auth.threads",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+    /** 查询与写入用户表的线程数，应小于数据库连接池容量 */
+    public static final int AUTH_DB_THREADS = Integer.getInteger("chatroom.auth.dbThreads", 4);
+
+    /** 哈希计算与用户表访问各自的排队上限，排满时登录与注册请求提示服务器繁忙 */
+    public static final int AUTH_QUEUE = Integer.getInteger("chatroom.auth.queue", 1024);
+
+    /** 用户记录缓存的最大账号数 */
+    public static final int AUTH_CACHE_SIZE = Integer.getInteger("chatroom.auth.cacheSize", 100_000);
+
+    /** 用户记录缓存的有效期 (秒) */
+    public static final int AUTH_CACHE_TTL = Integer.getInteger("chatroom.auth.cacheTtl", 300);
+
+    /** 不存在的账号的缓存有效期 (秒) */
+    public static final int AUTH_NEGATIVE_TTL = Integer.getInteger("chatroom.auth.negativeTtl", 30);
+
+    /** 广播统计的输出间隔 (秒)，0 表示不输出 */
+    public static final int STATS_INTERVAL_SECONDS = Integer.getInteger("chatroom.stats.interval", 60);
+
+    private ServerConfig() {}
+}
@@ -0,0 +1,31 @@
+package com.chatroom.server;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 控制台日志的级别与采样
+ * <p>
+ * 逐条消息的日志在高负载下本身就是瓶颈 (System.out 是加锁的同步输出)，
+ * 因此只在 debug 级别或被采样到时输出；连接、登录等低频事件仍直接输出。
+ * 两个判断都不加锁也不分配对象，未命中时连日志字符串都不会拼接。
+ * </p>
+ */
+public final class ServerLog {
+    /** 是否为 debug 级别 */
+    public static final boolean DEBUG = "debug".equalsIgnoreCase(ServerConfig.LOG_LEVEL);
+
+    private static final int CHAT_SAMPLE = ServerConfig.LOG_CHAT_SAMPLE;
+
+    private ServerLog() {}
+
+    /**
+     * @return 本条聊天消息是否需要输出日志
+     */
+    public static boolean sampleChat() {
+        if (DEBUG) {
+            return true;
+        }
+        // 各线程独立的随机数，避免为采样共享一个计数器
+        return CHAT_SAMPLE > 0 && (CHAT_SAMPLE == 1 || ThreadLocalRandom.current().nextInt(CHAT_SAMPLE) == 0);
+    }
+}
@@ -1,235 +1,271 @@
 package com.chatroom.server;
 
 import com.chatroom.common.Message;
-import com.chatroom.utils.JDBCUtils;
+import com.chatroom.common.MessageCodec;
+import com.chatroom.server.metrics.Metrics;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
 import java.net.Socket;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * 服务器端线程类
+ * 服务器端连接处理任务
  * <p>
- * 该类继承自 Thread，每一个连接到服务器的客户端都会分配一个独立的 ServerThread 实例进行处理。
- * 主要负责监听客户端发送的消息，并根据消息类型（登录、聊天、注册）执行相应的业务逻辑。
+ * 每连接一线程模式下，每一个连接到服务器的客户端都会分配一个独立的 ServerThread 实例，
+ * 由 ChatServer 将其运行在一个平台线程 (thread 模式) 或虚拟线程 (virtual 模式) 上。
+ * 主要负责监听客户端发送的消息，并交由 MessageHandler 根据消息类型（登录、聊天、注册）执行相应的业务逻辑。
+ * </p>
+ * <p>
+ * 发往该客户端的帧先进入有界出站队列，再由写线程 (从 writerExecutor 获取) 依次写出，
+ * 发送者线程不会因为该客户端接收缓慢而阻塞。
+ * 注意：本类中不使用 synchronized 保护阻塞 IO，
+ * 因为虚拟线程在 synchronized 块内阻塞时会占住 (pin) 其载体线程。
  * </p>
  */
-public class ServerThread extends Thread {
+public class ServerThread extends AbstractSession implements Runnable {
     /**
      * 与当前客户端建立连接的 Socket 对象
      */
     private Socket socket;
 
     /**
-     * 在线用户列表
-     * <p>
-     * 使用静态 HashMap 存储所有在线用户的映射关系。
-     * Key: 用户昵称
-     * Value: 该用户对应的 ObjectOutputStream（用于向该用户发送消息）
-     * </p>
+     * 业务处理器 (所有连接共享)
+     */
+    private MessageHandler handler;
+
+    /**
+     * 输出流，用于向该客户端发送消息帧
+     */
+    private OutputStream out;
+
+    /**
+     * 输出缓冲区大小：写线程把出站队列中积压的帧依次写入缓冲区，队列取空后才刷新，
+     * 因此积压的多帧合并为一次系统调用
+     */
+    private static final int WRITE_BUFFER_SIZE = 32 * 1024;
+
+    /** 刷新前最多等待的时间 (纳秒) */
+    private static final long FLUSH_DELAY_NANOS = ServerConfig.OUTBOUND_FLUSH_DELAY_MICROS * 1000;
+
+    /**
+     * 写出只读帧时使用的中转缓冲区 (只读 ByteBuffer 无法直接访问底层数组)，仅由写线程使用
+     */
+    private final byte[] copyBuffer = new byte[8192];
+
+    /**
+     * 提供写线程的执行器
+     */
+    private final Executor writerExecutor;
+
+    /**
+     * 是否已有写线程在处理出站队列
+     * 初始为 true：run() 创建输出流之前入队的帧 (例如集群拨号方在线程启动后立即发送的 HELLO) 只入队，
+     * 由 run() 在输出流就绪后统一交给写线程
      */
-    private static HashMap<String, ObjectOutputStream> onlineUsers = new HashMap<>();
+    private final AtomicBoolean writing = new AtomicBoolean(true);
+
+    /**
+     * 连接是否已关闭
+     */
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * 构造方法
+     *
+     * @param socket         客户端连接的 Socket 实例
+     * @param handler        业务处理器
+     * @param writerExecutor 提供写线程的执行器
+     */
+    public ServerThread(Socket socket, MessageHandler handler, Executor writerExecutor) {
+        this(socket, handler, writerExecutor, new OutboundQueue());
+    }
 
     /**
      * 构造方法
      *
-     * @param socket 客户端连接的 Socket 实例
+     * @param socket         连接的 Socket 实例
+     * @param handler        业务处理器
+     * @param writerExecutor 提供写线程的执行器
+     * @param outbound       出站队列 (集群链路使用更大的容量)
      */
-    public ServerThread(Socket socket) {
+    public ServerThread(Socket socket, MessageHandler handler, Executor writerExecutor, OutboundQueue outbound) {
+        super(outbound);
         this.socket = socket;
+        this.handler = handler;
+        this.writerExecutor = writerExecutor;
     }
 
     /**
-     * 线程执行体
-     * 持续监听客户端发送的消息对象，并进行分发处理。
+     * 任务执行体
+     * 持续监听客户端发送的消息帧，并进行分发处理。
      */
     @Override
     public void run() {
         try {
-            // 初始化输入输出流，用于对象传输
-            ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
-            ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+            // 初始化输入输出流，用于消息帧传输
+            out = new BufferedOutputStream(new FilterOutputStream(socket.getOutputStream()) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    // 缓冲区满或刷新时才写入套接字，每次对应一次系统调用
+                    out.write(b, off, len);
+                    Metrics.WRITE_SYSCALLS.increment();
+                }
+            }, WRITE_BUFFER_SIZE);
+            writing.set(false);
+            if (!outbound.isEmpty() && writing.compareAndSet(false, true)) {
+                writerExecutor.execute(this::drain);
+            }
+            InputStream in = new BufferedInputStream(new FilterInputStream(socket.getInputStream()) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    // BufferedInputStream 按块读取，每块累加一次读取字节数
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        Metrics.BYTES_IN.add(n);
+                    }
+                    return n;
+                }
+            });
+
+            handler.sessionOpened(this);
 
             while (true) {
-                // 阻塞读取客户端发送的消息对象
-                Message msg = (Message) ois.readObject();
-
-                // 根据协议中的消息类型进行分发处理
-                if (Message.LOGIN.equals(msg.getType())) {
-                    handleLogin(msg, oos);
-                } else if (Message.CHAT.equals(msg.getType())) {
-                    handleChat(msg);
-                } else if (Message.REGISTER.equals(msg.getType())) {
-                    handleRegister(msg, oos);
-                }
+                // 阻塞读取客户端发送的消息帧
+                Message msg = MessageCodec.read(in);
+                handler.handle(this, msg);
             }
+        } catch (StreamCorruptedException e) {
+            // 协议版本不匹配或帧格式非法
+            System.out.println("客户端协议错误，连接已断开: " + getRemoteAddress() + " " + e.getMessage());
         } catch (Exception e) {
             // 捕获异常通常意味着客户端断开连接或网络异常
-            // 实际生产环境中应在此处处理用户下线逻辑（如从 onlineUsers 移除）
             System.out.println("客户端连接已断开...");
+        } finally {
+            // 关闭连接并将用户从在线列表中移除
+            close();
         }
     }
 
     /**
-     * 处理用户登录请求
+     * 向该客户端发送一帧
+     * 帧放入出站队列后立即返回，若当前没有写线程在工作则提交一个。
      *
-     * @param msg 包含登录凭证的消息对象
-     * @param oos 当前客户端的输出流，用于回传响应
-     * @throws Exception 数据库连接或IO异常
+     * @param frame 已编码的帧
+     * @throws IOException 连接已关闭，或出站队列溢出且策略为断开连接
      */
-    private void handleLogin(Message msg, ObjectOutputStream oos) throws Exception {
-        // 解析消息内容，格式约定为：账号|密码
-        String[] parts = msg.getContent().split("\\|");
-        String username = parts[0];
-        String password = parts[1];
-
-        Connection conn = null;
-        PreparedStatement pstmt = null;
-        ResultSet rs = null;
-        Message response = new Message();
-
+    @Override
+    public void sendFrame(ByteBuffer frame) throws IOException {
+        if (closed.get()) {
+            throw new IOException("连接已关闭: " + getRemoteAddress());
+        }
         try {
-            // 获取数据库连接并执行查询
-            conn = JDBCUtils.getConnection();
-            String sql = "SELECT * FROM users WHERE username = ? AND password = ?";
-            pstmt = conn.prepareStatement(sql);
-            pstmt.setString(1, username);
-            pstmt.setString(2, password);
-            rs = pstmt.executeQuery();
-
-            if (rs.next()) {
-                // 验证通过，构建成功响应
-                response.setType(Message.LOGIN_SUCCESS);
-                response.setContent("欢迎回来，" + rs.getString("nickname"));
-
-                // 将当前用户加入在线列表，以便后续进行消息转发
-                onlineUsers.put(rs.getString("nickname"), oos);
-                System.out.println("用户上线：" + rs.getString("nickname"));
-            } else {
-                // 验证失败
-                response.setType(Message.LOGIN_FAIL);
-                response.setContent("账号或密码错误！");
-            }
-
-            // 向客户端发送响应结果
-            oos.writeObject(response);
-            oos.flush();
-        } finally {
-            // 释放数据库资源
-            JDBCUtils.close(conn, pstmt, rs);
+            outbound.offer(frame.duplicate());
+        } catch (IOException e) {
+            System.out.println("客户端接收过慢，连接已断开: " + getRemoteAddress());
+            close();
+            throw e;
+        }
+        if (writing.compareAndSet(false, true)) {
+            writerExecutor.execute(this::drain);
         }
     }
 
     /**
-     * 处理群聊消息转发
-     *
-     * @param msg 包含聊天内容的完整消息对象
-     * @throws Exception IO异常
+     * 写线程执行体：写出出站队列中的全部帧，队列为空时刷新并退出
+     * 配置了刷新等待时间时，队列取空后再等待一次，把这段时间内到达的帧合并到同一次刷新中。
      */
-    private void handleChat(Message msg) throws Exception {
-        // 遍历在线用户列表，实现消息广播
-        for (String nickname : onlineUsers.keySet()) {
-            // 排除发送者自身，只转发给其他用户
-            if (!nickname.equals(msg.getSender())) {
-                ObjectOutputStream clientOos = onlineUsers.get(nickname);
-                clientOos.writeObject(msg);
-                clientOos.flush();
+    private void drain() {
+        try {
+            while (true) {
+                ByteBuffer buf;
+                long frames = 0;
+                long bytes = 0;
+                for (boolean waited = FLUSH_DELAY_NANOS == 0; ; waited = true) {
+                    while ((buf = outbound.poll()) != null) {
+                        bytes += buf.remaining();
+                        frames++;
+                        write(buf);
+                    }
+                    if (waited) {
+                        break;
+                    }
+                    LockSupport.parkNanos(FLUSH_DELAY_NANOS);
+                }
+                out.flush();
+                Metrics.MESSAGES_OUT.add(frames);
+                Metrics.BYTES_OUT.add(bytes);
+                writing.set(false);
+                // 退出前再次检查，避免遗漏刚放入队列的帧
+                if (outbound.isEmpty() || !writing.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // 任何异常都要复位 writing 并断开连接，否则之后的帧只入队而不再有写线程处理，连接静默失去响应
+            if (e instanceof RuntimeException) {
+                System.err.println("写线程异常，断开连接: " + getRemoteAddress() + " " + e);
             }
+            writing.set(false);
+            close();
         }
-        System.out.println("转发消息 -> 发送者: " + msg.getSender() + " 内容: " + msg.getContent());
-
-        // 将聊天记录持久化到数据库
-        saveChatLog(msg);
     }
 
-    /**
-     * 处理用户注册请求
-     *
-     * @param msg 包含注册信息的消息对象
-     * @param oos 当前客户端的输出流
-     * @throws Exception 数据库操作异常
-     */
-    private void handleRegister(Message msg, ObjectOutputStream oos) throws Exception {
-        // 解析注册信息，格式约定为：账号|密码|昵称
-        String[] parts = msg.getContent().split("\\|");
-        String username = parts[0];
-        String password = parts[1];
-        String nickname = parts[2];
-        // 随机分配默认头像ID (1-3)
-        int avatar = 1;
-
-        Connection conn = null;
-        PreparedStatement pstmt = null;
-        Message response = new Message();
-
-        try {
-            conn = JDBCUtils.getConnection();
-
-            // 步骤1：检查账号是否已存在
-            String checkSql = "SELECT * FROM users WHERE username = ?";
-            pstmt = conn.prepareStatement(checkSql);
-            pstmt.setString(1, username);
-
-            if (pstmt.executeQuery().next()) {
-                response.setType(Message.REGISTER_FAIL);
-                response.setContent("账号已存在，请更换账号！");
-            } else {
-                // 步骤2：执行插入操作
-                // 关闭上一个 PreparedStatement
-                pstmt.close();
-
-                String insertSql = "INSERT INTO users (username, password, nickname, avatar) VALUES (?, ?, ?, ?)";
-                pstmt = conn.prepareStatement(insertSql);
-                pstmt.setString(1, username);
-                pstmt.setString(2, password);
-                pstmt.setString(3, nickname);
-                pstmt.setInt(4, avatar);
-                pstmt.executeUpdate();
-
-                response.setType(Message.REGISTER_SUCCESS);
-                response.setContent("注册成功！请使用新账号登录。");
-                System.out.println("新用户注册成功：" + username);
+    private void write(ByteBuffer buf) throws IOException {
+        if (buf.hasArray()) {
+            out.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+        } else {
+            while (buf.hasRemaining()) {
+                int n = Math.min(buf.remaining(), copyBuffer.length);
+                buf.get(copyBuffer, 0, n);
+                out.write(copyBuffer, 0, n);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-            response.setType(Message.REGISTER_FAIL);
-            response.setContent("服务器内部错误：" + e.getMessage());
-        } finally {
-            JDBCUtils.close(conn, pstmt, null);
         }
+    }
 
-        // 返回注册结果
-        oos.writeObject(response);
-        oos.flush();
+    @Override
+    public String getRemoteAddress() {
+        return String.valueOf(socket.getRemoteSocketAddress());
+    }
+
+    @Override
+    public String getRemoteHost() {
+        return socket.getInetAddress() == null ? getRemoteAddress() : socket.getInetAddress().getHostAddress();
     }
 
     /**
-     * 将聊天记录持久化保存至数据库
-     *
-     * @param msg 需要保存的消息对象
+     * 读线程阻塞在读取上，异步后续任务交给提供写线程的执行器 (虚拟线程模式下每个任务一个虚拟线程)
      */
-    private void saveChatLog(Message msg) {
-        Connection conn = null;
-        PreparedStatement pstmt = null;
+    @Override
+    public Executor getExecutor() {
+        return writerExecutor;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        outbound.clear();
         try {
-            conn = JDBCUtils.getConnection();
-            String sql = "INSERT INTO chat_logs (sender_name, content, receiver_name) VALUES (?, ?, ?)";
-            pstmt = conn.prepareStatement(sql);
-            pstmt.setString(1, msg.getSender());
-            pstmt.setString(2, msg.getContent());
-            // 若接收者为空，则默认为 "ALL" (群聊)
-            pstmt.setString(3, msg.getReceiver() == null ? "ALL" : msg.getReceiver());
-
-            pstmt.executeUpdate();
-        } catch (Exception e) {
-            System.err.println("聊天记录保存失败: " + e.getMessage());
-            e.printStackTrace();
-        } finally {
-            JDBCUtils.close(conn, pstmt, null);
+            socket.close();
+        } catch (IOException e) {
+            // 连接已关闭，忽略
         }
+        handler.sessionClosed(this);
     }
-}
\ No newline at end of file
+}
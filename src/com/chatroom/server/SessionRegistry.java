@@ -0,0 +1,96 @@
+package com.chatroom.server;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 在线用户会话注册表
+ * <p>
+ * 以昵称为键保存所有已登录的会话，底层为 ConcurrentHashMap：
+ * 查找与遍历不加锁，登录/下线只锁定单个哈希桶，因此广播与上下线互不阻塞。
+ * 遍历为弱一致性视图，不需要复制快照，遍历期间发生的上下线不会抛出 ConcurrentModificationException。
+ * </p>
+ */
+public class SessionRegistry {
+    private final ConcurrentHashMap<String, ClientSession> sessions = new ConcurrentHashMap<>(1024);
+
+    /**
+     * 登记一个已登录的会话
+     * <p>
+     * 若同一昵称已在其他连接上登录，则原子地替换为新会话，并返回被替换的旧会话，由调用者负责将其踢下线。
+     * 若该会话此前以其他昵称登录过，旧昵称的登记会被移除。
+     * 登录过程中连接已经断开时撤销本次登记 (见 {@link #revert})，被替换的旧会话重新登记并返回 null。
+     * 调用者在踢掉旧会话、通告上线之前仍需检查 session.isClosed()：登记之后才断开的连接同样要撤销。
+     * </p>
+     *
+     * @param nickname 用户昵称
+     * @param session  会话
+     * @return 被替换的旧会话，没有时返回 null
+     */
+    public ClientSession register(String nickname, ClientSession session) {
+        String previousName = session.getNickname();
+        if (previousName != null && !previousName.equals(nickname)) {
+            sessions.remove(previousName, session);
+        }
+        session.setNickname(nickname);
+        ClientSession replaced = sessions.put(nickname, session);
+
+        if (replaced == session) {
+            replaced = null;
+        }
+        // 登录过程中连接可能已经断开，此时 unregister 已先执行，需要撤销本次登记
+        if (session.isClosed()) {
+            revert(nickname, session, replaced);
+            return null;
+        }
+        return replaced;
+    }
+
+    /**
+     * 撤销一次登记：移除已断开的会话，被它替换的旧会话若仍未断开则重新登记
+     *
+     * @param nickname 用户昵称
+     * @param session  已断开的会话
+     * @param replaced 登记时被替换的旧会话，可为 null
+     */
+    public void revert(String nickname, ClientSession session, ClientSession replaced) {
+        sessions.remove(nickname, session);
+        if (replaced != null && !replaced.isClosed()) {
+            sessions.putIfAbsent(nickname, replaced);
+        }
+    }
+
+    /**
+     * 移除一个会话 (连接断开时调用)
+     * 只有当昵称仍然对应该会话时才会移除，避免误删同名用户的新会话。
+     *
+     * @param session 会话
+     * @return 是否确实移除了登记
+     */
+    public boolean unregister(ClientSession session) {
+        String nickname = session.getNickname();
+        return nickname != null && sessions.remove(nickname, session);
+    }
+
+    /**
+     * @param nickname 用户昵称
+     * @return 对应的会话，不在线时返回 null
+     */
+    public ClientSession get(String nickname) {
+        return sessions.get(nickname);
+    }
+
+    /**
+     * @return 所有在线会话的弱一致性视图 (不复制)
+     */
+    public Collection<ClientSession> sessions() {
+        return sessions.values();
+    }
+
+    /**
+     * @return 在线用户数
+     */
+    public int size() {
+        return sessions.size();
+    }
+}
@@ -0,0 +1,227 @@
+package com.chatroom.server;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 哈希时间轮定时器
+ * <p>
+ * 时间轮由 2 的幂个槽组成，每个槽是一个双向链表，指针每个刻度前进一格并执行该槽中到期的任务；
+ * 超过一圈的任务记录剩余圈数，指针每经过一次减一。因此无论有多少个定时任务，
+ * 添加与取消都是 O(1)，每个刻度只处理当前槽，十万个连接的超时检测只需要一个线程。
+ * 代价是精度为一个刻度，适合空闲检测这类不要求精确时刻的超时。
+ * </p>
+ * <p>
+ * 槽只由工作线程访问：其他线程添加与取消的任务先放入无锁队列，工作线程在每个刻度开始时取出，
+ * 取消时把任务从所在的链表中摘除。任务在工作线程上执行，必须很快返回，不能阻塞。
+ * 工作线程在第一次添加任务时启动。
+ * </p>
+ */
+public class TimerWheel {
+    /** 每个刻度最多从队列中转入槽的任务数，避免大量任务同时添加时拖慢当前刻度 */
+    private static final int MAX_TRANSFER_PER_TICK = 100_000;
+
+    private final String name;
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    /** 时间原点，在工作线程启动前确定 */
+    private final long origin = System.nanoTime();
+    /** 已处理的刻度数，仅由工作线程访问 */
+    private long tick;
+
+    /**
+     * 一个定时任务
+     */
+    public static final class Timeout {
+        private static final int INIT = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+        private static final VarHandle STATE;
+
+        static {
+            try {
+                STATE = MethodHandles.lookup().findVarHandle(Timeout.class, "state", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final TimerWheel timer;
+        private final Runnable task;
+        /** 到期时刻，相对于时间轮的原点 */
+        private final long deadline;
+        private volatile int state;
+
+        /** 以下字段仅由工作线程访问 */
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(TimerWheel timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消该任务，尚未执行时不再执行；可重复调用
+         */
+        public void cancel() {
+            if (STATE.compareAndSet(this, INIT, CANCELLED)) {
+                timer.cancelled.add(this);
+            }
+        }
+
+        /**
+         * @return 是否已取消
+         */
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        private boolean expire() {
+            return STATE.compareAndSet(this, INIT, EXPIRED);
+        }
+    }
+
+    /**
+     * 一个槽：定时任务组成的双向链表
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        void remove(Timeout t) {
+            if (t.prev != null) {
+                t.prev.next = t.next;
+            } else {
+                head = t.next;
+            }
+            if (t.next != null) {
+                t.next.prev = t.prev;
+            } else {
+                tail = t.prev;
+            }
+            t.prev = t.next = null;
+            t.bucket = null;
+        }
+
+        /**
+         * 执行本槽中已到期的任务，其余任务的剩余圈数减一
+         */
+        void expire() {
+            Timeout t = head;
+            while (t != null) {
+                Timeout next = t.next;
+                if (t.remainingRounds <= 0) {
+                    remove(t);
+                    if (t.expire()) {
+                        try {
+                            t.task.run();
+                        } catch (Throwable e) {
+                            System.err.println("定时任务执行异常: " + e);
+                        }
+                    }
+                } else {
+                    t.remainingRounds--;
+                }
+                t = next;
+            }
+        }
+    }
+
+    /**
+     * @param name          工作线程名
+     * @param tick          刻度长度
+     * @param unit          刻度长度的单位
+     * @param ticksPerWheel 槽数，向上取整为 2 的幂
+     */
+    public TimerWheel(String name, long tick, TimeUnit unit, int ticksPerWheel) {
+        this.name = name;
+        this.tickNanos = Math.max(1, unit.toNanos(tick));
+        int size = Integer.highestOneBit(Math.max(1, ticksPerWheel - 1)) << 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * 添加一个定时任务，可由任意线程调用
+     *
+     * @param task  到期后在工作线程上执行的任务，必须很快返回
+     * @param delay 延迟
+     * @param unit  延迟的单位
+     * @return 可用于取消的句柄
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (!started.get() && started.compareAndSet(false, true)) {
+            Thread.ofPlatform().name(name).daemon().start(this::run);
+        }
+        Timeout timeout = new Timeout(this, task, System.nanoTime() - origin + unit.toNanos(delay));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        while (true) {
+            long deadline = tickNanos * (tick + 1);
+            long wait;
+            while ((wait = deadline - (System.nanoTime() - origin)) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            removeCancelled();
+            transferPending();
+            wheel[(int) (tick & mask)].expire();
+            tick++;
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout t;
+        while ((t = cancelled.poll()) != null) {
+            if (t.bucket != null) {
+                t.bucket.remove(t);
+            }
+        }
+    }
+
+    private void transferPending() {
+        for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+            Timeout t = pending.poll();
+            if (t == null) {
+                return;
+            }
+            if (t.isCancelled()) {
+                continue;
+            }
+            long calculated = t.deadline / tickNanos;
+            t.remainingRounds = (calculated - tick) / wheel.length;
+            // 已经过期的任务放入当前槽，本刻度内执行
+            wheel[(int) (Math.max(calculated, tick) & mask)].add(t);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.chatroom.server.auth;
+
+import com.chatroom.common.User;
+import com.chatroom.server.metrics.Metrics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 登录校验与注册
+ * <p>
+ * 两类耗时操作都不在处理消息的线程上执行，各自使用独立的有界线程池：
+ * <ul>
+ *     <li>校验线程池：PBKDF2 哈希计算，线程数通常为 CPU 核数的一半，登录风暴最多占用这些核，
+ *     事件循环与业务线程仍能及时转发聊天消息；</li>
+ *     <li>数据库线程池：用户记录查询 (UserCache 未命中时)、注册插入与密码哈希升级，
+ *     线程数远小于连接池容量，登录风暴不会占满聊天记录写入所需的数据库连接。</li>
+ * </ul>
+ * 两个线程池的队列都有上限，排满时请求以 RejectedExecutionException 失败，由调用者提示客户端稍后重试，
+ * 而不是无限堆积。
+ * </p>
+ * <p>
+ * 不存在的账号也会对一个固定的哈希做一次完整校验，响应时间与密码错误相同，无法据此探测账号是否存在。
+ * 明文密码 (升级前注册的账号) 与迭代次数低于当前配置的哈希在登录成功后重新计算并写回。
+ * </p>
+ */
+public class Authenticator {
+    private final UserStore store;
+    private final PasswordHasher hasher;
+    private final UserCache cache;
+    private final ThreadPoolExecutor verifier;
+    private final ThreadPoolExecutor database;
+
+    /** 校验不存在的账号时使用的哈希，首次需要时计算 */
+    private volatile String dummyHash;
+
+    /**
+     * 构造方法
+     *
+     * @param store         用户表
+     * @param hasher        密码哈希
+     * @param threads       校验线程数
+     * @param dbThreads     数据库线程数
+     * @param queueCapacity 每个线程池的排队上限
+     * @param cacheSize     用户记录缓存的容量
+     * @param ttl           记录的有效期
+     * @param negativeTtl   不存在的账号的有效期
+     * @param unit          有效期的单位
+     */
+    public Authenticator(UserStore store, PasswordHasher hasher, int threads, int dbThreads, int queueCapacity,
+                         int cacheSize, long ttl, long negativeTtl, TimeUnit unit) {
+        this.store = store;
+        this.hasher = hasher;
+        this.verifier = pool("auth-verify-", threads, queueCapacity);
+        this.database = pool("auth-db-", dbThreads, queueCapacity);
+        this.cache = new UserCache(store, database, cacheSize, ttl, negativeTtl, unit);
+    }
+
+    private static ThreadPoolExecutor pool(String prefix, int threads, int queueCapacity) {
+        AtomicInteger id = new AtomicInteger();
+        int n = Math.max(1, threads);
+        return new ThreadPoolExecutor(n, n, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                r -> {
+                    Thread t = new Thread(r, prefix + id.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * 校验账号与密码
+     *
+     * @param username 账号
+     * @param password 明文密码
+     * @return 校验通过时为用户记录，账号不存在或密码错误时为 null；
+     * 数据库访问失败或线程池已满时异常完成 (RejectedExecutionException 表示服务器繁忙)
+     */
+    public CompletableFuture<User> login(String username, String password) {
+        return cache.get(username).thenApplyAsync(user -> {
+            long start = System.nanoTime();
+            boolean ok = hasher.verify(password, user != null ? user.getPassword() : dummyHash());
+            Metrics.AUTH_VERIFY.recordSince(start);
+            if (user == null || !ok) {
+                return null;
+            }
+            if (hasher.needsRehash(user.getPassword())) {
+                upgrade(user, password);
+            }
+            return user;
+        }, verifier);
+    }
+
+    /**
+     * 把明文或较弱的哈希替换为当前配置的哈希 (在校验线程上计算，在数据库线程上写回)
+     */
+    private void upgrade(User user, String password) {
+        String oldValue = user.getPassword();
+        User upgraded = new User(user.getId(), user.getUsername(), hasher.hash(password), user.getNickname(),
+                user.getAvatar());
+        try {
+            database.execute(() -> {
+                try {
+                    if (store.rehash(user.getUsername(), oldValue, upgraded.getPassword())) {
+                        cache.put(upgraded);
+                    }
+                } catch (Exception e) {
+                    // 下次登录成功时再试
+                    System.err.println("密码哈希升级失败: " + user.getUsername() + " " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 数据库线程池繁忙，下次登录成功时再试
+        }
+    }
+
+    /**
+     * 注册新账号：在校验线程池中计算哈希，再以一条 INSERT 写入 (依赖账号的唯一约束判断是否已存在)
+     *
+     * @param username 账号
+     * @param password 明文密码
+     * @param nickname 昵称
+     * @param avatar   头像 ID
+     * @return 注册成功为 true，账号已存在为 false；数据库访问失败或线程池已满时异常完成
+     */
+    public CompletableFuture<Boolean> register(String username, String password, String nickname, int avatar) {
+        if (cache.peek(username) != null) {
+            // 缓存中已有该账号，不必计算哈希
+            return CompletableFuture.completedFuture(false);
+        }
+        CompletableFuture<String> hash = new CompletableFuture<>();
+        try {
+            verifier.execute(() -> hash.complete(hasher.hash(password)));
+        } catch (RejectedExecutionException e) {
+            hash.completeExceptionally(e);
+        }
+        return hash.thenApplyAsync(hashed -> {
+            User user = new User(0, username, hashed, nickname, avatar);
+            long start = System.nanoTime();
+            try {
+                boolean inserted = store.insert(user);
+                if (inserted) {
+                    cache.put(user);
+                } else {
+                    // 其他节点或并发请求已注册该账号，丢弃可能存在的负缓存
+                    cache.invalidate(username);
+                }
+                return inserted;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                Metrics.DB_REGISTER.recordSince(start);
+            }
+        }, database);
+    }
+
+    private String dummyHash() {
+        String h = dummyHash;
+        if (h == null) {
+            dummyHash = h = hasher.hash("");
+        }
+        return h;
+    }
+
+    /**
+     * @return 用户记录缓存
+     */
+    public UserCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return 等待校验的请求数
+     */
+    public int getPendingVerifications() {
+        return verifier.getQueue().size();
+    }
+
+    @Override
+    public String toString() {
+        return "认证 -> 缓存: " + cache.size()
+                + " 命中: " + Metrics.AUTH_CACHE_HITS.sum()
+                + " 未命中: " + Metrics.AUTH_CACHE_MISSES.sum()
+                + " 校验排队: " + verifier.getQueue().size()
+                + " 数据库排队: " + database.getQueue().size()
+                + " 拒绝: " + Metrics.AUTH_REJECTED.sum()
+                + " 迭代次数: " + hasher.getIterations();
+    }
+}
@@ -0,0 +1,113 @@
+package com.chatroom.server.auth;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * 加盐的慢哈希 (PBKDF2-HMAC-SHA256)
+ * <p>
+ * 保存格式为 "pbkdf2_sha256$迭代次数$盐$哈希"，盐与哈希为不带填充的 Base64，约 90 个字符。
+ * 迭代次数随哈希一起保存，调高配置后旧哈希仍能校验，并在下次登录成功时按新的次数重新计算。
+ * 不是这种格式的值视为升级前保存的明文密码，以恒定时间比较。
+ * </p>
+ * <p>
+ * 每次计算都要消耗数十到上百毫秒的 CPU，只应在 Authenticator 的校验线程池中调用。
+ * </p>
+ */
+public final class PasswordHasher {
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2_sha256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private static final Base64.Encoder ENCODER = Base64.getEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getDecoder();
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param iterations 新哈希的迭代次数
+     */
+    public PasswordHasher(int iterations) {
+        this.iterations = Math.max(1, iterations);
+    }
+
+    /**
+     * 使用随机盐计算哈希
+     *
+     * @param password 明文密码
+     * @return 保存格式的哈希
+     */
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, iterations);
+        return PREFIX + "$" + iterations + "$" + ENCODER.encodeToString(salt) + "$" + ENCODER.encodeToString(hash);
+    }
+
+    /**
+     * 校验密码
+     *
+     * @param password 明文密码
+     * @param stored   保存的哈希 (或升级前的明文)
+     * @return 匹配时返回 true
+     */
+    public boolean verify(String password, String stored) {
+        if (stored == null) {
+            return false;
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4 || !PREFIX.equals(parts[0])) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+        try {
+            byte[] salt = DECODER.decode(parts[2]);
+            byte[] expected = DECODER.decode(parts[3]);
+            return MessageDigest.isEqual(expected, pbkdf2(password, salt, Integer.parseInt(parts[1])));
+        } catch (IllegalArgumentException e) {
+            // 格式损坏的哈希不与任何密码匹配
+            return false;
+        }
+    }
+
+    /**
+     * @param stored 保存的哈希
+     * @return 是明文或迭代次数低于当前配置，登录成功后应重新计算时返回 true
+     */
+    public boolean needsRehash(String stored) {
+        String[] parts = stored == null ? new String[0] : stored.split("\\$");
+        if (parts.length != 4 || !PREFIX.equals(parts[0])) {
+            return true;
+        }
+        try {
+            return Integer.parseInt(parts[1]) < iterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            // Java 8 起所有实现都提供 PBKDF2WithHmacSHA256
+            throw new IllegalStateException(ALGORITHM + " 不可用", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * @return 新哈希的迭代次数
+     */
+    public int getIterations() {
+        return iterations;
+    }
+}
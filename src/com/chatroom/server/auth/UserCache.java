@@ -0,0 +1,162 @@
+package com.chatroom.server.auth;
+
+import com.chatroom.common.User;
+import com.chatroom.server.metrics.Metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 有界、带有效期的用户记录缓存
+ * <p>
+ * 以账号为键缓存 users 表中的记录，按最近使用顺序淘汰，超过容量时移除最久未使用的项。
+ * 不存在的账号同样缓存 (负缓存，有效期较短)，反复尝试不存在的账号不会每次都查询数据库。
+ * </p>
+ * <p>
+ * 缓存项保存的是查询的 CompletableFuture：同一账号的查询正在进行时，后来的请求直接等待同一个结果，
+ * 登录风暴中同一账号的并发登录只查询一次数据库。查询失败的项立即移除，下次请求重新查询。
+ * </p>
+ * <p>
+ * 缓存只反映本节点的注册：集群中其他节点刚注册的账号，在本节点的负缓存过期前无法登录。
+ * </p>
+ */
+public class UserCache {
+    private final UserStore store;
+    private final Executor executor;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final Map<String, Entry> entries;
+
+    private static final class Entry {
+        final CompletableFuture<User> user = new CompletableFuture<>();
+        /** 查询完成后才设置 */
+        volatile boolean loaded;
+        volatile long expiresAt;
+
+        boolean isExpired(long now) {
+            return loaded && now - expiresAt >= 0;
+        }
+    }
+
+    /**
+     * 构造方法
+     *
+     * @param store       用户表
+     * @param executor    执行数据库查询的线程池
+     * @param maxEntries  最多缓存的账号数
+     * @param ttl         记录的有效期
+     * @param negativeTtl 不存在的账号的有效期
+     * @param unit        有效期的单位
+     */
+    public UserCache(UserStore store, Executor executor, int maxEntries, long ttl, long negativeTtl, TimeUnit unit) {
+        this.store = store;
+        this.executor = executor;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.negativeTtlNanos = unit.toNanos(negativeTtl);
+        this.entries = new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 查询用户记录，缓存中没有或已过期时在线程池中查询数据库
+     *
+     * @param username 账号
+     * @return 用户记录，账号不存在时为 null；查询失败或线程池已满时异常完成
+     */
+    public CompletableFuture<User> get(String username) {
+        long now = System.nanoTime();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(username);
+            if (entry != null && !entry.isExpired(now)) {
+                Metrics.AUTH_CACHE_HITS.increment();
+                return entry.user;
+            }
+            entry = new Entry();
+            entries.put(username, entry);
+        }
+        Metrics.AUTH_CACHE_MISSES.increment();
+        Entry loading = entry;
+        try {
+            executor.execute(() -> load(username, loading));
+        } catch (RejectedExecutionException e) {
+            remove(username, loading);
+            loading.user.completeExceptionally(e);
+        }
+        return loading.user;
+    }
+
+    private void load(String username, Entry entry) {
+        long start = System.nanoTime();
+        try {
+            User user = store.find(username);
+            Metrics.DB_LOGIN.recordSince(start);
+            entry.expiresAt = System.nanoTime() + (user != null ? ttlNanos : negativeTtlNanos);
+            entry.loaded = true;
+            entry.user.complete(user);
+        } catch (Exception e) {
+            remove(username, entry);
+            entry.user.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return 已缓存且确实存在的用户记录，没有、已过期或仍在查询时返回 null (不查询数据库)
+     */
+    public User peek(String username) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(username);
+        }
+        return entry != null && entry.loaded && !entry.isExpired(System.nanoTime()) ? entry.user.getNow(null) : null;
+    }
+
+    /**
+     * 放入刚写入数据库的记录 (注册、更新密码哈希后调用)，替换原有的项 (包括负缓存)
+     *
+     * @param user 用户记录
+     */
+    public void put(User user) {
+        Entry entry = new Entry();
+        entry.expiresAt = System.nanoTime() + ttlNanos;
+        entry.loaded = true;
+        entry.user.complete(user);
+        synchronized (entries) {
+            entries.put(user.getUsername(), entry);
+        }
+    }
+
+    /**
+     * 移除账号的缓存项，下次请求重新查询
+     *
+     * @param username 账号
+     */
+    public void invalidate(String username) {
+        synchronized (entries) {
+            entries.remove(username);
+        }
+    }
+
+    private void remove(String username, Entry entry) {
+        synchronized (entries) {
+            entries.remove(username, entry);
+        }
+    }
+
+    /**
+     * @return 缓存项数 (含负缓存与已过期但尚未淘汰的项)
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
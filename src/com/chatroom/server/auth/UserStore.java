@@ -0,0 +1,106 @@
+package com.chatroom.server.auth;
+
+import com.chatroom.common.User;
+import com.chatroom.utils.JDBCUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+
+/**
+ * users 表的访问
+ * <p>
+ * 依赖 users.username 上的唯一约束：注册只执行一次 INSERT，账号已存在时由数据库拒绝，
+ * 不需要先查询再插入 (两条语句之间并发注册同一账号也会被约束拦下)。
+ * password 列保存 PasswordHasher 的哈希，需要至少 100 个字符。
+ * </p>
+ */
+public class UserStore {
+    private static final String FIND_SQL = "SELECT id, username, password, nickname, avatar FROM users WHERE username = ?";
+    private static final String INSERT_SQL = "INSERT INTO users (username, password, nickname, avatar) VALUES (?, ?, ?, ?)";
+    /** 只在密码仍为旧值时更新，避免覆盖并发修改 */
+    private static final String REHASH_SQL = "UPDATE users SET password = ? WHERE username = ? AND password = ?";
+
+    /**
+     * 按账号查询用户
+     *
+     * @param username 账号
+     * @return 用户记录，不存在时返回 null
+     * @throws Exception 数据库访问失败
+     */
+    public User find(String username) throws Exception {
+        Connection conn = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            conn = JDBCUtils.getConnection();
+            pstmt = conn.prepareStatement(FIND_SQL);
+            pstmt.setString(1, username);
+            rs = pstmt.executeQuery();
+            if (!rs.next()) {
+                return null;
+            }
+            return new User(rs.getInt("id"), rs.getString("username"), rs.getString("password"),
+                    rs.getString("nickname"), rs.getInt("avatar"));
+        } finally {
+            JDBCUtils.close(conn, pstmt, rs);
+        }
+    }
+
+    /**
+     * 插入新用户
+     *
+     * @param user 用户记录，password 为哈希
+     * @return 插入成功返回 true，账号已存在 (违反唯一约束) 时返回 false
+     * @throws Exception 数据库访问失败
+     */
+    public boolean insert(User user) throws Exception {
+        Connection conn = null;
+        PreparedStatement pstmt = null;
+        try {
+            conn = JDBCUtils.getConnection();
+            pstmt = conn.prepareStatement(INSERT_SQL);
+            pstmt.setString(1, user.getUsername());
+            pstmt.setString(2, user.getPassword());
+            pstmt.setString(3, user.getNickname());
+            pstmt.setInt(4, user.getAvatar());
+            pstmt.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            // 驱动不一定抛出 SQLIntegrityConstraintViolationException，SQLState 23xxx 同样表示违反约束
+            if (e instanceof SQLIntegrityConstraintViolationException
+                    || e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+                return false;
+            }
+            throw e;
+        } finally {
+            JDBCUtils.close(conn, pstmt, null);
+        }
+    }
+
+    /**
+     * 以新哈希替换明文密码或迭代次数较低的旧哈希
+     *
+     * @param username 账号
+     * @param oldValue 当前保存的值
+     * @param newHash  新哈希
+     * @return 确实更新时返回 true
+     * @throws Exception 数据库访问失败
+     */
+    public boolean rehash(String username, String oldValue, String newHash) throws Exception {
+        Connection conn = null;
+        PreparedStatement pstmt = null;
+        try {
+            conn = JDBCUtils.getConnection();
+            pstmt = conn.prepareStatement(REHASH_SQL);
+            pstmt.setString(1, newHash);
+            pstmt.setString(2, username);
+            pstmt.setString(3, oldValue);
+            return pstmt.executeUpdate() > 0;
+        } finally {
+            JDBCUtils.close(conn, pstmt, null);
+        }
+    }
+}
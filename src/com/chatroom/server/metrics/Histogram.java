@@ -0,0 +1,121 @@
+package com.chatroom.server.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 耗时直方图
+ * <p>
+ * 桶的上界为 2^10 ns (约 1 微秒) 起逐个翻倍，直到 2^35 ns (约 34 秒)，另有一个溢出桶。
+ * 记录一次只是计算下标 (一次 numberOfLeadingZeros) 并累加两个 LongAdder，
+ * 多线程同时记录时不争用同一个计数器，可以放在消息转发等热点路径上。
+ * </p>
+ * <p>
+ * 分位数按桶上界估算，误差不超过一倍，足以观察数量级的变化；精确的分位数请使用压测工具在客户端统计。
+ * </p>
+ */
+public class Histogram {
+    /** 第一个桶上界的二进制位数 (2^10 ns) */
+    private static final int FIRST_BUCKET_BITS = 10;
+    /** 有界桶的数量，最后一个有界桶的上界为 2^35 ns */
+    static final int BOUNDED_BUCKETS = 26;
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDED_BUCKETS + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 记录一次耗时
+     *
+     * @param nanos 耗时 (纳秒)
+     */
+    public void record(long nanos) {
+        buckets[indexOf(nanos)].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * 记录从 startNanos (System.nanoTime()) 到现在的耗时
+     *
+     * @param startNanos 开始时刻
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    private static int indexOf(long nanos) {
+        if (nanos <= 1L << FIRST_BUCKET_BITS) {
+            return 0;
+        }
+        // 向上取整的 log2
+        int bits = 64 - Long.numberOfLeadingZeros(nanos - 1);
+        return Math.min(bits - FIRST_BUCKET_BITS, BOUNDED_BUCKETS);
+    }
+
+    /**
+     * @param index 桶下标 (小于 BOUNDED_BUCKETS)
+     * @return 该桶的上界 (纳秒)
+     */
+    static long upperBoundNanos(int index) {
+        return 1L << (FIRST_BUCKET_BITS + index);
+    }
+
+    /**
+     * @return 各桶计数的快照，最后一个元素为溢出桶
+     */
+    long[] snapshot() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * @return 记录次数
+     */
+    public long count() {
+        long total = 0;
+        for (LongAdder bucket : buckets) {
+            total += bucket.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @return 累计耗时 (纳秒)
+     */
+    public long sumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * 按桶上界估算分位数
+     *
+     * @param quantile 分位点，0 ~ 1
+     * @return 估算值 (纳秒)，没有记录时为 0，落在溢出桶时为 Long.MAX_VALUE
+     */
+    public long percentileNanos(double quantile) {
+        long[] counts = snapshot();
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * quantile));
+        long seen = 0;
+        for (int i = 0; i < BOUNDED_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return upperBoundNanos(i);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,186 @@
+package com.chatroom.server.metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 服务器指标
+ * <p>
+ * 热点路径上的计数器与耗时直方图是本类的静态字段，记录时直接调用 LongAdder.increment()
+ * 或 Histogram.record()，不查表、不加锁、不分配对象。
+ * 其余组件 (在线用户表、出站队列、聊天记录存储、连接池等) 已经维护了自己的状态，
+ * 启动时通过 {@link #gauge} / {@link #counter(String, String, LongSupplier)} 登记读取方法，只在导出时读取。
+ * </p>
+ * <p>
+ * 所有指标通过 JMX ({@link MetricsJmx}，对象名 com.chatroom:type=Metrics) 与
+ * 纯文本抓取端点 ({@link MetricsHttpServer}，Prometheus 文本格式) 导出，两者读取的是同一份数据。
+ * 耗时类指标以秒为单位，名称以 _seconds 结尾。
+ * </p>
+ */
+public final class Metrics {
+    private static final List<Entry> ENTRIES = new CopyOnWriteArrayList<>();
+
+    /** 已接受的客户端连接数 */
+    public static final LongAdder CONNECTIONS_OPENED = counter("chatroom_connections_opened_total", "已接受的客户端连接数");
+    /** 已关闭的客户端连接数 */
+    public static final LongAdder CONNECTIONS_CLOSED = counter("chatroom_connections_closed_total", "已关闭的客户端连接数");
+    /** 登录成功次数 */
+    public static final LongAdder LOGINS = counter("chatroom_logins_total", "登录成功次数");
+    /** 登录失败次数 (账号或密码错误) */
+    public static final LongAdder LOGIN_FAILURES = counter("chatroom_login_failures_total", "登录失败次数");
+    /** 注册成功次数 */
+    public static final LongAdder REGISTRATIONS = counter("chatroom_registrations_total", "注册成功次数");
+    /** 收到的消息帧数 (含节点间链路) */
+    public static final LongAdder MESSAGES_IN = counter("chatroom_messages_in_total", "收到的消息帧数");
+    /** 写出到网络的消息帧数 */
+    public static final LongAdder MESSAGES_OUT = counter("chatroom_messages_out_total", "写出到网络的消息帧数");
+    /** 从网络读取的字节数 */
+    public static final LongAdder BYTES_IN = counter("chatroom_bytes_in_total", "从网络读取的字节数");
+    /** 写出到网络的字节数 */
+    public static final LongAdder BYTES_OUT = counter("chatroom_bytes_out_total", "写出到网络的字节数");
+    /** 写出数据的系统调用次数 (NIO 的聚集写入；阻塞模式下写入套接字输出流的次数) */
+    public static final LongAdder WRITE_SYSCALLS = counter("chatroom_write_syscalls_total", "写出数据的系统调用次数");
+    /** 放入接收者出站队列失败的次数 (连接已关闭或队列溢出) */
+    public static final LongAdder SEND_FAILURES = counter("chatroom_send_failures_total", "放入出站队列失败的次数");
+    /** 因超过限额而被拒绝处理的客户端消息数 (含登录与注册) */
+    public static final LongAdder THROTTLED = counter("chatroom_throttled_total", "被限流拒绝的消息数");
+    /** 服务器发出的心跳探测数 */
+    public static final LongAdder HEARTBEATS_SENT = counter("chatroom_heartbeat_pings_total", "发出的心跳探测数");
+    /** 因心跳超时而被断开的连接数 */
+    public static final LongAdder IDLE_REAPED = counter("chatroom_idle_reaped_total", "心跳超时断开的连接数");
+    /** 凭恢复令牌重连成功的次数 */
+    public static final LongAdder RESUMES = counter("chatroom_resumes_total", "断线重连恢复成功次数");
+    /** 恢复令牌无效或已过期的次数 */
+    public static final LongAdder RESUME_FAILURES = counter("chatroom_resume_failures_total", "断线重连恢复失败次数");
+    /** 恢复时错过的消息过多、改为回放最近记录的次数 */
+    public static final LongAdder RESUME_RELOADS = counter("chatroom_resume_reloads_total", "断线重连改为回放最近记录的次数");
+    /** 恢复时补发的消息数 */
+    public static final LongAdder RESUME_REPLAYED = counter("chatroom_resume_replayed_total", "断线重连补发的消息数");
+    /** 全文搜索请求数 */
+    public static final LongAdder SEARCHES = counter("chatroom_searches_total", "全文搜索请求数");
+    /** 在线列表推送的增量版本数 */
+    public static final LongAdder PRESENCE_DELTAS = counter("chatroom_presence_deltas_total", "在线列表推送的增量版本数");
+    /** 在线列表发送的快照数 */
+    public static final LongAdder PRESENCE_SNAPSHOTS = counter("chatroom_presence_snapshots_total", "在线列表发送的快照数");
+    /** 客户端请求重新同步在线列表的次数 */
+    public static final LongAdder PRESENCE_RESYNCS = counter("chatroom_presence_resyncs_total", "客户端请求重新同步在线列表的次数");
+    /** 用户记录缓存命中次数 */
+    public static final LongAdder AUTH_CACHE_HITS = counter("chatroom_auth_cache_hits_total", "用户记录缓存命中次数");
+    /** 用户记录缓存未命中 (查询数据库) 次数 */
+    public static final LongAdder AUTH_CACHE_MISSES = counter("chatroom_auth_cache_misses_total", "用户记录缓存未命中次数");
+    /** 认证线程池排满而被拒绝的登录与注册请求数 */
+    public static final LongAdder AUTH_REJECTED = counter("chatroom_auth_rejected_total", "认证线程池排满而被拒绝的请求数");
+
+    /** 群聊与房间消息向所有接收者放入出站队列的耗时 */
+    public static final Histogram FANOUT = histogram("chatroom_fanout_seconds", "群聊与房间消息扇出耗时");
+    /** 登录时查询用户表的耗时 (缓存未命中时，含借出连接) */
+    public static final Histogram DB_LOGIN = histogram("chatroom_db_login_seconds", "登录查询数据库耗时");
+    /** 注册时查询与写入用户表的耗时 (含借出连接) */
+    public static final Histogram DB_REGISTER = histogram("chatroom_db_register_seconds", "注册访问数据库耗时");
+    /** 聊天记录每批写入数据库的耗时 (含借出连接与提交) */
+    public static final Histogram DB_SAVE_CHAT_LOG = histogram("chatroom_db_save_chat_log_seconds", "聊天记录批量写入耗时");
+    /** 一次全文搜索的耗时 (含从存储读取原文) */
+    public static final Histogram SEARCH = histogram("chatroom_search_seconds", "全文搜索耗时");
+    /** 登录时校验密码哈希的耗时 */
+    public static final Histogram AUTH_VERIFY = histogram("chatroom_auth_verify_seconds", "登录时校验密码哈希的耗时");
+
+    static {
+        gauge("chatroom_connections_active", "当前客户端连接数",
+                () -> CONNECTIONS_OPENED.sum() - CONNECTIONS_CLOSED.sum());
+    }
+
+    private Metrics() {}
+
+    /**
+     * 指标类型
+     */
+    enum Type {
+        COUNTER, GAUGE, HISTOGRAM;
+
+        String exposition() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * 一项已登记的指标：计数器与瞬时值由 value 读取，直方图由 histogram 读取
+     */
+    record Entry(String name, String help, Type type, LongSupplier value, Histogram histogram) {}
+
+    private static LongAdder counter(String name, String help) {
+        LongAdder adder = new LongAdder();
+        register(new Entry(name, help, Type.COUNTER, adder::sum, null));
+        return adder;
+    }
+
+    private static Histogram histogram(String name, String help) {
+        Histogram histogram = new Histogram();
+        register(new Entry(name, help, Type.HISTOGRAM, null, histogram));
+        return histogram;
+    }
+
+    /**
+     * 登记一个由其他组件维护的累计值 (只增不减)
+     *
+     * @param name  指标名，同名指标会被替换
+     * @param help  说明
+     * @param value 读取方法，导出时调用
+     */
+    public static void counter(String name, String help, LongSupplier value) {
+        register(new Entry(name, help, Type.COUNTER, value, null));
+    }
+
+    /**
+     * 登记一个瞬时值，例如队列深度、在线人数
+     *
+     * @param name  指标名，同名指标会被替换
+     * @param help  说明
+     * @param value 读取方法，导出时调用
+     */
+    public static void gauge(String name, String help, LongSupplier value) {
+        register(new Entry(name, help, Type.GAUGE, value, null));
+    }
+
+    private static void register(Entry entry) {
+        ENTRIES.removeIf(e -> e.name().equals(entry.name()));
+        ENTRIES.add(entry);
+    }
+
+    /**
+     * @return 当前登记的全部指标
+     */
+    static List<Entry> entries() {
+        return ENTRIES;
+    }
+
+    /**
+     * 以 Prometheus 文本格式 (0.0.4) 输出全部指标
+     *
+     * @return 文本
+     */
+    public static String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Entry e : ENTRIES) {
+            sb.append("# HELP ").append(e.name()).append(' ').append(e.help()).append('\n');
+            sb.append("# TYPE ").append(e.name()).append(' ').append(e.type().exposition()).append('\n');
+            if (e.type() != Type.HISTOGRAM) {
+                sb.append(e.name()).append(' ').append(e.value().getAsLong()).append('\n');
+                continue;
+            }
+            long[] counts = e.histogram().snapshot();
+            long cumulative = 0;
+            for (int i = 0; i < Histogram.BOUNDED_BUCKETS; i++) {
+                cumulative += counts[i];
+                sb.append(e.name()).append("_bucket{le=\"")
+                        .append(Histogram.upperBoundNanos(i) / 1e9).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += counts[Histogram.BOUNDED_BUCKETS];
+            sb.append(e.name()).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+            sb.append(e.name()).append("_sum ").append(e.histogram().sumNanos() / 1e9).append('\n');
+            sb.append(e.name()).append("_count ").append(cumulative).append('\n');
+        }
+        return sb.toString();
+    }
+}
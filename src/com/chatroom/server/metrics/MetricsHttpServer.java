@@ -0,0 +1,56 @@
+package com.chatroom.server.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * 纯文本指标抓取端点
+ * <p>
+ * GET /metrics 返回 {@link Metrics#scrape()} 的结果 (Prometheus 文本格式)，
+ * 由一个守护线程处理请求，不占用业务线程。
+ * </p>
+ */
+public class MetricsHttpServer {
+    private MetricsHttpServer() {}
+
+    /**
+     * 启动抓取端点
+     *
+     * @param port 监听端口
+     * @throws IOException 端口绑定失败
+     */
+    public static void start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", MetricsHttpServer::handle);
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-http");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.start();
+        System.out.println("指标抓取端点已启动: http://localhost:" + port + "/metrics");
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.chatroom.server.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 以 JMX 导出 {@link Metrics} 中的全部指标 (对象名 com.chatroom:type=Metrics)
+ * <p>
+ * 属性随登记的指标动态生成：
+ * <ul>
+ *     <li>计数器与瞬时值：同名属性，计数器另有 名称_per_sec，为距上次读取 (至少间隔 1 秒) 的每秒增量。</li>
+ *     <li>直方图：名称_count、名称_mean_ms、名称_p50_ms、名称_p99_ms、名称_p999_ms。</li>
+ * </ul>
+ * 可以用 jconsole / VisualVM 连接服务器进程查看。
+ * </p>
+ */
+public class MetricsJmx implements DynamicMBean {
+    /** MBean 对象名 */
+    public static final String OBJECT_NAME = "com.chatroom:type=Metrics";
+
+    /** 计算每秒增量的最短间隔 */
+    private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+
+    /** 计数器名 -> {上次读取时的值, 读取时刻, 上次计算出的速率 (Double.doubleToLongBits)} */
+    private final Map<String, long[]> rates = new HashMap<>();
+
+    /**
+     * 注册到平台 MBeanServer
+     */
+    public static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsJmx(), new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            System.err.println("JMX 指标注册失败: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        for (Metrics.Entry e : Metrics.entries()) {
+            if (!attribute.startsWith(e.name())) {
+                continue;
+            }
+            String suffix = attribute.substring(e.name().length());
+            if (e.type() == Metrics.Type.HISTOGRAM) {
+                Histogram h = e.histogram();
+                switch (suffix) {
+                    case "_count":
+                        return h.count();
+                    case "_mean_ms": {
+                        long count = h.count();
+                        return count == 0 ? 0.0 : h.sumNanos() / 1e6 / count;
+                    }
+                    case "_p50_ms":
+                        return millis(h.percentileNanos(0.50));
+                    case "_p99_ms":
+                        return millis(h.percentileNanos(0.99));
+                    case "_p999_ms":
+                        return millis(h.percentileNanos(0.999));
+                    default:
+                        break;
+                }
+            } else if (suffix.isEmpty()) {
+                return e.value().getAsLong();
+            } else if (e.type() == Metrics.Type.COUNTER && "_per_sec".equals(suffix)) {
+                return rate(e.name(), e.value().getAsLong());
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    private static double millis(long nanos) {
+        return nanos == Long.MAX_VALUE ? Double.POSITIVE_INFINITY : nanos / 1e6;
+    }
+
+    private synchronized double rate(String name, long value) {
+        long now = System.nanoTime();
+        long[] last = rates.get(name);
+        if (last == null) {
+            rates.put(name, new long[]{value, now, Double.doubleToLongBits(0.0)});
+            return 0.0;
+        }
+        if (now - last[1] >= RATE_WINDOW_NANOS) {
+            double rate = (value - last[0]) * 1e9 / (now - last[1]);
+            last[0] = value;
+            last[1] = now;
+            last[2] = Double.doubleToLongBits(rate);
+        }
+        return Double.longBitsToDouble(last[2]);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String name : attributes) {
+            try {
+                list.add(new Attribute(name, getAttribute(name)));
+            } catch (AttributeNotFoundException e) {
+                // 按 JMX 约定跳过不存在的属性
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("指标均为只读: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        // 没有任何操作，按 DynamicMBean 的约定以 ReflectionException 包装 NoSuchMethodException
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Metrics.Entry e : Metrics.entries()) {
+            if (e.type() == Metrics.Type.HISTOGRAM) {
+                attributes.add(attribute(e.name() + "_count", "long", e.help() + " (次数)"));
+                for (String q : new String[]{"_mean_ms", "_p50_ms", "_p99_ms", "_p999_ms"}) {
+                    attributes.add(attribute(e.name() + q, "double", e.help() + " (" + q.substring(1) + ")"));
+                }
+            } else {
+                attributes.add(attribute(e.name(), "long", e.help()));
+                if (e.type() == Metrics.Type.COUNTER) {
+                    attributes.add(attribute(e.name() + "_per_sec", "double", e.help() + " (每秒)"));
+                }
+            }
+        }
+        return new MBeanInfo(getClass().getName(), "聊天室服务器指标",
+                attributes.toArray(new MBeanAttributeInfo[0]), null,
+                new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+    }
+
+    private static MBeanAttributeInfo attribute(String name, String type, String description) {
+        return new MBeanAttributeInfo(name, type, description, true, false, false);
+    }
+}
@@ -0,0 +1,73 @@
+package com.chatroom.server.metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * 写出速率：每秒写出的帧数、写出数据的系统调用次数与发出的 TCP 报文数
+ * <p>
+ * 帧数与系统调用次数之比反映写合并的效果：每帧一次系统调用时为 1，积压越多、合并越多，比值越大。
+ * TCP 报文数读取 /proc/net/snmp 中的 Tcp OutSegs，是整台机器的数值 (含重传与纯 ACK)，
+ * 只在 Linux 上可用，压测时服务器独占机器才有参考意义。
+ * </p>
+ */
+public class WriteRate {
+    private static final Path SNMP = Paths.get("/proc/net/snmp");
+
+    private long lastNanos = System.nanoTime();
+    private long lastFrames = Metrics.MESSAGES_OUT.sum();
+    private long lastSyscalls = Metrics.WRITE_SYSCALLS.sum();
+    private long lastSegments = tcpOutSegments();
+
+    /**
+     * @return 本机累计发出的 TCP 报文数，无法读取时返回 -1
+     */
+    public static long tcpOutSegments() {
+        try {
+            List<String> lines = Files.readAllLines(SNMP);
+            // 两行一组：第一行为字段名，第二行为对应的值
+            for (int i = 0; i + 1 < lines.size(); i++) {
+                if (lines.get(i).startsWith("Tcp:") && lines.get(i + 1).startsWith("Tcp:")) {
+                    String[] names = lines.get(i).split("\\s+");
+                    String[] values = lines.get(i + 1).split("\\s+");
+                    for (int j = 1; j < names.length && j < values.length; j++) {
+                        if ("OutSegs".equals(names[j])) {
+                            return Long.parseLong(values[j]);
+                        }
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // 非 Linux 或没有权限
+        }
+        return -1;
+    }
+
+    /**
+     * 计算自上次调用以来的速率
+     *
+     * @return 便于输出到日志的统计文本
+     */
+    public synchronized String sample() {
+        long now = System.nanoTime();
+        long frames = Metrics.MESSAGES_OUT.sum();
+        long syscalls = Metrics.WRITE_SYSCALLS.sum();
+        long segments = tcpOutSegments();
+        double seconds = Math.max(1e-9, (now - lastNanos) / 1e9);
+        long frameDelta = frames - lastFrames;
+        long syscallDelta = syscalls - lastSyscalls;
+        String text = "写出速率 -> 帧/秒: " + Math.round(frameDelta / seconds)
+                + " 系统调用/秒: " + Math.round(syscallDelta / seconds)
+                + " 帧/系统调用: " + (syscallDelta == 0 ? "0" : String.format("%.1f", (double) frameDelta / syscallDelta))
+                + " TCP 报文/秒 (整机): " + (segments < 0 || lastSegments < 0 ? "-"
+                : String.valueOf(Math.round((segments - lastSegments) / seconds)));
+        lastNanos = now;
+        lastFrames = frames;
+        lastSyscalls = syscalls;
+        lastSegments = segments;
+        return text;
+    }
+}
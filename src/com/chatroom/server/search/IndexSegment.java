@@ -0,0 +1,239 @@
+package com.chatroom.server.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 索引的一个段：一段连续存储 ID 范围内的消息
+ * <p>
+ * 段内文档号从 0 开始按加入顺序分配，加入顺序即存储 ID 顺序，因此倒排列表天然有序，可以差值压缩。
+ * 每个文档只保存存储 ID、时间 (分钟)、发送者与会话的编号，共 20 字节；消息原文不在内存中，
+ * 命中后按存储 ID 从聊天记录存储读取。
+ * </p>
+ * <p>
+ * 实时写入的段在达到容量后封存 (释放数组的空余部分)，之后只读。
+ * 写入与查询由读写锁隔开，封存后的段查询时也会取读锁，没有竞争时开销可以忽略。
+ * </p>
+ */
+final class IndexSegment {
+    /** 发送者、会话与私聊双方在词典中使用的前缀，普通文本分词不会产生控制字符 */
+    static final String SENDER_PREFIX = "\u0000s";
+    static final String CONVERSATION_PREFIX = "\u0000c";
+    static final String PAIR_PREFIX = "\u0000p";
+
+    private static final long[] EMPTY = new long[0];
+
+    private final int capacity;
+    private final Map<String, PostingList> terms = new HashMap<>();
+    private long[] ids;
+    private int[] times;
+    private int[] senders;
+    private int[] conversations;
+    private int size;
+    private int minTime = Integer.MAX_VALUE;
+    private int maxTime = Integer.MIN_VALUE;
+    private volatile long minId = Long.MAX_VALUE;
+    private volatile long maxId;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * @param capacity 段的最大文档数
+     */
+    IndexSegment(int capacity) {
+        this.capacity = capacity;
+        int initial = Math.min(capacity, 1024);
+        ids = new long[initial];
+        times = new int[initial];
+        senders = new int[initial];
+        conversations = new int[initial];
+    }
+
+    /**
+     * 加入一条消息
+     *
+     * @param id           存储 ID，通常大于段内已有的 ID (并发保存时可能略有出入)
+     * @param time         时间 (分钟)，未知时为 0
+     * @param sender       发送者编号
+     * @param conversation 会话编号
+     * @param words        内容的分词结果与发送者、会话对应的词
+     * @return 段已满时返回 false，消息没有加入
+     */
+    boolean add(long id, int time, int sender, int conversation, Iterable<String> words) {
+        lock.writeLock().lock();
+        try {
+            if (size >= capacity) {
+                return false;
+            }
+            if (size == ids.length) {
+                int grown = Math.min(capacity, size * 2);
+                ids = Arrays.copyOf(ids, grown);
+                times = Arrays.copyOf(times, grown);
+                senders = Arrays.copyOf(senders, grown);
+                conversations = Arrays.copyOf(conversations, grown);
+            }
+            int doc = size;
+            ids[doc] = id;
+            times[doc] = time;
+            senders[doc] = sender;
+            conversations[doc] = conversation;
+            for (String word : words) {
+                terms.computeIfAbsent(word, k -> new PostingList()).add(doc);
+            }
+            if (time != 0) {
+                minTime = Math.min(minTime, time);
+                maxTime = Math.max(maxTime, time);
+            }
+            size = doc + 1;
+            minId = Math.min(minId, id);
+            maxId = Math.max(maxId, id);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 封存：之后不再写入，释放数组与倒排列表的空余部分
+     */
+    void seal() {
+        lock.writeLock().lock();
+        try {
+            ids = Arrays.copyOf(ids, size);
+            times = Arrays.copyOf(times, size);
+            senders = Arrays.copyOf(senders, size);
+            conversations = Arrays.copyOf(conversations, size);
+            for (PostingList list : terms.values()) {
+                list.trim();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 查找命中的文档
+     *
+     * @param q        查询
+     * @param viewer   查询者，决定可见范围
+     * @param beforeId 只返回存储 ID 小于该值的文档
+     * @param max      最多返回的文档数
+     * @return 命中文档中存储 ID 最大的至多 max 个，按 ID 降序排列
+     */
+    long[] search(SearchIndex.Prepared q, SearchIndex.Viewer viewer, long beforeId, int max) {
+        lock.readLock().lock();
+        try {
+            if (size == 0 || !q.mayMatchTime(minTime, maxTime)) {
+                return EMPTY;
+            }
+            // 关键字、发送者与会话各对应一个倒排列表，全部命中的文档才是候选；没有任何词时逐个检查
+            List<PostingList> lists = new ArrayList<>(q.terms().size());
+            for (String term : q.terms()) {
+                PostingList list = terms.get(term);
+                if (list == null) {
+                    return EMPTY;
+                }
+                lists.add(list);
+            }
+            int[] docs = lists.isEmpty() ? null : intersect(lists);
+            int n = docs == null ? size : docs.length;
+            long[] found = new long[Math.min(n, 1024)];
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                int doc = docs == null ? i : docs[i];
+                if (ids[doc] < beforeId && q.matchesTime(times[doc])
+                        && viewer.canSee(senders[doc], conversations[doc]) && q.matches(senders[doc], conversations[doc])) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, Math.min(n, found.length * 2));
+                    }
+                    found[count++] = ids[doc];
+                }
+            }
+            // 文档号顺序与存储 ID 顺序基本一致，排序只处理并发保存造成的少量乱序
+            Arrays.sort(found, 0, count);
+            long[] top = new long[Math.min(max, count)];
+            for (int i = 0; i < top.length; i++) {
+                top[i] = found[count - 1 - i];
+            }
+            return top;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 以最短的列表驱动，其余列表借助跳表前进
+     */
+    private static int[] intersect(List<PostingList> lists) {
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        PostingList.Cursor[] cursors = new PostingList.Cursor[lists.size()];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = lists.get(i).cursor();
+        }
+        int[] result = new int[lists.get(0).size()];
+        int count = 0;
+        int doc = cursors[0].next();
+        outer:
+        while (doc >= 0) {
+            for (int i = 1; i < cursors.length; i++) {
+                int d = cursors[i].advance(doc);
+                if (d < 0) {
+                    break outer;
+                }
+                if (d > doc) {
+                    doc = cursors[0].advance(d);
+                    continue outer;
+                }
+            }
+            result[count++] = doc;
+            doc = cursors[0].next();
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @return 段内最小的存储 ID，空段为 Long.MAX_VALUE
+     */
+    long getMinId() {
+        return minId;
+    }
+
+    /**
+     * @return 段内最大的存储 ID
+     */
+    long getMaxId() {
+        return maxId;
+    }
+
+    /**
+     * @return 文档数
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return 估算的内存占用 (字节)
+     */
+    long bytes() {
+        lock.readLock().lock();
+        try {
+            long total = 20L * ids.length;
+            for (Map.Entry<String, PostingList> e : terms.entrySet()) {
+                // 词典项的对象开销按 64 字节估算
+                total += 64 + 2L * e.getKey().length() + e.getValue().bytes();
+            }
+            return total;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.chatroom.server.search;
+
+import java.util.Arrays;
+
+/**
+ * 压缩的倒排列表：一个词出现在哪些文档中
+ * <p>
+ * 文档号在段内按加入顺序递增，列表只追加，存储相邻文档号的差值 (变长整数，多数差值只占 1 字节)。
+ * 每 {@link #SKIP_INTERVAL} 个文档记录一个跳表项 (文档号与字节偏移)，求交集时可以跳过整块而不必逐个解码。
+ * 不是线程安全的，由 IndexSegment 的锁保护。
+ * </p>
+ */
+final class PostingList {
+    /** 跳表间隔 (文档数) */
+    static final int SKIP_INTERVAL = 64;
+
+    private byte[] bytes = new byte[4];
+    private int length;
+    private int size;
+    private int last = -1;
+    /** 第 k 个跳表项：第 k * SKIP_INTERVAL 个文档的文档号与其编码的起始偏移 */
+    private int[] skipDocs;
+    private int[] skipOffsets;
+
+    /**
+     * 追加一个文档
+     *
+     * @param doc 文档号，必须大于已有的文档号
+     */
+    void add(int doc) {
+        if (size % SKIP_INTERVAL == 0 && size > 0) {
+            int k = size / SKIP_INTERVAL;
+            if (skipDocs == null) {
+                skipDocs = new int[4];
+                skipOffsets = new int[4];
+            } else if (k - 1 >= skipDocs.length) {
+                skipDocs = Arrays.copyOf(skipDocs, skipDocs.length * 2);
+                skipOffsets = Arrays.copyOf(skipOffsets, skipOffsets.length * 2);
+            }
+            // 跳表项从第 1 块开始，第 0 块从头解码
+            skipDocs[k - 1] = doc;
+            skipOffsets[k - 1] = length;
+            // 块的第一个文档存绝对文档号，跳到块首时无需前一个文档号
+            putVarint(doc);
+        } else {
+            putVarint(doc - last);
+        }
+        last = doc;
+        size++;
+    }
+
+    private void putVarint(int v) {
+        if (length + 5 > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 5));
+        }
+        while ((v & ~0x7F) != 0) {
+            bytes[length++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        bytes[length++] = (byte) v;
+    }
+
+    /**
+     * @return 文档数
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return 占用的字节数 (不含对象头)
+     */
+    long bytes() {
+        return bytes.length + (skipDocs == null ? 0 : 8L * skipDocs.length);
+    }
+
+    /**
+     * 段封存后释放数组的空余部分
+     */
+    void trim() {
+        bytes = Arrays.copyOf(bytes, length);
+        int skips = size == 0 ? 0 : (size - 1) / SKIP_INTERVAL;
+        if (skipDocs != null) {
+            skipDocs = Arrays.copyOf(skipDocs, skips);
+            skipOffsets = Arrays.copyOf(skipOffsets, skips);
+        }
+    }
+
+    /**
+     * @return 从头开始的游标
+     */
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * 按文档号升序遍历列表
+     */
+    final class Cursor {
+        private int offset;
+        private int index;
+        private int doc = -1;
+        /** 创建游标时的文档数，之后追加的文档不可见 */
+        private final int limit = size;
+
+        /**
+         * @return 下一个文档号，没有更多文档时返回 -1
+         */
+        int next() {
+            if (index >= limit) {
+                return doc = -1;
+            }
+            int v = readVarint();
+            doc = index % SKIP_INTERVAL == 0 && index > 0 ? v : doc + v;
+            index++;
+            return doc;
+        }
+
+        /**
+         * 前进到第一个不小于 target 的文档
+         *
+         * @param target 目标文档号
+         * @return 该文档号，没有时返回 -1
+         */
+        int advance(int target) {
+            if (doc >= target) {
+                return doc;
+            }
+            // 目标在后面的块中时，借助跳表直接定位到目标之前的最后一个块首
+            if (skipDocs != null) {
+                int block = index / SKIP_INTERVAL;
+                int blocks = (limit - 1) / SKIP_INTERVAL;
+                int k = block;
+                while (k < blocks && skipDocs[k] <= target) {
+                    k++;
+                }
+                if (k > block) {
+                    offset = skipOffsets[k - 1];
+                    index = k * SKIP_INTERVAL;
+                }
+            }
+            int d;
+            do {
+                d = next();
+            } while (d >= 0 && d < target);
+            return d;
+        }
+
+        private int readVarint() {
+            int v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[offset++];
+                v |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return v;
+        }
+    }
+}
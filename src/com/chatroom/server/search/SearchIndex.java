@@ -0,0 +1,511 @@
+package com.chatroom.server.search;
+
+import com.chatroom.common.Message;
+import com.chatroom.server.RecentHistory;
+import com.chatroom.server.metrics.Metrics;
+import com.chatroom.server.store.ChatLogRecord;
+import com.chatroom.server.store.ChatLogStore;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * 聊天记录全文搜索的内存倒排索引
+ * <p>
+ * 索引由若干段 (IndexSegment) 组成，每段覆盖一段连续的存储 ID。新消息在持久化、拿到存储 ID 后
+ * (ChatLogStore 的 onSaved 回调) 加入当前的实时段，实时段满后封存并开始新段；
+ * 启动时按存储 ID 把已有记录划分为多个范围，由多个线程并行流式读取，每个范围构建一个段，最新的范围最先构建。
+ * 重建期间新消息照常加入实时段，已经建好的段立即可以搜索。
+ * </p>
+ * <p>
+ * 查询按存储 ID 从新到旧返回：按段从新到旧求关键字倒排列表的交集，凑够一批候选后从存储读取原文，
+ * 校验每个关键字确实连续出现在原文中 (二元组只保证相邻的两个字出现)，不足一页时继续取下一批候选。
+ * 内存中只保存倒排列表与每条消息 20 字节的元数据，不保存原文。
+ * </p>
+ * <p>
+ * 搜索范围限于查询者可见的消息：群聊、自己所在房间的消息、自己发出或收到的私聊。
+ * 集群模式下各节点只索引自己保存的消息 (以及启动时存储中已有的记录)。
+ * </p>
+ */
+public class SearchIndex {
+    /** 候选结果按原文校验时最多读取存储的轮数，仍不足一页时返回游标，由客户端继续翻页 */
+    private static final int MAX_ROUNDS = 4;
+
+    private final ChatLogStore store;
+    private final int segmentDocs;
+
+    /** 段的起始存储 ID -> 段 */
+    private final ConcurrentSkipListMap<Long, IndexSegment> segments = new ConcurrentSkipListMap<>();
+    /** 当前的实时段，受 liveLock 保护 */
+    private IndexSegment live;
+    private final Object liveLock = new Object();
+
+    /** 发送者与会话名的编号，从 1 开始，0 表示不存在 */
+    private final ConcurrentHashMap<String, Integer> names = new ConcurrentHashMap<>();
+    private final AtomicInteger nextName = new AtomicInteger(1);
+
+    /** 启动时重建覆盖的最大存储 ID，实时写入时跳过不大于它的记录 */
+    private volatile long rebuiltUpTo;
+    private volatile boolean building;
+
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder sealedBytes = new LongAdder();
+
+    /**
+     * 一次搜索的结果
+     *
+     * @param hits 命中的记录，从新到旧
+     * @param next 下一页的游标 (只搜索存储 ID 小于该值的记录)，0 表示没有更多结果
+     */
+    public record Result(List<ChatLogRecord> hits, long next) {}
+
+    /**
+     * @param store       聊天记录存储，重建索引与读取原文时使用
+     * @param segmentDocs 每段的最大文档数
+     */
+    public SearchIndex(ChatLogStore store, int segmentDocs) {
+        this.store = store;
+        this.segmentDocs = Math.max(1024, segmentDocs);
+    }
+
+    /**
+     * @param msg 即将保存的聊天消息
+     * @return 持久化后把消息加入索引的回调
+     */
+    public LongConsumer onSaved(Message msg) {
+        long savedAt = System.currentTimeMillis();
+        return id -> add(id, savedAt, msg);
+    }
+
+    private void add(long id, long timestamp, Message msg) {
+        if (id <= rebuiltUpTo) {
+            return;
+        }
+        String sender = senderOf(msg);
+        String conversation = conversationOf(msg);
+        int senderId = intern(sender);
+        int conversationId = intern(conversation);
+        // 分词在锁外完成
+        Set<String> words = termsOf(msg, sender, conversation);
+        synchronized (liveLock) {
+            if (live == null || !live.add(id, minutes(timestamp), senderId, conversationId, words)) {
+                if (live != null) {
+                    live.seal();
+                    sealedBytes.add(live.bytes());
+                }
+                live = new IndexSegment(segmentDocs);
+                segments.put(id, live);
+                live.add(id, minutes(timestamp), senderId, conversationId, words);
+            }
+        }
+        documents.increment();
+    }
+
+    /**
+     * 从存储重建索引：在调用者线程上读取当前最大的存储 ID，之后的读取与构建在后台线程上进行
+     * 应在开始接收消息之前调用一次。
+     *
+     * @param threads 并行读取的线程数
+     */
+    public void rebuild(int threads) {
+        long last;
+        try {
+            last = store.getLastId();
+        } catch (Exception e) {
+            System.err.println("搜索索引重建失败，只索引此后的新消息: " + e.getMessage());
+            return;
+        }
+        rebuiltUpTo = last;
+        if (last <= 0) {
+            return;
+        }
+        building = true;
+        int chunks = (int) ((last + segmentDocs - 1) / segmentDocs);
+        AtomicInteger remaining = new AtomicInteger(chunks);
+        LongAdder failed = new LongAdder();
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "search-rebuild");
+            t.setDaemon(true);
+            return t;
+        });
+        System.out.println("开始重建搜索索引：" + last + " 条记录，" + chunks + " 段，" + threads + " 个线程");
+        // 从最新的范围开始，最近的消息最先可以搜索
+        for (int k = chunks - 1; k >= 0; k--) {
+            long from = (long) k * segmentDocs;
+            long to = Math.min(last, from + segmentDocs);
+            pool.execute(() -> {
+                try {
+                    buildRange(from, to);
+                } catch (Exception e) {
+                    failed.increment();
+                    System.err.println("搜索索引重建失败，记录 " + (from + 1) + " - " + to + ": " + e.getMessage());
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    building = false;
+                    pool.shutdown();
+                    System.out.println("搜索索引重建完成：" + documents.sum() + " 条，耗时 "
+                            + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + " 秒"
+                            + (failed.sum() > 0 ? "，" + failed.sum() + " 段失败" : ""));
+                }
+            });
+        }
+    }
+
+    /**
+     * 读取 (from, to] 范围内的记录并构建一个段，范围大小不超过段的容量
+     */
+    private void buildRange(long from, long to) throws Exception {
+        IndexSegment segment = new IndexSegment(segmentDocs);
+        store.scan(from, to, record -> {
+            Message msg = record.getMessage();
+            String sender = senderOf(msg);
+            String conversation = conversationOf(msg);
+            segment.add(record.getId(), minutes(record.getTimestamp()), intern(sender), intern(conversation),
+                    termsOf(msg, sender, conversation));
+        });
+        int size = segment.size();
+        if (size > 0) {
+            segment.seal();
+            sealedBytes.add(segment.bytes());
+            segments.put(from + 1, segment);
+            documents.add(size);
+        }
+    }
+
+    /**
+     * 搜索
+     *
+     * @param query    搜索条件
+     * @param nickname 查询者
+     * @param rooms    查询者所在的房间
+     * @param beforeId 只搜索存储 ID 小于该值的记录 (翻页游标)
+     * @param limit    最多返回的条数
+     * @return 结果
+     * @throws Exception 读取原文失败
+     */
+    public Result search(SearchQuery query, String nickname, Set<String> rooms, long beforeId, int limit)
+            throws Exception {
+        long start = System.nanoTime();
+        try {
+            Prepared prepared = prepare(query, nickname, rooms);
+            if (prepared == null) {
+                return new Result(List.of(), 0);
+            }
+            Viewer viewer = viewer(nickname, rooms);
+            List<ChatLogRecord> hits = new ArrayList<>(limit);
+            long cursor = beforeId;
+            int batch = Math.max(limit * 2, 32);
+            for (int round = 0; round < MAX_ROUNDS; round++) {
+                long[] ids = candidates(prepared, viewer, cursor, batch);
+                if (ids.length == 0) {
+                    return new Result(hits, 0);
+                }
+                List<ChatLogRecord> records = store.loadByIds(ids);
+                for (int i = records.size() - 1; i >= 0; i--) {
+                    ChatLogRecord record = records.get(i);
+                    if (prepared.verify(record.getMessage().getContent())) {
+                        hits.add(record);
+                        if (hits.size() >= limit) {
+                            return new Result(hits, record.getId());
+                        }
+                    }
+                }
+                cursor = ids[ids.length - 1];
+                if (ids.length < batch) {
+                    return new Result(hits, 0);
+                }
+            }
+            return new Result(hits, cursor);
+        } finally {
+            Metrics.SEARCH.recordSince(start);
+        }
+    }
+
+    /**
+     * 从新到旧收集存储 ID 小于 beforeId 的候选
+     * <p>
+     * 并发保存时存储 ID 与加入索引的顺序可能略有出入，段之间的 ID 范围可能少量重叠，
+     * 因此每段都取其中最大的 max 个再合并，只跳过最大 ID 已经排不进前 max 个的段。
+     * </p>
+     *
+     * @return 按存储 ID 降序排列的最多 max 个候选
+     */
+    private long[] candidates(Prepared prepared, Viewer viewer, long beforeId, int max) {
+        long[] best = new long[0];
+        for (IndexSegment segment : segments.descendingMap().values()) {
+            if (segment.getMinId() >= beforeId || best.length >= max && segment.getMaxId() <= best[max - 1]) {
+                continue;
+            }
+            long[] found = segment.search(prepared, viewer, beforeId, max);
+            if (found.length > 0) {
+                best = merge(best, found, max);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 合并两个降序数组，保留最大的 max 个
+     */
+    private static long[] merge(long[] a, long[] b, int max) {
+        long[] out = new long[Math.min(max, a.length + b.length)];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < out.length; k++) {
+            out[k] = j >= b.length || i < a.length && a[i] > b[j] ? a[i++] : b[j++];
+        }
+        return out;
+    }
+
+    private Prepared prepare(SearchQuery query, String nickname, Set<String> rooms) {
+        List<String> terms = new ArrayList<>();
+        for (String keyword : query.getKeywords()) {
+            terms.addAll(Tokenizer.query(keyword));
+        }
+        int from = 0;
+        if (query.getFrom() != null) {
+            from = id(query.getFrom());
+            if (from == 0) {
+                return null;
+            }
+            terms.add(IndexSegment.SENDER_PREFIX + query.getFrom());
+        }
+        int conversation = 0;
+        int me = 0;
+        int peer = 0;
+        int toPeer = 0;
+        int toMe = 0;
+        String in = query.getIn();
+        if (in != null && (RecentHistory.GLOBAL.equals(in) || in.startsWith("#"))) {
+            conversation = id(in);
+            if (conversation == 0) {
+                return null;
+            }
+            terms.add(IndexSegment.CONVERSATION_PREFIX + in);
+            if (in.startsWith("#") && !rooms.contains(in) && !nickname.equals(query.getFrom())) {
+                // 不在该房间时只能看到自己以前在房间里发出的消息，直接按发送者缩小候选
+                if (id(nickname) == 0 || from != 0) {
+                    return null;
+                }
+                from = id(nickname);
+                terms.add(IndexSegment.SENDER_PREFIX + nickname);
+            }
+        } else if (in != null) {
+            // 与某人的私聊：双方各自发出的两个方向，由双方共用的词驱动
+            terms.add(pairTerm(nickname, in));
+            me = id(nickname);
+            peer = id(in);
+            toPeer = id("@" + in);
+            toMe = id("@" + nickname);
+            if ((me == 0 || toPeer == 0) && (peer == 0 || toMe == 0)) {
+                return null;
+            }
+        }
+        return new Prepared(terms, query, from, conversation, me, peer, toPeer, toMe);
+    }
+
+    private Viewer viewer(String nickname, Set<String> rooms) {
+        Set<Integer> roomIds = new HashSet<>();
+        for (String room : rooms) {
+            int id = id(room);
+            if (id != 0) {
+                roomIds.add(id);
+            }
+        }
+        return new Viewer(id(nickname), id("@" + nickname), id(RecentHistory.GLOBAL), roomIds);
+    }
+
+    /**
+     * 解析为编号的查询条件，由各段共用
+     */
+    static final class Prepared {
+        private final List<String> terms;
+        private final List<String> keywords;
+        private final boolean timeFilter;
+        private final long afterMinute;
+        private final long beforeMinute;
+        private final int from;
+        private final int conversation;
+        private final int me;
+        private final int peer;
+        private final int toPeer;
+        private final int toMe;
+
+        Prepared(List<String> terms, SearchQuery query, int from, int conversation, int me, int peer,
+                 int toPeer, int toMe) {
+            this.terms = terms;
+            this.keywords = query.getKeywords();
+            this.timeFilter = query.hasTimeFilter();
+            this.afterMinute = query.getAfterSeconds() == Long.MIN_VALUE ? Long.MIN_VALUE
+                    : Math.floorDiv(query.getAfterSeconds(), 60);
+            this.beforeMinute = query.getBeforeSeconds() == Long.MAX_VALUE ? Long.MAX_VALUE
+                    : Math.floorDiv(query.getBeforeSeconds() + 59, 60);
+            this.from = from;
+            this.conversation = conversation;
+            this.me = me;
+            this.peer = peer;
+            this.toPeer = toPeer;
+            this.toMe = toMe;
+        }
+
+        /**
+         * @return 需要全部命中的词 (关键字分词，以及发送者、会话对应的词)
+         */
+        List<String> terms() {
+            return terms;
+        }
+
+        /**
+         * @return 段内最早与最晚的时间 (分钟) 与时间条件可能有交集时返回 true
+         */
+        boolean mayMatchTime(long minMinute, long maxMinute) {
+            return !timeFilter || maxMinute >= afterMinute && minMinute < beforeMinute;
+        }
+
+        /**
+         * 时间未知 (为 0) 的记录不满足任何时间条件
+         */
+        boolean matchesTime(int minute) {
+            return !timeFilter || minute != 0 && minute >= afterMinute && minute < beforeMinute;
+        }
+
+        boolean matches(int sender, int conv) {
+            if (from != 0 && sender != from || conversation != 0 && conv != conversation) {
+                return false;
+            }
+            return peer == 0 || sender == me && conv == toPeer || sender == peer && conv == toMe;
+        }
+
+        /**
+         * @return 原文中包含全部关键字时返回 true
+         */
+        boolean verify(String content) {
+            if (keywords.isEmpty()) {
+                return true;
+            }
+            if (content == null) {
+                return false;
+            }
+            String normalized = Tokenizer.normalize(content);
+            for (String keyword : keywords) {
+                if (!normalized.contains(keyword)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 查询者的可见范围：群聊、所在房间、自己发出的消息与发给自己的私聊
+     */
+    static final class Viewer {
+        private final int me;
+        private final int toMe;
+        private final int global;
+        private final Set<Integer> rooms;
+
+        Viewer(int me, int toMe, int global, Set<Integer> rooms) {
+            this.me = me;
+            this.toMe = toMe;
+            this.global = global;
+            this.rooms = rooms;
+        }
+
+        boolean canSee(int sender, int conv) {
+            // 编号从 1 开始，查询者从未出现过时 me 与 toMe 为 0，不会误匹配
+            return conv == global || sender == me || conv == toMe || rooms.contains(conv);
+        }
+    }
+
+    private int intern(String name) {
+        Integer id = names.get(name);
+        return id != null ? id : names.computeIfAbsent(name, k -> nextName.getAndIncrement());
+    }
+
+    private int id(String name) {
+        return name == null ? 0 : names.getOrDefault(name, 0);
+    }
+
+    /**
+     * @return 内容的分词结果，加上发送者、会话 (私聊时还有双方) 对应的词
+     */
+    private static Set<String> termsOf(Message msg, String sender, String conversation) {
+        Set<String> terms = Tokenizer.index(msg.getContent());
+        terms.add(IndexSegment.SENDER_PREFIX + sender);
+        terms.add(IndexSegment.CONVERSATION_PREFIX + conversation);
+        if (conversation.startsWith("@")) {
+            terms.add(pairTerm(sender, msg.getReceiver()));
+        }
+        return terms;
+    }
+
+    /**
+     * @return 私聊双方对应的词，与方向无关
+     */
+    private static String pairTerm(String a, String b) {
+        return IndexSegment.PAIR_PREFIX + (a.compareTo(b) <= 0 ? a + "\n" + b : b + "\n" + a);
+    }
+
+    private static String senderOf(Message msg) {
+        return msg.getSender() == null ? "" : msg.getSender();
+    }
+
+    /**
+     * @return 会话名：群聊为 ALL，房间为房间名，私聊为 "@" 加接收者昵称
+     */
+    private static String conversationOf(Message msg) {
+        String receiver = msg.getReceiver();
+        if (receiver == null || RecentHistory.GLOBAL.equals(receiver)) {
+            return RecentHistory.GLOBAL;
+        }
+        return receiver.startsWith("#") ? receiver : "@" + receiver;
+    }
+
+    /**
+     * @return 以分钟计的时间，未知 (0) 时仍为 0
+     */
+    private static int minutes(long millis) {
+        return millis <= 0 ? 0 : (int) (millis / 60_000);
+    }
+
+    /**
+     * @return 已索引的消息数
+     */
+    public long getDocuments() {
+        return documents.sum();
+    }
+
+    /**
+     * @return 段数
+     */
+    public int getSegments() {
+        return segments.size();
+    }
+
+    /**
+     * @return 启动时的重建是否仍在进行
+     */
+    public boolean isBuilding() {
+        return building;
+    }
+
+    @Override
+    public String toString() {
+        return "搜索索引 -> 消息: " + documents.sum()
+                + " 段: " + segments.size()
+                + " 已封存段内存: " + sealedBytes.sum() / (1024 * 1024) + "MB"
+                + (building ? " (重建中)" : "");
+    }
+}
@@ -0,0 +1,133 @@
+package com.chatroom.server.search;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 解析后的搜索条件
+ * <p>
+ * 查询文本以空白分隔，除下列筛选条件外的部分都是关键字，多个关键字须同时出现：
+ * <ul>
+ *     <li>from:昵称 —— 只搜索该用户发出的消息；</li>
+ *     <li>in:ALL、in:#房间 或 in:昵称 —— 只搜索群聊、该房间或与该用户的私聊；</li>
+ *     <li>after:日期 / before:日期 —— 只搜索该时间 (含) 之后 / 之前的消息，日期格式为 2024-05-01 或 2024-05-01T18:30，
+ *     按服务器所在时区解释。</li>
+ * </ul>
+ * 例如 "from:张三 in:#技术 after:2024-05-01 数据库 迁移"。
+ * </p>
+ */
+public final class SearchQuery {
+    /** 单次查询最多的关键字个数 */
+    public static final int MAX_KEYWORDS = 8;
+
+    private final List<String> keywords;
+    private final String from;
+    private final String in;
+    private final long afterSeconds;
+    private final long beforeSeconds;
+
+    private SearchQuery(List<String> keywords, String from, String in, long afterSeconds, long beforeSeconds) {
+        this.keywords = keywords;
+        this.from = from;
+        this.in = in;
+        this.afterSeconds = afterSeconds;
+        this.beforeSeconds = beforeSeconds;
+    }
+
+    /**
+     * 解析查询文本
+     *
+     * @param text 查询文本
+     * @return 搜索条件
+     * @throws IllegalArgumentException 没有任何条件、关键字过多或日期格式错误，异常信息可直接提示给用户
+     */
+    public static SearchQuery parse(String text) {
+        List<String> keywords = new ArrayList<>();
+        String from = null;
+        String in = null;
+        long after = Long.MIN_VALUE;
+        long before = Long.MAX_VALUE;
+        for (String part : (text == null ? "" : text.trim()).split("\\s+")) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            if (part.startsWith("from:") && part.length() > 5) {
+                from = part.substring(5);
+            } else if (part.startsWith("in:") && part.length() > 3) {
+                in = part.substring(3);
+            } else if (part.startsWith("after:")) {
+                after = parseTime(part.substring(6));
+            } else if (part.startsWith("before:")) {
+                before = parseTime(part.substring(7));
+            } else {
+                String keyword = Tokenizer.normalize(part);
+                // 全是标点的关键字分不出词，无法使用索引
+                if (!Tokenizer.query(keyword).isEmpty() && !keywords.contains(keyword)) {
+                    keywords.add(keyword);
+                }
+            }
+        }
+        if (keywords.isEmpty() && from == null && in == null) {
+            throw new IllegalArgumentException("请输入关键字，或用 from:昵称、in:#房间 指定范围");
+        }
+        if (keywords.size() > MAX_KEYWORDS) {
+            throw new IllegalArgumentException("关键字不能超过 " + MAX_KEYWORDS + " 个");
+        }
+        return new SearchQuery(List.copyOf(keywords), from, in, after, before);
+    }
+
+    private static long parseTime(String s) {
+        try {
+            LocalDateTime time = s.length() <= 10 ? LocalDate.parse(s).atStartOfDay() : LocalDateTime.parse(s);
+            return time.atZone(ZoneId.systemDefault()).toEpochSecond();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("日期格式应为 2024-05-01 或 2024-05-01T18:30：" + s);
+        }
+    }
+
+    /**
+     * @return 规范化后的关键字
+     */
+    public List<String> getKeywords() {
+        return keywords;
+    }
+
+    /**
+     * @return 发送者，不限时为 null
+     */
+    public String getFrom() {
+        return from;
+    }
+
+    /**
+     * @return 会话 (ALL、房间名或私聊对方的昵称)，不限时为 null
+     */
+    public String getIn() {
+        return in;
+    }
+
+    /**
+     * @return 起始时间 (秒，含)，不限时为 Long.MIN_VALUE
+     */
+    public long getAfterSeconds() {
+        return afterSeconds;
+    }
+
+    /**
+     * @return 截止时间 (秒，不含)，不限时为 Long.MAX_VALUE
+     */
+    public long getBeforeSeconds() {
+        return beforeSeconds;
+    }
+
+    /**
+     * @return 是否按时间筛选
+     */
+    public boolean hasTimeFilter() {
+        return afterSeconds != Long.MIN_VALUE || beforeSeconds != Long.MAX_VALUE;
+    }
+}
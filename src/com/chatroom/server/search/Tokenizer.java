@@ -0,0 +1,117 @@
+package com.chatroom.server.search;
+
+import java.text.Normalizer;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 搜索分词
+ * <p>
+ * 文本先做 NFKC 规范化 (全角字母数字转为半角) 并转为小写，再按字符类别切分：
+ * <ul>
+ *     <li>字母与数字组成的连续片段 (英文单词、数字) 作为一个词，超过 {@link #MAX_WORD_LENGTH} 的部分截断；</li>
+ *     <li>中日韩文字没有空格分词，连续片段切成相邻两字一组的二元组 (bigram)，另外每个字单独作为一个词，
+ *     这样不需要词典，任意两个字以上的查询都能由二元组命中，单字查询由单字命中；</li>
+ *     <li>标点、空白与其他符号只起分隔作用。</li>
+ * </ul>
+ * 查询使用同样的规则，但中日韩片段只取能覆盖整个片段的最少二元组，减少需要求交集的倒排列表。
+ * 二元组只保证每一对相邻的字都出现，不保证它们连在一起，因此命中的记录还要按原文校验 (见 SearchIndex)。
+ * </p>
+ */
+public final class Tokenizer {
+    /** 单个英文单词或数字的最大长度，超过的部分不参与索引 */
+    public static final int MAX_WORD_LENGTH = 32;
+
+    private Tokenizer() {}
+
+    /**
+     * @param text 原文
+     * @return 规范化后的文本，与分词、原文校验使用同一规则
+     */
+    public static String normalize(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 对一条消息的内容分词 (建立索引时使用)
+     *
+     * @param text 原文
+     * @return 去重后的词
+     */
+    public static Set<String> index(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text != null) {
+            split(normalize(text), terms, false);
+        }
+        return terms;
+    }
+
+    /**
+     * 对查询关键字分词
+     *
+     * @param keyword 已规范化的关键字
+     * @return 去重后的词，全部命中的记录才是候选结果
+     */
+    public static Set<String> query(String keyword) {
+        Set<String> terms = new LinkedHashSet<>();
+        split(keyword, terms, true);
+        return terms;
+    }
+
+    private static void split(String s, Set<String> out, boolean query) {
+        int i = 0;
+        int n = s.length();
+        while (i < n) {
+            int cp = s.codePointAt(i);
+            if (isCjk(cp)) {
+                int end = i;
+                while (end < n && isCjk(s.codePointAt(end))) {
+                    end += Character.charCount(s.codePointAt(end));
+                }
+                cjk(s.substring(i, end), out, query);
+                i = end;
+            } else if (Character.isLetterOrDigit(cp)) {
+                int end = i;
+                while (end < n && Character.isLetterOrDigit(s.codePointAt(end)) && !isCjk(s.codePointAt(end))) {
+                    end += Character.charCount(s.codePointAt(end));
+                }
+                int stop = s.codePointCount(i, end) > MAX_WORD_LENGTH ? s.offsetByCodePoints(i, MAX_WORD_LENGTH) : end;
+                out.add(s.substring(i, stop));
+                i = end;
+            } else {
+                i += Character.charCount(cp);
+            }
+        }
+    }
+
+    /**
+     * 中日韩片段：索引时输出每个字与每个相邻二元组；查询时只输出覆盖片段的二元组 (第 0、2、4... 个，以及最后一个)
+     */
+    private static void cjk(String run, Set<String> out, boolean query) {
+        int[] cps = run.codePoints().toArray();
+        if (cps.length == 1) {
+            out.add(run);
+            return;
+        }
+        for (int k = 0; k + 1 < cps.length; k++) {
+            if (!query || k % 2 == 0 || k == cps.length - 2) {
+                out.add(new String(cps, k, 2));
+            }
+        }
+        if (!query) {
+            for (int cp : cps) {
+                out.add(new String(Character.toChars(cp)));
+            }
+        }
+    }
+
+    /**
+     * @return 汉字、假名与韩文字母返回 true
+     */
+    static boolean isCjk(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL;
+    }
+}
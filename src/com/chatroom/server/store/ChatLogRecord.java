@@ -0,0 +1,45 @@
+package com.chatroom.server.store;
+
+import com.chatroom.common.Message;
+
+/**
+ * 从存储中读出的一条聊天记录
+ */
+public class ChatLogRecord {
+    private final long id;
+    private final Message message;
+    private final long timestamp;
+
+    public ChatLogRecord(long id, Message message) {
+        this(id, message, 0);
+    }
+
+    /**
+     * @param id        记录 ID
+     * @param message   聊天消息
+     * @param timestamp 保存时间 (毫秒)，未知时为 0
+     */
+    public ChatLogRecord(long id, Message message, long timestamp) {
+        this.id = id;
+        this.message = message;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @return 存储分配的记录 ID，越新的记录 ID 越大，用作分页游标
+     */
+    public long getId() {
+        return id;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * @return 保存时间 (毫秒)，存储没有提供时为 0
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,114 @@
+package com.chatroom.server.store;
+
+import com.chatroom.common.Message;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * 聊天记录存储接口
+ * <p>
+ * MessageHandler 在转发聊天消息后通过该接口保存聊天记录。
+ * 实现类的 save 方法不应在调用者线程上执行耗时的 IO，以免拖慢消息转发。
+ * </p>
+ */
+public interface ChatLogStore {
+
+    /**
+     * 保存一条聊天记录
+     *
+     * @param msg 聊天消息
+     */
+    default void save(Message msg) {
+        save(msg, null);
+    }
+
+    /**
+     * 保存一条聊天记录，并在记录持久化后回调其 ID
+     * <p>
+     * 回调可能在存储的内部线程上执行，应当足够轻量；记录最终未能获得 ID (例如写入了溢出文件) 时不回调。
+     * </p>
+     *
+     * @param msg     聊天消息
+     * @param onSaved 持久化后的回调，可为 null
+     */
+    void save(Message msg, LongConsumer onSaved);
+
+    /**
+     * 按键集分页读取较早的聊天记录
+     *
+     * @param receiver 接收者 (群聊为 ALL)
+     * @param beforeId 只读取 ID 小于该值的记录
+     * @param limit    最多读取的条数
+     * @return 按 ID 升序排列的记录
+     * @throws Exception 存储访问失败
+     */
+    List<ChatLogRecord> loadBefore(String receiver, long beforeId, int limit) throws Exception;
+
+    /**
+     * 按键集分页读取两个用户之间的私聊记录 (双方发出的都包含在内)
+     *
+     * @param user     其中一方
+     * @param peer     另一方
+     * @param beforeId 只读取 ID 小于该值的记录
+     * @param limit    最多读取的条数
+     * @return 按 ID 升序排列的记录
+     * @throws Exception 存储访问失败
+     */
+    List<ChatLogRecord> loadPrivateBefore(String user, String peer, long beforeId, int limit) throws Exception;
+
+    /**
+     * 读取若干会话中 ID 位于 (afterId, beforeId) 之间的记录 (断线重连时补发内存中已经没有的消息)
+     *
+     * @param receivers 接收者 (ALL、房间名或用户昵称)
+     * @param afterId   只读取 ID 大于该值的记录
+     * @param beforeId  只读取 ID 小于该值的记录
+     * @param limit     最多读取的条数
+     * @return 按 ID 升序排列的最早 limit 条记录
+     * @throws Exception 存储访问失败
+     */
+    List<ChatLogRecord> loadAfter(Collection<String> receivers, long afterId, long beforeId, int limit) throws Exception;
+
+    /**
+     * 按 ID 读取记录 (搜索命中后读取原文)
+     *
+     * @param ids 记录 ID，顺序任意
+     * @return 按 ID 升序排列的记录，已不存在的 ID 被忽略
+     * @throws Exception 存储访问失败
+     */
+    List<ChatLogRecord> loadByIds(long[] ids) throws Exception;
+
+    /**
+     * 按 ID 顺序读取 ID 位于 (afterId, toId] 之间的全部记录 (启动时重建搜索索引)
+     * <p>
+     * 结果逐条交给 consumer 而不是一次返回，内存中只保留一批；不同的 ID 范围可以在多个线程上并行读取。
+     * 记录带有保存时间时一并提供 (见 {@link ChatLogRecord#getTimestamp()})。
+     * </p>
+     *
+     * @param afterId  只读取 ID 大于该值的记录
+     * @param toId     只读取 ID 不大于该值的记录
+     * @param consumer 接收记录，在调用者线程上按 ID 升序调用
+     * @throws Exception 存储访问失败
+     */
+    void scan(long afterId, long toId, Consumer<ChatLogRecord> consumer) throws Exception;
+
+    /**
+     * @return 当前最大的记录 ID，没有记录时为 0
+     * @throws Exception 存储访问失败
+     */
+    long getLastId() throws Exception;
+
+    /**
+     * @return 已提交但尚未持久化的记录数 (写入队列深度)，同步写入的实现返回 0
+     */
+    default int getPendingCount() {
+        return 0;
+    }
+
+    /**
+     * 关闭存储：写出所有尚未持久化的记录并释放资源
+     */
+    void shutdown();
+}
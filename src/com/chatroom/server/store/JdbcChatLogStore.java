@@ -0,0 +1,729 @@
+package com.chatroom.server.store;
+
+import com.chatroom.common.Message;
+import com.chatroom.server.metrics.Metrics;
+import com.chatroom.utils.JDBCUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * 基于 MySQL 的异步批量聊天记录存储
+ * <p>
+ * save() 只把消息放入有界队列即返回，由后台写线程按批次 (达到 batchSize 条或距批次第一条消息超过 flushInterval)
+ * 使用 JDBC 批量插入写入 chat_logs 表，数据库延迟不再叠加到发送者的下一条消息上。
+ * </p>
+ * <p>
+ * 写入失败时按指数退避重试；重试耗尽 (数据库不可用) 或队列已满时，记录交给溢出线程追加到本地溢出文件，
+ * 并在之后的某次批量写入成功后、以及下次启动时重新导入数据库。溢出文件只由溢出线程写入，
+ * 发送者线程在队列已满时也只是把记录放入溢出线程的队列，不做文件 I/O；两个队列都满时记录丢弃并计数。
+ * </p>
+ * <p>
+ * 导入按批次进行，每批提交后把已导入的行数写入 .replaying.offset，中途失败或进程退出后从该行继续，
+ * 最多重复导入一批。溢出记录的 onSaved 回调保存在内存中，导入时按行中的序号找回并以新的 ID 回调；
+ * 上次运行遗留的记录以及超过 {@link #MAX_SPILL_CALLBACKS} 条之后的记录没有回调，
+ * 它们不会进入断线重放的 ID 索引，要到下次启动重建搜索索引时才能被搜索到。
+ * 注意：从溢出文件导入的记录，其 chat_logs 中的时间为导入时间。
+ * </p>
+ */
+public class JdbcChatLogStore implements ChatLogStore {
+    private static final String INSERT_SQL = "INSERT INTO chat_logs (sender_name, content, receiver_name) VALUES (?, ?, ?)";
+    /** 键集分页：依赖 chat_logs 上 (receiver_name, id) 的索引，翻到任何一页都只扫描 limit 行 */
+    private static final String PAGE_SQL = "SELECT id, sender_name, content, receiver_name FROM chat_logs"
+            + " WHERE receiver_name = ? AND id < ? ORDER BY id DESC LIMIT ?";
+    /**
+     * 私聊分页：两个方向各自走 (receiver_name, sender_name, id) 索引取一页，再合并排序，
+     * 避免 OR 条件导致的全表扫描与文件排序
+     */
+    private static final String PRIVATE_PAGE_SQL = "SELECT id, sender_name, content, receiver_name FROM ("
+            + "(SELECT id, sender_name, content, receiver_name FROM chat_logs"
+            + " WHERE receiver_name = ? AND sender_name = ? AND id < ? ORDER BY id DESC LIMIT ?)"
+            + " UNION ALL"
+            + " (SELECT id, sender_name, content, receiver_name FROM chat_logs"
+            + " WHERE receiver_name = ? AND sender_name = ? AND id < ? ORDER BY id DESC LIMIT ?)"
+            + ") t ORDER BY id DESC LIMIT ?";
+    /** 重建搜索索引时按主键范围分页读取，每页的行数 */
+    private static final int SCAN_PAGE_SIZE = 5000;
+    /** 内存中最多保留的溢出记录回调数 */
+    static final int MAX_SPILL_CALLBACKS = 1 << 18;
+
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+    private final Path spillFile;
+    /** 正在导入的溢出文件，以及记录已导入行数的文件 */
+    private final Path replayingFile;
+    private final Path offsetFile;
+    /** chat_logs 中保存时间的列，为空时不读取 */
+    private final String timeColumn;
+
+    private final BlockingQueue<Pending> queue;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    /** 待写入溢出文件的记录，由溢出线程写出 */
+    private final BlockingQueue<Pending> spillQueue;
+    private final Thread spiller;
+    private volatile boolean spilling = true;
+    /** 溢出文件的追加与改名互斥 (溢出线程与写线程之间) */
+    private final Object spillLock = new Object();
+    /** 本次运行的标识与溢出记录序号，写在溢出文件的每一行，导入时据此找回回调 */
+    private final String run = Long.toString(System.currentTimeMillis(), 36);
+    private long spillSeq;
+    /** 溢出记录序号 -> onSaved 回调 */
+    private final Map<Long, LongConsumer> spillCallbacks = new ConcurrentHashMap<>();
+
+    /** 溢出文件中是否可能有待导入的记录 */
+    private volatile boolean spillPending;
+
+    /** 数据库被判定为不可用后，在该时刻之前直接写入溢出文件而不再重试 */
+    private long dbRetryAt;
+
+    private final LongAdder saved = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+
+    /**
+     * 构造方法
+     *
+     * @param queueCapacity       待写入队列容量
+     * @param batchSize           每批最多写入的记录数
+     * @param flushIntervalMillis 批次最长等待时间
+     * @param maxRetries          单批写入失败后的最大重试次数
+     * @param retryBackoffMillis  首次重试的等待时间，之后每次翻倍
+     * @param spillFile           数据库不可用时的溢出文件
+     */
+    public JdbcChatLogStore(int queueCapacity, int batchSize, long flushIntervalMillis,
+                            int maxRetries, long retryBackoffMillis, Path spillFile) {
+        this(queueCapacity, batchSize, flushIntervalMillis, maxRetries, retryBackoffMillis, spillFile, "");
+    }
+
+    /**
+     * 构造方法
+     *
+     * @param queueCapacity       待写入队列容量
+     * @param batchSize           每批最多写入的记录数
+     * @param flushIntervalMillis 批次最长等待时间
+     * @param maxRetries          单批写入失败后的最大重试次数
+     * @param retryBackoffMillis  首次重试的等待时间，之后每次翻倍
+     * @param spillFile           数据库不可用时的溢出文件
+     * @param timeColumn          chat_logs 中保存时间的列 (DATETIME 或 TIMESTAMP)，{@link #scan} 读取记录时一并读出；为空时不读取
+     */
+    public JdbcChatLogStore(int queueCapacity, int batchSize, long flushIntervalMillis,
+                            int maxRetries, long retryBackoffMillis, Path spillFile, String timeColumn) {
+        if (!timeColumn.matches("\\w*")) {
+            throw new IllegalArgumentException("无效的列名: " + timeColumn);
+        }
+        this.timeColumn = timeColumn;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.maxRetries = maxRetries;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.spillFile = spillFile;
+        this.replayingFile = spillFile.resolveSibling(spillFile.getFileName() + ".replaying");
+        this.offsetFile = spillFile.resolveSibling(spillFile.getFileName() + ".replaying.offset");
+        this.spillPending = Files.exists(spillFile) || Files.exists(replayingFile);
+        this.spillQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        this.spiller = new Thread(this::runSpiller, "chatlog-spiller");
+        this.spiller.setDaemon(true);
+        this.spiller.start();
+        this.writer = new Thread(this::runWriter, "chatlog-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void save(Message msg, LongConsumer onSaved) {
+        Pending pending = new Pending(msg, onSaved);
+        if (running && queue.offer(pending)) {
+            return;
+        }
+        // 队列已满 (数据库跟不上) 或已关闭：交给溢出线程写入文件，发送者线程不做文件 I/O
+        if (!spillQueue.offer(pending)) {
+            lost.increment();
+            if (lost.sum() % 1000 == 1) {
+                System.err.println("聊天记录写入队列与溢出队列均已满，记录丢弃，累计: " + lost.sum());
+            }
+        }
+    }
+
+    /**
+     * 后台写线程：按批次从队列取出记录并写入数据库
+     */
+    private void runWriter() {
+        // 启动时先导入上次遗留的溢出记录
+        if (spillPending) {
+            replaySpillFile();
+        }
+
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // 在时间窗口内继续收集，直到凑满一批
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0 || !running) {
+                        break;
+                    }
+                    Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                // shutdown() 通过中断唤醒写线程，循环条件负责排空剩余记录
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 写入一批记录，失败时按指数退避重试，重试耗尽后写入溢出文件
+     */
+    private void flush(List<Pending> pending) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Message> batch = new ArrayList<>(pending.size());
+        for (Pending p : pending) {
+            batch.add(p.msg);
+        }
+        if (System.currentTimeMillis() < dbRetryAt) {
+            spill(pending);
+            return;
+        }
+        long backoff = retryBackoffMillis;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                long[] ids = insertBatch(batch);
+                notifySaved(pending, ids);
+                saved.add(batch.size());
+                batches.increment();
+                dbRetryAt = 0;
+                // 数据库可用，顺带导入此前溢出的记录
+                if (spillPending) {
+                    replaySpillFile();
+                }
+                return;
+            } catch (Exception e) {
+                failures.increment();
+                if (attempt >= maxRetries || !running) {
+                    System.err.println("聊天记录保存失败，已写入溢出文件: " + e.getMessage());
+                    // 一段时间内不再访问数据库，避免每一批都经历完整的重试等待
+                    dbRetryAt = System.currentTimeMillis() + backoff;
+                    spill(pending);
+                    return;
+                }
+                sleepQuietly(backoff);
+                backoff = Math.min(backoff * 2, 30_000);
+            }
+        }
+    }
+
+    /**
+     * 回调已写入记录的 ID，驱动未返回自增主键时不回调
+     */
+    private static void notifySaved(List<Pending> pending, long[] ids) {
+        for (int i = 0; i < pending.size() && i < ids.length; i++) {
+            notifySaved(pending.get(i).onSaved, ids[i]);
+        }
+    }
+
+    private static void notifySaved(LongConsumer callback, long id) {
+        if (callback != null && id > 0) {
+            try {
+                callback.accept(id);
+            } catch (RuntimeException e) {
+                System.err.println("聊天记录保存回调失败: " + e);
+            }
+        }
+    }
+
+    /**
+     * 在一个事务中批量插入
+     *
+     * @return 各记录的自增主键，顺序与 batch 一致
+     */
+    private long[] insertBatch(List<Message> batch) throws Exception {
+        Connection conn = null;
+        PreparedStatement pstmt = null;
+        ResultSet keys = null;
+        long start = System.nanoTime();
+        try {
+            conn = JDBCUtils.getConnection();
+            conn.setAutoCommit(false);
+            pstmt = conn.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+            for (Message msg : batch) {
+                pstmt.setString(1, msg.getSender());
+                pstmt.setString(2, msg.getContent());
+                // 若接收者为空，则默认为 "ALL" (群聊)
+                pstmt.setString(3, msg.getReceiver() == null ? "ALL" : msg.getReceiver());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            long[] ids = new long[batch.size()];
+            keys = pstmt.getGeneratedKeys();
+            for (int i = 0; i < ids.length && keys != null && keys.next(); i++) {
+                ids[i] = keys.getLong(1);
+            }
+            conn.commit();
+            return ids;
+        } catch (Exception e) {
+            if (conn != null) {
+                try {
+                    conn.rollback();
+                } catch (Exception ignored) {
+                    // 连接可能已失效
+                }
+            }
+            throw e;
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.setAutoCommit(true);
+                } catch (Exception ignored) {
+                    // 连接可能已失效
+                }
+            }
+            JDBCUtils.close(conn, pstmt, keys);
+            Metrics.DB_SAVE_CHAT_LOG.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<ChatLogRecord> loadBefore(String receiver, long beforeId, int limit) throws Exception {
+        return queryPage(PAGE_SQL, receiver, beforeId, limit);
+    }
+
+    @Override
+    public List<ChatLogRecord> loadPrivateBefore(String user, String peer, long beforeId, int limit) throws Exception {
+        return queryPage(PRIVATE_PAGE_SQL, peer, user, beforeId, limit, user, peer, beforeId, limit, limit);
+    }
+
+    /**
+     * 每个接收者各自走 (receiver_name, id) 索引的一段范围，只扫描断线期间的记录
+     */
+    @Override
+    public List<ChatLogRecord> loadAfter(Collection<String> receivers, long afterId, long beforeId, int limit)
+            throws Exception {
+        if (receivers.isEmpty()) {
+            return List.of();
+        }
+        StringBuilder sql = new StringBuilder("SELECT id, sender_name, content, receiver_name FROM chat_logs"
+                + " WHERE receiver_name IN (");
+        List<Object> params = new ArrayList<>(receivers.size() + 3);
+        for (String receiver : receivers) {
+            sql.append(params.isEmpty() ? "?" : ", ?");
+            params.add(receiver);
+        }
+        sql.append(") AND id > ? AND id < ? ORDER BY id LIMIT ?");
+        params.add(afterId);
+        params.add(beforeId);
+        params.add(limit);
+        return query(sql.toString(), params.toArray());
+    }
+
+    /**
+     * 按主键读取，一次最多取 SCAN_PAGE_SIZE 个 ID
+     */
+    @Override
+    public List<ChatLogRecord> loadByIds(long[] ids) throws Exception {
+        List<ChatLogRecord> records = new ArrayList<>(ids.length);
+        for (int start = 0; start < ids.length; start += SCAN_PAGE_SIZE) {
+            int end = Math.min(ids.length, start + SCAN_PAGE_SIZE);
+            StringBuilder sql = new StringBuilder("SELECT id, sender_name, content, receiver_name FROM chat_logs"
+                    + " WHERE id IN (");
+            Object[] params = new Object[end - start];
+            for (int i = start; i < end; i++) {
+                sql.append(i == start ? "?" : ", ?");
+                params[i - start] = ids[i];
+            }
+            sql.append(") ORDER BY id");
+            records.addAll(query(sql.toString(), params));
+        }
+        records.sort((a, b) -> Long.compare(a.getId(), b.getId()));
+        return records;
+    }
+
+    /**
+     * 按主键范围分页读取 (键集分页，每页只扫描 SCAN_PAGE_SIZE 行)，每页读完即交给 consumer，不在内存中累积
+     */
+    @Override
+    public void scan(long afterId, long toId, Consumer<ChatLogRecord> consumer) throws Exception {
+        String time = timeColumn.isEmpty() ? "0" : "UNIX_TIMESTAMP(" + timeColumn + ") * 1000";
+        String sql = "SELECT id, sender_name, content, receiver_name, " + time + " AS saved_at FROM chat_logs"
+                + " WHERE id > ? AND id <= ? ORDER BY id LIMIT ?";
+        long from = afterId;
+        while (from < toId) {
+            Connection conn = null;
+            PreparedStatement pstmt = null;
+            ResultSet rs = null;
+            int rows = 0;
+            try {
+                conn = JDBCUtils.getConnection();
+                pstmt = conn.prepareStatement(sql);
+                pstmt.setLong(1, from);
+                pstmt.setLong(2, toId);
+                pstmt.setInt(3, SCAN_PAGE_SIZE);
+                rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    from = rs.getLong("id");
+                    consumer.accept(new ChatLogRecord(from, new Message(Message.CHAT, rs.getString("sender_name"),
+                            rs.getString("content"), rs.getString("receiver_name")), rs.getLong("saved_at")));
+                    rows++;
+                }
+            } finally {
+                JDBCUtils.close(conn, pstmt, rs);
+            }
+            if (rows < SCAN_PAGE_SIZE) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long getLastId() throws Exception {
+        Connection conn = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            conn = JDBCUtils.getConnection();
+            pstmt = conn.prepareStatement("SELECT MAX(id) FROM chat_logs");
+            rs = pstmt.executeQuery();
+            return rs.next() ? rs.getLong(1) : 0;
+        } finally {
+            JDBCUtils.close(conn, pstmt, rs);
+        }
+    }
+
+    /**
+     * 执行分页查询，结果按 ID 降序返回，这里翻转为升序
+     */
+    private List<ChatLogRecord> queryPage(String sql, Object... params) throws Exception {
+        List<ChatLogRecord> records = query(sql, params);
+        Collections.reverse(records);
+        return records;
+    }
+
+    private List<ChatLogRecord> query(String sql, Object... params) throws Exception {
+        Connection conn = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            conn = JDBCUtils.getConnection();
+            pstmt = conn.prepareStatement(sql);
+            for (int i = 0; i < params.length; i++) {
+                pstmt.setObject(i + 1, params[i]);
+            }
+            rs = pstmt.executeQuery();
+            List<ChatLogRecord> records = new ArrayList<>();
+            while (rs.next()) {
+                records.add(new ChatLogRecord(rs.getLong("id"), new Message(Message.CHAT,
+                        rs.getString("sender_name"), rs.getString("content"), rs.getString("receiver_name"))));
+            }
+            return records;
+        } finally {
+            JDBCUtils.close(conn, pstmt, rs);
+        }
+    }
+
+    /**
+     * 把记录交给溢出线程 (写线程调用，溢出队列满时等待，不丢弃记录)
+     */
+    private void spill(List<Pending> pending) {
+        for (Pending p : pending) {
+            try {
+                spillQueue.put(p);
+            } catch (InterruptedException e) {
+                // shutdown() 中断写线程时仍要保存记录，改为非阻塞放入
+                if (!spillQueue.offer(p)) {
+                    lost.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * 溢出线程：取出溢出队列中当前的全部记录，一次追加到溢出文件
+     */
+    private void runSpiller() {
+        List<Pending> chunk = new ArrayList<>();
+        while (spilling || !spillQueue.isEmpty()) {
+            try {
+                Pending first = spillQueue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                chunk.add(first);
+                spillQueue.drainTo(chunk);
+                writeSpill(chunk);
+            } catch (InterruptedException e) {
+                // 不会被中断；循环条件负责在关闭时排空剩余记录
+            } finally {
+                chunk.clear();
+            }
+        }
+    }
+
+    /**
+     * 追加记录到溢出文件，每行一条：序号 \t sender \t receiver \t content (字段中的 \ 制表符 换行 已转义)
+     * 序号为 "运行标识.序号"，有回调的记录把回调登记在 spillCallbacks 中
+     */
+    private void writeSpill(List<Pending> pending) {
+        synchronized (spillLock) {
+            try (BufferedWriter w = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (Pending p : pending) {
+                    long seq = ++spillSeq;
+                    if (p.onSaved != null && spillCallbacks.size() < MAX_SPILL_CALLBACKS) {
+                        spillCallbacks.put(seq, p.onSaved);
+                    }
+                    w.write(run + "." + seq);
+                    w.write('\t');
+                    w.write(escape(p.msg.getSender()));
+                    w.write('\t');
+                    w.write(escape(p.msg.getReceiver()));
+                    w.write('\t');
+                    w.write(escape(p.msg.getContent()));
+                    w.write('\n');
+                }
+                spilled.add(pending.size());
+                spillPending = true;
+            } catch (IOException e) {
+                lost.add(pending.size());
+                System.err.println("溢出文件写入失败，" + pending.size() + " 条聊天记录丢失: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 将溢出文件中的记录重新导入数据库，全部成功后删除文件 (仅由写线程调用)
+     * 每批提交后记录已导入的行数，失败后从该行继续
+     */
+    private void replaySpillFile() {
+        try {
+            synchronized (spillLock) {
+                if (Files.notExists(replayingFile)) {
+                    spillPending = false;
+                    if (Files.notExists(spillFile)) {
+                        return;
+                    }
+                    // 先改名，新的溢出记录会写入新文件
+                    Files.deleteIfExists(offsetFile);
+                    Files.move(spillFile, replayingFile, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            long done = readOffset();
+            long line = 0;
+            List<Message> batch = new ArrayList<>(batchSize);
+            List<Long> seqs = new ArrayList<>(batchSize);
+            try (BufferedReader r = Files.newBufferedReader(replayingFile, StandardCharsets.UTF_8)) {
+                String text;
+                while ((text = r.readLine()) != null) {
+                    if (++line <= done) {
+                        continue;
+                    }
+                    String[] f = text.split("\t", -1);
+                    // 旧版本的溢出文件每行只有三个字段，没有序号
+                    int base = f.length - 3;
+                    if (base != 0 && base != 1) {
+                        continue;
+                    }
+                    batch.add(new Message(Message.CHAT, unescape(f[base]), unescape(f[base + 2]), unescape(f[base + 1])));
+                    seqs.add(base == 1 ? spillSeq(f[0]) : null);
+                    if (batch.size() >= batchSize) {
+                        replayBatch(batch, seqs, line);
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                replayBatch(batch, seqs, line);
+            }
+            Files.delete(replayingFile);
+            Files.deleteIfExists(offsetFile);
+            System.out.println("溢出文件中的聊天记录已导入数据库");
+        } catch (Exception e) {
+            // 导入中途失败时保留 .replaying 文件与已导入的行数，下一次批量写入成功后从未导入的行继续
+            spillPending = true;
+            System.err.println("溢出文件导入失败，稍后重试: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 导入一批溢出记录并提交进度
+     *
+     * @param seqs 各记录在本次运行中的溢出序号，其他运行写入的记录为 null
+     * @param line 本批最后一行的行号
+     */
+    private void replayBatch(List<Message> batch, List<Long> seqs, long line) throws Exception {
+        long[] ids = insertBatch(batch);
+        writeOffset(line);
+        // 提交后才取出回调，导入失败的批次下次重试时仍能回调
+        for (int i = 0; i < seqs.size() && i < ids.length; i++) {
+            Long seq = seqs.get(i);
+            notifySaved(seq == null ? null : spillCallbacks.remove(seq), ids[i]);
+        }
+        replayed.add(batch.size());
+        batch.clear();
+        seqs.clear();
+    }
+
+    /**
+     * 解析行首的 "运行标识.序号"，不是本次运行写入的行返回 null
+     */
+    private Long spillSeq(String token) {
+        int dot = token.lastIndexOf('.');
+        if (dot < 0 || !run.equals(token.substring(0, dot))) {
+            return null;
+        }
+        try {
+            return Long.parseLong(token.substring(dot + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private long readOffset() throws IOException {
+        if (Files.notExists(offsetFile)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(Files.readString(offsetFile, StandardCharsets.UTF_8).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 先写临时文件再改名，进程在写入中途退出也不会留下损坏的进度
+     */
+    private void writeOffset(long line) throws IOException {
+        Path tmp = offsetFile.resolveSibling(offsetFile.getFileName() + ".tmp");
+        Files.writeString(tmp, Long.toString(line), StandardCharsets.UTF_8);
+        Files.move(tmp, offsetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String escape(String s) {
+        if (s == null) {
+            return "\\0";
+        }
+        return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String s) {
+        if ("\\0".equals(s)) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char n = s.charAt(++i);
+                sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // shutdown() 会中断写线程，提前结束退避等待
+        }
+    }
+
+    /**
+     * 停止接收新记录，等待写线程写出队列中的剩余记录后返回
+     */
+    @Override
+    public void shutdown() {
+        running = false;
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 写线程未能及时退出时，把剩余记录写入溢出文件
+        List<Pending> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        spill(rest);
+        // 溢出线程按 flushInterval 轮询，不中断它：文件通道被中断会关闭，正在写出的记录随之丢失
+        spilling = false;
+        try {
+            spiller.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 队列中等待写入的记录
+     */
+    private static class Pending {
+        final Message msg;
+        final LongConsumer onSaved;
+
+        Pending(Message msg, LongConsumer onSaved) {
+            this.msg = msg;
+            this.onSaved = onSaved;
+        }
+    }
+
+    @Override
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    @Override
+    public String toString() {
+        return "聊天记录 -> 待写入: " + queue.size()
+                + " 已写入: " + saved.sum()
+                + " 批次: " + batches.sum()
+                + " 失败: " + failures.sum()
+                + " 溢出: " + spilled.sum()
+                + " 已导入: " + replayed.sum()
+                + " 丢失: " + lost.sum();
+    }
+}
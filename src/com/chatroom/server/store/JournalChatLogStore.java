@@ -0,0 +1,458 @@
+package com.chatroom.server.store;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * 基于内存映射文件的追加式聊天记录存储
+ * <p>
+ * 聊天记录按顺序追加到目录下的段文件中 (见 JournalSegment)，每条记录分配一个单调递增的消息 ID。
+ * 当前段写满后滚动到以下一条消息 ID 命名的新段。追加只是一次内存拷贝，
+ * 由后台线程按 flushInterval 调用 force() 刷盘，进程崩溃时最多丢失这段时间内尚未被操作系统写出的记录。
+ * </p>
+ * <p>
+ * 每个段带有稀疏索引，可按消息 ID 或时间戳定位后顺序读取 ({@link #read(long, int)}、{@link #readSince(long, int)})。
+ * 启动时各段从最后一个索引项开始向后扫描并校验 CRC，截掉崩溃时写了一半的记录。
+ * </p>
+ * <p>
+ * 按会话翻页 ({@link #loadBefore}、{@link #loadPrivateBefore}) 与断线补发 ({@link #loadAfter}) 使用内存中的会话索引：
+ * 每个接收者、每对私聊用户各有一个升序的消息 ID 列表，启动时扫描一遍日志建立，之后随追加更新
+ * (每条记录约 8 到 16 字节)。查询只在读锁内二分查找 ID 列表，再经段的稀疏索引逐条读取命中的记录，
+ * 不必回退扫描整个日志，冷门房间或很少联系的私聊对象翻页的开销与其他会话的消息量无关；解码在锁外进行。
+ * </p>
+ * <p>
+ * 与 JdbcChatLogStore 不同，本存储不依赖数据库，save() 同步完成写入，无需队列与写线程。
+ * </p>
+ */
+public final class JournalChatLogStore implements ChatLogStore {
+    private final Path dir;
+    private final int segmentSize;
+
+    /** 段的起始消息 ID -> 段，受 lock 保护 */
+    private final TreeMap<Long, JournalSegment> segments = new TreeMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private JournalSegment active;
+    private long nextId;
+    private long lastTimestamp;
+    private volatile boolean running = true;
+
+    private final ScheduledExecutorService flusher;
+
+    private long appended;
+    private long rolled;
+    private long failures;
+
+    /** 接收者 ("ALL"、"#房间" 或昵称) -> 发给它的消息 ID，受 lock 保护 */
+    private final Map<String, IdList> byReceiver = new HashMap<>();
+    /** 私聊双方 (见 {@link #pairKey}) -> 两人之间的消息 ID，受 lock 保护 */
+    private final Map<String, IdList> byPair = new HashMap<>();
+
+    /**
+     * 构造方法：打开目录中已有的段并恢复写入位置，目录不存在时自动创建
+     *
+     * @param dir                 段文件所在目录
+     * @param segmentSize         单个段文件的大小 (字节)，至少能容纳两条最大长度的帧
+     * @param flushIntervalMillis 后台刷盘间隔
+     * @throws IOException 目录或段文件无法访问
+     */
+    public JournalChatLogStore(Path dir, int segmentSize, long flushIntervalMillis) throws IOException {
+        this.dir = dir;
+        this.segmentSize = Math.max(segmentSize, 2 * (MessageCodec.MAX_FRAME_LENGTH + 16 + JournalSegment.RECORD_HEADER));
+        Files.createDirectories(dir);
+
+        List<Long> baseIds = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(name -> name.matches("\\d{20}\\.log"))
+                    .forEach(name -> baseIds.add(Long.parseLong(name.substring(0, 20))));
+        }
+        baseIds.sort(null);
+        for (long baseId : baseIds) {
+            JournalSegment segment = JournalSegment.open(dir, baseId, this.segmentSize);
+            segments.put(baseId, segment);
+        }
+        if (segments.isEmpty()) {
+            active = JournalSegment.create(dir, 1, this.segmentSize);
+            segments.put(1L, active);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+        nextId = active.getLastId() + 1;
+        lastTimestamp = active.getLastTimestamp();
+        long indexed = buildIndex();
+        System.out.println("聊天记录日志已打开: " + dir.toAbsolutePath() + "，段数: " + segments.size()
+                + "，下一条消息 ID: " + nextId + "，已索引: " + indexed + " 条，会话: " + byReceiver.size());
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "journal-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::force, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 顺序读取全部记录，建立会话索引 (构造时调用)
+     *
+     * @return 已索引的记录数
+     */
+    private long buildIndex() {
+        long count = 0;
+        long from = 1;
+        while (from < nextId) {
+            List<JournalEntry> entries = read(from, 4096);
+            if (entries.isEmpty()) {
+                break;
+            }
+            for (JournalEntry entry : entries) {
+                try {
+                    index(entry.getId(), entry.getMessage());
+                    count++;
+                } catch (IOException e) {
+                    System.err.println("聊天记录 " + entry.getId() + " 无法解码，不加入索引: " + e.getMessage());
+                }
+            }
+            from = entries.get(entries.size() - 1).getId() + 1;
+        }
+        return count;
+    }
+
+    /**
+     * 把一条记录加入会话索引 (持有写锁或在构造时调用)
+     */
+    private void index(long id, Message msg) {
+        String receiver = msg.getReceiver() == null ? "ALL" : msg.getReceiver();
+        byReceiver.computeIfAbsent(receiver, k -> new IdList()).add(id);
+        if (!"ALL".equals(receiver) && !receiver.startsWith("#") && msg.getSender() != null) {
+            byPair.computeIfAbsent(pairKey(msg.getSender(), receiver), k -> new IdList()).add(id);
+        }
+    }
+
+    /**
+     * 私聊双方的索引键，与方向无关
+     */
+    private static String pairKey(String a, String b) {
+        return a.compareTo(b) <= 0 ? a + '\0' + b : b + '\0' + a;
+    }
+
+    @Override
+    public void save(Message msg, LongConsumer onSaved) {
+        try {
+            long id = append(msg);
+            if (onSaved != null) {
+                onSaved.accept(id);
+            }
+        } catch (IOException e) {
+            System.err.println("聊天记录写入日志失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 追加一条消息
+     *
+     * @param msg 聊天消息
+     * @return 分配给该消息的 ID
+     * @throws IOException 滚动新段失败，或存储已关闭
+     */
+    public long append(Message msg) throws IOException {
+        // 编码在锁外完成，锁内只有内存拷贝
+        byte[] payload = MessageCodec.encode(msg);
+        lock.writeLock().lock();
+        try {
+            if (!running) {
+                failures++;
+                throw new IOException("聊天记录日志已关闭");
+            }
+            long id = nextId;
+            // 时钟回拨时沿用上一条的时间戳，保证时间戳在日志中单调不减，可用于二分查找
+            long timestamp = Math.max(System.currentTimeMillis(), lastTimestamp);
+            if (!active.append(id, timestamp, payload)) {
+                roll(id);
+                active.append(id, timestamp, payload);
+            }
+            nextId = id + 1;
+            lastTimestamp = timestamp;
+            appended++;
+            index(id, msg);
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 当前段写满，刷盘后创建以 baseId 命名的新段 (持有写锁时调用)
+     */
+    private void roll(long baseId) throws IOException {
+        active.force();
+        try {
+            active = JournalSegment.create(dir, baseId, segmentSize);
+        } catch (IOException e) {
+            failures++;
+            throw e;
+        }
+        segments.put(baseId, active);
+        rolled++;
+    }
+
+    /**
+     * 按消息 ID 读取记录
+     *
+     * @param fromId 起始消息 ID (包含)
+     * @param max    最多读取的条数
+     * @return 按 ID 升序排列的记录
+     */
+    public List<JournalEntry> read(long fromId, int max) {
+        List<JournalEntry> out = new ArrayList<>(Math.min(max, 256));
+        lock.readLock().lock();
+        try {
+            Long start = segments.floorKey(fromId);
+            for (JournalSegment segment : segments.tailMap(start == null ? fromId : start, true).values()) {
+                if (out.size() >= max) {
+                    break;
+                }
+                segment.readFromId(fromId, max, out);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return out;
+    }
+
+    /**
+     * 按时间读取记录
+     *
+     * @param fromTimestamp 起始时间 (毫秒，包含)
+     * @param max           最多读取的条数
+     * @return 按 ID 升序排列的记录
+     */
+    public List<JournalEntry> readSince(long fromTimestamp, int max) {
+        List<JournalEntry> out = new ArrayList<>(Math.min(max, 256));
+        lock.readLock().lock();
+        try {
+            for (JournalSegment segment : segments.values()) {
+                if (out.size() >= max) {
+                    break;
+                }
+                // 时间戳单调不减，跳过最后一条记录早于起始时间的段
+                if (segment.getLastId() < segment.baseId || segment.getLastTimestamp() < fromTimestamp) {
+                    continue;
+                }
+                segment.readFromTimestamp(fromTimestamp, max, out);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return out;
+    }
+
+    @Override
+    public List<ChatLogRecord> loadBefore(String receiver, long beforeId, int limit) throws IOException {
+        return loadByIds(idsBefore(byReceiver, receiver, beforeId, limit));
+    }
+
+    @Override
+    public List<ChatLogRecord> loadPrivateBefore(String user, String peer, long beforeId, int limit) throws IOException {
+        return loadByIds(idsBefore(byPair, pairKey(user, peer), beforeId, limit));
+    }
+
+    private long[] idsBefore(Map<String, IdList> lists, String key, long beforeId, int limit) {
+        lock.readLock().lock();
+        try {
+            IdList list = lists.get(key);
+            return list == null ? new long[0] : list.before(beforeId, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<ChatLogRecord> loadAfter(Collection<String> receivers, long afterId, long beforeId, int limit)
+            throws IOException {
+        long[] ids = new long[0];
+        lock.readLock().lock();
+        try {
+            for (String receiver : receivers) {
+                IdList list = byReceiver.get(receiver);
+                if (list != null) {
+                    long[] range = list.between(afterId, beforeId, limit);
+                    int n = ids.length;
+                    ids = Arrays.copyOf(ids, n + range.length);
+                    System.arraycopy(range, 0, ids, n, range.length);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Arrays.sort(ids);
+        return loadByIds(ids.length > limit ? Arrays.copyOf(ids, limit) : ids);
+    }
+
+    /**
+     * 每个 ID 经段的稀疏索引定位后读取一条
+     */
+    @Override
+    public List<ChatLogRecord> loadByIds(long[] ids) throws IOException {
+        long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        List<ChatLogRecord> result = new ArrayList<>(sorted.length);
+        for (long id : sorted) {
+            List<JournalEntry> entries = read(id, 1);
+            if (!entries.isEmpty() && entries.get(0).getId() == id) {
+                result.add(new ChatLogRecord(id, entries.get(0).getMessage(), entries.get(0).getTimestamp()));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void scan(long afterId, long toId, Consumer<ChatLogRecord> consumer) throws IOException {
+        long from = Math.max(1, afterId + 1);
+        while (from <= toId) {
+            List<JournalEntry> entries = read(from, (int) Math.min(1024, toId - from + 1));
+            if (entries.isEmpty()) {
+                break;
+            }
+            for (JournalEntry entry : entries) {
+                if (entry.getId() <= toId) {
+                    consumer.accept(new ChatLogRecord(entry.getId(), entry.getMessage(), entry.getTimestamp()));
+                }
+            }
+            from = entries.get(entries.size() - 1).getId() + 1;
+        }
+    }
+
+    /**
+     * @return 最后一条记录的消息 ID，日志为空时为 0
+     */
+    @Override
+    public long getLastId() {
+        lock.readLock().lock();
+        try {
+            return nextId - 1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 将当前段刷入磁盘
+     */
+    private void force() {
+        JournalSegment segment;
+        lock.readLock().lock();
+        try {
+            segment = active;
+        } finally {
+            lock.readLock().unlock();
+        }
+        try {
+            segment.force();
+        } catch (UncheckedIOException e) {
+            System.err.println("聊天记录日志刷盘失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 停止写入并刷盘
+     */
+    @Override
+    public void shutdown() {
+        flusher.shutdown();
+        lock.writeLock().lock();
+        try {
+            if (!running) {
+                return;
+            }
+            running = false;
+            for (JournalSegment segment : segments.values()) {
+                segment.force();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.readLock().lock();
+        try {
+            return "聊天记录日志 -> 已追加: " + appended
+                    + " 最后 ID: " + (nextId - 1)
+                    + " 段数: " + segments.size()
+                    + " 滚动: " + rolled
+                    + " 当前段已用: " + active.getWritePosition() / 1024 + "KB"
+                    + " 失败: " + failures;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 升序的消息 ID 列表，只在末尾追加
+     */
+    private static final class IdList {
+        private long[] ids = new long[4];
+        private int size;
+
+        void add(long id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        /**
+         * @return 小于 beforeId 的最后 limit 个 ID
+         */
+        long[] before(long beforeId, int limit) {
+            int end = lowerBound(beforeId);
+            return Arrays.copyOfRange(ids, Math.max(0, end - limit), end);
+        }
+
+        /**
+         * @return 大于 afterId 且小于 beforeId 的前 limit 个 ID
+         */
+        long[] between(long afterId, long beforeId, int limit) {
+            int from = afterId == Long.MAX_VALUE ? size : lowerBound(afterId + 1);
+            int end = Math.max(from, Math.min(lowerBound(beforeId), from + limit));
+            return Arrays.copyOfRange(ids, from, end);
+        }
+
+        /**
+         * @return 第一个不小于 key 的位置
+         */
+        private int lowerBound(long key) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (ids[mid] < key) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+}
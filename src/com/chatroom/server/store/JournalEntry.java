@@ -0,0 +1,55 @@
+package com.chatroom.server.store;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 从消息日志中读出的一条记录
+ * <p>
+ * payload 为 MessageCodec 编码后的完整帧，可直接作为只读帧发送给客户端，无需重新编码。
+ * </p>
+ */
+public class JournalEntry {
+    private final long id;
+    private final long timestamp;
+    private final byte[] payload;
+
+    JournalEntry(long id, long timestamp, byte[] payload) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.payload = payload;
+    }
+
+    /**
+     * @return 日志分配的消息 ID，单调递增
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return 写入时间 (毫秒)
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return 编码后的帧，只读
+     */
+    public ByteBuffer getFrame() {
+        return ByteBuffer.wrap(payload).asReadOnlyBuffer();
+    }
+
+    /**
+     * 解码为消息对象
+     *
+     * @throws IOException 记录内容损坏
+     */
+    public Message getMessage() throws IOException {
+        return MessageCodec.decode(ByteBuffer.wrap(payload));
+    }
+}
@@ -0,0 +1,291 @@
+package com.chatroom.server.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * 消息日志的一个段文件
+ * <p>
+ * 每个段由一个固定大小的数据文件 (.log) 与一个稀疏索引文件 (.idx) 组成，两者都通过 MappedByteBuffer 读写。
+ * 文件名为该段第一条记录的消息 ID。
+ * </p>
+ * <p>
+ * 数据文件中的记录格式：
+ * <pre>
+ * [payload 长度 int][CRC32C int][消息 ID long][时间戳 long][payload]
+ * </pre>
+ * 长度为 0 表示后面没有数据 (映射文件未写入部分全部为 0)。
+ * 数据每写入 {@link #INDEX_INTERVAL} 字节，索引文件追加一项 [消息 ID long][时间戳 long][记录位置 int]。
+ * </p>
+ * <p>
+ * 本类不是线程安全的，由 JournalChatLogStore 负责加锁。
+ * </p>
+ */
+class JournalSegment {
+    /** 记录头长度 */
+    static final int RECORD_HEADER = 24;
+    /** 稀疏索引的间隔 (字节) */
+    static final int INDEX_INTERVAL = 4096;
+    /** 索引项长度 */
+    private static final int INDEX_ENTRY = 20;
+
+    final long baseId;
+    private final MappedByteBuffer log;
+    private final MappedByteBuffer index;
+
+    /** 下一条记录的写入位置，读者只读取该位置之前的数据 */
+    private int writePosition;
+    /** 本段最后一条记录的 ID，空段为 baseId - 1 */
+    private long lastId;
+    private long firstTimestamp = -1;
+    private long lastTimestamp;
+    private int lastIndexedPosition = -INDEX_INTERVAL;
+
+    /** 稀疏索引的内存副本，用于二分查找 */
+    private long[] indexIds = new long[64];
+    private long[] indexTimestamps = new long[64];
+    private int[] indexPositions = new int[64];
+    private int indexCount;
+
+    private final CRC32C crc = new CRC32C();
+
+    private JournalSegment(Path dir, long baseId, int segmentSize) throws IOException {
+        this.baseId = baseId;
+        this.lastId = baseId - 1;
+        int indexSize = (segmentSize / INDEX_INTERVAL + 2) * INDEX_ENTRY;
+        this.log = map(dir.resolve(String.format("%020d.log", baseId)), segmentSize);
+        this.index = map(dir.resolve(String.format("%020d.idx", baseId)), indexSize);
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // 映射在通道关闭后依然有效
+            return ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * 创建一个新的空段
+     */
+    static JournalSegment create(Path dir, long baseId, int segmentSize) throws IOException {
+        return new JournalSegment(dir, baseId, segmentSize);
+    }
+
+    /**
+     * 打开已有的段并恢复写入位置
+     * <p>
+     * 先加载索引中指向有效记录的项，再从最后一个索引项开始向后扫描，
+     * 遇到长度为 0、越界或 CRC 不匹配的记录即认为到达末尾 (崩溃时写了一半的记录)，
+     * 并将末尾之后的数据清零，保证后续追加与扫描的一致性。
+     * </p>
+     */
+    static JournalSegment open(Path dir, long baseId, int segmentSize) throws IOException {
+        JournalSegment segment = new JournalSegment(dir, baseId, segmentSize);
+        segment.recover();
+        return segment;
+    }
+
+    private void recover() {
+        // 1. 加载有效的索引项
+        int limit = index.capacity() - INDEX_ENTRY;
+        for (int pos = 0; pos <= limit; pos += INDEX_ENTRY) {
+            long id = index.getLong(pos);
+            long ts = index.getLong(pos + 8);
+            int recordPos = index.getInt(pos + 16);
+            if (id == 0 || recordPos < 0 || recordPos > log.capacity() - RECORD_HEADER
+                    || !validRecord(recordPos) || log.getLong(recordPos + 8) != id) {
+                break;
+            }
+            addIndexEntry(id, ts, recordPos);
+        }
+
+        // 2. 从最后一个索引项开始扫描到数据末尾
+        int pos = indexCount == 0 ? 0 : indexPositions[indexCount - 1];
+        while (validRecord(pos)) {
+            int length = log.getInt(pos);
+            lastId = log.getLong(pos + 8);
+            lastTimestamp = log.getLong(pos + 16);
+            pos += RECORD_HEADER + length;
+        }
+        writePosition = pos;
+        if (indexCount > 0) {
+            firstTimestamp = indexTimestamps[0];
+            lastIndexedPosition = indexPositions[indexCount - 1];
+        }
+
+        // 3. 清理末尾残留的数据与索引
+        for (int i = pos; i < log.capacity() && i < pos + RECORD_HEADER; i++) {
+            if (log.get(i) != 0) {
+                zero(log, pos, log.capacity());
+                break;
+            }
+        }
+        zero(index, indexCount * INDEX_ENTRY, index.capacity());
+    }
+
+    private static void zero(ByteBuffer buf, int from, int to) {
+        byte[] zeros = new byte[8192];
+        ByteBuffer dup = buf.duplicate();
+        dup.position(from);
+        while (dup.position() < to) {
+            dup.put(zeros, 0, Math.min(zeros.length, to - dup.position()));
+        }
+    }
+
+    /**
+     * 检查指定位置是否是一条完整且校验通过的记录
+     */
+    private boolean validRecord(int pos) {
+        if (pos < 0 || pos > log.capacity() - RECORD_HEADER) {
+            return false;
+        }
+        int length = log.getInt(pos);
+        if (length <= 0 || length > log.capacity() - pos - RECORD_HEADER) {
+            return false;
+        }
+        crc.reset();
+        ByteBuffer body = log.duplicate();
+        body.limit(pos + RECORD_HEADER + length).position(pos + 8);
+        crc.update(body);
+        return (int) crc.getValue() == log.getInt(pos + 4);
+    }
+
+    /**
+     * 追加一条记录
+     *
+     * @return 本段剩余空间不足时返回 false，调用者应滚动到新段
+     */
+    boolean append(long id, long timestamp, byte[] payload) {
+        int pos = writePosition;
+        if (pos + RECORD_HEADER + payload.length > log.capacity()) {
+            return false;
+        }
+        log.putLong(pos + 8, id);
+        log.putLong(pos + 16, timestamp);
+        log.put(pos + RECORD_HEADER, payload);
+        crc.reset();
+        ByteBuffer body = log.duplicate();
+        body.limit(pos + RECORD_HEADER + payload.length).position(pos + 8);
+        crc.update(body);
+        log.putInt(pos + 4, (int) crc.getValue());
+        // 最后写入长度，长度非 0 即表示记录完整
+        log.putInt(pos, payload.length);
+
+        if (pos - lastIndexedPosition >= INDEX_INTERVAL) {
+            index.putLong(indexCount * INDEX_ENTRY, id);
+            index.putLong(indexCount * INDEX_ENTRY + 8, timestamp);
+            index.putInt(indexCount * INDEX_ENTRY + 16, pos);
+            addIndexEntry(id, timestamp, pos);
+            lastIndexedPosition = pos;
+        }
+        if (firstTimestamp < 0) {
+            firstTimestamp = timestamp;
+        }
+        lastId = id;
+        lastTimestamp = timestamp;
+        writePosition = pos + RECORD_HEADER + payload.length;
+        return true;
+    }
+
+    private void addIndexEntry(long id, long ts, int pos) {
+        if (indexCount == indexIds.length) {
+            indexIds = Arrays.copyOf(indexIds, indexCount * 2);
+            indexTimestamps = Arrays.copyOf(indexTimestamps, indexCount * 2);
+            indexPositions = Arrays.copyOf(indexPositions, indexCount * 2);
+        }
+        indexIds[indexCount] = id;
+        indexTimestamps[indexCount] = ts;
+        indexPositions[indexCount] = pos;
+        indexCount++;
+    }
+
+    /**
+     * 读取 ID 不小于 fromId 的记录
+     *
+     * @param fromId 起始消息 ID
+     * @param max    最多读取的条数 (含 out 中已有的条数)
+     * @param out    结果列表
+     */
+    void readFromId(long fromId, int max, List<JournalEntry> out) {
+        int i = floor(indexIds, fromId);
+        scan(i < 0 ? 0 : indexPositions[i], fromId, Long.MIN_VALUE, max, out);
+    }
+
+    /**
+     * 读取时间戳不小于 fromTimestamp 的记录
+     */
+    void readFromTimestamp(long fromTimestamp, int max, List<JournalEntry> out) {
+        int i = floor(indexTimestamps, fromTimestamp);
+        // 时间戳可能相同，向前退到第一个不大于目标值的索引项之前，确保不漏读
+        while (i > 0 && indexTimestamps[i] >= fromTimestamp) {
+            i--;
+        }
+        scan(i < 0 ? 0 : indexPositions[i], Long.MIN_VALUE, fromTimestamp, max, out);
+    }
+
+    private void scan(int pos, long fromId, long fromTimestamp, int max, List<JournalEntry> out) {
+        ByteBuffer buf = log.duplicate();
+        while (pos < writePosition && out.size() < max) {
+            int length = buf.getInt(pos);
+            long id = buf.getLong(pos + 8);
+            long ts = buf.getLong(pos + 16);
+            if (id >= fromId && ts >= fromTimestamp) {
+                byte[] payload = new byte[length];
+                buf.get(pos + RECORD_HEADER, payload);
+                out.add(new JournalEntry(id, ts, payload));
+            }
+            pos += RECORD_HEADER + length;
+        }
+    }
+
+    /**
+     * 在有序数组的前 indexCount 项中查找不大于 key 的最后一项
+     */
+    private int floor(long[] keys, long key) {
+        int lo = 0;
+        int hi = indexCount - 1;
+        int result = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] <= key) {
+                result = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    long getLastId() {
+        return lastId;
+    }
+
+    long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    int getWritePosition() {
+        return writePosition;
+    }
+
+    /**
+     * 将映射内存中的修改刷入磁盘
+     */
+    void force() {
+        log.force();
+        index.force();
+    }
+}
@@ -0,0 +1,129 @@
+package com.chatroom.tools;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 延迟直方图 (单位由调用者决定，压测工具中为微秒)
+ * <p>
+ * 采用与 HdrHistogram 相同的对数-线性分桶：小于 2048 的值每个整数一个桶；
+ * 更大的值按二进制数量级分段，每段再线性分为 1024 个桶，因此任意值的相对误差都不超过 0.1%，
+ * 而覆盖 0 ~ 2^42 只需要约 3.3 万个计数器。
+ * </p>
+ * <p>
+ * 计数器是 AtomicLongArray，多个接收线程可以同时记录而无需加锁；
+ * 读取分位数时只是遍历一次计数器，与记录的样本数无关。
+ * </p>
+ */
+public class LatencyHistogram {
+    /** 每个数量级内的线性桶数 = 2^SUB_BUCKET_BITS，第一段为其两倍 */
+    private static final int SUB_BUCKET_BITS = 10;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** 可记录的最大值，超出时按最大值记录 */
+    private static final long MAX_VALUE = (1L << 42) - 1;
+    private static final int BUCKETS = indexOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts;
+
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+    }
+
+    private LatencyHistogram(AtomicLongArray counts) {
+        this.counts = counts;
+    }
+
+    /**
+     * 记录一个样本
+     *
+     * @param value 样本值，负数按 0 记录
+     */
+    public void record(long value) {
+        counts.incrementAndGet(indexOf(Math.max(0, Math.min(value, MAX_VALUE))));
+    }
+
+    /**
+     * @return 当前计数的副本，之后的记录不影响副本
+     */
+    public LatencyHistogram copy() {
+        long[] values = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            values[i] = counts.get(i);
+        }
+        return new LatencyHistogram(new AtomicLongArray(values));
+    }
+
+    /**
+     * 计算本直方图相对于较早副本新增的样本 (用于按时间段输出)
+     *
+     * @param earlier 较早时刻的副本
+     * @return 两者之差
+     */
+    public LatencyHistogram since(LatencyHistogram earlier) {
+        long[] values = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            values[i] = counts.get(i) - earlier.counts.get(i);
+        }
+        return new LatencyHistogram(new AtomicLongArray(values));
+    }
+
+    /**
+     * @return 样本总数
+     */
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @param quantile 分位点，0 ~ 1
+     * @return 该分位点的值 (所在桶的上界)，没有样本时为 0
+     */
+    public long percentile(double quantile) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * quantile));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return upperBound(i);
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    /**
+     * @return 最大样本所在桶的上界，没有样本时为 0
+     */
+    public long max() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return upperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    private static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        // 右移 shift 位后落在 [SUB_BUCKETS, 2 * SUB_BUCKETS) 内
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    private static long upperBound(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+        long sub = (index - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,383 @@
+package com.chatroom.tools;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 无界面的压测客户端
+ * <p>
+ * 使用与 LoginFrame / ChatFrame 相同的协议 (MessageCodec 帧，账号|密码 登录，账号|密码|昵称 注册)，
+ * 对一个已经运行的 ChatServer 建立大量模拟会话：账号 load0..loadN 登录失败时先注册再登录，
+ * 全部登录后其中 senders 个会话以固定速率发送群聊消息，所有会话都接收并统计。
+ * </p>
+ * <p>
+ * 消息内容携带本轮的随机 ID 与计划发送时刻 (纳秒)。延迟从计划发送时刻算起，
+ * 发送端落后于计划时，排队的时间同样计入延迟，不会因为发送变慢而低估尾延迟 (coordinated omission)。
+ * 登录后回放的历史消息以及其他客户端的消息 ID 不同，不参与统计。
+ * </p>
+ * <p>
+ * 用法：java com.chatroom.tools.LoadGenerator [参数=值 ...]
+ * <ul>
+ *     <li>host / port：服务器地址，默认 127.0.0.1:8888</li>
+ *     <li>clients：模拟会话数，默认 1000</li>
+ *     <li>senders：其中发送消息的会话数，默认 50</li>
+ *     <li>rate：每个发送者每秒发送的消息数，默认 2</li>
+ *     <li>size：消息内容的最小长度 (字符)，默认 64</li>
+ *     <li>warmup / duration：预热与统计时长 (秒)，默认 5 / 30</li>
+ *     <li>handshakes：同时进行登录握手的会话数上限，默认 200</li>
+ * </ul>
+ * 例如：java com.chatroom.tools.LoadGenerator clients=5000 senders=200 rate=5 duration=60
+ * </p>
+ * <p>
+ * 每秒输出一行发送量、接收量与该秒的延迟分位数，结束时输出汇总：吞吐量、送达率、
+ * p50/p99/p999/max 延迟 (毫秒) 以及连接、登录、发送失败、中途断开与被服务器限流 (THROTTLED) 的次数。
+ * 登录与注册被限流时按服务器建议的等待时间重试；所有会话来自同一 IP，压测时通常需要调高服务器的 chatroom.limit.ip.* 限额。
+ * 发送端与接收端在同一个进程内，延迟直接比较 System.nanoTime()。
+ * </p>
+ */
+public class LoadGenerator {
+    /** 压测账号的密码 */
+    private static final String PASSWORD = "load";
+    /** 一轮压测结束后等待在途消息送达的时间 */
+    private static final long DRAIN_MILLIS = 3000;
+
+    private final String host;
+    private final int port;
+    private final int clients;
+    private final int senders;
+    private final double rate;
+    private final int size;
+    private final int warmupSeconds;
+    private final int durationSeconds;
+    private final int handshakes;
+
+    /** 本轮的消息前缀，区分其他客户端的消息与登录回放的历史消息 */
+    private final String probePrefix = "load:" + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ":";
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    /** 计划发送时刻落在统计窗口内的消息数 */
+    private final LongAdder sentInWindow = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final LongAdder loginFailures = new LongAdder();
+    private final LongAdder sendFailures = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+
+    /** 统计窗口 [recordFrom, recordUntil)：只统计计划发送时刻落在窗口内的消息，预热阶段的消息不计入 */
+    private volatile long recordFrom = Long.MAX_VALUE;
+    private volatile long recordUntil = Long.MAX_VALUE;
+    private volatile boolean stopping;
+
+    public LoadGenerator(Map<String, String> options) {
+        this.host = options.getOrDefault("host", "127.0.0.1");
+        this.port = Integer.parseInt(options.getOrDefault("port", "8888"));
+        this.clients = Integer.parseInt(options.getOrDefault("clients", "1000"));
+        this.senders = Math.min(clients, Integer.parseInt(options.getOrDefault("senders", "50")));
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "2"));
+        this.size = Integer.parseInt(options.getOrDefault("size", "64"));
+        this.warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        this.durationSeconds = Integer.parseInt(options.getOrDefault("duration", "30"));
+        this.handshakes = Integer.parseInt(options.getOrDefault("handshakes", "200"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                System.err.println("参数格式应为 名称=值: " + arg);
+                return;
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        new LoadGenerator(options).run();
+    }
+
+    /**
+     * 运行一轮压测并输出结果
+     */
+    public void run() throws Exception {
+        try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            // 1. 建立连接并登录，限制同时握手的数量
+            long loginStart = System.nanoTime();
+            Semaphore permits = new Semaphore(handshakes);
+            List<Future<Session>> logins = new ArrayList<>(clients);
+            for (int i = 0; i < clients; i++) {
+                String username = "load" + i;
+                permits.acquire();
+                logins.add(threads.submit(() -> {
+                    try {
+                        return connect(username);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            List<Session> sessions = new ArrayList<>(clients);
+            for (Future<Session> login : logins) {
+                Session session = login.get();
+                if (session != null) {
+                    sessions.add(session);
+                    threads.submit(() -> receive(session));
+                }
+            }
+            double loginSeconds = (System.nanoTime() - loginStart) / 1e9;
+            System.out.printf("已登录 %d/%d 个会话，用时 %.1f 秒 (连接失败 %d，登录失败 %d)%n",
+                    sessions.size(), clients, loginSeconds, connectFailures.sum(), loginFailures.sum());
+            if (sessions.isEmpty()) {
+                return;
+            }
+
+            // 2. 启动发送者，预热后开始记录
+            int senderCount = Math.min(senders, sessions.size());
+            long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            long start = System.nanoTime();
+            long end = start + TimeUnit.SECONDS.toNanos(warmupSeconds + durationSeconds);
+            for (int i = 0; i < senderCount; i++) {
+                Session session = sessions.get(i);
+                // 各发送者的起始时刻错开，避免每个周期开始时集中发送
+                long first = start + ThreadLocalRandom.current().nextLong(Math.max(1, intervalNanos));
+                threads.submit(() -> send(session, first, intervalNanos, end));
+            }
+
+            long recordStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+            recordUntil = end;
+            recordFrom = recordStart;
+            sleepUntil(recordStart);
+            System.out.printf("%6s %10s %12s %10s %10s %10s%n", "秒", "发送/s", "接收/s", "p50(ms)", "p99(ms)", "p999(ms)");
+            LatencyHistogram last = latency.copy();
+            long lastSent = sent.sum();
+            long lastReceived = received.sum();
+            for (int second = 1; second <= durationSeconds; second++) {
+                sleepUntil(recordStart + TimeUnit.SECONDS.toNanos(second));
+                LatencyHistogram now = latency.copy();
+                LatencyHistogram interval = now.since(last);
+                long s = sent.sum();
+                long r = received.sum();
+                System.out.printf("%6d %10d %12d %10.2f %10.2f %10.2f%n", second, s - lastSent, r - lastReceived,
+                        millis(interval.percentile(0.50)), millis(interval.percentile(0.99)),
+                        millis(interval.percentile(0.999)));
+                last = now;
+                lastSent = s;
+                lastReceived = r;
+            }
+
+            // 3. 等待在途消息送达后汇总
+            Thread.sleep(DRAIN_MILLIS);
+            stopping = true;
+            report(sessions.size(), sentInWindow.sum());
+
+            for (Session session : sessions) {
+                session.close();
+            }
+            threads.shutdownNow();
+        }
+    }
+
+    private void report(int online, long sentInWindow) {
+        long delivered = latency.count();
+        long expected = sentInWindow * (online - 1);
+        System.out.println("================ 汇总 ================");
+        System.out.printf("会话: %d  发送者: %d  速率: %.1f 条/秒/发送者  统计时长: %d 秒%n",
+                online, Math.min(senders, online), rate, durationSeconds);
+        System.out.printf("发送: %d 条 (%.1f 条/秒)  接收: %d 条 (%.1f 条/秒)  送达率: %.2f%%%n",
+                sentInWindow, (double) sentInWindow / durationSeconds,
+                delivered, (double) delivered / durationSeconds,
+                expected == 0 ? 0 : 100.0 * delivered / expected);
+        System.out.printf("延迟 (ms): p50 %.2f  p90 %.2f  p99 %.2f  p999 %.2f  max %.2f%n",
+                millis(latency.percentile(0.50)), millis(latency.percentile(0.90)),
+                millis(latency.percentile(0.99)), millis(latency.percentile(0.999)), millis(latency.max()));
+        System.out.printf("失败: 连接 %d  登录 %d  发送 %d  中途断开 %d  限流 %d%n",
+                connectFailures.sum(), loginFailures.sum(), sendFailures.sum(), disconnects.sum(), throttled.sum());
+    }
+
+    /**
+     * 建立连接并登录，账号不存在时先在同一连接上注册
+     *
+     * @return 登录成功的会话，失败时为 null
+     */
+    private Session connect(String username) {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), 10_000);
+            socket.setTcpNoDelay(true);
+        } catch (IOException e) {
+            connectFailures.increment();
+            closeQuietly(socket);
+            return null;
+        }
+        try {
+            Session session = new Session(socket);
+            Message login = new Message(Message.LOGIN, null, username + "|" + PASSWORD, null);
+            Message response = request(session, login);
+            if (!Message.LOGIN_SUCCESS.equals(response.getType())) {
+                request(session, new Message(Message.REGISTER, null, username + "|" + PASSWORD + "|" + username, null));
+                response = request(session, login);
+            }
+            if (Message.LOGIN_SUCCESS.equals(response.getType())) {
+                return session;
+            }
+            loginFailures.increment();
+        } catch (IOException e) {
+            loginFailures.increment();
+        }
+        closeQuietly(socket);
+        return null;
+    }
+
+    /**
+     * 发送登录或注册请求，被服务器限流时按建议的等待时间重试
+     */
+    private Message request(Session session, Message msg) throws IOException {
+        while (true) {
+            Message response = session.request(msg);
+            if (!Message.THROTTLED.equals(response.getType()) || stopping) {
+                return response;
+            }
+            throttled.increment();
+            sleepUntil(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Long.parseLong(response.getContent())));
+        }
+    }
+
+    /**
+     * 发送者循环：按计划时刻发送，落后时立即补发
+     */
+    private void send(Session session, long first, long intervalNanos, long end) {
+        StringBuilder padding = new StringBuilder();
+        while (padding.length() < size) {
+            padding.append('x');
+        }
+        long intended = first;
+        while (intended < end && !stopping) {
+            sleepUntil(intended);
+            try {
+                session.write(new Message(Message.CHAT, session.nickname, probePrefix + intended + ":" + padding, null));
+                sent.increment();
+                if (intended >= recordFrom && intended < recordUntil) {
+                    sentInWindow.increment();
+                }
+            } catch (IOException e) {
+                sendFailures.increment();
+                return;
+            }
+            intended += intervalNanos;
+        }
+    }
+
+    /**
+     * 接收端循环：解析本轮消息中的计划发送时刻并记录延迟 (微秒)
+     */
+    private void receive(Session session) {
+        try {
+            while (true) {
+                Message msg = MessageCodec.read(session.in);
+                String content = msg.getContent();
+                if (Message.PING.equals(msg.getType())) {
+                    session.write(new Message(Message.PONG, null, null, null));
+                } else if (Message.THROTTLED.equals(msg.getType())) {
+                    // 服务器丢弃了发送过快的消息，同一等待时间内只提示一次
+                    throttled.increment();
+                } else if (Message.CHAT.equals(msg.getType()) && content != null && content.startsWith(probePrefix)) {
+                    long now = System.nanoTime();
+                    received.increment();
+                    int colon = content.indexOf(':', probePrefix.length());
+                    long intended = Long.parseLong(content.substring(probePrefix.length(), colon));
+                    if (intended >= recordFrom && intended < recordUntil) {
+                        latency.record((now - intended) / 1000);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!stopping) {
+                disconnects.increment();
+            }
+        }
+    }
+
+    private static void sleepUntil(long deadline) {
+        long wait;
+        while ((wait = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // 忽略
+        }
+    }
+
+    /**
+     * 一个模拟会话
+     * 登录完成前由登录线程同步收发；登录后读取交给接收线程，写入由发送线程与回复心跳的接收线程进行。
+     */
+    private static class Session {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private String nickname;
+
+        Session(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        /**
+         * 发送请求并等待响应 (仅在登录阶段使用)
+         */
+        Message request(Message msg) throws IOException {
+            MessageCodec.write(out, msg);
+            Message response = MessageCodec.read(in);
+            if (Message.LOGIN_SUCCESS.equals(response.getType())) {
+                // 响应内容格式约定为："欢迎回来，[昵称]"
+                nickname = response.getContent().split("，")[1];
+            }
+            return response;
+        }
+
+        void write(Message msg) throws IOException {
+            // 发送线程与回复心跳的接收线程都会写入；虚拟线程上使用 ReentrantLock 而不是 synchronized
+            writeLock.lock();
+            try {
+                MessageCodec.write(out, msg);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        void close() {
+            closeQuietly(socket);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.chatroom.tools;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 服务器运行模式对比工具
+ * <p>
+ * 依次以不同模式 (默认 thread 与 virtual) 启动独立的服务器进程，
+ * 分别在 1k、10k、50k 个在线客户端下统计服务器进程的线程数、常驻内存 (RSS) 以及广播延迟的 p50/p99。
+ * 测试账号 bench0..benchN 会在首次运行时自动注册，因此需要可用的数据库。
+ * </p>
+ * <p>
+ * 用法：java com.chatroom.tools.ModeComparison [模式列表] [客户端数量列表] [广播次数]
+ * 例如：java com.chatroom.tools.ModeComparison thread,virtual 1000,10000,50000 100
+ * </p>
+ * <p>
+ * 线程数与 RSS 读取自 /proc/[pid]/status，仅支持 Linux。
+ * 50k 连接需要足够的文件描述符 (ulimit -n) 与本地端口范围。
+ * </p>
+ */
+public class ModeComparison {
+    /** 测试服务器使用的端口，避免与正在运行的服务器冲突 */
+    private static final int PORT = 18888;
+    /** 广播消息内容前缀，后接发送时刻 (纳秒) */
+    private static final String PROBE_PREFIX = "probe:";
+    /** 延迟直方图的桶宽度 (微秒) 与桶数量，覆盖 0 ~ 10 秒 */
+    private static final int BUCKET_MICROS = 10;
+    private static final int BUCKETS = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        String[] modes = (args.length > 0 ? args[0] : "thread,virtual").split(",");
+        String[] counts = (args.length > 1 ? args[1] : "1000,10000,50000").split(",");
+        int broadcasts = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+        System.out.printf("%-8s %8s %8s %10s %10s %10s %12s%n",
+                "mode", "clients", "threads", "rss(MB)", "p50(ms)", "p99(ms)", "delivered");
+        for (String mode : modes) {
+            for (String count : counts) {
+                run(mode.trim(), Integer.parseInt(count.trim()), broadcasts);
+            }
+        }
+    }
+
+    /**
+     * 在指定模式与客户端数量下运行一轮测试
+     */
+    private static void run(String mode, int clients, int broadcasts) throws Exception {
+        Process server = startServer(mode);
+        List<Socket> sockets = new ArrayList<>();
+        AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+        AtomicLong delivered = new AtomicLong();
+
+        try (ExecutorService readers = Executors.newVirtualThreadPerTaskExecutor()) {
+            // 1. 建立并登录所有接收端，限制同时握手的数量
+            Semaphore handshakes = new Semaphore(500);
+            List<Future<Socket>> logins = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                String username = "bench" + i;
+                handshakes.acquire();
+                logins.add(readers.submit(() -> {
+                    try {
+                        return login(username);
+                    } finally {
+                        handshakes.release();
+                    }
+                }));
+            }
+            for (Future<Socket> login : logins) {
+                Socket socket = login.get();
+                sockets.add(socket);
+                readers.submit(() -> receive(socket, histogram, delivered));
+            }
+
+            // 2. 在稳定状态下采样服务器进程的线程数与内存
+            Thread.sleep(2000);
+            long[] status = readProcStatus(server.pid());
+
+            // 3. 由额外的发送端发起广播，接收端记录发送到接收的延迟
+            Socket sender = login("bench_sender");
+            OutputStream out = new BufferedOutputStream(sender.getOutputStream());
+            for (int i = 0; i < broadcasts; i++) {
+                MessageCodec.write(out, new Message(Message.CHAT, "bench_sender", PROBE_PREFIX + System.nanoTime(), null));
+                Thread.sleep(50);
+            }
+
+            // 4. 等待所有消息送达或超时
+            long expected = (long) clients * broadcasts;
+            long deadline = System.currentTimeMillis() + 60_000;
+            while (delivered.get() < expected && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+
+            System.out.printf("%-8s %8d %8d %10.1f %10.2f %10.2f %12s%n",
+                    mode, clients, status[0], status[1] / 1024.0,
+                    percentile(histogram, 0.50), percentile(histogram, 0.99),
+                    delivered.get() + "/" + expected);
+
+            sender.close();
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            readers.shutdownNow();
+        } finally {
+            server.destroy();
+            server.waitFor(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 以指定模式启动一个独立的服务器进程，并等待端口可用
+     */
+    private static Process startServer(String mode) throws Exception {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java,
+                "-cp", System.getProperty("java.class.path"),
+                "-Dchatroom.server.port=" + PORT,
+                // 对比的是连接模式，数万次登录不必付出真实的密码哈希代价
+                "-Dchatroom.auth.iterations=1000",
+                "com.chatroom.server.ChatServer", mode)
+                .redirectOutput(new File(System.getProperty("java.io.tmpdir"), "chatroom-bench-" + mode + ".log"))
+                .redirectErrorStream(true)
+                .start();
+        for (int i = 0; i < 100; i++) {
+            try {
+                // 能连上即说明服务器已开始监听，探测连接随即关闭
+                new Socket("127.0.0.1", PORT).close();
+                return process;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        process.destroy();
+        throw new IllegalStateException("服务器启动超时: " + mode);
+    }
+
+    /**
+     * 建立连接并登录，账号不存在时先注册
+     */
+    private static Socket login(String username) throws IOException {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Socket socket = new Socket("127.0.0.1", PORT);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            MessageCodec.write(out, new Message(Message.LOGIN, null, username + "|bench", null));
+            if (Message.LOGIN_SUCCESS.equals(MessageCodec.read(in).getType())) {
+                return socket;
+            }
+            socket.close();
+            register(username);
+        }
+        throw new IOException("登录失败: " + username);
+    }
+
+    private static void register(String username) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", PORT)) {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            MessageCodec.write(out, new Message(Message.REGISTER, null, username + "|bench|" + username, null));
+            MessageCodec.read(in);
+        }
+    }
+
+    /**
+     * 接收端循环：解析广播中携带的发送时刻并记录延迟
+     */
+    private static void receive(Socket socket, AtomicLongArray histogram, AtomicLong delivered) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            while (true) {
+                Message msg = MessageCodec.read(in);
+                String content = msg.getContent();
+                if (content != null && content.startsWith(PROBE_PREFIX)) {
+                    long micros = (System.nanoTime() - Long.parseLong(content.substring(PROBE_PREFIX.length()))) / 1000;
+                    histogram.incrementAndGet((int) Math.min(micros / BUCKET_MICROS, BUCKETS - 1));
+                    delivered.incrementAndGet();
+                }
+            }
+        } catch (IOException e) {
+            // 测试结束时连接被关闭
+        }
+    }
+
+    /**
+     * 根据直方图计算分位数
+     *
+     * @return 分位数对应的延迟 (毫秒)
+     */
+    private static double percentile(AtomicLongArray histogram, double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += histogram.get(i);
+        }
+        long target = (long) Math.ceil(total * quantile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram.get(i);
+            if (seen >= target && seen > 0) {
+                return (i + 1) * BUCKET_MICROS / 1000.0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 读取进程的线程数与常驻内存
+     *
+     * @return {线程数, VmRSS(KB)}，读取失败时为 -1
+     */
+    private static long[] readProcStatus(long pid) {
+        long[] result = {-1, -1};
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc", String.valueOf(pid), "status"))) {
+                if (line.startsWith("Threads:")) {
+                    result[0] = Long.parseLong(line.substring(8).trim());
+                } else if (line.startsWith("VmRSS:")) {
+                    result[1] = Long.parseLong(line.substring(6).replace("kB", "").trim());
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("无法读取进程状态: " + e.getMessage());
+        }
+        return result;
+    }
+}
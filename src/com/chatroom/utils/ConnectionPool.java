@@ -0,0 +1,529 @@
+package com.chatroom.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 数据库连接池
+ * <p>
+ * 维护一组可复用的物理连接，避免每次数据库操作都重新进行 TCP 连接与 MySQL 认证握手。
+ * 借出的是物理连接的代理对象：调用 close() 时连接被归还到池中而不是真正关闭；
+ * 通过 prepareStatement(String) 创建的语句会按 SQL 缓存在所属的物理连接上，close() 时同样只归还到缓存。
+ * </p>
+ * <p>
+ * 主要特性：
+ * <ul>
+ *     <li>有界：同时借出的连接数不超过 maxSize，池满时最多等待 borrowTimeout，超时抛出 SQLTimeoutException。</li>
+ *     <li>借出校验：空闲超过 validationInterval 的连接在借出前调用 isValid() 校验，失效则丢弃重建。</li>
+ *     <li>空闲回收与最大寿命：后台线程定期关闭空闲过久的连接，超过最大寿命的连接在归还或借出时关闭。</li>
+ * </ul>
+ * </p>
+ */
+public class ConnectionPool {
+    private final String url;
+    private final String user;
+    private final String password;
+
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long validationIntervalMillis;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final int statementCacheSize;
+
+    /** 空闲连接，后归还的连接先借出，使不常用的连接自然空闲并被回收 */
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    /** 借出许可，数量即连接池容量 */
+    private final Semaphore permits;
+    private final ScheduledExecutorService evictor;
+
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder retired = new LongAdder();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+    private volatile long maxWaitNanos;
+    private volatile boolean shutdown;
+
+    /**
+     * 构造方法
+     *
+     * @param url                      JDBC URL
+     * @param user                     数据库用户名
+     * @param password                 数据库密码
+     * @param maxSize                  最大连接数
+     * @param borrowTimeoutMillis      借出连接的最长等待时间
+     * @param validationIntervalMillis 空闲超过该时长的连接在借出前需要校验
+     * @param idleTimeoutMillis        空闲超过该时长的连接会被关闭
+     * @param maxLifetimeMillis        连接的最大寿命
+     * @param statementCacheSize       每个连接缓存的 PreparedStatement 数量，0 表示不缓存
+     */
+    public ConnectionPool(String url, String user, String password, int maxSize, long borrowTimeoutMillis,
+                          long validationIntervalMillis, long idleTimeoutMillis, long maxLifetimeMillis,
+                          int statementCacheSize) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "jdbc-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(idleTimeoutMillis, maxLifetimeMillis) / 2);
+        evictor.scheduleWithFixedDelay(this::evict, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 借出一个连接
+     *
+     * @return 连接代理，使用完毕后必须调用 close() 归还
+     * @throws SQLException 等待超时或创建连接失败
+     */
+    public Connection getConnection() throws SQLException {
+        if (shutdown) {
+            throw new SQLException("连接池已关闭");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLTimeoutException("获取数据库连接超时 (" + borrowTimeoutMillis + "ms)，活动连接: " + active.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("获取数据库连接被中断", e);
+        }
+        long waited = System.nanoTime() - start;
+        waitNanos.add(waited);
+        if (waited > maxWaitNanos) {
+            maxWaitNanos = waited;
+        }
+        borrows.increment();
+
+        try {
+            PooledConnection pooled = takeIdle();
+            if (pooled == null) {
+                pooled = create();
+            }
+            active.incrementAndGet();
+            return pooled.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 取出一个可用的空闲连接，过期或校验失败的连接直接关闭
+     */
+    private PooledConnection takeIdle() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            long now = System.currentTimeMillis();
+            if (now - pooled.createdAt >= maxLifetimeMillis) {
+                retire(pooled);
+                continue;
+            }
+            if (now - pooled.lastUsedAt >= validationIntervalMillis && !isValid(pooled)) {
+                retire(pooled);
+                continue;
+            }
+            return pooled;
+        }
+        return null;
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            return pooled.physical.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection create() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, user, password);
+        total.incrementAndGet();
+        created.increment();
+        return new PooledConnection(physical);
+    }
+
+    /**
+     * 归还连接 (由连接代理的 close() 调用)
+     */
+    private void release(PooledConnection pooled) {
+        active.decrementAndGet();
+        pooled.lastUsedAt = System.currentTimeMillis();
+        if (shutdown || pooled.broken || pooled.lastUsedAt - pooled.createdAt >= maxLifetimeMillis) {
+            retire(pooled);
+        } else {
+            idle.offerFirst(pooled);
+        }
+        permits.release();
+    }
+
+    private void retire(PooledConnection pooled) {
+        total.decrementAndGet();
+        retired.increment();
+        pooled.closePhysical();
+    }
+
+    /**
+     * 关闭空闲过久或超过最大寿命的空闲连接 (后台线程定期执行)
+     */
+    private void evict() {
+        long now = System.currentTimeMillis();
+        Iterator<PooledConnection> it = idle.descendingIterator();
+        while (it.hasNext()) {
+            PooledConnection pooled = it.next();
+            if ((now - pooled.lastUsedAt >= idleTimeoutMillis || now - pooled.createdAt >= maxLifetimeMillis)
+                    && idle.remove(pooled)) {
+                retire(pooled);
+            }
+        }
+    }
+
+    /**
+     * 关闭连接池：关闭所有空闲连接，借出中的连接在归还时关闭
+     */
+    public void shutdown() {
+        shutdown = true;
+        evictor.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            retire(pooled);
+        }
+    }
+
+    /** @return 借出中的连接数 */
+    public int getActive() {
+        return active.get();
+    }
+
+    /** @return 空闲连接数 */
+    public int getIdle() {
+        return idle.size();
+    }
+
+    /** @return 物理连接总数 */
+    public int getTotal() {
+        return total.get();
+    }
+
+    /** @return 最大连接数 */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /** @return 累计借出次数 */
+    public long getBorrows() {
+        return borrows.sum();
+    }
+
+    /** @return 累计等待时间 (毫秒) */
+    public long getWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.sum());
+    }
+
+    /** @return 单次最长等待时间 (毫秒) */
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+    }
+
+    /** @return 借出超时次数 */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /** @return 累计创建的物理连接数 */
+    public long getCreated() {
+        return created.sum();
+    }
+
+    /** @return PreparedStatement 缓存命中次数 */
+    public long getStatementHits() {
+        return statementHits.sum();
+    }
+
+    /** @return PreparedStatement 缓存未命中次数 */
+    public long getStatementMisses() {
+        return statementMisses.sum();
+    }
+
+    @Override
+    public String toString() {
+        long n = getBorrows();
+        return "连接池 -> 活动: " + getActive()
+                + " 空闲: " + getIdle()
+                + " 总数: " + getTotal() + "/" + maxSize
+                + " 借出: " + n
+                + " 平均等待: " + (n == 0 ? 0 : getWaitMillis() / n) + "ms"
+                + " 最长等待: " + getMaxWaitMillis() + "ms"
+                + " 超时: " + getTimeouts()
+                + " 新建/关闭: " + getCreated() + "/" + retired.sum()
+                + " 语句缓存命中/未命中: " + getStatementHits() + "/" + getStatementMisses();
+    }
+
+    /**
+     * 池中的一个物理连接及其语句缓存
+     */
+    private class PooledConnection {
+        final Connection physical;
+        final long createdAt = System.currentTimeMillis();
+        volatile long lastUsedAt = createdAt;
+        /** 发生连接级错误后标记为损坏，归还时直接关闭 */
+        volatile boolean broken;
+
+        /** SQL -> 缓存的语句，按访问顺序淘汰 (见 {@link #trim()}) */
+        final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        /**
+         * 生成一个借出用的连接代理
+         */
+        Connection lease() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new LeasedConnection(this));
+        }
+
+        PreparedStatement prepare(String sql, Connection owner) throws SQLException {
+            if (statementCacheSize <= 0) {
+                statementMisses.increment();
+                return physical.prepareStatement(sql);
+            }
+            CachedStatement cached = statements.get(sql);
+            if (cached != null && !cached.inUse) {
+                statementHits.increment();
+            } else {
+                statementMisses.increment();
+                PreparedStatement stmt = physical.prepareStatement(sql);
+                if (cached != null) {
+                    // 同一 SQL 的语句仍在使用中，本次使用不缓存的语句
+                    return stmt;
+                }
+                cached = new CachedStatement(stmt);
+                cached.inUse = true;
+                statements.put(sql, cached);
+                trim();
+            }
+            cached.inUse = true;
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, new LeasedStatement(this, cached, owner));
+        }
+
+        /**
+         * 缓存超过容量时按最久未使用的顺序关闭语句，跳过仍被借出的语句：
+         * 调用者手中的语句不会在使用中途被关闭，缓存暂时超出容量，待语句归还后再淘汰
+         */
+        void trim() {
+            Iterator<CachedStatement> it = statements.values().iterator();
+            while (statements.size() > statementCacheSize && it.hasNext()) {
+                CachedStatement cached = it.next();
+                if (!cached.inUse) {
+                    it.remove();
+                    cached.closePhysical();
+                }
+            }
+        }
+
+        void closePhysical() {
+            for (CachedStatement cached : statements.values()) {
+                cached.closePhysical();
+            }
+            statements.clear();
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                // 连接可能已经失效，忽略
+            }
+        }
+
+        /**
+         * 连接级错误 (SQLState 以 08 开头) 说明物理连接已不可用
+         */
+        void inspect(Throwable t) {
+            if (t instanceof SQLException) {
+                String state = ((SQLException) t).getSQLState();
+                if (state != null && state.startsWith("08")) {
+                    broken = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * 缓存中的语句
+     */
+    private static class CachedStatement {
+        final PreparedStatement physical;
+        /** 是否已被借出，仅由持有连接的线程访问 */
+        boolean inUse;
+
+        CachedStatement(PreparedStatement physical) {
+            this.physical = physical;
+        }
+
+        void closePhysical() {
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                // 忽略
+            }
+        }
+    }
+
+    /**
+     * 借出连接的代理：拦截 close() 与 prepareStatement(String)，其余调用转发给物理连接
+     */
+    private class LeasedConnection implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean closed;
+
+        LeasedConnection(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        reset();
+                        // 未关闭的语句随连接一起归还到缓存
+                        for (CachedStatement cached : pooled.statements.values()) {
+                            cached.inUse = false;
+                        }
+                        pooled.trim();
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pooled.physical + "]";
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("连接已归还到连接池");
+            }
+            try {
+                if ("prepareStatement".equals(name) && args.length == 1) {
+                    return pooled.prepare((String) args[0], (Connection) proxy);
+                }
+                return method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                pooled.inspect(e.getCause());
+                throw e.getCause();
+            } catch (SQLException e) {
+                pooled.inspect(e);
+                throw e;
+            }
+        }
+
+        /**
+         * 归还前恢复连接的默认状态，避免未提交的事务泄漏给下一个使用者
+         */
+        private void reset() {
+            try {
+                if (!pooled.physical.getAutoCommit()) {
+                    pooled.physical.rollback();
+                    pooled.physical.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                pooled.broken = true;
+            }
+        }
+    }
+
+    /**
+     * 缓存语句的代理：close() 只清空参数并归还到缓存
+     */
+    private static class LeasedStatement implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final CachedStatement cached;
+        private final Connection owner;
+        private boolean closed;
+
+        LeasedStatement(PooledConnection pooled, CachedStatement cached, Connection owner) {
+            this.pooled = pooled;
+            this.cached = cached;
+            this.owner = owner;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        try {
+                            cached.physical.clearParameters();
+                            cached.physical.clearBatch();
+                        } catch (SQLException e) {
+                            pooled.inspect(e);
+                        }
+                        cached.inUse = false;
+                        pooled.trim();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "getConnection":
+                    return owner;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("语句已关闭");
+            }
+            try {
+                return method.invoke(cached.physical, args);
+            } catch (InvocationTargetException e) {
+                pooled.inspect(e.getCause());
+                throw e.getCause();
+            }
+        }
+    }
+}
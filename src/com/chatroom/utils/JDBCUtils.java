@@ -1,7 +1,6 @@
 package com.chatroom.utils;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.Statement;
 
@@ -10,19 +9,41 @@ import java.sql.Statement;
  * <p>
  * 提供获取数据库连接和释放资源的通用方法。
  * 基于 JDBC 技术实现，使用静态代码块加载驱动。
+ * 连接来自内置的连接池 (ConnectionPool)：调用 close 方法时连接被归还到池中而不是真正断开，
+ * 同一连接上重复使用的 SQL 语句会被缓存复用。
+ * </p>
+ * <p>
+ * 连接参数与连接池参数均可通过 JVM 系统属性覆盖，例如 -Dchatroom.jdbc.url=...、-Dchatroom.jdbc.pool.maxSize=20。
  * </p>
  */
 public class JDBCUtils {
     /** 数据库驱动类名 */
-    private static final String DRIVER = "com.mysql.cj.jdbc.Driver";
+    private static final String DRIVER = System.getProperty("chatroom.jdbc.driver", "com.mysql.cj.jdbc.Driver");
     /** 数据库连接 URL (包含字符集和时区配置) */
-    private static final String URL = "jdbc:mysql://localhost:3306/chat_room_db?useSSL=false&serverTimezone=Asia/Shanghai&characterEncoding=utf-8";
+    private static final String URL = System.getProperty("chatroom.jdbc.url",
+            "jdbc:mysql://localhost:3306/chat_room_db?useSSL=false&serverTimezone=Asia/Shanghai&characterEncoding=utf-8");
     /** 数据库用户名 */
-    private static final String USER = "root";
+    private static final String USER = System.getProperty("chatroom.jdbc.user", "root");
     /** 数据库密码  */
-    private static final String PASSWORD = "root";
+    private static final String PASSWORD = System.getProperty("chatroom.jdbc.password", "root");
+
+    /** 连接池最大连接数 */
+    private static final int POOL_MAX_SIZE = Integer.getInteger("chatroom.jdbc.pool.maxSize", 20);
+    /** 借出连接的最长等待时间 (毫秒) */
+    private static final long POOL_BORROW_TIMEOUT = Long.getLong("chatroom.jdbc.pool.borrowTimeout", 5000L);
+    /** 空闲超过该时长 (毫秒) 的连接在借出前需要校验 */
+    private static final long POOL_VALIDATION_INTERVAL = Long.getLong("chatroom.jdbc.pool.validationInterval", 1000L);
+    /** 空闲超过该时长 (毫秒) 的连接会被关闭 */
+    private static final long POOL_IDLE_TIMEOUT = Long.getLong("chatroom.jdbc.pool.idleTimeout", 10 * 60 * 1000L);
+    /** 连接的最大寿命 (毫秒)，应小于 MySQL 的 wait_timeout */
+    private static final long POOL_MAX_LIFETIME = Long.getLong("chatroom.jdbc.pool.maxLifetime", 30 * 60 * 1000L);
+    /** 每个连接缓存的 PreparedStatement 数量 */
+    private static final int POOL_STATEMENT_CACHE = Integer.getInteger("chatroom.jdbc.pool.statementCache", 32);
+
+    /** 全局连接池 */
+    private static final ConnectionPool POOL;
 
-    // 静态代码块：类加载时注册驱动
+    // 静态代码块：类加载时注册驱动并创建连接池
     static {
         try {
             Class.forName(DRIVER);
@@ -30,22 +51,25 @@ public class JDBCUtils {
             e.printStackTrace();
             throw new RuntimeException("数据库驱动加载失败", e);
         }
+        POOL = new ConnectionPool(URL, USER, PASSWORD, POOL_MAX_SIZE, POOL_BORROW_TIMEOUT,
+                POOL_VALIDATION_INTERVAL, POOL_IDLE_TIMEOUT, POOL_MAX_LIFETIME, POOL_STATEMENT_CACHE);
     }
 
     /**
      * 获取数据库连接
      *
-     * @return Connection 数据库连接对象
-     * @throws Exception 连接获取失败异常
+     * @return Connection 数据库连接对象 (使用完毕后需调用 close 归还)
+     * @throws Exception 连接获取失败或等待超时异常
      */
     public static Connection getConnection() throws Exception {
-        return DriverManager.getConnection(URL, USER, PASSWORD);
+        return POOL.getConnection();
     }
 
     /**
      * 释放数据库资源
      * <p>
      * 遵循先开后关的原则，依次关闭 ResultSet, Statement, Connection。
+     * 连接与语句只是归还到连接池，并不会真正断开。
      * </p>
      *
      * @param conn 数据库连接对象
@@ -55,10 +79,25 @@ public class JDBCUtils {
     public static void close(Connection conn, Statement stmt, ResultSet rs) {
         try {
             if (rs != null) rs.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        try {
             if (stmt != null) stmt.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        try {
             if (conn != null) conn.close();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * @return 全局连接池，用于查看活动/空闲连接数、等待时间与超时次数等指标
+     */
+    public static ConnectionPool getPool() {
+        return POOL;
+    }
+}
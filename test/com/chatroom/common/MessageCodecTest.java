@@ -0,0 +1,149 @@
+package com.chatroom.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * MessageCodec 的帧格式：编码与两种解码方式的往返、不完整帧与非法帧的处理
+ */
+class MessageCodecTest {
+
+    private static void assertSame(Message expected, Message actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getSender(), actual.getSender());
+        assertEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getReceiver(), actual.getReceiver());
+        assertEquals(expected.getSeq(), actual.getSeq());
+    }
+
+    private static Message roundTrip(Message msg) throws IOException {
+        byte[] frame = MessageCodec.encode(msg);
+        assertEquals(frame.length, MessageCodec.encodedLength(msg));
+        ByteBuffer buf = ByteBuffer.wrap(frame);
+        Message decoded = MessageCodec.decode(buf);
+        assertEquals(frame.length, buf.position());
+        assertSame(decoded, MessageCodec.read(new ByteArrayInputStream(frame)));
+        return decoded;
+    }
+
+    @Test
+    void roundTripsAllFields() throws IOException {
+        Message msg = new Message(Message.ROOM_CHAT, "alice", "hello", "#room");
+        msg.setSeq(1L << 40);
+        assertSame(msg, roundTrip(msg));
+    }
+
+    @Test
+    void roundTripsNullAndEmptyFields() throws IOException {
+        assertSame(new Message(Message.PING, null, null, null), roundTrip(new Message(Message.PING, null, null, null)));
+        assertSame(new Message(Message.CHAT, "", "", ""), roundTrip(new Message(Message.CHAT, "", "", "")));
+    }
+
+    @Test
+    void roundTripsUnicodeAndLongContent() throws IOException {
+        // 多字节字符、代理对以及需要多字节 varint 长度的内容
+        String content = "你好 😀 ".repeat(5000);
+        Message msg = new Message(Message.CHAT, "用户", content, null);
+        assertSame(msg, roundTrip(msg));
+    }
+
+    @Test
+    void encodedLengthCountsLoneSurrogatesLikeGetBytes() {
+        Message msg = new Message(Message.CHAT, "a\uD800b", "\uDC00", null);
+        assertEquals(MessageCodec.encode(msg).length, MessageCodec.encodedLength(msg));
+    }
+
+    @Test
+    void roundTripsUnregisteredType() throws IOException {
+        Message msg = new Message("CUSTOM_TYPE", "a", "b", "c");
+        assertSame(msg, roundTrip(msg));
+    }
+
+    @Test
+    void decodeWaitsForCompleteFrame() throws IOException {
+        Message first = new Message(Message.CHAT, "a", "x".repeat(300), null);
+        Message second = new Message(Message.CHAT, "b", "second", "c");
+        byte[] a = MessageCodec.encode(first);
+        byte[] b = MessageCodec.encode(second);
+        ByteBuffer buf = ByteBuffer.allocate(a.length + b.length);
+
+        // 逐字节放入，帧完整之前不消费任何数据
+        for (int i = 0; i < a.length - 1; i++) {
+            buf.put(a[i]);
+            buf.flip();
+            assertNull(MessageCodec.decode(buf));
+            assertEquals(0, buf.position());
+            buf.position(buf.limit()).limit(buf.capacity());
+        }
+        buf.put(a[a.length - 1]).put(b);
+        buf.flip();
+        assertSame(first, MessageCodec.decode(buf));
+        assertSame(second, MessageCodec.decode(buf));
+        assertNull(MessageCodec.decode(buf));
+    }
+
+    @Test
+    void streamRoundTripsSeveralFrames() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 3; i++) {
+            MessageCodec.write(out, new Message(Message.CHAT, "u" + i, "m" + i, null));
+        }
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("m" + i, MessageCodec.read(in).getContent());
+        }
+        assertThrows(EOFException.class, () -> MessageCodec.read(in));
+    }
+
+    @Test
+    void rejectsWrongVersion() {
+        byte[] frame = MessageCodec.encode(new Message(Message.CHAT, "a", "b", null));
+        frame[0] = 1;
+        assertThrows(StreamCorruptedException.class, () -> MessageCodec.decode(ByteBuffer.wrap(frame)));
+        // Java 序列化流的魔数
+        byte[] legacy = {(byte) 0xAC, (byte) 0xED, 0, 5};
+        assertThrows(StreamCorruptedException.class, () -> MessageCodec.decode(ByteBuffer.wrap(legacy)));
+        assertThrows(StreamCorruptedException.class, () -> MessageCodec.read(new ByteArrayInputStream(legacy)));
+    }
+
+    @Test
+    void rejectsOversizedFrameBeforeReadingBody() {
+        // 只有帧头，声明的长度超过上限时立即拒绝，而不是等待数据
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        buf.put(MessageCodec.VERSION);
+        int length = MessageCodec.MAX_FRAME_LENGTH + 1;
+        while ((length & ~0x7F) != 0) {
+            buf.put((byte) ((length & 0x7F) | 0x80));
+            length >>>= 7;
+        }
+        buf.put((byte) length).flip();
+        assertThrows(StreamCorruptedException.class, () -> MessageCodec.decode(buf));
+    }
+
+    @Test
+    void rejectsBodyThatDoesNotMatchLength() {
+        byte[] frame = MessageCodec.encode(new Message(Message.CHAT, "a", "b", null));
+        // 把 content 字段的长度改大，使字段越过帧体末尾
+        byte[] corrupt = frame.clone();
+        corrupt[5] = 50;
+        assertThrows(StreamCorruptedException.class, () -> MessageCodec.decode(ByteBuffer.wrap(corrupt)));
+        assertThrows(StreamCorruptedException.class, () -> MessageCodec.read(new ByteArrayInputStream(corrupt)));
+    }
+
+    @Test
+    void rejectsUnknownTypeCode() {
+        byte[] frame = MessageCodec.encode(new Message(Message.CHAT, "a", "b", null));
+        frame[2] = (byte) 0xFF;
+        assertThrows(StreamCorruptedException.class, () -> MessageCodec.decode(ByteBuffer.wrap(frame)));
+    }
+}
@@ -0,0 +1,262 @@
+package com.chatroom.server;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+import com.chatroom.server.store.JournalChatLogStore;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 两个节点在本机回环上组成集群：握手与在线用户同步、群聊与私聊转发、跨节点重复登录，
+ * 以及节点 ID 较大的一方在链路建立后不再拨号
+ * <p>
+ * 节点 a 直接拨号 b；b 经过一个计数的 TCP 代理拨号 a，由代理统计 b 发起的连接次数。
+ * </p>
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ClusterNodeTest {
+    private static final String SECRET = "test-secret";
+
+    @TempDir
+    static Path dir;
+
+    private MessageHandler handlerA;
+    private MessageHandler handlerB;
+    private ClusterNode nodeA;
+    private ClusterNode nodeB;
+    private CountingProxy proxy;
+
+    private final TestSession alice = new TestSession("alice");
+    private final TestSession bob = new TestSession("bob");
+
+    /**
+     * 记录收到的消息的会话，关闭时与真实连接一样通知 MessageHandler
+     */
+    private static final class TestSession extends AbstractSession {
+        final BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+        private final String name;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        MessageHandler handler;
+
+        TestSession(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void sendFrame(ByteBuffer frame) throws IOException {
+            received.add(MessageCodec.decode(frame.duplicate()));
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "test/" + name;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed.get();
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true) && handler != null) {
+                handler.sessionClosed(this);
+            }
+        }
+
+        /**
+         * 等待下一条指定类型的消息，跳过其他消息 (例如在线状态通知)
+         */
+        Message next(String type) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (true) {
+                Message m = received.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (m == null || type.equals(m.getType())) {
+                    return m;
+                }
+            }
+        }
+    }
+
+    /**
+     * 把连接原样转发到目标地址，并统计接受的连接数
+     */
+    private static final class CountingProxy {
+        final AtomicInteger accepted = new AtomicInteger();
+        final ServerSocket server;
+
+        CountingProxy(InetSocketAddress target) throws IOException {
+            server = new ServerSocket(0);
+            Thread.ofPlatform().daemon().start(() -> {
+                while (!server.isClosed()) {
+                    try {
+                        Socket client = server.accept();
+                        accepted.incrementAndGet();
+                        Socket upstream = new Socket();
+                        try {
+                            upstream.connect(target, 3000);
+                        } catch (IOException e) {
+                            client.close();
+                            continue;
+                        }
+                        pipe(client, upstream);
+                        pipe(upstream, client);
+                    } catch (IOException e) {
+                        // 代理已关闭
+                    }
+                }
+            });
+        }
+
+        private static void pipe(Socket from, Socket to) {
+            Thread.ofPlatform().daemon().start(() -> {
+                try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+                    in.transferTo(out);
+                } catch (IOException e) {
+                    // 任一方向断开
+                } finally {
+                    try {
+                        from.close();
+                        to.close();
+                    } catch (IOException e) {
+                        // 忽略
+                    }
+                }
+            });
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    private static void await(BooleanSupplier condition, String what) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(15);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "等待超时: " + what);
+            Thread.sleep(20);
+        }
+    }
+
+    private static MessageHandler handler(Path dir) throws IOException {
+        return new MessageHandler(new JournalChatLogStore(dir, 0, 60_000));
+    }
+
+    private static void login(MessageHandler handler, TestSession session) {
+        session.handler = handler;
+        handler.getOnlineUsers().register(session.name, session);
+        handler.getCluster().userOnline(session.name);
+    }
+
+    @BeforeAll
+    void startNodes() throws Exception {
+        int portA = freePort();
+        int portB = freePort();
+        InetSocketAddress addrA = new InetSocketAddress("127.0.0.1", portA);
+        proxy = new CountingProxy(addrA);
+
+        handlerA = handler(dir.resolve("a"));
+        handlerB = handler(dir.resolve("b"));
+        nodeA = new ClusterNode("a", portA, List.of(new InetSocketAddress("127.0.0.1", portB)), SECRET, handlerA);
+        nodeB = new ClusterNode("b", portB, List.of(new InetSocketAddress("127.0.0.1", proxy.port())), SECRET,
+                handlerB);
+        handlerA.setCluster(nodeA);
+        handlerB.setCluster(nodeB);
+
+        // 链路建立前登录的用户在握手时同步
+        login(handlerA, alice);
+        nodeA.start();
+        nodeB.start();
+        await(() -> nodeB.isRemoteOnline("alice"), "握手后同步 a 的在线用户");
+        login(handlerB, bob);
+        await(() -> nodeA.isRemoteOnline("bob"), "b 的用户上线通知");
+    }
+
+    @AfterAll
+    void stop() throws IOException {
+        proxy.server.close();
+        handlerA.getChatLogStore().shutdown();
+        handlerB.getChatLogStore().shutdown();
+    }
+
+    @Test
+    void relaysBroadcastToOtherNode() throws Exception {
+        handlerA.handle(alice, new Message(Message.CHAT, "alice", "大家好", null));
+        Message m = bob.next(Message.CHAT);
+        assertNotNull(m, "b 上的用户应收到 a 上的群聊");
+        assertEquals("alice", m.getSender());
+        assertEquals("大家好", m.getContent());
+        // 只由产生消息的节点保存
+        await(() -> ((JournalChatLogStore) handlerA.getChatLogStore()).getLastId() > 0, "a 保存群聊");
+        assertEquals(0, ((JournalChatLogStore) handlerB.getChatLogStore()).getLastId());
+    }
+
+    @Test
+    void relaysPrivateChatToReceiversNode() throws Exception {
+        handlerB.handle(bob, new Message(Message.CHAT, "bob", "hi alice", "alice"));
+        Message m = alice.next(Message.CHAT);
+        assertNotNull(m, "a 上的接收者应收到私聊");
+        assertEquals("bob", m.getSender());
+        assertEquals("alice", m.getReceiver());
+        assertEquals("hi alice", m.getContent());
+        assertTrue(bob.received.stream().noneMatch(x -> Message.USER_OFFLINE.equals(x.getType())));
+
+        handlerB.handle(bob, new Message(Message.CHAT, "bob", "hi carol", "carol"));
+        assertNotNull(bob.next(Message.USER_OFFLINE), "两个节点上都不在线时告知发送者");
+    }
+
+    @Test
+    void higherNodeStopsRedialingOnceLinked() throws Exception {
+        // b 的第一次拨号被 a 拒绝后，b 从 a 的回复中得知该地址上是节点 a，此后不再拨号
+        Thread.sleep(3000);
+        int before = proxy.accepted.get();
+        assertTrue(before >= 1, "b 至少拨号过一次");
+        Thread.sleep(5000);
+        assertEquals(before, proxy.accepted.get(), "已有链路时 b 不应每隔 REDIAL_MILLIS 重新拨号");
+        assertTrue(nodeA.isRemoteOnline("bob"));
+    }
+
+    @Test
+    void duplicateLoginOnOtherNodeClosesOldSession() throws Exception {
+        TestSession carol = new TestSession("carol");
+        login(handlerA, carol);
+        await(() -> nodeB.isRemoteOnline("carol"), "carol 在 a 上线");
+
+        TestSession carolOnB = new TestSession("carol");
+        login(handlerB, carolOnB);
+        await(carol::isClosed, "a 上的旧连接被断开");
+        assertFalse(carolOnB.isClosed());
+        await(() -> nodeA.isRemoteOnline("carol"), "a 的目录指向 b");
+        assertFalse(nodeB.isRemoteOnline("carol"));
+    }
+}
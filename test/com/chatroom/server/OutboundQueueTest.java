@@ -0,0 +1,95 @@
+package com.chatroom.server;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * OutboundQueue：先进先出，以及队列满时三种溢出策略的行为与统计
+ */
+class OutboundQueueTest {
+
+    private static ByteBuffer frame(int n) {
+        return ByteBuffer.wrap(MessageCodec.encode(new Message(Message.CHAT, "alice", "m" + n, null)));
+    }
+
+    @Test
+    void pollsFramesInOrder() throws IOException {
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueue.OverflowPolicy.DISCONNECT);
+        ByteBuffer a = frame(1);
+        ByteBuffer b = frame(2);
+        queue.offer(a);
+        queue.offer(b);
+        assertEquals(2, queue.size());
+        assertSame(a, queue.poll());
+        assertSame(b, queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+        assertEquals(2, queue.getHighWaterMark());
+    }
+
+    @Test
+    void dropOldestKeepsNewestFrames() throws IOException {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        ByteBuffer[] frames = {frame(1), frame(2), frame(3), frame(4)};
+        for (ByteBuffer f : frames) {
+            queue.offer(f);
+        }
+        assertEquals(2, queue.size());
+        assertEquals(2, queue.getDropped());
+        assertSame(frames[2], queue.poll());
+        assertSame(frames[3], queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void disconnectRejectsFrameWhenFull() throws IOException {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DISCONNECT);
+        queue.offer(frame(1));
+        queue.offer(frame(2));
+        assertThrows(IOException.class, () -> queue.offer(frame(3)));
+        assertEquals(2, queue.size());
+        assertEquals(0, queue.getDropped());
+    }
+
+    @Test
+    void coalesceReplacesBacklogWithNotice() throws IOException {
+        OutboundQueue queue = new OutboundQueue(3, OutboundQueue.OverflowPolicy.COALESCE);
+        for (int i = 1; i <= 3; i++) {
+            queue.offer(frame(i));
+        }
+        ByteBuffer latest = frame(4);
+        queue.offer(latest);
+        // 提示帧 + 最新的一帧
+        assertEquals(2, queue.size());
+        assertEquals(3, queue.getCoalesced());
+
+        Message notice = MessageCodec.decode(queue.poll());
+        assertEquals(Message.CHAT, notice.getType());
+        assertEquals("系统", notice.getSender());
+        assertTrue(notice.getContent().contains("3"), notice.getContent());
+        assertSame(latest, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void clearDropsFramesAndPendingNotice() throws IOException {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.COALESCE);
+        queue.offer(frame(1));
+        queue.offer(frame(2));
+        assertEquals(2, queue.size());
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        assertEquals(2, queue.getHighWaterMark());
+    }
+}
@@ -0,0 +1,222 @@
+package com.chatroom.server;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * PresenceTracker：合并窗口内的增量合并、版本号、重新同步 (空增量、合并补发、快照) 与分片
+ */
+class PresenceTrackerTest {
+    private static final TimerWheel TIMER = new TimerWheel("presence-test-timer", 10, TimeUnit.MILLISECONDS, 64);
+
+    private final Set<String> registry = ConcurrentHashMap.newKeySet();
+    private final List<Message> broadcasts = new CopyOnWriteArrayList<>();
+
+    /**
+     * 记录收到的消息的会话
+     */
+    private static final class RecordingSession extends AbstractSession {
+        final List<Message> received = new ArrayList<>();
+
+        @Override
+        public void sendFrame(ByteBuffer frame) throws IOException {
+            received.add(MessageCodec.decode(frame.duplicate()));
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "test";
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private PresenceTracker tracker(long windowMillis, int logCapacity) {
+        return new PresenceTracker(registry::contains, frame -> {
+            try {
+                broadcasts.add(MessageCodec.decode(frame.duplicate()));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }, TIMER, windowMillis, logCapacity);
+    }
+
+    /**
+     * 不经过时间轮，直接结束合并窗口
+     */
+    private static void publishNow(PresenceTracker tracker, String... names) {
+        for (String name : names) {
+            tracker.changed(name);
+        }
+        tracker.publish();
+    }
+
+    private static Set<String> lines(Message msg) {
+        return msg.getContent().isEmpty() ? Set.of() : new HashSet<>(Arrays.asList(msg.getContent().split("\n")));
+    }
+
+    @Test
+    void startsWithEmptySnapshotAtVersionOne() throws IOException {
+        PresenceTracker presence = tracker(60_000, 100);
+        assertEquals(1, presence.getVersion());
+        RecordingSession session = new RecordingSession();
+        presence.sendSnapshot(session);
+
+        Message snapshot = session.received.get(0);
+        assertEquals(Message.PRESENCE, snapshot.getType());
+        assertEquals("1 1 1", snapshot.getReceiver());
+        assertEquals("", snapshot.getContent());
+    }
+
+    @Test
+    void mergesChangesWithinWindowIntoOneDelta() throws IOException {
+        PresenceTracker presence = tracker(60_000, 100);
+        registry.addAll(List.of("alice", "bob"));
+        publishNow(presence, "alice", "bob", "alice");
+
+        assertEquals(1, broadcasts.size());
+        Message delta = broadcasts.get(0);
+        assertEquals(Message.PRESENCE_DELTA, delta.getType());
+        assertEquals("1 2", delta.getReceiver());
+        assertEquals(Set.of("+alice", "+bob"), lines(delta));
+        assertEquals(2, presence.getVersion());
+        assertEquals(2, presence.size());
+
+        registry.remove("alice");
+        publishNow(presence, "alice");
+        assertEquals("2 3", broadcasts.get(1).getReceiver());
+        assertEquals(Set.of("-alice"), lines(broadcasts.get(1)));
+
+        RecordingSession session = new RecordingSession();
+        presence.sendSnapshot(session);
+        assertEquals("3 1 1", session.received.get(0).getReceiver());
+        assertEquals("bob", session.received.get(0).getContent());
+    }
+
+    @Test
+    void ignoresReconnectWithinWindow() {
+        PresenceTracker presence = tracker(60_000, 100);
+        registry.add("bob");
+        publishNow(presence, "bob");
+        // 窗口内下线又重连，窗口结束时仍在线
+        publishNow(presence, "bob", "bob");
+        assertEquals(1, broadcasts.size());
+        assertEquals(2, presence.getVersion());
+    }
+
+    @Test
+    void publishesAfterWindow() throws InterruptedException {
+        PresenceTracker presence = tracker(20, 100);
+        registry.add("carol");
+        presence.changed("carol");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (broadcasts.isEmpty()) {
+            assertTrue(System.nanoTime() < deadline, "等待超时");
+            Thread.sleep(10);
+        }
+        assertEquals(Set.of("+carol"), lines(broadcasts.get(0)));
+    }
+
+    @Test
+    void resyncsWithEmptyOrMergedDelta() throws IOException {
+        PresenceTracker presence = tracker(60_000, 100);
+        registry.add("alice");
+        publishNow(presence, "alice");
+        registry.add("bob");
+        publishNow(presence, "bob");
+        registry.remove("alice");
+        publishNow(presence, "alice");
+
+        RecordingSession session = new RecordingSession();
+        presence.resync(session, 4);
+        Message upToDate = session.received.get(0);
+        assertEquals("4 4", upToDate.getReceiver());
+        assertEquals("", upToDate.getContent());
+
+        // 每个昵称只保留最后一次变化
+        presence.resync(session, 1);
+        Message merged = session.received.get(1);
+        assertEquals(Message.PRESENCE_DELTA, merged.getType());
+        assertEquals("1 4", merged.getReceiver());
+        assertEquals(Set.of("-alice", "+bob"), lines(merged));
+
+        presence.resync(session, 0);
+        Message snapshot = session.received.get(2);
+        assertEquals(Message.PRESENCE, snapshot.getType());
+        assertEquals("4 1 1", snapshot.getReceiver());
+        assertEquals("bob", snapshot.getContent());
+    }
+
+    @Test
+    void resyncsWithSnapshotWhenLogIsTrimmed() throws IOException {
+        PresenceTracker presence = tracker(60_000, 2);
+        for (String name : List.of("a", "b", "c", "d")) {
+            registry.add(name);
+            publishNow(presence, name);
+        }
+        RecordingSession session = new RecordingSession();
+        presence.resync(session, 1);
+        Message snapshot = session.received.get(0);
+        assertEquals(Message.PRESENCE, snapshot.getType());
+        assertEquals(Set.of("a", "b", "c", "d"), lines(snapshot));
+
+        // 仍在日志中的版本可以合并补发
+        presence.resync(session, 3);
+        assertEquals("3 5", session.received.get(1).getReceiver());
+    }
+
+    @Test
+    void splitsLargeChangesIntoChunks() throws IOException {
+        PresenceTracker presence = tracker(60_000, 100_000);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            names.add("user-" + "x".repeat(40) + "-" + i);
+        }
+        registry.addAll(names);
+        publishNow(presence, names.toArray(new String[0]));
+
+        assertTrue(broadcasts.size() > 1, "应拆成多帧");
+        Set<String> joined = new HashSet<>();
+        for (int i = 0; i < broadcasts.size(); i++) {
+            Message delta = broadcasts.get(i);
+            assertEquals((i + 1) + " " + (i + 2), delta.getReceiver(), "版本号连续");
+            assertTrue(delta.getContent().length() <= PresenceTracker.CHUNK_BYTES + 64);
+            joined.addAll(lines(delta));
+        }
+        assertEquals(names.size(), joined.size());
+
+        RecordingSession session = new RecordingSession();
+        presence.sendSnapshot(session);
+        int parts = session.received.size();
+        assertTrue(parts > 1);
+        Set<String> listed = new HashSet<>();
+        for (int i = 0; i < parts; i++) {
+            Message part = session.received.get(i);
+            assertEquals(presence.getVersion() + " " + (i + 1) + " " + parts, part.getReceiver());
+            listed.addAll(lines(part));
+        }
+        assertEquals(new HashSet<>(names), listed);
+    }
+}
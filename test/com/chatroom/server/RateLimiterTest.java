@@ -0,0 +1,121 @@
+package com.chatroom.server;
+
+import com.chatroom.common.Message;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * RateLimiter 的令牌桶：突发容量、按 IP 共享的限额、登录尝试单独计数以及 THROTTLED 提示的去重
+ */
+class RateLimiterTest {
+    private static final RateLimiter.Limit NONE = new RateLimiter.Limit(0, 0);
+
+    /**
+     * 只记录客户端地址的会话
+     */
+    private static final class TestSession extends AbstractSession {
+        private final String host;
+
+        TestSession(String host) {
+            this.host = host;
+        }
+
+        @Override
+        public void sendFrame(ByteBuffer frame) {
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return host;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static Message chat() {
+        return new Message(Message.CHAT, "alice", "hi", null);
+    }
+
+    @Test
+    void allowsBurstThenThrottles() {
+        RateLimiter limiter = new RateLimiter(
+                new RateLimiter.Limit[] {new RateLimiter.Limit(1, 5), NONE, NONE},
+                new RateLimiter.Limit[] {NONE, NONE, NONE});
+        TestSession session = new TestSession("10.0.0.1");
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.acquire(session, chat()), "突发内的第 " + (i + 1) + " 条");
+        }
+        long wait = limiter.acquire(session, chat());
+        assertTrue(wait > 0);
+        assertTrue(wait <= 1_000_000_000L, "每秒一个令牌，等待不超过一秒: " + wait);
+        // 另一个会话不受影响
+        assertEquals(0, limiter.acquire(new TestSession("10.0.0.2"), chat()));
+        assertEquals(0, limiter.getTrackedIps());
+    }
+
+    @Test
+    void sharesIpBucketAcrossSessions() {
+        RateLimiter limiter = new RateLimiter(
+                new RateLimiter.Limit[] {NONE, NONE, NONE},
+                new RateLimiter.Limit[] {new RateLimiter.Limit(1, 3), NONE, NONE});
+        TestSession first = new TestSession("10.0.0.1");
+        TestSession second = new TestSession("10.0.0.1");
+        assertEquals(0, limiter.acquire(first, chat()));
+        assertEquals(0, limiter.acquire(second, chat()));
+        assertEquals(0, limiter.acquire(new TestSession("10.0.0.1"), chat()));
+        // 同一 IP 的新连接不能绕过限额
+        assertTrue(limiter.acquire(new TestSession("10.0.0.1"), chat()) > 0);
+        assertTrue(limiter.acquire(first, chat()) > 0);
+        assertEquals(0, limiter.acquire(new TestSession("10.0.0.2"), chat()));
+        assertEquals(2, limiter.getTrackedIps());
+    }
+
+    @Test
+    void loginsUseTheirOwnBucket() {
+        RateLimiter limiter = new RateLimiter(
+                new RateLimiter.Limit[] {new RateLimiter.Limit(1, 1), NONE, new RateLimiter.Limit(1, 2)},
+                new RateLimiter.Limit[] {NONE, NONE, NONE});
+        TestSession session = new TestSession("10.0.0.1");
+        assertEquals(0, limiter.acquire(session, new Message(Message.LOGIN, "alice", "pw", null)));
+        assertEquals(0, limiter.acquire(session, new Message(Message.REGISTER, "alice", "pw", null)));
+        assertTrue(limiter.acquire(session, new Message(Message.RESUME, "alice", "token", null)) > 0);
+        // 登录尝试用完不影响聊天消息
+        assertEquals(0, limiter.acquire(session, chat()));
+        assertTrue(limiter.acquire(session, chat()) > 0);
+    }
+
+    @Test
+    void chargesBytesByFrameLength() {
+        RateLimiter limiter = new RateLimiter(
+                new RateLimiter.Limit[] {NONE, new RateLimiter.Limit(1000, 1000), NONE},
+                new RateLimiter.Limit[] {NONE, NONE, NONE});
+        TestSession session = new TestSession("10.0.0.1");
+        Message big = new Message(Message.CHAT, "alice", "x".repeat(600), null);
+        assertEquals(0, limiter.acquire(session, big));
+        assertTrue(limiter.acquire(session, big) > 0);
+        // 超过桶容量的单条消息在令牌补满时仍可通过
+        Message huge = new Message(Message.CHAT, "alice", "x".repeat(5000), null);
+        assertEquals(0, limiter.acquire(new TestSession("10.0.0.2"), huge));
+    }
+
+    @Test
+    void notifiesOncePerWait() {
+        RateLimiter limiter = RateLimiter.fromConfig();
+        TestSession session = new TestSession("10.0.0.1");
+        assertTrue(limiter.shouldNotify(session, 60_000_000_000L));
+        assertFalse(limiter.shouldNotify(session, 60_000_000_000L));
+        assertTrue(limiter.shouldNotify(new TestSession("10.0.0.1"), 1));
+    }
+}
@@ -0,0 +1,209 @@
+package com.chatroom.server;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+import com.chatroom.server.store.ChatLogRecord;
+import com.chatroom.server.store.ChatLogStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * RecentHistory：环形缓冲区的回放与翻页游标、冷启动时从存储加载一次并按 ID 去重、加载失败后的退避
+ */
+class RecentHistoryTest {
+
+    /**
+     * 记录收到的消息的会话
+     */
+    private static final class RecordingSession extends AbstractSession {
+        final List<Message> received = new ArrayList<>();
+
+        @Override
+        public void sendFrame(ByteBuffer frame) throws IOException {
+            received.add(MessageCodec.decode(frame.duplicate()));
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "test";
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * 只实现 loadBefore 的存储，记录调用次数
+     */
+    private static final class StubStore implements ChatLogStore {
+        List<ChatLogRecord> records = List.of();
+        boolean failing;
+        int loads;
+
+        @Override
+        public void save(Message msg, LongConsumer onSaved) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<ChatLogRecord> loadBefore(String receiver, long beforeId, int limit) throws Exception {
+            loads++;
+            if (failing) {
+                throw new Exception("数据库不可用");
+            }
+            return records;
+        }
+
+        @Override
+        public List<ChatLogRecord> loadPrivateBefore(String user, String peer, long beforeId, int limit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<ChatLogRecord> loadAfter(Collection<String> receivers, long afterId, long beforeId, int limit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<ChatLogRecord> loadByIds(long[] ids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void scan(long afterId, long toId, Consumer<ChatLogRecord> consumer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getLastId() {
+            return 0;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+    private static ByteBuffer frame(String content) {
+        return ByteBuffer.wrap(MessageCodec.encode(new Message(Message.CHAT, "alice", content, null)))
+                .asReadOnlyBuffer();
+    }
+
+    private static ChatLogRecord record(long id, String content) {
+        return new ChatLogRecord(id, new Message(Message.CHAT, "bob", content, RecentHistory.GLOBAL));
+    }
+
+    private static List<String> contents(List<Message> messages) {
+        List<String> contents = new ArrayList<>();
+        for (Message m : messages) {
+            contents.add(m.getContent());
+        }
+        return contents;
+    }
+
+    @Test
+    void replaysNewestMessagesWithCursor() throws IOException {
+        RecentHistory history = new RecentHistory(3, new StubStore());
+        for (int i = 1; i <= 5; i++) {
+            history.append(RecentHistory.GLOBAL, frame("m" + i)).accept(i);
+        }
+        RecordingSession session = new RecordingSession();
+        history.replay(session, RecentHistory.GLOBAL);
+
+        assertEquals(List.of("m3", "m4", "m5", "3"), contents(session.received));
+        Message end = session.received.get(3);
+        assertEquals(Message.HISTORY_END, end.getType());
+        assertEquals(RecentHistory.GLOBAL, end.getReceiver());
+    }
+
+    @Test
+    void cursorFallsBackToEvictedMessageWhileBufferIsUnsaved() throws IOException {
+        RecentHistory history = new RecentHistory(2, new StubStore());
+        history.append(RecentHistory.GLOBAL, frame("m1")).accept(7);
+        history.append(RecentHistory.GLOBAL, frame("m2"));
+        history.append(RecentHistory.GLOBAL, frame("m3"));
+        RecordingSession session = new RecordingSession();
+        history.replay(session, RecentHistory.GLOBAL);
+
+        // 缓冲区中的消息都还没有 ID，从被挤出的 m1 之后开始翻页
+        assertEquals(List.of("m2", "m3", "8"), contents(session.received));
+    }
+
+    @Test
+    void loadsStoredMessagesOnceAndSkipsDuplicates() throws IOException {
+        StubStore store = new StubStore();
+        store.records = List.of(record(8, "s8"), record(9, "s9"), record(10, "live"));
+        RecentHistory history = new RecentHistory(3, store);
+        // 加载前已经转发并持久化的消息也出现在查询结果中
+        history.append(RecentHistory.GLOBAL, frame("live")).accept(10);
+
+        RecordingSession first = new RecordingSession();
+        history.replay(first, RecentHistory.GLOBAL);
+        assertEquals(List.of("s8", "s9", "live", "8"), contents(first.received));
+        assertEquals("bob", first.received.get(0).getSender());
+        assertNull(first.received.get(0).getReceiver());
+
+        RecordingSession second = new RecordingSession();
+        history.replay(second, RecentHistory.GLOBAL);
+        assertEquals(contents(first.received), contents(second.received));
+        assertEquals(1, store.loads);
+    }
+
+    @Test
+    void backsOffAfterLoadFailure() throws IOException {
+        StubStore store = new StubStore();
+        store.failing = true;
+        RecentHistory history = new RecentHistory(3, store);
+        history.append(RecentHistory.GLOBAL, frame("live")).accept(3);
+
+        RecordingSession session = new RecordingSession();
+        history.replay(session, RecentHistory.GLOBAL);
+        history.replay(session, RecentHistory.GLOBAL);
+        assertEquals(List.of("live", "3", "live", "3"), contents(session.received));
+        assertEquals(1, store.loads, "重试间隔内不再查询存储");
+    }
+
+    @Test
+    void convertsStoredRecordsToLiveMessages() {
+        Message global = RecentHistory.toLive(new Message(Message.CHAT, "bob", "hi", "ALL"));
+        assertEquals(Message.CHAT, global.getType());
+        assertNull(global.getReceiver());
+
+        Message room = RecentHistory.toLive(new Message(Message.CHAT, "bob", "hi", "#java"));
+        assertEquals(Message.ROOM_CHAT, room.getType());
+        assertEquals("#java", room.getReceiver());
+
+        Message direct = RecentHistory.toLive(new Message(Message.CHAT, "bob", "hi", "alice"));
+        assertEquals(Message.CHAT, direct.getType());
+        assertEquals("alice", direct.getReceiver());
+    }
+
+    @Test
+    void sendsPageWithNextCursor() throws IOException {
+        RecordingSession session = new RecordingSession();
+        RecentHistory.sendPage(session, "ALL", List.of(record(4, "a"), record(5, "b")), 2);
+        assertEquals(List.of("a", "b", "4"), contents(session.received));
+        assertEquals(Message.HISTORY, session.received.get(0).getType());
+
+        // 不足一页说明已经到头
+        session.received.clear();
+        RecentHistory.sendPage(session, "ALL", List.of(record(1, "c")), 2);
+        assertEquals(List.of("c", "0"), contents(session.received));
+    }
+}
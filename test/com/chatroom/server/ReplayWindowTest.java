@@ -0,0 +1,96 @@
+package com.chatroom.server;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.function.LongConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ReplayWindow：序号分配、环形窗口的覆盖判断，以及序号与存储 ID 的对应关系
+ */
+class ReplayWindowTest {
+
+    private static Message chat(String content) {
+        return new Message(Message.CHAT, "bob", content, null);
+    }
+
+    @Test
+    void stampsIncreasingSequenceNumbers() throws IOException {
+        ReplayWindow window = new ReplayWindow(4, 16);
+        assertEquals(0, window.getLastSeq());
+        assertEquals(1, window.getFirstSeq());
+
+        Message first = chat("a");
+        ReplayWindow.Entry entry = window.stamp(first, RecentHistory.GLOBAL);
+        Message second = chat("b");
+        window.stamp(second, "#java");
+
+        assertEquals(1, first.getSeq());
+        assertEquals(2, second.getSeq());
+        assertEquals(2, window.getLastSeq());
+        assertEquals(1, entry.seq());
+        assertEquals("bob", entry.sender());
+        assertSame(entry, window.get(1));
+        assertEquals("#java", window.get(2).conversation());
+
+        // 帧中带有序号，且是只读的
+        assertTrue(entry.frame().isReadOnly());
+        Message decoded = MessageCodec.decode(entry.frame().duplicate());
+        assertEquals(1, decoded.getSeq());
+        assertEquals("a", decoded.getContent());
+    }
+
+    @Test
+    void overwritesOldestEntries() {
+        // 容量向上取整为 4
+        ReplayWindow window = new ReplayWindow(3, 16);
+        for (int i = 1; i <= 6; i++) {
+            window.stamp(chat("m" + i), RecentHistory.GLOBAL);
+        }
+        assertEquals(3, window.getFirstSeq());
+        assertNull(window.get(1));
+        assertTrue(window.isEvicted(1));
+        assertTrue(window.isEvicted(2));
+        assertNotNull(window.get(3));
+        assertFalse(window.isEvicted(3));
+        assertFalse(window.isEvicted(7), "尚未分配的序号不算滑出");
+    }
+
+    @Test
+    void tracksStorageIdsBeyondWindow() {
+        ReplayWindow window = new ReplayWindow(2, 8);
+        for (int i = 1; i <= 6; i++) {
+            window.stamp(chat("m" + i), RecentHistory.GLOBAL);
+            window.onSaved(i).accept(100 + i);
+        }
+        // 已滑出窗口的消息仍能查到存储 ID
+        assertNull(window.get(1));
+        assertEquals(101, window.getStorageId(1));
+        assertEquals(106, window.getStorageId(6));
+        assertEquals(0, window.getStorageId(0));
+        assertEquals(0, window.getStorageId(7));
+    }
+
+    @Test
+    void dropsLateStorageIdForReusedSlot() {
+        ReplayWindow window = new ReplayWindow(2, 4);
+        window.stamp(chat("m1"), RecentHistory.GLOBAL);
+        LongConsumer late = window.onSaved(1);
+        for (int i = 2; i <= 5; i++) {
+            window.stamp(chat("m" + i), RecentHistory.GLOBAL);
+        }
+        // 序号 5 与序号 1 共用同一个槽，迟到的回填不得覆盖它
+        late.accept(101);
+        assertEquals(0, window.getStorageId(5));
+        assertEquals(0, window.getStorageId(1), "超出索引范围");
+    }
+}
@@ -0,0 +1,286 @@
+package com.chatroom.server;
+
+import com.chatroom.common.Message;
+import com.chatroom.common.MessageCodec;
+import com.chatroom.server.store.ChatLogRecord;
+import com.chatroom.server.store.ChatLogStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ResumeManager：令牌的签发、校验、确认与过期，以及从重放窗口和存储补发错过的消息
+ */
+class ResumeManagerTest {
+    private static final TimerWheel TIMER = new TimerWheel("resume-test-timer", 10, TimeUnit.MILLISECONDS, 64);
+
+    /**
+     * 记录收到的消息的会话
+     */
+    private static final class RecordingSession extends AbstractSession {
+        final List<Message> received = new ArrayList<>();
+
+        RecordingSession(String nickname) {
+            setNickname(nickname);
+        }
+
+        @Override
+        public void sendFrame(ByteBuffer frame) throws IOException {
+            received.add(MessageCodec.decode(frame.duplicate()));
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "test";
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * 只实现 loadAfter 的存储，按 ID 范围过滤预先放入的记录
+     */
+    private static final class StubStore implements ChatLogStore {
+        final List<ChatLogRecord> records = new ArrayList<>();
+        Collection<String> lastReceivers;
+
+        @Override
+        public void save(Message msg, LongConsumer onSaved) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<ChatLogRecord> loadBefore(String receiver, long beforeId, int limit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<ChatLogRecord> loadPrivateBefore(String user, String peer, long beforeId, int limit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<ChatLogRecord> loadAfter(Collection<String> receivers, long afterId, long beforeId, int limit) {
+            lastReceivers = receivers;
+            List<ChatLogRecord> page = new ArrayList<>();
+            for (ChatLogRecord record : records) {
+                if (record.getId() > afterId && record.getId() < beforeId
+                        && receivers.contains(record.getMessage().getReceiver()) && page.size() < limit) {
+                    page.add(record);
+                }
+            }
+            return page;
+        }
+
+        @Override
+        public List<ChatLogRecord> loadByIds(long[] ids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void scan(long afterId, long toId, Consumer<ChatLogRecord> consumer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getLastId() {
+            return 0;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+    private static ResumeManager manager(ReplayWindow window, ChatLogStore store, long ttlMillis, int maxReplay) {
+        return new ResumeManager(window, store, TIMER, ttlMillis, TimeUnit.MILLISECONDS, maxReplay);
+    }
+
+    /**
+     * 转发一条消息：分配序号，并按 seq * 10 回填存储 ID
+     */
+    private static void forward(ReplayWindow window, StubStore store, String sender, String content,
+                                String conversation) {
+        Message msg = new Message(Message.CHAT, sender, content, conversation);
+        long seq = window.stamp(msg, conversation).seq();
+        window.onSaved(seq).accept(seq * 10);
+        store.records.add(new ChatLogRecord(seq * 10, new Message(Message.CHAT, sender, content, conversation)));
+    }
+
+    private static List<String> contents(List<Message> messages) {
+        List<String> contents = new ArrayList<>();
+        for (Message m : messages) {
+            contents.add(m.getContent());
+        }
+        return contents;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "等待超时");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void ticketTakesEffectOnlyWhenIssued() {
+        ResumeManager resume = manager(new ReplayWindow(8, 8), new StubStore(), 60_000, 100);
+        RecordingSession alice = new RecordingSession("alice");
+        ResumeManager.Ticket ticket = resume.prepare("alice", alice);
+        assertNull(resume.claim("alice", ticket.getToken(), new RecordingSession("alice")));
+        assertEquals(0, resume.size());
+
+        resume.issue(ticket);
+        assertEquals(1, resume.size());
+        assertNull(resume.claim("alice", "0".repeat(32), new RecordingSession("alice")));
+        assertNull(resume.claim("alice", null, new RecordingSession("alice")));
+        assertNull(resume.claim("bob", ticket.getToken(), new RecordingSession("bob")));
+        assertSame(ticket, resume.claim("alice", ticket.getToken(), new RecordingSession("alice")));
+
+        // 重新登录签发的令牌使旧令牌作废
+        ResumeManager.Ticket next = resume.prepare("alice", alice);
+        resume.issue(next);
+        assertNull(resume.claim("alice", ticket.getToken(), new RecordingSession("alice")));
+        assertSame(next, resume.claim("alice", next.getToken(), new RecordingSession("alice")));
+    }
+
+    @Test
+    void acceptsAcksOnlyFromHolder() {
+        ResumeManager resume = manager(new ReplayWindow(8, 8), new StubStore(), 60_000, 100);
+        RecordingSession alice = new RecordingSession("alice");
+        ResumeManager.Ticket ticket = resume.prepare("alice", alice);
+        resume.issue(ticket);
+
+        resume.ack(alice, 5);
+        resume.ack(alice, 3);
+        assertEquals(5, ticket.getAcked(), "确认序号只增不减");
+        resume.ack(new RecordingSession("alice"), 9);
+        assertEquals(5, ticket.getAcked());
+    }
+
+    @Test
+    void expiresTicketAfterDisconnect() throws Exception {
+        ResumeManager resume = manager(new ReplayWindow(8, 8), new StubStore(), 50, 100);
+        RecordingSession alice = new RecordingSession("alice");
+        resume.issue(resume.prepare("alice", alice));
+
+        // 其他连接断开不影响该令牌
+        resume.closed(new RecordingSession("alice"), Set.of());
+        Thread.sleep(100);
+        assertEquals(1, resume.size());
+
+        resume.closed(alice, Set.of("#java"));
+        await(() -> resume.size() == 0);
+    }
+
+    @Test
+    void claimedTicketDoesNotExpire() throws Exception {
+        ResumeManager resume = manager(new ReplayWindow(8, 8), new StubStore(), 50, 100);
+        RecordingSession alice = new RecordingSession("alice");
+        ResumeManager.Ticket ticket = resume.prepare("alice", alice);
+        resume.issue(ticket);
+        resume.closed(alice, Set.of("#java"));
+
+        RecordingSession again = new RecordingSession("alice");
+        assertSame(ticket, resume.claim("alice", ticket.getToken(), again));
+        resume.attach(ticket, again);
+        Thread.sleep(150);
+        assertEquals(1, resume.size());
+        assertSame(ticket, resume.claim("alice", ticket.getToken(), again));
+    }
+
+    @Test
+    void replaysVisibleMessagesFromWindow() throws Exception {
+        ReplayWindow window = new ReplayWindow(16, 16);
+        StubStore store = new StubStore();
+        ResumeManager resume = manager(window, store, 60_000, 100);
+        forward(window, store, "bob", "seen", RecentHistory.GLOBAL);
+        forward(window, store, "bob", "global", RecentHistory.GLOBAL);
+        forward(window, store, "bob", "room", "#java");
+        forward(window, store, "bob", "other room", "#go");
+        forward(window, store, "bob", "direct", "alice");
+        forward(window, store, "bob", "to carol", "carol");
+        forward(window, store, "alice", "own", RecentHistory.GLOBAL);
+
+        RecordingSession alice = new RecordingSession("alice");
+        ResumeManager.Replay replay = resume.replay(alice, "alice", Set.of("#java"), 1);
+        assertTrue(replay.loadStored());
+        assertTrue(replay.send());
+        assertEquals(List.of("global", "room", "direct"), contents(alice.received));
+        assertEquals(List.of(2L, 3L, 5L), alice.received.stream().map(Message::getSeq).toList());
+        assertEquals(3, replay.getSent());
+    }
+
+    @Test
+    void readsEvictedMessagesFromStore() throws Exception {
+        ReplayWindow window = new ReplayWindow(4, 64);
+        StubStore store = new StubStore();
+        ResumeManager resume = manager(window, store, 60_000, 100);
+        for (int i = 1; i <= 10; i++) {
+            forward(window, store, "bob", "m" + i, RecentHistory.GLOBAL);
+        }
+
+        RecordingSession alice = new RecordingSession("alice");
+        ResumeManager.Replay replay = resume.replay(alice, "alice", Set.of("#java"), 3);
+        assertTrue(replay.loadStored());
+        assertTrue(alice.received.isEmpty(), "第一步不发送");
+        assertTrue(store.lastReceivers.containsAll(List.of(RecentHistory.GLOBAL, "#java", "alice")));
+
+        assertTrue(replay.send());
+        // 先是从存储补读的 (不带序号)，再是窗口中的
+        assertEquals(List.of("m4", "m5", "m6", "m7", "m8", "m9", "m10"), contents(alice.received));
+        assertEquals(List.of(0L, 0L, 0L, 7L, 8L, 9L, 10L), alice.received.stream().map(Message::getSeq).toList());
+        assertEquals(7, replay.getSent());
+    }
+
+    @Test
+    void fallsBackWhenStorageIdsAreUnknown() throws Exception {
+        ReplayWindow window = new ReplayWindow(4, 64);
+        ResumeManager resume = manager(window, new StubStore(), 60_000, 100);
+        for (int i = 1; i <= 10; i++) {
+            window.stamp(new Message(Message.CHAT, "bob", "m" + i, null), RecentHistory.GLOBAL);
+        }
+        RecordingSession alice = new RecordingSession("alice");
+        assertFalse(resume.replay(alice, "alice", Set.of(), 3).loadStored());
+        assertTrue(alice.received.isEmpty());
+    }
+
+    @Test
+    void fallsBackWithoutSendingWhenTooManyMissed() throws Exception {
+        ReplayWindow window = new ReplayWindow(16, 16);
+        StubStore store = new StubStore();
+        ResumeManager resume = manager(window, store, 60_000, 2);
+        for (int i = 1; i <= 5; i++) {
+            forward(window, store, "bob", "m" + i, RecentHistory.GLOBAL);
+        }
+        RecordingSession alice = new RecordingSession("alice");
+        ResumeManager.Replay replay = resume.replay(alice, "alice", Set.of(), 1);
+        assertTrue(replay.loadStored());
+        assertFalse(replay.send());
+        assertTrue(alice.received.isEmpty());
+        assertEquals(0, replay.getSent());
+    }
+}
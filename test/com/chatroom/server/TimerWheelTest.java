@@ -0,0 +1,92 @@
+package com.chatroom.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * TimerWheel：按刻度到期、超过一圈的任务、取消，以及任务抛出异常后工作线程继续运行
+ */
+class TimerWheelTest {
+
+    @Test
+    void runsTaskAfterDelayOnWorkerThread() throws InterruptedException {
+        TimerWheel timer = new TimerWheel("timer-test-delay", 10, TimeUnit.MILLISECONDS, 16);
+        CountDownLatch fired = new CountDownLatch(1);
+        AtomicReference<String> thread = new AtomicReference<>();
+        long start = System.nanoTime();
+        timer.schedule(() -> {
+            thread.set(Thread.currentThread().getName());
+            fired.countDown();
+        }, 50, TimeUnit.MILLISECONDS);
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - start;
+        // 精度为一个刻度
+        assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(40), "过早执行: " + elapsed);
+        assertEquals("timer-test-delay", thread.get());
+    }
+
+    @Test
+    void runsTasksSpanningSeveralRounds() throws InterruptedException {
+        // 一圈 4 个刻度 (20ms)，任务延迟跨越多圈
+        TimerWheel timer = new TimerWheel("timer-test-rounds", 5, TimeUnit.MILLISECONDS, 4);
+        int count = 20;
+        CountDownLatch fired = new CountDownLatch(count);
+        long start = System.nanoTime();
+        long[] firedAt = new long[count];
+        for (int i = 0; i < count; i++) {
+            int n = i;
+            long delay = 10L * (i + 1);
+            timer.schedule(() -> {
+                firedAt[n] = System.nanoTime() - start;
+                fired.countDown();
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < count; i++) {
+            long expected = TimeUnit.MILLISECONDS.toNanos(10L * (i + 1) - 5);
+            assertTrue(firedAt[i] >= expected, "第 " + i + " 个任务过早执行: " + firedAt[i]);
+        }
+    }
+
+    @Test
+    void cancelledTaskDoesNotRun() throws InterruptedException {
+        TimerWheel timer = new TimerWheel("timer-test-cancel", 5, TimeUnit.MILLISECONDS, 8);
+        AtomicInteger runs = new AtomicInteger();
+        TimerWheel.Timeout beforeTransfer = timer.schedule(runs::incrementAndGet, 30, TimeUnit.MILLISECONDS);
+        beforeTransfer.cancel();
+        TimerWheel.Timeout inWheel = timer.schedule(runs::incrementAndGet, 60, TimeUnit.MILLISECONDS);
+        // 等任务转入槽之后再取消
+        Thread.sleep(20);
+        inWheel.cancel();
+        inWheel.cancel();
+        assertTrue(inWheel.isCancelled());
+
+        CountDownLatch later = new CountDownLatch(1);
+        timer.schedule(later::countDown, 100, TimeUnit.MILLISECONDS);
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    void keepsRunningAfterTaskFailure() throws InterruptedException {
+        TimerWheel timer = new TimerWheel("timer-test-failure", 5, TimeUnit.MILLISECONDS, 8);
+        timer.schedule(() -> {
+            throw new IllegalStateException("任务失败");
+        }, 10, TimeUnit.MILLISECONDS);
+        CountDownLatch fired = new CountDownLatch(1);
+        TimerWheel.Timeout next = timer.schedule(fired::countDown, 30, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        // 已执行的任务不能再取消
+        next.cancel();
+        assertFalse(next.isCancelled());
+    }
+}
@@ -0,0 +1,121 @@
+package com.chatroom.server.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * PostingList：差值编码的顺序遍历、借助跳表的 advance，以及游标创建后追加的文档不可见
+ */
+class PostingListTest {
+
+    private static List<Integer> fill(PostingList list, int count, long seed) {
+        Random random = new Random(seed);
+        List<Integer> docs = new ArrayList<>();
+        int doc = 0;
+        for (int i = 0; i < count; i++) {
+            // 大部分差值很小，偶尔需要多字节
+            doc += random.nextInt(10) == 0 ? 1 + random.nextInt(100_000) : 1 + random.nextInt(5);
+            list.add(doc);
+            docs.add(doc);
+        }
+        return docs;
+    }
+
+    @Test
+    void iteratesAllDocsInOrder() {
+        PostingList list = new PostingList();
+        List<Integer> docs = fill(list, 1000, 1);
+        assertEquals(1000, list.size());
+
+        PostingList.Cursor cursor = list.cursor();
+        for (int doc : docs) {
+            assertEquals(doc, cursor.next());
+        }
+        assertEquals(-1, cursor.next());
+    }
+
+    @Test
+    void advanceMatchesLinearScan() {
+        PostingList list = new PostingList();
+        List<Integer> docs = fill(list, 5000, 2);
+        Random random = new Random(3);
+        for (int round = 0; round < 50; round++) {
+            PostingList.Cursor cursor = list.cursor();
+            int target = 0;
+            int index = 0;
+            while (true) {
+                target += random.nextInt(20_000);
+                while (index < docs.size() && docs.get(index) < target) {
+                    index++;
+                }
+                int expected = index < docs.size() ? docs.get(index) : -1;
+                int actual = cursor.advance(target);
+                assertEquals(expected, actual, "advance(" + target + ")");
+                if (actual < 0) {
+                    break;
+                }
+            }
+        }
+    }
+
+    @Test
+    void advanceMixesWithNext() {
+        PostingList list = new PostingList();
+        for (int doc = 0; doc < 1000; doc += 2) {
+            list.add(doc);
+        }
+        PostingList.Cursor cursor = list.cursor();
+        assertEquals(0, cursor.next());
+        assertEquals(2, cursor.next());
+        // 跨过若干个块，目标不在列表中时停在下一个文档
+        assertEquals(302, cursor.advance(301));
+        assertEquals(304, cursor.next());
+        assertEquals(304, cursor.advance(200), "目标不大于当前文档时不移动");
+        assertEquals(998, cursor.advance(998));
+        assertEquals(-1, cursor.advance(999));
+    }
+
+    @Test
+    void cursorIgnoresDocsAddedLater() {
+        PostingList list = new PostingList();
+        for (int doc = 1; doc <= PostingList.SKIP_INTERVAL; doc++) {
+            list.add(doc);
+        }
+        PostingList.Cursor cursor = list.cursor();
+        for (int doc = PostingList.SKIP_INTERVAL + 1; doc <= 3 * PostingList.SKIP_INTERVAL; doc++) {
+            list.add(doc);
+        }
+        assertEquals(-1, cursor.advance(PostingList.SKIP_INTERVAL + 1));
+        assertEquals(3 * PostingList.SKIP_INTERVAL, list.cursor().advance(3 * PostingList.SKIP_INTERVAL));
+    }
+
+    @Test
+    void trimKeepsContents() {
+        PostingList list = new PostingList();
+        List<Integer> docs = fill(list, 700, 4);
+        long before = list.bytes();
+        list.trim();
+        assertTrue(list.bytes() <= before);
+
+        PostingList.Cursor cursor = list.cursor();
+        assertEquals(docs.get(650), cursor.advance(docs.get(650)));
+        assertEquals(docs.get(651), cursor.next());
+    }
+
+    @Test
+    void encodesSmallGapsInOneByte() {
+        PostingList list = new PostingList();
+        for (int doc = 0; doc < 10_000; doc++) {
+            list.add(doc);
+        }
+        list.trim();
+        // 每个文档 1 字节，另有块首的绝对文档号与跳表
+        assertTrue(list.bytes() < 12_000, "占用 " + list.bytes() + " 字节");
+    }
+}
@@ -0,0 +1,224 @@
+package com.chatroom.server.search;
+
+import com.chatroom.common.Message;
+import com.chatroom.server.store.ChatLogRecord;
+import com.chatroom.server.store.ChatLogStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SearchIndex：关键字命中与原文校验、可见范围、from/in/时间筛选、翻页游标，以及从存储并行重建
+ */
+class SearchIndexTest {
+
+    /**
+     * 内存中的存储，只实现搜索用到的读取方法
+     */
+    private static final class MemoryStore implements ChatLogStore {
+        final ConcurrentSkipListMap<Long, ChatLogRecord> records = new ConcurrentSkipListMap<>();
+
+        void put(long id, Message msg) {
+            records.put(id, new ChatLogRecord(id, msg, System.currentTimeMillis()));
+        }
+
+        @Override
+        public void save(Message msg, LongConsumer onSaved) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<ChatLogRecord> loadBefore(String receiver, long beforeId, int limit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<ChatLogRecord> loadPrivateBefore(String user, String peer, long beforeId, int limit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<ChatLogRecord> loadAfter(Collection<String> receivers, long afterId, long beforeId, int limit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<ChatLogRecord> loadByIds(long[] ids) {
+            List<ChatLogRecord> found = new ArrayList<>();
+            for (long id : ids) {
+                ChatLogRecord record = records.get(id);
+                if (record != null) {
+                    found.add(record);
+                }
+            }
+            found.sort((a, b) -> Long.compare(a.getId(), b.getId()));
+            return found;
+        }
+
+        @Override
+        public void scan(long afterId, long toId, Consumer<ChatLogRecord> consumer) {
+            records.subMap(afterId, false, toId, true).values().forEach(consumer);
+        }
+
+        @Override
+        public long getLastId() {
+            return records.isEmpty() ? 0 : records.lastKey();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+    private final MemoryStore store = new MemoryStore();
+    private final SearchIndex index = new SearchIndex(store, 1024);
+    private long nextId = 1;
+
+    /**
+     * 保存一条消息并在持久化后加入索引，与 MessageHandler 的调用方式相同
+     */
+    private long save(String sender, String content, String receiver) {
+        Message msg = new Message(Message.CHAT, sender, content, receiver);
+        LongConsumer onSaved = index.onSaved(msg);
+        long id = nextId++;
+        store.put(id, msg);
+        onSaved.accept(id);
+        return id;
+    }
+
+    private List<Long> search(String query, String nickname, Set<String> rooms) throws Exception {
+        return ids(index.search(SearchQuery.parse(query), nickname, rooms, Long.MAX_VALUE, 20));
+    }
+
+    private static List<Long> ids(SearchIndex.Result result) {
+        return result.hits().stream().map(ChatLogRecord::getId).toList();
+    }
+
+    @Test
+    void findsKeywordsNewestFirst() throws Exception {
+        long a = save("bob", "数据库迁移完成", "ALL");
+        save("bob", "今天天气不错", "ALL");
+        long c = save("carol", "迁移 数据库 的脚本", "ALL");
+        long d = save("carol", "Hello ＷＯＲＬＤ", "ALL");
+
+        assertEquals(List.of(c, a), search("数据库", "alice", Set.of()));
+        assertEquals(List.of(c, a), search("迁移 数据库", "alice", Set.of()));
+        assertEquals(List.of(a), search("数据库迁移", "alice", Set.of()));
+        assertEquals(List.of(d), search("world", "alice", Set.of()));
+        assertEquals(List.of(), search("不存在", "alice", Set.of()));
+        assertEquals(4, index.getDocuments());
+    }
+
+    @Test
+    void verifiesCandidatesAgainstContent() throws Exception {
+        // 二元组 "数据" 与 "据库" 都出现，但 "数据库" 并不连续出现
+        save("bob", "据库数据", "ALL");
+        long real = save("bob", "数据库", "ALL");
+        assertEquals(List.of(real), search("数据库", "alice", Set.of()));
+    }
+
+    @Test
+    void limitsResultsToVisibleMessages() throws Exception {
+        long global = save("bob", "发布 计划", "ALL");
+        long room = save("bob", "发布 计划", "#dev");
+        long toAlice = save("bob", "发布 计划", "alice");
+        long toCarol = save("bob", "发布 计划", "carol");
+        long own = save("alice", "发布 计划", "#ops");
+
+        assertEquals(List.of(own, toAlice, room, global), search("发布", "alice", Set.of("#dev")));
+        assertEquals(List.of(toCarol, global), search("发布", "carol", Set.of()));
+        assertEquals(List.of(toCarol, toAlice, room, global), search("发布", "bob", Set.of("#dev")));
+    }
+
+    @Test
+    void appliesFromAndInFilters() throws Exception {
+        long bobGlobal = save("bob", "上线", "ALL");
+        long carolRoom = save("carol", "上线", "#dev");
+        long bobRoom = save("bob", "上线", "#dev");
+        long bobToAlice = save("bob", "上线", "alice");
+        long aliceToBob = save("alice", "上线", "bob");
+        save("carol", "上线", "alice");
+
+        Set<String> rooms = Set.of("#dev");
+        assertEquals(List.of(bobToAlice, bobRoom, bobGlobal), search("from:bob 上线", "alice", rooms));
+        assertEquals(List.of(bobRoom, carolRoom), search("in:#dev 上线", "alice", rooms));
+        assertEquals(List.of(bobRoom), search("in:#dev from:bob", "alice", rooms));
+        assertEquals(List.of(bobGlobal), search("in:ALL", "alice", rooms));
+        // 与某人的私聊包含双方发出的消息
+        assertEquals(List.of(aliceToBob, bobToAlice), search("in:bob 上线", "alice", rooms));
+        // 未出现过的发送者与会话
+        assertEquals(List.of(), search("from:dave 上线", "alice", rooms));
+        assertEquals(List.of(), search("in:#nowhere", "alice", rooms));
+    }
+
+    @Test
+    void hidesRoomForNonMembersExceptOwnMessages() throws Exception {
+        save("bob", "会议纪要", "#dev");
+        long own = save("alice", "会议纪要", "#dev");
+        assertEquals(List.of(own), search("in:#dev 会议", "alice", Set.of()));
+    }
+
+    @Test
+    void appliesTimeFilter() throws Exception {
+        long id = save("bob", "备份", "ALL");
+        assertEquals(List.of(id), search("after:2000-01-01 备份", "alice", Set.of()));
+        assertEquals(List.of(), search("before:2000-01-01 备份", "alice", Set.of()));
+    }
+
+    @Test
+    void pagesWithCursor() throws Exception {
+        List<Long> saved = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            saved.add(save("bob", "日志 " + i, "ALL"));
+        }
+        SearchQuery query = SearchQuery.parse("日志");
+        SearchIndex.Result first = index.search(query, "alice", Set.of(), Long.MAX_VALUE, 2);
+        assertEquals(List.of(saved.get(4), saved.get(3)), ids(first));
+        assertEquals(saved.get(3), first.next());
+
+        SearchIndex.Result second = index.search(query, "alice", Set.of(), first.next(), 2);
+        assertEquals(List.of(saved.get(2), saved.get(1)), ids(second));
+
+        SearchIndex.Result last = index.search(query, "alice", Set.of(), second.next(), 2);
+        assertEquals(List.of(saved.get(0)), ids(last));
+        assertEquals(0, last.next());
+    }
+
+    @Test
+    void rebuildsFromStoreInParallel() throws Exception {
+        int count = 3000;
+        for (int i = 1; i <= count; i++) {
+            store.put(i, new Message(Message.CHAT, "bob", (i % 100 == 0 ? "里程碑 " : "消息 ") + i, "ALL"));
+        }
+        nextId = count + 1;
+        index.rebuild(2);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (index.isBuilding()) {
+            assertTrue(System.nanoTime() < deadline, "重建超时");
+            Thread.sleep(10);
+        }
+        assertEquals(count, index.getDocuments());
+        assertEquals(3, index.getSegments());
+
+        // 重建覆盖的 ID 在实时写入时跳过，之后的新消息照常加入
+        Message duplicate = new Message(Message.CHAT, "bob", "里程碑 重复", "ALL");
+        index.onSaved(duplicate).accept(count);
+        long fresh = save("bob", "里程碑 新", "ALL");
+        assertEquals(count + 1, index.getDocuments());
+
+        List<Long> hits = search("里程碑", "alice", Set.of());
+        assertEquals(fresh, hits.get(0));
+        assertEquals(List.of(3000L, 2900L, 2800L), hits.subList(1, 4));
+        assertEquals(20, hits.size());
+    }
+}
@@ -0,0 +1,51 @@
+package com.chatroom.server.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tokenizer：规范化、英文单词与数字、中日韩二元组，以及查询时只取覆盖片段的二元组
+ */
+class TokenizerTest {
+
+    @Test
+    void normalizesWidthAndCase() {
+        assertEquals("hello world 123", Tokenizer.normalize("Hello ＷＯＲＬＤ １２３"));
+        assertEquals(Set.of("hello", "world", "123"), Tokenizer.index("Hello, ＷＯＲＬＤ!!! １２３"));
+    }
+
+    @Test
+    void indexesCjkBigramsAndCharacters() {
+        assertEquals(Set.of("数据", "据库", "数", "据", "库"), Tokenizer.index("数据库"));
+        assertEquals(Set.of("好"), Tokenizer.index("好"));
+        // 不同文字之间、标点处切分
+        assertEquals(Set.of("java", "编程", "编", "程", "ok"), Tokenizer.index("Java编程，ok"));
+        assertEquals(Set.of("こん", "んに", "こ", "ん", "に"), Tokenizer.index("こんに"));
+    }
+
+    @Test
+    void queriesUseCoveringBigrams() {
+        assertEquals(Set.of("你好", "世界"), Tokenizer.query("你好世界"));
+        assertEquals(Set.of("你好", "好世"), Tokenizer.query("你好世"));
+        assertEquals(Set.of("你"), Tokenizer.query("你"));
+        // 查询的词都出现在索引的词中
+        assertTrue(Tokenizer.index("今天你好世界").containsAll(Tokenizer.query("你好世界")));
+    }
+
+    @Test
+    void truncatesLongWords() {
+        String word = "a".repeat(Tokenizer.MAX_WORD_LENGTH + 10);
+        assertEquals(Set.of("a".repeat(Tokenizer.MAX_WORD_LENGTH)), Tokenizer.index(word));
+    }
+
+    @Test
+    void ignoresPunctuationAndNull() {
+        assertTrue(Tokenizer.index(null).isEmpty());
+        assertTrue(Tokenizer.index("...，。!? ").isEmpty());
+        assertTrue(Tokenizer.query("---").isEmpty());
+    }
+}
@@ -0,0 +1,118 @@
+package com.chatroom.server.store;
+
+import com.chatroom.common.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * JournalChatLogStore 的会话索引：按会话分页、私聊双向、跨段读取以及重新打开后重建索引
+ */
+class JournalChatLogStoreTest {
+    @TempDir
+    Path dir;
+
+    private static long[] ids(List<ChatLogRecord> records) {
+        return records.stream().mapToLong(ChatLogRecord::getId).toArray();
+    }
+
+    /**
+     * 交替写入群聊、房间与两个人之间的私聊，返回最后一条的 ID
+     */
+    private static long fill(JournalChatLogStore store, int rounds) throws IOException {
+        long last = 0;
+        for (int i = 0; i < rounds; i++) {
+            store.append(new Message(Message.CHAT, "alice", "all " + i, null));
+            store.append(new Message(Message.ROOM_CHAT, "bob", "room " + i, "#java"));
+            store.append(new Message(Message.CHAT, "alice", "to bob " + i, "bob"));
+            last = store.append(new Message(Message.CHAT, "bob", "to alice " + i, "alice"));
+        }
+        return last;
+    }
+
+    private static void assertPaging(JournalChatLogStore store) throws IOException {
+        // 房间消息的 ID 为 2, 6, 10, ...，每页按 ID 升序
+        List<ChatLogRecord> page = store.loadBefore("#java", Long.MAX_VALUE, 3);
+        assertEquals(3, page.size());
+        assertEquals("room 99", page.get(2).getMessage().getContent());
+        assertEquals("#java", page.get(0).getMessage().getReceiver());
+        List<ChatLogRecord> older = store.loadBefore("#java", page.get(0).getId(), 3);
+        assertEquals("room 94", older.get(0).getMessage().getContent());
+        assertEquals("room 96", older.get(2).getMessage().getContent());
+
+        List<ChatLogRecord> all = store.loadBefore("ALL", 6, 10);
+        assertEquals(2, all.size());
+        assertEquals("all 0", all.get(0).getMessage().getContent());
+
+        // 私聊双方发出的都在同一页，与参数顺序无关
+        long[] forAlice = ids(store.loadPrivateBefore("alice", "bob", Long.MAX_VALUE, 4));
+        long[] forBob = ids(store.loadPrivateBefore("bob", "alice", Long.MAX_VALUE, 4));
+        assertArrayEquals(new long[] {395, 396, 399, 400}, forAlice);
+        assertArrayEquals(forAlice, forBob);
+        assertTrue(store.loadPrivateBefore("alice", "carol", Long.MAX_VALUE, 4).isEmpty());
+
+        List<ChatLogRecord> missed = store.loadAfter(List.of("#java", "alice"), 390, 399, 10);
+        assertArrayEquals(new long[] {392, 394, 396, 398}, ids(missed));
+    }
+
+    @Test
+    void pagesByConversationAndRebuildsIndexOnReopen() throws IOException {
+        JournalChatLogStore store = new JournalChatLogStore(dir, 0, 60_000);
+        try {
+            assertEquals(400, fill(store, 100));
+            assertPaging(store);
+        } finally {
+            store.shutdown();
+        }
+
+        JournalChatLogStore reopened = new JournalChatLogStore(dir, 0, 60_000);
+        try {
+            assertEquals(400, reopened.getLastId());
+            assertPaging(reopened);
+            assertEquals(401, reopened.append(new Message(Message.ROOM_CHAT, "bob", "after", "#java")));
+            assertEquals("after", reopened.loadBefore("#java", Long.MAX_VALUE, 1).get(0).getMessage().getContent());
+        } finally {
+            reopened.shutdown();
+        }
+    }
+
+    @Test
+    void readsAcrossSegments() throws IOException {
+        // 最小段大小约 2MB，写入足够多的长消息使日志跨越多个段
+        JournalChatLogStore store = new JournalChatLogStore(dir, 0, 60_000);
+        try {
+            String content = "x".repeat(200_000);
+            for (int i = 0; i < 30; i++) {
+                store.append(new Message(Message.ROOM_CHAT, "bob", i + content, "#big"));
+            }
+            try (Stream<Path> files = Files.list(dir)) {
+                assertTrue(files.filter(p -> p.toString().endsWith(".log")).count() > 1);
+            }
+            List<ChatLogRecord> page = store.loadBefore("#big", Long.MAX_VALUE, 30);
+            assertEquals(30, page.size());
+            for (int i = 0; i < 30; i++) {
+                assertTrue(page.get(i).getMessage().getContent().startsWith(i + "x"));
+            }
+            assertEquals(30, store.read(1, 100).size());
+        } finally {
+            store.shutdown();
+        }
+
+        JournalChatLogStore reopened = new JournalChatLogStore(dir, 0, 60_000);
+        try {
+            assertEquals(30, reopened.getLastId());
+            assertEquals(30, reopened.loadBefore("#big", Long.MAX_VALUE, 100).size());
+        } finally {
+            reopened.shutdown();
+        }
+    }
+}
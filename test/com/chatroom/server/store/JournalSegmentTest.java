@@ -0,0 +1,175 @@
+package com.chatroom.server.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * JournalSegment 的追加、按 ID 与时间读取，以及重新打开时的恢复与残缺记录的截断
+ */
+class JournalSegmentTest {
+    private static final int SEGMENT_SIZE = 256 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private static byte[] payload(long id, int size) {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) ('a' + id % 26));
+        byte[] tag = Long.toString(id).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(tag, 0, bytes, 0, Math.min(tag.length, size));
+        return bytes;
+    }
+
+    private static List<JournalEntry> readAll(JournalSegment segment) {
+        List<JournalEntry> out = new ArrayList<>();
+        segment.readFromId(Long.MIN_VALUE, Integer.MAX_VALUE, out);
+        return out;
+    }
+
+    private static byte[] bytes(JournalEntry entry) {
+        ByteBuffer frame = entry.getFrame();
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 直接改写段数据文件 (模拟崩溃时写了一半或损坏的记录)
+     */
+    private void overwrite(long baseId, int position, byte[] data) throws IOException {
+        try (FileChannel ch = FileChannel.open(dir.resolve(String.format("%020d.log", baseId)),
+                StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.wrap(data), position);
+        }
+    }
+
+    @Test
+    void readsByIdAndTimestamp() throws IOException {
+        JournalSegment segment = JournalSegment.create(dir, 1, SEGMENT_SIZE);
+        assertEquals(0, segment.getLastId());
+        // 每条约 1KB，跨过多个稀疏索引项
+        for (long id = 1; id <= 100; id++) {
+            assertTrue(segment.append(id, 1000 + id / 10, payload(id, 1000)));
+        }
+        assertEquals(100, segment.getLastId());
+        assertEquals(1000, segment.getFirstTimestamp());
+        assertEquals(1010, segment.getLastTimestamp());
+
+        List<JournalEntry> out = new ArrayList<>();
+        segment.readFromId(42, 5, out);
+        assertEquals(5, out.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(42 + i, out.get(i).getId());
+            assertArrayEquals(payload(42 + i, 1000), bytes(out.get(i)));
+        }
+
+        out.clear();
+        segment.readFromTimestamp(1005, 100, out);
+        // 时间戳 1005 的第一条是 ID 50
+        assertEquals(50, out.get(0).getId());
+        assertEquals(51, out.size());
+    }
+
+    @Test
+    void refusesAppendWhenFull() throws IOException {
+        JournalSegment segment = JournalSegment.create(dir, 1, 8 * 1024);
+        long id = 1;
+        while (segment.append(id, id, payload(id, 1000))) {
+            id++;
+        }
+        assertEquals(id - 1, segment.getLastId());
+        assertEquals(id - 1, readAll(segment).size());
+    }
+
+    @Test
+    void reopenRecoversWritePositionAndIndex() throws IOException {
+        JournalSegment segment = JournalSegment.create(dir, 11, SEGMENT_SIZE);
+        for (long id = 11; id <= 110; id++) {
+            segment.append(id, id, payload(id, 1500));
+        }
+        int position = segment.getWritePosition();
+        segment.force();
+
+        JournalSegment reopened = JournalSegment.open(dir, 11, SEGMENT_SIZE);
+        assertEquals(110, reopened.getLastId());
+        assertEquals(position, reopened.getWritePosition());
+        assertEquals(11, reopened.getFirstTimestamp());
+        assertEquals(110, reopened.getLastTimestamp());
+
+        List<JournalEntry> out = new ArrayList<>();
+        reopened.readFromId(77, 1, out);
+        assertEquals(77, out.get(0).getId());
+        assertArrayEquals(payload(77, 1500), bytes(out.get(0)));
+
+        // 恢复后继续追加，紧接在原来的末尾之后
+        assertTrue(reopened.append(111, 111, payload(111, 10)));
+        List<JournalEntry> all = readAll(reopened);
+        assertEquals(101, all.size());
+        assertEquals(111, all.get(100).getId());
+    }
+
+    @Test
+    void reopenOfEmptySegment() throws IOException {
+        JournalSegment.create(dir, 5, SEGMENT_SIZE).force();
+        JournalSegment reopened = JournalSegment.open(dir, 5, SEGMENT_SIZE);
+        assertEquals(4, reopened.getLastId());
+        assertEquals(0, reopened.getWritePosition());
+        assertTrue(readAll(reopened).isEmpty());
+    }
+
+    @Test
+    void truncatesPartialTailRecord() throws IOException {
+        JournalSegment segment = JournalSegment.create(dir, 1, SEGMENT_SIZE);
+        for (long id = 1; id <= 3; id++) {
+            segment.append(id, id, payload(id, 100));
+        }
+        int position = segment.getWritePosition();
+        segment.force();
+        // 长度已写入但 CRC 与内容不完整
+        overwrite(1, position, ByteBuffer.allocate(12).putInt(100).putInt(0x12345678).putInt(7).array());
+
+        JournalSegment reopened = JournalSegment.open(dir, 1, SEGMENT_SIZE);
+        assertEquals(3, reopened.getLastId());
+        assertEquals(position, reopened.getWritePosition());
+
+        // 残留的字节已清零，新追加的记录可以完整读回
+        assertTrue(reopened.append(4, 4, payload(4, 10)));
+        reopened.force();
+        JournalSegment again = JournalSegment.open(dir, 1, SEGMENT_SIZE);
+        List<JournalEntry> all = readAll(again);
+        assertEquals(4, all.size());
+        assertArrayEquals(payload(4, 10), bytes(all.get(3)));
+    }
+
+    @Test
+    void dropsRecordWithBadChecksum() throws IOException {
+        JournalSegment segment = JournalSegment.create(dir, 1, SEGMENT_SIZE);
+        segment.append(1, 1, payload(1, 100));
+        int second = segment.getWritePosition();
+        segment.append(2, 2, payload(2, 100));
+        segment.append(3, 3, payload(3, 100));
+        segment.force();
+        // 破坏第二条记录的内容，它与之后的记录都不再可信
+        overwrite(1, second + JournalSegment.RECORD_HEADER + 50, new byte[] {0x7f});
+
+        JournalSegment reopened = JournalSegment.open(dir, 1, SEGMENT_SIZE);
+        assertEquals(1, reopened.getLastId());
+        assertEquals(second, reopened.getWritePosition());
+        List<JournalEntry> all = readAll(reopened);
+        assertEquals(1, all.size());
+    }
+}
@@ -0,0 +1,244 @@
+package com.chatroom.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLTimeoutException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ConnectionPool：借出超时、借出校验、空闲回收与最大寿命，以及按连接缓存的 PreparedStatement (基于 StubDriver)
+ */
+class ConnectionPoolTest {
+    private static final String SQL = "INSERT INTO chat_logs (sender_name, content, receiver_name) VALUES (?, ?, ?)";
+    private static final String OTHER_SQL = "SELECT id FROM chat_logs WHERE id < ?";
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void setUp() {
+        StubDriver.reset();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private ConnectionPool pool(int maxSize, long borrowTimeout, long validationInterval, long idleTimeout,
+                                long maxLifetime, int statementCacheSize) {
+        pool = new ConnectionPool(StubDriver.URL, "chat", "secret", maxSize, borrowTimeout,
+                validationInterval, idleTimeout, maxLifetime, statementCacheSize);
+        return pool;
+    }
+
+    private static StubDriver.StubConnection physical(int index) {
+        return StubDriver.connections().get(index);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "等待超时");
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    void borrowTimesOutWhenPoolIsExhausted() throws Exception {
+        pool(1, 100, 60_000, 60_000, 600_000, 0);
+        Connection held = pool.getConnection();
+        long start = System.nanoTime();
+        assertThrows(SQLTimeoutException.class, pool::getConnection);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90), "应等待 borrowTimeout 后才超时");
+        assertEquals(1, pool.getTimeouts());
+
+        // 归还后再次借出复用同一个物理连接
+        held.close();
+        assertTrue(held.isClosed());
+        try (Connection again = pool.getConnection()) {
+            assertFalse(again.isClosed());
+        }
+        assertEquals(1, pool.getCreated());
+        assertEquals(1, StubDriver.connections().size());
+        assertFalse(physical(0).closed);
+    }
+
+    @Test
+    void waiterGetsConnectionReturnedBeforeTimeout() throws Exception {
+        pool(1, 5000, 60_000, 60_000, 600_000, 0);
+        Connection held = pool.getConnection();
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+                held.close();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        releaser.start();
+        try (Connection c = pool.getConnection()) {
+            assertFalse(c.isClosed());
+        }
+        releaser.join();
+        assertEquals(0, pool.getTimeouts());
+        assertEquals(1, pool.getCreated());
+    }
+
+    @Test
+    void validatesIdleConnectionOnBorrow() throws Exception {
+        // 校验间隔为 0：每次借出空闲连接前都校验
+        pool(1, 1000, 0, 60_000, 600_000, 0);
+        pool.getConnection().close();
+        physical(0).valid = false;
+
+        try (Connection c = pool.getConnection()) {
+            assertFalse(c.isClosed());
+        }
+        assertTrue(physical(0).closed, "校验失败的连接应被关闭");
+        assertEquals(2, StubDriver.connections().size());
+        assertFalse(physical(1).closed);
+        assertEquals(1, pool.getTotal());
+    }
+
+    @Test
+    void skipsValidationForRecentlyUsedConnection() throws Exception {
+        pool(1, 1000, 60_000, 60_000, 600_000, 0);
+        pool.getConnection().close();
+        physical(0).valid = false;
+
+        // 刚归还的连接不校验，直接借出
+        pool.getConnection().close();
+        assertFalse(physical(0).closed);
+        assertEquals(1, pool.getCreated());
+    }
+
+    @Test
+    void evictsIdleConnections() throws Exception {
+        pool(2, 1000, 60_000, 50, 600_000, 0);
+        Connection a = pool.getConnection();
+        Connection b = pool.getConnection();
+        a.close();
+        b.close();
+        assertEquals(2, pool.getIdle());
+
+        // 回收线程至少每秒运行一次
+        await(() -> pool.getIdle() == 0);
+        assertEquals(0, pool.getTotal());
+        assertTrue(physical(0).closed);
+        assertTrue(physical(1).closed);
+    }
+
+    @Test
+    void retiresConnectionsPastMaxLifetime() throws Exception {
+        pool(1, 1000, 60_000, 60_000, 100, 0);
+        Connection c = pool.getConnection();
+        Thread.sleep(150);
+        // 借出期间到期：归还时关闭，不回到空闲队列
+        c.close();
+        assertTrue(physical(0).closed);
+        assertEquals(0, pool.getIdle());
+        assertEquals(0, pool.getTotal());
+
+        // 空闲期间到期：下次借出时关闭 (或已被回收线程关闭)，换成新连接
+        pool.getConnection().close();
+        Thread.sleep(150);
+        try (Connection fresh = pool.getConnection()) {
+            assertFalse(fresh.isClosed());
+        }
+        assertTrue(physical(1).closed);
+        assertEquals(3, StubDriver.connections().size());
+        assertEquals(1, pool.getTotal());
+    }
+
+    @Test
+    void reusesCachedStatementAcrossBorrows() throws Exception {
+        pool(1, 1000, 60_000, 60_000, 600_000, 4);
+        try (Connection c = pool.getConnection()) {
+            c.prepareStatement(SQL).close();
+            c.prepareStatement(SQL).close();
+        }
+        try (Connection c = pool.getConnection()) {
+            PreparedStatement stmt = c.prepareStatement(SQL);
+            stmt.executeUpdate();
+            stmt.close();
+        }
+        List<StubDriver.StubStatement> statements = physical(0).statements;
+        assertEquals(1, statements.size());
+        assertFalse(statements.get(0).closed, "缓存中的语句 close() 只归还，不关闭物理语句");
+        assertEquals(2, pool.getStatementHits());
+        assertEquals(1, pool.getStatementMisses());
+    }
+
+    @Test
+    void doesNotShareStatementInUse() throws Exception {
+        pool(1, 1000, 60_000, 60_000, 600_000, 4);
+        try (Connection c = pool.getConnection()) {
+            PreparedStatement first = c.prepareStatement(SQL);
+            PreparedStatement second = c.prepareStatement(SQL);
+            assertNotSame(first, second);
+            List<StubDriver.StubStatement> statements = physical(0).statements;
+            assertEquals(2, statements.size(), "同一 SQL 的语句仍在使用中时应另建一个");
+
+            // 另建的语句不进入缓存，close() 直接关闭
+            second.close();
+            assertTrue(statements.get(1).closed);
+            assertFalse(first.isClosed());
+            assertFalse(statements.get(0).closed);
+
+            first.close();
+            assertFalse(statements.get(0).closed);
+            c.prepareStatement(SQL).close();
+            assertEquals(2, statements.size());
+        }
+        assertEquals(1, pool.getStatementHits());
+        assertEquals(2, pool.getStatementMisses());
+    }
+
+    @Test
+    void trimsCacheWithoutClosingStatementsInUse() throws Exception {
+        pool(1, 1000, 60_000, 60_000, 600_000, 1);
+        try (Connection c = pool.getConnection()) {
+            PreparedStatement a = c.prepareStatement(SQL);
+            PreparedStatement b = c.prepareStatement(OTHER_SQL);
+            List<StubDriver.StubStatement> statements = physical(0).statements;
+            // 缓存暂时超出容量，使用中的语句都不关闭
+            assertFalse(statements.get(0).closed);
+            assertFalse(statements.get(1).closed);
+            a.executeUpdate();
+
+            // a 归还后成为最久未使用且空闲的语句，被淘汰
+            a.close();
+            assertTrue(statements.get(0).closed);
+            assertFalse(statements.get(1).closed);
+            b.close();
+            assertFalse(statements.get(1).closed);
+        }
+    }
+
+    @Test
+    void statementsLeftOpenReturnWithConnection() throws Exception {
+        pool(1, 1000, 60_000, 60_000, 600_000, 4);
+        try (Connection c = pool.getConnection()) {
+            c.prepareStatement(SQL);
+        }
+        try (Connection c = pool.getConnection()) {
+            c.prepareStatement(SQL).close();
+        }
+        assertEquals(1, physical(0).statements.size());
+        assertEquals(1, pool.getStatementHits());
+    }
+}
@@ -0,0 +1,176 @@
+package com.chatroom.utils;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/**
+ * 单元测试用的 JDBC 驱动桩，接受 {@link #URL}
+ * <p>
+ * 不连接任何数据库，只记录创建过的物理连接与语句及其是否已关闭，
+ * 并允许测试把某个物理连接标记为失效 (isValid 返回 false)，用于验证 ConnectionPool 的借出、校验、回收与语句缓存。
+ * Connection 与 PreparedStatement 由动态代理实现，未涉及的方法返回 null / 0 / false。
+ * </p>
+ */
+public class StubDriver implements Driver {
+    /** 驱动接受的 URL */
+    public static final String URL = "jdbc:stub:pool";
+
+    /** 创建过的物理连接，按创建顺序 */
+    private static final List<StubConnection> CONNECTIONS = new CopyOnWriteArrayList<>();
+
+    static {
+        try {
+            DriverManager.registerDriver(new StubDriver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * 一个物理连接
+     */
+    public static final class StubConnection {
+        public volatile boolean closed;
+        /** 为 false 时 isValid 返回 false */
+        public volatile boolean valid = true;
+        /** 在该连接上创建过的物理语句 */
+        public final List<StubStatement> statements = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * 一个物理语句
+     */
+    public static final class StubStatement {
+        public final String sql;
+        public volatile boolean closed;
+
+        StubStatement(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    /**
+     * 清空记录 (每个测试开始时调用)
+     */
+    public static void reset() {
+        CONNECTIONS.clear();
+    }
+
+    /**
+     * @return 创建过的物理连接，按创建顺序
+     */
+    public static List<StubConnection> connections() {
+        return CONNECTIONS;
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        StubConnection conn = new StubConnection();
+        CONNECTIONS.add(conn);
+        boolean[] autoCommit = {true};
+        return (Connection) Proxy.newProxyInstance(StubDriver.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "prepareStatement":
+                            return statement(conn, (String) args[0]);
+                        case "close":
+                            conn.closed = true;
+                            return null;
+                        case "isClosed":
+                            return conn.closed;
+                        case "isValid":
+                            return !conn.closed && conn.valid;
+                        case "getAutoCommit":
+                            return autoCommit[0];
+                        case "setAutoCommit":
+                            autoCommit[0] = (Boolean) args[0];
+                            return null;
+                        default:
+                            return defaultValue(proxy, method.getName(), method.getReturnType(), args);
+                    }
+                });
+    }
+
+    private static PreparedStatement statement(StubConnection conn, String sql) {
+        StubStatement stmt = new StubStatement(sql);
+        conn.statements.add(stmt);
+        return (PreparedStatement) Proxy.newProxyInstance(StubDriver.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            stmt.closed = true;
+                            return null;
+                        case "isClosed":
+                            return stmt.closed;
+                        case "executeUpdate":
+                            return 1;
+                        default:
+                            return defaultValue(proxy, method.getName(), method.getReturnType(), args);
+                    }
+                });
+    }
+
+    private static Object defaultValue(Object proxy, String name, Class<?> type, Object[] args) {
+        switch (name) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "stub";
+            default:
+                break;
+        }
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return URL.equals(url);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+}